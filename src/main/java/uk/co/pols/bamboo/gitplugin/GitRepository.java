@@ -2,6 +2,7 @@ package uk.co.pols.bamboo.gitplugin;
 
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import com.atlassian.bamboo.build.logger.BuildLogger;
 import com.atlassian.bamboo.commit.Commit;
@@ -20,8 +21,10 @@ import org.apache.commons.lang.builder.CompareToBuilder;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
 
-import uk.co.pols.bamboo.gitplugin.client.CmdLineGitClient;
 import uk.co.pols.bamboo.gitplugin.client.GitClient;
+import uk.co.pols.bamboo.gitplugin.client.GitClientService;
+import uk.co.pols.bamboo.gitplugin.client.RepositoryLocks;
+import uk.co.pols.bamboo.gitplugin.client.commands.FetchOptions;
 
 public class GitRepository extends AbstractRepository implements WebRepositoryEnabledRepository {
     private final GitRepositoryConfig gitRepositoryConfig = gitRepositoryConfig();
@@ -29,9 +32,21 @@ public class GitRepository extends AbstractRepository implements WebRepositoryEn
     /*
      * This is called by bamboo when a build has been triggered to calculate the changes since the previous build.
      * It is executed on the server.  It does not get run on the intial build, so may have to handle an empty git repo
-     * when the second build is triggered
+     * when the second build is triggered.
+     *
+     * Polls of the same repository url take turns; polls of different repositories run side by side.
      */
-    public synchronized BuildChanges collectChangesSinceLastBuild(final String planKey, final String lastBuiltRevisionKey) throws RepositoryException {
+    public BuildChanges collectChangesSinceLastBuild(final String planKey, final String lastBuiltRevisionKey) throws RepositoryException {
+        final Lock lock = repositoryLocks().lockFor(gitRepositoryConfig.getRepositoryUrl());
+        lock.lock();
+        try {
+            return collectChanges(planKey, lastBuiltRevisionKey);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private BuildChanges collectChanges(final String planKey, final String lastBuiltRevisionKey) throws RepositoryException {
         final BuildLogger buildLogger = buildLoggerManager.getBuildLogger(planKey);
         final String latestRevision = gitClient().getLatestRevision(
                 gitRepositoryConfig.getRepositoryUrl(),
@@ -56,12 +71,33 @@ public class GitRepository extends AbstractRepository implements WebRepositoryEn
      * This is called by the agent to get the latest code.
      *
      * TODO: There is a race condition where the agent could check out a more recent commit from the change set
-     * detected by the build server - Yuck.
+     * detected by the build server - Yuck. A plan set to check out the exact revision doesn't have it.
+     *
+     * A shallow or partial working copy is always brought to the exact revision, since merging the branch into it
+     * could need history or objects it doesn't have. So is a worktree, which is created rather than initialised; where
+     * the agent can't make one, the working copy is set up as a repository of its own and checked out the same way.
+     *
+     * The sparse checkout paths are brought in line before the update, so a new working copy never materialises the
+     * directories the plan doesn't build. A worktree always has the whole tree, since the sparse checkout setting
+     * lives in the repository every worktree shares.
      */
     public String retrieveSourceCode(final String planKey, final String vcsRevisionKey) throws RepositoryException {
         final BuildLogger buildLogger = buildLoggerManager.getBuildLogger(planKey);
         final File sourceCodeDirectory = getSourceCodeDirectory(planKey);
 
+        if (gitRepositoryConfig.isWorktree() && vcsRevisionKey != null) {
+            final String worktreeRevision = gitClient().checkoutWorktree(
+                    buildLogger,
+                    gitRepositoryConfig.getRepositoryUrl(),
+                    gitRepositoryConfig.getBranch(),
+                    vcsRevisionKey,
+                    planKey,
+                    sourceCodeDirectory);
+            if (worktreeRevision != null) {
+                return worktreeRevision;
+            }
+        }
+
         if (isWorkspaceEmpty(sourceCodeDirectory)) {
             gitClient().initialiseRepository(
                     buildLogger,
@@ -69,11 +105,25 @@ public class GitRepository extends AbstractRepository implements WebRepositoryEn
                     gitRepositoryConfig.getBranch(),
                     sourceCodeDirectory);
         }
+        gitClient().updateSparseCheckout(buildLogger, gitRepositoryConfig.getSparsePathList(), sourceCodeDirectory);
+
+        final FetchOptions fetchOptions = gitRepositoryConfig.getFetchOptions();
+        if ((gitRepositoryConfig.isDetachedCheckout() || gitRepositoryConfig.isWorktree() || !fetchOptions.isFull()) && vcsRevisionKey != null) {
+            return gitClient().checkoutRevision(
+                    buildLogger,
+                    gitRepositoryConfig.getRepositoryUrl(),
+                    gitRepositoryConfig.getBranch(),
+                    vcsRevisionKey,
+                    fetchOptions,
+                    planKey,
+                    sourceCodeDirectory);
+        }
 
         return gitClient().pullFromRemote(
                 buildLogger,
                 gitRepositoryConfig.getRepositoryUrl(),
                 gitRepositoryConfig.getBranch(),
+                vcsRevisionKey,
                 planKey,
                 sourceCodeDirectory);
     }
@@ -138,6 +188,46 @@ public class GitRepository extends AbstractRepository implements WebRepositoryEn
         gitRepositoryConfig.setBranch(branch);
     }
 
+    public boolean isDetachedCheckout() {
+        return gitRepositoryConfig.isDetachedCheckout();
+    }
+
+    public void setDetachedCheckout(boolean detachedCheckout) {
+        gitRepositoryConfig.setDetachedCheckout(detachedCheckout);
+    }
+
+    public boolean isWorktree() {
+        return gitRepositoryConfig.isWorktree();
+    }
+
+    public void setWorktree(boolean worktree) {
+        gitRepositoryConfig.setWorktree(worktree);
+    }
+
+    public int getFetchDepth() {
+        return gitRepositoryConfig.getFetchDepth();
+    }
+
+    public void setFetchDepth(int fetchDepth) {
+        gitRepositoryConfig.setFetchDepth(fetchDepth);
+    }
+
+    public String getCloneFilter() {
+        return gitRepositoryConfig.getCloneFilter();
+    }
+
+    public void setCloneFilter(String cloneFilter) {
+        gitRepositoryConfig.setCloneFilter(cloneFilter);
+    }
+
+    public String getSparsePaths() {
+        return gitRepositoryConfig.getSparsePaths();
+    }
+
+    public void setSparsePaths(String sparsePaths) {
+        gitRepositoryConfig.setSparsePaths(sparsePaths);
+    }
+
     public boolean hasWebBasedRepositoryAccess() {
         return gitRepositoryConfig.hasWebBasedRepositoryAccess();
     }
@@ -208,7 +298,11 @@ public class GitRepository extends AbstractRepository implements WebRepositoryEn
     }
 
     protected GitClient gitClient() {
-        return new CmdLineGitClient();
+        return GitClientService.getInstance().getGitClient();
+    }
+
+    protected RepositoryLocks repositoryLocks() {
+        return GitClientService.getInstance().getRepositoryLocks();
     }
 
     protected GitRepositoryConfig gitRepositoryConfig() {
@@ -3,14 +3,17 @@ package uk.co.pols.bamboo.gitplugin;
 import static com.atlassian.bamboo.repository.AbstractRepository.WEB_REPO_URL;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import com.atlassian.bamboo.repository.Repository;
 import com.atlassian.bamboo.utils.error.ErrorCollection;
 import com.atlassian.bamboo.ww2.actions.build.admin.create.BuildConfiguration;
 import com.atlassian.bamboo.commit.CommitFile;
 import com.atlassian.bamboo.commit.Commit;
 import com.opensymphony.util.UrlUtils;
+import uk.co.pols.bamboo.gitplugin.client.commands.FetchOptions;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 
 public class GitRepositoryConfig implements Serializable {
@@ -18,18 +21,34 @@ public class GitRepositoryConfig implements Serializable {
 
     public static final String GIT_REPO_URL = REPO_PREFIX + "repositoryUrl";
     public static final String GIT_BRANCH = REPO_PREFIX + "branch";
+    public static final String GIT_DETACHED_CHECKOUT = REPO_PREFIX + "detachedCheckout";
+    public static final String GIT_WORKTREE = REPO_PREFIX + "worktree";
+    public static final String GIT_FETCH_DEPTH = REPO_PREFIX + "fetchDepth";
+    public static final String GIT_CLONE_FILTER = REPO_PREFIX + "cloneFilter";
+    public static final String GIT_SPARSE_PATHS = REPO_PREFIX + "sparsePaths";
     private static final String DEFAULT_BRANCH = "master";
+    private static final String SPARSE_PATTERN_CHARACTERS = "*?[]!\\";
 
     private String repositoryUrl;
     private String branch;
     private String webRepositoryUrl;
     private String keyFile;
     private String passphrase;
+    private boolean detachedCheckout;
+    private boolean worktree;
+    private int fetchDepth;
+    private String cloneFilter;
+    private String sparsePaths;
 
     public void populateFromConfig(HierarchicalConfiguration config) {
         repositoryUrl = config.getString(GIT_REPO_URL);
         branch = config.getString(GIT_BRANCH);
         webRepositoryUrl = config.getString(WEB_REPO_URL);
+        detachedCheckout = config.getBoolean(GIT_DETACHED_CHECKOUT, false);
+        worktree = config.getBoolean(GIT_WORKTREE, false);
+        fetchDepth = NumberUtils.toInt(StringUtils.trim(config.getString(GIT_FETCH_DEPTH)), 0);
+        cloneFilter = config.getString(GIT_CLONE_FILTER);
+        sparsePaths = config.getString(GIT_SPARSE_PATHS);
     }
 
     public String getRepositoryUrl() {
@@ -48,6 +67,77 @@ public class GitRepositoryConfig implements Serializable {
         this.branch = branch;
     }
 
+    /**
+     * @return true to check out exactly the revision being built, rather than pulling the branch into the working copy
+     */
+    public boolean isDetachedCheckout() {
+        return detachedCheckout;
+    }
+
+    public void setDetachedCheckout(boolean detachedCheckout) {
+        this.detachedCheckout = detachedCheckout;
+    }
+
+    /**
+     * @return true to make the working copy a worktree of a repository shared by every plan on the agent
+     */
+    public boolean isWorktree() {
+        return worktree;
+    }
+
+    public void setWorktree(boolean worktree) {
+        this.worktree = worktree;
+    }
+
+    /**
+     * @return how many commits of history to fetch into a working copy; 0 for all of it
+     */
+    public int getFetchDepth() {
+        return fetchDepth;
+    }
+
+    public void setFetchDepth(int fetchDepth) {
+        this.fetchDepth = fetchDepth;
+    }
+
+    /**
+     * @return the objects a working copy leaves on the remote until it needs them, e.g. "blob:none"; blank for none
+     */
+    public String getCloneFilter() {
+        return cloneFilter;
+    }
+
+    public void setCloneFilter(String cloneFilter) {
+        this.cloneFilter = StringUtils.trim(cloneFilter);
+    }
+
+    /**
+     * @return the directories, one per line, a working copy is narrowed to besides the top-level files; blank for
+     *         the whole tree
+     */
+    public String getSparsePaths() {
+        return sparsePaths;
+    }
+
+    public void setSparsePaths(String sparsePaths) {
+        this.sparsePaths = StringUtils.trim(sparsePaths);
+    }
+
+    public List<String> getSparsePathList() {
+        List<String> paths = new ArrayList<String>();
+        for (String line : StringUtils.split(StringUtils.defaultString(sparsePaths), "\r\n")) {
+            String path = StringUtils.strip(StringUtils.trim(line), "/");
+            if (path.length() > 0 && !paths.contains(path)) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    public FetchOptions getFetchOptions() {
+        return new FetchOptions(fetchDepth, cloneFilter);
+    }
+
     public String getKeyFile() {
         return StringUtils.trim(keyFile);
     }
@@ -88,6 +178,11 @@ public class GitRepositoryConfig implements Serializable {
         configuration.setProperty(GIT_REPO_URL, getRepositoryUrl());
         configuration.setProperty(GIT_BRANCH, getBranch());
         configuration.setProperty(WEB_REPO_URL, getWebRepositoryUrl());
+        configuration.setProperty(GIT_DETACHED_CHECKOUT, isDetachedCheckout());
+        configuration.setProperty(GIT_WORKTREE, isWorktree());
+        configuration.setProperty(GIT_FETCH_DEPTH, getFetchDepth());
+        configuration.setProperty(GIT_CLONE_FILTER, getCloneFilter());
+        configuration.setProperty(GIT_SPARSE_PATHS, getSparsePaths());
 
         return configuration;
     }
@@ -101,6 +196,23 @@ public class GitRepositoryConfig implements Serializable {
             errorCollection.addError(WEB_REPO_URL, "This is not a valid url");
         }
 
+        String fetchDepth = buildConfiguration.getString(GIT_FETCH_DEPTH);
+        if (!StringUtils.isBlank(fetchDepth) && !StringUtils.isNumeric(StringUtils.trim(fetchDepth))) {
+            errorCollection.addError(GIT_FETCH_DEPTH, "Please specify the number of commits to fetch, or leave it blank for the whole history");
+        }
+
+        String cloneFilter = StringUtils.trim(buildConfiguration.getString(GIT_CLONE_FILTER));
+        if (!StringUtils.isEmpty(cloneFilter) && !FetchOptions.BLOBLESS.equals(cloneFilter) && !FetchOptions.TREELESS.equals(cloneFilter)) {
+            errorCollection.addError(GIT_CLONE_FILTER, "Please choose '" + FetchOptions.BLOBLESS + "', '" + FetchOptions.TREELESS + "' or no filter");
+        }
+
+        for (String line : StringUtils.split(StringUtils.defaultString(buildConfiguration.getString(GIT_SPARSE_PATHS)), "\r\n")) {
+            if (StringUtils.containsAny(line, SPARSE_PATTERN_CHARACTERS) || StringUtils.trim(line).startsWith("#")) {
+                errorCollection.addError(GIT_SPARSE_PATHS, "Please list directories, one per line, without wildcards or other patterns");
+                break;
+            }
+        }
+
         return errorCollection;
     }
 
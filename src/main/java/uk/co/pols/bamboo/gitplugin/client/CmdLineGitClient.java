@@ -1,8 +1,17 @@
 package uk.co.pols.bamboo.gitplugin.client;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
 
 import com.atlassian.bamboo.build.logger.BuildLogger;
 import com.atlassian.bamboo.commit.Commit;
@@ -13,41 +22,314 @@ import org.apache.commons.logging.LogFactory;
 
 import uk.co.pols.bamboo.gitplugin.client.commands.*;
 
+/**
+ * Runs git on the command line. Holds no per-call state, so one instance can serve every plan at once; the shared one
+ * is owned by {@link GitClientService}.
+ */
 public class CmdLineGitClient implements GitClient {
     private static final Log log = LogFactory.getLog(CmdLineGitClient.class);
-    private GitCommandDiscoverer gitCommandDiscoverer = gitCommandDiscoverer();
+    private static final int MAX_DEEPENINGS = 4;
+
+    private final CommandExecutor commandExecutor;
+    private final RefAdvertisementCache refAdvertisementCache;
+    private final RepositoryLocks mirrorLocks;
+    private final GitToolchainRegistry toolchainRegistry;
+    private final AsyncCommandExecutor asyncCommandExecutor;
+    private final RevisionResolver revisionResolver;
+    private final ObjectLookup objectLookup;
+    private final CommitGraphCache commitGraphs = new CommitGraphCache();
+    private final ConcurrentMap<String, Boolean> refreshingSnapshots = new ConcurrentHashMap<String, Boolean>();
+
+    public CmdLineGitClient(CommandExecutor commandExecutor, RefAdvertisementCache refAdvertisementCache, RepositoryLocks mirrorLocks, GitToolchainRegistry toolchainRegistry, AsyncCommandExecutor asyncCommandExecutor, RevisionResolver revisionResolver, ObjectLookup objectLookup) {
+        this.commandExecutor = commandExecutor;
+        this.refAdvertisementCache = refAdvertisementCache;
+        this.mirrorLocks = mirrorLocks;
+        this.toolchainRegistry = toolchainRegistry;
+        this.asyncCommandExecutor = asyncCommandExecutor;
+        this.revisionResolver = revisionResolver;
+        this.objectLookup = objectLookup;
+    }
 
     public String getLatestRevision(String repositoryUrl, String branch, String planKey) throws RepositoryException {
         log.info("Checking for changes on '" + planKey + "' at '" + branch + "' @ '" + repositoryUrl + "'");
         try {
             return listRemoteCommand().getLastCommit(repositoryUrl, branch);
         } catch (IOException e) {
-            throw new RepositoryException("Could not get latest revision from remote repository '" + repositoryUrl + "'", e);
+            throw repositoryException("Could not get latest revision from remote repository '" + repositoryUrl + "'", e);
+        }
+    }
+
+    public Map<String, String> getLatestRevisions(String repositoryUrl, Collection<String> branches) throws RepositoryException {
+        log.info("Checking for changes on " + branches + " @ '" + repositoryUrl + "'");
+        try {
+            return listRemoteCommand().getLastCommits(repositoryUrl, branches);
+        } catch (IOException e) {
+            throw repositoryException("Could not get latest revisions from remote repository '" + repositoryUrl + "'", e);
+        }
+    }
+
+    /*
+     * Each repository is listed in the background so the ls-remotes overlap; they are still capped by the command
+     * executor, and a repository listed in the last few seconds is answered from the ref cache.
+     */
+    public Map<String, Map<String, String>> getLatestRevisions(Map<String, ? extends Collection<String>> branchesByRepositoryUrl) throws RepositoryException {
+        final Map<String, Future<Map<String, String>>> listings = new LinkedHashMap<String, Future<Map<String, String>>>();
+        for (final Map.Entry<String, ? extends Collection<String>> repository : branchesByRepositoryUrl.entrySet()) {
+            listings.put(repository.getKey(), asyncCommandExecutor.submit(new Callable<Map<String, String>>() {
+                public Map<String, String> call() throws IOException {
+                    return listRemoteCommand().getLastCommits(repository.getKey(), repository.getValue());
+                }
+            }));
+        }
+
+        final Map<String, Map<String, String>> revisions = new LinkedHashMap<String, Map<String, String>>();
+        for (Map.Entry<String, Future<Map<String, String>>> listing : listings.entrySet()) {
+            try {
+                revisions.put(listing.getKey(), AsyncCommandExecutor.await(listing.getValue()));
+            } catch (IOException e) {
+                for (Future<Map<String, String>> outstanding : listings.values()) {
+                    outstanding.cancel(true);
+                }
+                throw repositoryException("Could not get latest revisions from remote repository '" + listing.getKey() + "'", e);
+            }
         }
+        return revisions;
     }
 
-    public String pullFromRemote(BuildLogger buildLogger, String repositoryUrl, String branch, String planKey, File sourceCodeDirectory) throws RepositoryException {
+    /*
+     * A working copy whose last update finished at the revision wanted, and hasn't moved since, needs nothing doing,
+     * which its workspace state says without running git. A revision the working copy already holds (a rebuild, or
+     * a commit an earlier pull brought in with its parent) is checked out without going to the remote repository at all.
+     */
+    public String pullFromRemote(BuildLogger buildLogger, String repositoryUrl, String branch, String revision, String planKey, File sourceCodeDirectory) throws RepositoryException {
         log.info(buildLogger.addBuildLogEntry("Pulling changes on '" + planKey + "' from '" + branch + "' @ '" + repositoryUrl));
 
         try {
-            pullCommand(sourceCodeDirectory).pullUpdatesFromRemoteRepository(buildLogger, repositoryUrl, branch);
-            final String headRevision = logCommand(sourceCodeDirectory, null /* FIXME */).getHeadRevision(branch);
-            if (headRevision.length() < 1) {
-                throw new RepositoryException("Could not determine revision for changes pulled into '" + sourceCodeDirectory.getAbsolutePath() + "' from '" + repositoryUrl + "'.");
+            final WorkspaceState workspaceState = workspaceState(sourceCodeDirectory);
+            if (revision != null && isAlreadyAt(buildLogger, workspaceState, repositoryUrl, branch, revision, sourceCodeDirectory)) {
+                return revision;
+            }
+
+            final String updatedRevision = update(buildLogger, repositoryUrl, branch, revision, sourceCodeDirectory);
+            workspaceState.record(repositoryUrl, branch, updatedRevision);
+            refreshSnapshot(repositoryUrl, sourceCodeDirectory);
+            return updatedRevision;
+        } catch (IOException e) {
+            throw repositoryException("Could not update working dir '" + sourceCodeDirectory.getAbsolutePath() + "' from remote repository '" + repositoryUrl + "'", e);
+        }
+    }
+
+    /*
+     * The revision is only fetched when the working copy doesn't hold it already, and then only with its branch.
+     */
+    public String checkoutRevision(BuildLogger buildLogger, String repositoryUrl, String branch, String revision, FetchOptions fetchOptions, String planKey, File sourceCodeDirectory) throws RepositoryException {
+        log.info(buildLogger.addBuildLogEntry("Checking out revision '" + revision + "' on '" + planKey + "' from '" + branch + "' @ '" + repositoryUrl + "'"));
+
+        try {
+            final WorkspaceState workspaceState = workspaceState(sourceCodeDirectory);
+            if (isAlreadyAt(buildLogger, workspaceState, repositoryUrl, branch, revision, sourceCodeDirectory)) {
+                return revision;
+            }
+
+            final GitPullCommand pullCommand = pullCommand(sourceCodeDirectory);
+            final GitCheckoutCommand checkoutCommand = checkoutCommand(sourceCodeDirectory);
+            if (!hasRevision(buildLogger, pullCommand, repositoryUrl, revision, sourceCodeDirectory)) {
+                final FetchOptions supportedFetchOptions = supportedFetchOptions(buildLogger, fetchOptions, sourceCodeDirectory);
+                checkoutCommand.fetchBranch(buildLogger, repositoryUrl, branch, supportedFetchOptions);
+                if (supportedFetchOptions.isShallow()) {
+                    deepenUntilItHas(buildLogger, pullCommand, checkoutCommand, repositoryUrl, branch, revision, supportedFetchOptions);
+                }
+            }
+            checkoutCommand.checkoutDetached(buildLogger, revision);
+            submoduleCommand(sourceCodeDirectory).update(buildLogger);
+            workspaceState.record(repositoryUrl, branch, revision);
+            if (fetchOptions.isFull()) {
+                refreshSnapshot(repositoryUrl, sourceCodeDirectory);
+            }
+            return revision;
+        } catch (IOException e) {
+            throw repositoryException("Could not check out revision '" + revision + "' in working dir '" + sourceCodeDirectory.getAbsolutePath() + "' from remote repository '" + repositoryUrl + "'", e);
+        }
+    }
+
+    /*
+     * The shared repository is the agent's object cache for the url. Fetching into it, adding worktrees and pruning
+     * them take turns, in this JVM and with other agents on the machine; checking a revision out in a worktree that
+     * already exists only touches that worktree, so it doesn't wait. Where there can't be a worktree nothing is done
+     * here, so the caller sets the working copy up like any other, with the plan's own fetch options.
+     */
+    public String checkoutWorktree(BuildLogger buildLogger, String repositoryUrl, String branch, String revision, String planKey, File sourceCodeDirectory) throws RepositoryException {
+        final GitObjectCacheCommand objectCacheCommand = objectCacheCommand();
+        if (objectCacheCommand == null || !toolchain().supportsWorktrees()) {
+            log.warn(buildLogger.addBuildLogEntry("Worktree workspaces need git 2.5 or later and an object cache (-D" + ExecutorGitObjectCacheCommand.GIT_OBJECT_CACHE_DIR + "), so '" + sourceCodeDirectory.getAbsolutePath() + "' is a repository of its own."));
+            return null;
+        }
+        log.info(buildLogger.addBuildLogEntry("Checking out revision '" + revision + "' on '" + planKey + "' from '" + branch + "' @ '" + repositoryUrl + "' into a worktree"));
+
+        try {
+            final WorkspaceState workspaceState = workspaceState(sourceCodeDirectory);
+            if (isAlreadyAt(buildLogger, workspaceState, repositoryUrl, branch, revision, sourceCodeDirectory)) {
+                return revision;
+            }
+
+            final File cacheDirectory = objectCacheCommand.cacheDirectoryFor(repositoryUrl);
+            final GitWorktreeCommand worktreeCommand = worktreeCommand(cacheDirectory);
+            final boolean isWorktree = worktreeCommand.isWorktree(sourceCodeDirectory);
+            if (!isWorktree && worktreeCommand.isRepository(sourceCodeDirectory)) {
+                log.info(buildLogger.addBuildLogEntry("'" + sourceCodeDirectory.getAbsolutePath() + "' is already a repository of its own; clean the working directory to make it a worktree."));
+                return null;
+            }
+
+            final Lock lock = mirrorLocks.lockFor(repositoryUrl);
+            lock.lock();
+            try {
+                final Closeable cacheLock = objectCacheCommand.lock(repositoryUrl);
+                try {
+                    if (!objectLookup.hasObject(cacheDirectory, revision)) {
+                        objectCacheCommand.update(buildLogger, repositoryUrl);
+                    }
+                    worktreeCommand.prune(buildLogger);
+                    if (!isWorktree) {
+                        worktreeCommand.add(buildLogger, sourceCodeDirectory, revision);
+                    }
+                } finally {
+                    cacheLock.close();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (isWorktree) {
+                checkoutCommand(sourceCodeDirectory).checkoutDetached(buildLogger, revision);
+            }
+            submoduleCommand(sourceCodeDirectory).update(buildLogger);
+            workspaceState.record(repositoryUrl, branch, revision);
+            return revision;
+        } catch (IOException e) {
+            throw repositoryException("Could not check out revision '" + revision + "' in worktree '" + sourceCodeDirectory.getAbsolutePath() + "' of remote repository '" + repositoryUrl + "'", e);
+        }
+    }
+
+    /*
+     * A git too old for partial clones still fetches as deep as the plan asks, just every object.
+     */
+    private FetchOptions supportedFetchOptions(BuildLogger buildLogger, FetchOptions fetchOptions, File sourceCodeDirectory) {
+        if (fetchOptions.getFilter() == null || toolchain().supportsPartialClone()) {
+            return fetchOptions;
+        }
+        log.warn(buildLogger.addBuildLogEntry("Partial clones need git 2.19 or later, so '" + sourceCodeDirectory.getAbsolutePath() + "' fetches every object."));
+        return new FetchOptions(fetchOptions.getDepth(), null);
+    }
+
+    /*
+     * A revision further back than a shallow fetch reaches (the branch moved on again before the build started) is
+     * looked for with twice as much history each time, and in the end with all of it.
+     */
+    private void deepenUntilItHas(BuildLogger buildLogger, GitPullCommand pullCommand, GitCheckoutCommand checkoutCommand, String repositoryUrl, String branch, String revision, FetchOptions fetchOptions) throws IOException {
+        int depth = fetchOptions.getDepth();
+        for (int deepenings = 0; !pullCommand.hasRevision(revision); deepenings++) {
+            if (deepenings == MAX_DEEPENINGS) {
+                checkoutCommand.deepenBranch(buildLogger, repositoryUrl, branch, fetchOptions, 0);
+                return;
+            }
+            depth = depth > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : depth * 2;
+            checkoutCommand.deepenBranch(buildLogger, repositoryUrl, branch, fetchOptions, depth);
+        }
+    }
+
+    /*
+     * A revision the working copy doesn't hold may be in the agent's object cache, once that has been brought up to
+     * date, in which case there is nothing left to fetch.
+     */
+    private boolean hasRevision(BuildLogger buildLogger, GitPullCommand pullCommand, String repositoryUrl, String revision, File sourceCodeDirectory) throws IOException {
+        if (pullCommand.hasRevision(revision)) {
+            return true;
+        }
+        return shareObjectCache(buildLogger, repositoryUrl, sourceCodeDirectory) != null && pullCommand.hasRevision(revision);
+    }
+
+    /*
+     * The cache only saves fetching, so a working copy that can't use it fetches everything itself. A null working
+     * copy only brings the cache up to date, for a submodule to be cloned from.
+     */
+    private File shareObjectCache(BuildLogger buildLogger, String repositoryUrl, File sourceCodeDirectory) {
+        final GitObjectCacheCommand objectCacheCommand = objectCacheCommand();
+        if (objectCacheCommand == null) {
+            return null;
+        }
+        final Lock lock = mirrorLocks.lockFor(repositoryUrl);
+        lock.lock();
+        try {
+            final Closeable cacheLock = objectCacheCommand.lock(repositoryUrl);
+            try {
+                final File cacheDirectory = objectCacheCommand.update(buildLogger, repositoryUrl);
+                if (sourceCodeDirectory != null) {
+                    objectCacheCommand.share(cacheDirectory, sourceCodeDirectory);
+                }
+                return cacheDirectory;
+            } finally {
+                cacheLock.close();
             }
-            return headRevision;
         } catch (IOException e) {
-            throw new RepositoryException("Could not update working dir '" + sourceCodeDirectory.getAbsolutePath() + "' from remote repository '" + repositoryUrl + "'", e);
+            log.warn(buildLogger.addBuildLogEntry("Could not use the object cache of '" + repositoryUrl + "', fetching from the remote repository instead: " + e.getMessage()), e);
+            return null;
+        } finally {
+            lock.unlock();
         }
     }
 
+    private boolean isAlreadyAt(BuildLogger buildLogger, WorkspaceState workspaceState, String repositoryUrl, String branch, String revision, File sourceCodeDirectory) throws IOException {
+        if (workspaceState.isAt(repositoryUrl, branch, revision)) {
+            log.info(buildLogger.addBuildLogEntry("'" + sourceCodeDirectory.getAbsolutePath() + "' is already at revision '" + revision + "', not fetching."));
+            return true;
+        }
+        return false;
+    }
+
+    private String update(BuildLogger buildLogger, String repositoryUrl, String branch, String revision, File sourceCodeDirectory) throws IOException, RepositoryException {
+        final GitPullCommand pullCommand = pullCommand(sourceCodeDirectory);
+        if (revision == null) {
+            shareObjectCache(buildLogger, repositoryUrl, sourceCodeDirectory);
+        } else if (hasRevision(buildLogger, pullCommand, repositoryUrl, revision, sourceCodeDirectory)) {
+            String checkedOut = revision;
+            if (!pullCommand.isAtRevision(revision)) {
+                checkedOut = pullCommand.checkoutLocalRevision(buildLogger, revision);
+            }
+            submoduleCommand(sourceCodeDirectory).update(buildLogger);
+            return checkedOut;
+        }
+
+        pullCommand.pullUpdatesFromRemoteRepository(buildLogger, repositoryUrl, branch);
+        submoduleCommand(sourceCodeDirectory).update(buildLogger);
+        final String headRevision = logCommand(sourceCodeDirectory, null /* FIXME */).getHeadRevision(branch);
+        if (headRevision.length() < 1) {
+            throw new RepositoryException("Could not determine revision for changes pulled into '" + sourceCodeDirectory.getAbsolutePath() + "' from '" + repositoryUrl + "'.");
+        }
+        return headRevision;
+    }
+
+    /*
+     * The history comes from a local mirror of the remote repository, whatever protocol it is served over. If the
+     * mirror can't be brought up to date we fall back to asking the remote repository directly.
+     */
     public List<Commit> getChangesSince(BuildLogger buildLogger, String repositoryUrl, String branch, String planKey, String fromRevision) throws RepositoryException {
         log.info(buildLogger.addBuildLogEntry("Getting changes on '" + planKey + "' at '" + branch + "' @ '" + repositoryUrl + "' since commit '" + fromRevision + "'"));
+        final Lock lock = mirrorLocks.lockFor(repositoryUrl);
+        lock.lock();
+        try {
+            final File mirrorDirectory = mirrorCommand().update(buildLogger, repositoryUrl);
+            return mirrorLogCommand(mirrorDirectory, branch, fromRevision).extractCommits();
+        } catch (IOException e) {
+            log.warn(buildLogger.addBuildLogEntry("Could not read the history from the mirror of '" + repositoryUrl + "', asking the remote repository instead: " + e.getMessage()), e);
+        } finally {
+            lock.unlock();
+        }
+
         try
         {
             return remoteLogCommand(repositoryUrl, branch, fromRevision).extractCommits();
         } catch (IOException e) {
-            throw new RepositoryException("Failed to get history from remote repo", e);
+            throw repositoryException("Failed to get history from remote repo", e);
         }
     }
 
@@ -58,36 +340,167 @@ public class CmdLineGitClient implements GitClient {
             initCommand(sourceCodeDirectory).init(buildLogger);
             remoteCommand(sourceCodeDirectory).add_origin(repositoryUrl, branch, buildLogger);
         } catch (IOException e) {
-            throw new RepositoryException("Failed to initialise repository", e);
+            throw repositoryException("Failed to initialise repository", e);
+        }
+        restoreSnapshot(buildLogger, repositoryUrl, sourceCodeDirectory);
+    }
+
+    /*
+     * The snapshot only saves fetching, so a working copy it can't be restored into fetches everything itself.
+     */
+    private void restoreSnapshot(BuildLogger buildLogger, String repositoryUrl, File sourceCodeDirectory) {
+        final GitSnapshotCommand snapshotCommand = snapshotCommand();
+        if (snapshotCommand == null) {
+            return;
+        }
+        try {
+            snapshotCommand.restore(buildLogger, repositoryUrl, sourceCodeDirectory);
+        } catch (IOException e) {
+            log.warn(buildLogger.addBuildLogEntry("Could not restore '" + sourceCodeDirectory.getAbsolutePath() + "' from the snapshot of '" + repositoryUrl + "', fetching everything from the remote repository instead: " + e.getMessage()), e);
+        }
+    }
+
+    /*
+     * A snapshot is taken from a working copy that has just been brought up to date, once the last one has got too
+     * old. It is taken in the background so the build doesn't wait for it, one at a time for each repository. A
+     * pull has no fetch options to say whether the working copy holds the whole history, so the working copy itself
+     * is asked; a shallow one or a partial clone is left alone.
+     */
+    private void refreshSnapshot(final String repositoryUrl, final File sourceCodeDirectory) {
+        final GitSnapshotCommand snapshotCommand = snapshotCommand();
+        if (snapshotCommand == null || !snapshotCommand.isStale(repositoryUrl) || !snapshotCommand.isComplete(sourceCodeDirectory) || refreshingSnapshots.putIfAbsent(repositoryUrl, Boolean.TRUE) != null) {
+            return;
+        }
+        asyncCommandExecutor.submit(new Callable<Object>() {
+            public Object call() {
+                try {
+                    snapshotCommand.refresh(repositoryUrl, sourceCodeDirectory);
+                } catch (IOException e) {
+                    log.warn("Could not refresh the snapshot of '" + repositoryUrl + "': " + e.getMessage(), e);
+                } finally {
+                    refreshingSnapshots.remove(repositoryUrl);
+                }
+                return null;
+            }
+        });
+    }
+
+    /*
+     * The paths the working tree was last narrowed to are kept in the workspace state, so git is only run when the
+     * plan's list changes.
+     */
+    public void updateSparseCheckout(BuildLogger buildLogger, List<String> sparsePaths, File sourceCodeDirectory) throws RepositoryException {
+        try {
+            final WorkspaceState workspaceState = workspaceState(sourceCodeDirectory);
+            if (workspaceState.hasSparsePaths(sparsePaths)) {
+                return;
+            }
+            if (!toolchain().supportsSparseCheckout()) {
+                log.warn(buildLogger.addBuildLogEntry("Sparse checkout needs git 2.25 or later, so '" + sourceCodeDirectory.getAbsolutePath() + "' has the whole working tree."));
+                return;
+            }
+
+            final GitSparseCheckoutCommand sparseCheckoutCommand = sparseCheckoutCommand(sourceCodeDirectory);
+            if (sparsePaths.isEmpty()) {
+                sparseCheckoutCommand.disable(buildLogger);
+            } else {
+                sparseCheckoutCommand.set(buildLogger, sparsePaths);
+            }
+            workspaceState.recordSparsePaths(sparsePaths);
+        } catch (IOException e) {
+            throw repositoryException("Could not change the sparse checkout of working dir '" + sourceCodeDirectory.getAbsolutePath() + "'", e);
+        }
+    }
+
+    /*
+     * A command killed for running too long says so in the message, so it can be told apart from git failing.
+     */
+    private RepositoryException repositoryException(String message, IOException e) {
+        if (e instanceof GitCommandTimeoutException) {
+            return new RepositoryException(message + ": " + e.getMessage(), e);
         }
+        return new RepositoryException(message, e);
     }
 
     protected GitPullCommand pullCommand(File sourceCodeDirectory) {
-        return new ExecutorGitPullCommand(gitCommandDiscoverer.gitCommand(), sourceCodeDirectory, new AntCommandExecutor());
+        return new ExecutorGitPullCommand(gitExe(), sourceCodeDirectory, commandExecutor, objectLookup, revisionResolver);
+    }
+
+    protected WorkspaceState workspaceState(File sourceCodeDirectory) {
+        return new FileWorkspaceState(sourceCodeDirectory, revisionResolver);
+    }
+
+    protected GitCheckoutCommand checkoutCommand(File sourceCodeDirectory) {
+        return new ExecutorGitCheckoutCommand(gitExe(), sourceCodeDirectory, commandExecutor);
+    }
+
+    protected GitSparseCheckoutCommand sparseCheckoutCommand(File sourceCodeDirectory) {
+        return new ExecutorGitSparseCheckoutCommand(gitExe(), sourceCodeDirectory, commandExecutor);
+    }
+
+    protected GitSubmoduleCommand submoduleCommand(File sourceCodeDirectory) {
+        final SharedObjectCache sharedObjectCache = objectCacheCommand() == null ? null : new SharedObjectCache() {
+            public File share(BuildLogger buildLogger, String repositoryUrl, File submoduleDirectory) {
+                return shareObjectCache(buildLogger, repositoryUrl, submoduleDirectory);
+            }
+        };
+        return new ExecutorGitSubmoduleCommand(gitExe(), sourceCodeDirectory, commandExecutor, asyncCommandExecutor, revisionResolver, sharedObjectCache);
+    }
+
+    /**
+     * @return null if this machine keeps no object cache
+     */
+    protected GitObjectCacheCommand objectCacheCommand() {
+        final File cachesDirectory = ExecutorGitObjectCacheCommand.configuredCachesDirectory();
+        return cachesDirectory == null ? null : new ExecutorGitObjectCacheCommand(gitExe(), cachesDirectory, commandExecutor);
+    }
+
+    /**
+     * @return null if this machine keeps no snapshots
+     */
+    protected GitSnapshotCommand snapshotCommand() {
+        final File snapshotsDirectory = ExecutorGitSnapshotCommand.configuredSnapshotsDirectory();
+        return snapshotsDirectory == null ? null : new ExecutorGitSnapshotCommand(gitExe(), snapshotsDirectory, ExecutorGitSnapshotCommand.configuredMaxAgeMillis(), commandExecutor);
+    }
+
+    protected GitWorktreeCommand worktreeCommand(File repositoryDirectory) {
+        return new ExecutorGitWorktreeCommand(gitExe(), repositoryDirectory, commandExecutor);
     }
 
     protected GitListRemoteCommand listRemoteCommand() {
-        return new ExecutorGitListRemoteCommand(gitCommandDiscoverer.gitCommand(), new AntCommandExecutor());
+        return new ExecutorGitListRemoteCommand(gitExe(), commandExecutor, refAdvertisementCache);
     }
 
     protected GitLogCommand logCommand(File sourceCodeDirectory, String lastRevisionChecked) {
-        return new ExecutorGitLogCommand(gitCommandDiscoverer.gitCommand(), sourceCodeDirectory, lastRevisionChecked, new AntCommandExecutor());
+        return new ExecutorGitLogCommand(gitExe(), sourceCodeDirectory, lastRevisionChecked, commandExecutor, revisionResolver);
     }
 
     protected GitLogCommand remoteLogCommand(String repositoryUrl, String branch, String lastRevisionChecked)
     {
-        return new ExecutorRemoteGitLogCommand(repositoryUrl, branch, lastRevisionChecked, new AntCommandExecutor());
+        return new ExecutorRemoteGitLogCommand(repositoryUrl, branch, lastRevisionChecked, commandExecutor);
+    }
+
+    protected GitMirrorCommand mirrorCommand() {
+        return new ExecutorGitMirrorCommand(toolchain(), ExecutorGitMirrorCommand.configuredMirrorsDirectory(), commandExecutor);
+    }
+
+    protected GitLogCommand mirrorLogCommand(File mirrorDirectory, String branch, String lastRevisionChecked) {
+        return new ExecutorMirrorGitLogCommand(gitExe(), mirrorDirectory, branch, lastRevisionChecked, commandExecutor, revisionResolver, commitGraphs);
     }
 
     protected GitInitCommand initCommand(File sourceCodeDirectory) {
-        return new ExecutorGitInitCommand(gitCommandDiscoverer.gitCommand(), sourceCodeDirectory, new AntCommandExecutor());
+        return new ExecutorGitInitCommand(gitExe(), sourceCodeDirectory, commandExecutor);
     }
 
     protected GitRemoteCommand remoteCommand(File sourceCodeDirectory) {
-        return new ExecutorGitRemoteCommand(gitCommandDiscoverer.gitCommand(), sourceCodeDirectory, new AntCommandExecutor());
+        return new ExecutorGitRemoteCommand(gitExe(), sourceCodeDirectory, commandExecutor);
+    }
+
+    protected GitToolchain toolchain() {
+        return toolchainRegistry.toolchain();
     }
 
-    protected GitCommandDiscoverer gitCommandDiscoverer() {
-        return new BestGuessGitCommandDiscoverer(new AntCommandExecutor());
+    private String gitExe() {
+        return toolchain().getGitExe();
     }
 }
\ No newline at end of file
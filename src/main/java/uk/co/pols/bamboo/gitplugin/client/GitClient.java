@@ -5,16 +5,55 @@ import com.atlassian.bamboo.repository.RepositoryException;
 import com.atlassian.bamboo.commit.Commit;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import uk.co.pols.bamboo.gitplugin.GitRepositoryConfig;
+import uk.co.pols.bamboo.gitplugin.client.commands.FetchOptions;
 
 public interface GitClient {
     void initialiseRepository(BuildLogger buildLogger, String gitRepositoryConfig, String branch, File sourceCodeDirectory) throws RepositoryException;
 
     String getLatestRevision(String repositoryUrl, String branch, String planKey) throws RepositoryException;
 
-    String pullFromRemote(BuildLogger buildLogger, String repositoryUrl, String branch, String planKey, File sourceCodeDirectory) throws RepositoryException;
+    Map<String, String> getLatestRevisions(String repositoryUrl, Collection<String> branches) throws RepositoryException;
+
+    /**
+     * Lists several repositories at once, for when many plans poll together.
+     *
+     * @return the latest revision of each branch, keyed by repository url and then branch
+     */
+    Map<String, Map<String, String>> getLatestRevisions(Map<String, ? extends Collection<String>> branchesByRepositoryUrl) throws RepositoryException;
+
+    /**
+     * @param revision the revision the build is for; null to take whatever the branch is at
+     * @return the revision the working copy is at afterwards
+     */
+    String pullFromRemote(BuildLogger buildLogger, String repositoryUrl, String branch, String revision, String planKey, File sourceCodeDirectory) throws RepositoryException;
+
+    /**
+     * Puts the working copy at exactly the revision, with a detached HEAD, rather than merging in the branch.
+     *
+     * @param fetchOptions how much history, and which objects, to fetch if the working copy doesn't have the revision
+     * @return the revision
+     */
+    String checkoutRevision(BuildLogger buildLogger, String repositoryUrl, String branch, String revision, FetchOptions fetchOptions, String planKey, File sourceCodeDirectory) throws RepositoryException;
+
+    /**
+     * Like {@link #checkoutRevision}, but the working copy is a worktree of a repository every plan on the agent
+     * building the same url shares.
+     *
+     * @return the revision, or null if the working copy can't be a worktree (no object cache, a git older than 2.5,
+     *         or a repository of its own already there), in which case nothing has been done to it
+     */
+    String checkoutWorktree(BuildLogger buildLogger, String repositoryUrl, String branch, String revision, String planKey, File sourceCodeDirectory) throws RepositoryException;
+
+    /**
+     * Narrows the working tree to the top-level files and the given directories, or brings all of it back when
+     * there are none.
+     */
+    void updateSparseCheckout(BuildLogger buildLogger, List<String> sparsePaths, File sourceCodeDirectory) throws RepositoryException;
 
     List<Commit> getChangesSince(BuildLogger buildLogger, String repositoryUrl, String branch, String planKey, String fromRevision) throws RepositoryException;
 }
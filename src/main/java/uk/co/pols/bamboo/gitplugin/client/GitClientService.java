@@ -0,0 +1,107 @@
+package uk.co.pols.bamboo.gitplugin.client;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import uk.co.pols.bamboo.gitplugin.client.commands.AsyncCommandExecutor;
+import uk.co.pols.bamboo.gitplugin.client.commands.BestGuessGitCommandDiscoverer;
+import uk.co.pols.bamboo.gitplugin.client.commands.BoundedCommandExecutor;
+import uk.co.pols.bamboo.gitplugin.client.commands.CatFileBatchPool;
+import uk.co.pols.bamboo.gitplugin.client.commands.CommandExecutor;
+import uk.co.pols.bamboo.gitplugin.client.commands.CommandMetrics;
+import uk.co.pols.bamboo.gitplugin.client.commands.GitToolchainRegistry;
+import uk.co.pols.bamboo.gitplugin.client.commands.LocalObjectLookup;
+import uk.co.pols.bamboo.gitplugin.client.commands.MeteredCommandExecutor;
+import uk.co.pols.bamboo.gitplugin.client.commands.ProcessBuilderCommandExecutor;
+import uk.co.pols.bamboo.gitplugin.client.commands.RefAdvertisementCache;
+import uk.co.pols.bamboo.gitplugin.client.commands.RefFileResolver;
+
+/**
+ * The one git client each Bamboo server or agent JVM uses, along with everything it shares between plans: the
+ * command executors, the cache of remote refs, the git cat-file processes, the repository and mirror locks, the git
+ * toolchain and the command metrics.
+ * <p/>
+ * It is created the first time it's needed and shut down by {@link #shutdownInstance()} when the plugin is disabled,
+ * through {@link GitClientServiceModuleDescriptor}; the next caller after that gets a fresh service. Nothing is
+ * registered with the JVM, so a disabled or reloaded plugin leaves nothing behind holding on to its classes.
+ */
+public class GitClientService {
+    private static final Log log = LogFactory.getLog(GitClientService.class);
+
+    private static GitClientService instance;
+
+    private final CommandMetrics metrics = new CommandMetrics();
+    private final ProcessBuilderCommandExecutor processes;
+    private final RefAdvertisementCache refAdvertisementCache;
+    private final RepositoryLocks repositoryLocks = new RepositoryLocks();
+    private final GitToolchainRegistry toolchainRegistry;
+    private final AsyncCommandExecutor asyncCommandExecutor;
+    private final CatFileBatchPool catFileBatchPool;
+    private final GitClient gitClient;
+    private volatile boolean shutdown = false;
+
+    /**
+     * @param processes runs the git processes, directly and behind commandExecutor, and is shut down with the service
+     */
+    public GitClientService(ProcessBuilderCommandExecutor processes, CommandExecutor commandExecutor, RefAdvertisementCache refAdvertisementCache) {
+        this.processes = processes;
+        CommandExecutor meteredExecutor = new MeteredCommandExecutor(commandExecutor, metrics);
+        this.refAdvertisementCache = refAdvertisementCache;
+        this.toolchainRegistry = new GitToolchainRegistry(new BestGuessGitCommandDiscoverer(meteredExecutor), meteredExecutor);
+        this.asyncCommandExecutor = AsyncCommandExecutor.create(meteredExecutor, BoundedCommandExecutor.configuredMaxProcesses());
+        this.catFileBatchPool = new CatFileBatchPool(toolchainRegistry, processes, CatFileBatchPool.configuredIdleTimeoutMillis(), CatFileBatchPool.configuredMaxIdle());
+        this.gitClient = new CmdLineGitClient(meteredExecutor, refAdvertisementCache, new RepositoryLocks(), toolchainRegistry, asyncCommandExecutor, new RefFileResolver(catFileBatchPool), new LocalObjectLookup());
+    }
+
+    public static synchronized GitClientService getInstance() {
+        if (instance == null) {
+            ProcessBuilderCommandExecutor processes = new ProcessBuilderCommandExecutor();
+            instance = new GitClientService(processes,
+                    new BoundedCommandExecutor(processes, BoundedCommandExecutor.configuredMaxProcesses()),
+                    new RefAdvertisementCache(RefAdvertisementCache.configuredTimeToLiveMillis()));
+        }
+        return instance;
+    }
+
+    public static synchronized void shutdownInstance() {
+        if (instance != null) {
+            instance.shutdown();
+            instance = null;
+        }
+    }
+
+    public GitClient getGitClient() {
+        if (shutdown) {
+            throw new IllegalStateException("The git client service has been shut down.");
+        }
+        return gitClient;
+    }
+
+    /**
+     * @return the locks that make work against the same repository url take turns
+     */
+    public RepositoryLocks getRepositoryLocks() {
+        return repositoryLocks;
+    }
+
+    public CommandMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public void shutdown() {
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        asyncCommandExecutor.shutdown();
+        catFileBatchPool.shutdown();
+        processes.shutdown();
+        refAdvertisementCache.clear();
+        toolchainRegistry.reset();
+        log.info("Git client service shut down after " + metrics);
+    }
+}
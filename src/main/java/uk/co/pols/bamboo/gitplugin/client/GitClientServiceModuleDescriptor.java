@@ -0,0 +1,18 @@
+package uk.co.pols.bamboo.gitplugin.client;
+
+import com.atlassian.plugin.descriptors.AbstractModuleDescriptor;
+
+/**
+ * Ties the shared {@link GitClientService} to the plugin's lifecycle: when the plugin is disabled, uninstalled or
+ * reloaded, the service's threads and git processes are stopped and the service is dropped.
+ */
+public class GitClientServiceModuleDescriptor extends AbstractModuleDescriptor<GitClientService> {
+    public GitClientService getModule() {
+        return GitClientService.getInstance();
+    }
+
+    public void disabled() {
+        GitClientService.shutdownInstance();
+        super.disabled();
+    }
+}
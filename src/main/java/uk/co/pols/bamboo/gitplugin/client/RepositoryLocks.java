@@ -0,0 +1,26 @@
+package uk.co.pols.bamboo.gitplugin.client;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One lock per repository url, so work against different repositories runs side by side while work against the
+ * same repository takes turns (and so can pick up what the previous caller left in the caches).
+ */
+public class RepositoryLocks {
+    private final ConcurrentMap<String, Lock> locks = new ConcurrentHashMap<String, Lock>();
+
+    public Lock lockFor(String repositoryUrl) {
+        Lock lock = locks.get(repositoryUrl);
+        if (lock == null) {
+            Lock newLock = new ReentrantLock();
+            lock = locks.putIfAbsent(repositoryUrl, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+}
@@ -0,0 +1,126 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs commands (or any work that runs commands) in the background and hands back a Future, so independent git
+ * commands can overlap instead of queueing on the calling thread.
+ * <p/>
+ * On a JVM with virtual threads each piece of work gets one; otherwise it runs on a pool of daemon threads no bigger
+ * than the number of git processes allowed at once, since that is all that could run anyway.
+ */
+public class AsyncCommandExecutor {
+    private static final Log log = LogFactory.getLog(AsyncCommandExecutor.class);
+
+    private final CommandExecutor commandExecutor;
+    private final ExecutorService executorService;
+
+    public AsyncCommandExecutor(CommandExecutor commandExecutor, ExecutorService executorService) {
+        this.commandExecutor = commandExecutor;
+        this.executorService = executorService;
+    }
+
+    public static AsyncCommandExecutor create(CommandExecutor commandExecutor, int poolSize) {
+        return new AsyncCommandExecutor(commandExecutor, createExecutorService(poolSize));
+    }
+
+    public Future<String> submit(final String[] commandLine, final File sourceCodeDirectory) {
+        return submit(new Callable<String>() {
+            public String call() throws IOException {
+                return commandExecutor.execute(commandLine, sourceCodeDirectory);
+            }
+        });
+    }
+
+    public Future<CommandResult> submit(final String[] commandLine, final File sourceCodeDirectory, final OutputHandler outputHandler) {
+        return submit(new Callable<CommandResult>() {
+            public CommandResult call() throws IOException {
+                return commandExecutor.execute(commandLine, sourceCodeDirectory, outputHandler);
+            }
+        });
+    }
+
+    public <T> Future<T> submit(Callable<T> work) {
+        return executorService.submit(work);
+    }
+
+    /**
+     * Waits for the work and hands back its result, unwrapping an IOException it threw. Interrupting the wait cancels
+     * the work, which kills any command it is running.
+     */
+    public static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a git command");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Stops taking new work, cancels what's running and waits briefly for it to stop.
+     */
+    public void shutdown() {
+        executorService.shutdownNow();
+        try {
+            if (!executorService.awaitTermination(10, TimeUnit.SECONDS)) {
+                log.warn("Some git commands were still running at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService createExecutorService(int poolSize) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger threads = new AtomicInteger();
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "git-command-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            allowCoreThreadTimeOut(pool);
+            return pool;
+        }
+    }
+
+    /*
+     * Lets a pool's idle threads stop on a Java 6 or later JVM, and leaves them running on Java 5, which can't.
+     */
+    static void allowCoreThreadTimeOut(ThreadPoolExecutor pool) {
+        try {
+            ThreadPoolExecutor.class.getMethod("allowCoreThreadTimeOut", boolean.class).invoke(pool, Boolean.TRUE);
+        } catch (Exception e) {
+            log.debug("Idle git command threads will keep running until shutdown", e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps how many commands run at once; callers over the limit wait their turn.
+ * <p/>
+ * Set -DGIT_MAX_PROCESSES=n when starting Bamboo to change the limit.
+ */
+public class BoundedCommandExecutor implements CommandExecutor {
+    public static final String GIT_MAX_PROCESSES = "GIT_MAX_PROCESSES";
+    public static final int DEFAULT_MAX_PROCESSES = 8;
+
+    private final CommandExecutor commandExecutor;
+    private final Semaphore permits;
+
+    public BoundedCommandExecutor(CommandExecutor commandExecutor, int maxProcesses) {
+        this.commandExecutor = commandExecutor;
+        this.permits = new Semaphore(maxProcesses, true);
+    }
+
+    public static int configuredMaxProcesses() {
+        return Math.max(1, SystemProperties.nonNegativeInt(GIT_MAX_PROCESSES, DEFAULT_MAX_PROCESSES));
+    }
+
+    public String execute(String[] commandLine, File sourceCodeDirectory) throws IOException {
+        acquire(commandLine);
+        try {
+            return commandExecutor.execute(commandLine, sourceCodeDirectory);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public CommandResult run(String[] commandLine, File sourceCodeDirectory) throws IOException {
+        acquire(commandLine);
+        try {
+            return commandExecutor.run(commandLine, sourceCodeDirectory);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public CommandResult execute(String[] commandLine, File sourceCodeDirectory, OutputHandler outputHandler) throws IOException {
+        acquire(commandLine);
+        try {
+            return commandExecutor.execute(commandLine, sourceCodeDirectory, outputHandler);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int run(String[] commandLine, File sourceCodeDirectory, OutputStream output, OutputStream errorOutput) throws IOException {
+        acquire(commandLine);
+        try {
+            return commandExecutor.run(commandLine, sourceCodeDirectory, output, errorOutput);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void acquire(String[] commandLine) throws InterruptedIOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to run '" + commandLine[0] + "'");
+        }
+    }
+}
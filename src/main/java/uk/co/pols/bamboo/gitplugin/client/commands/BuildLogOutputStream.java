@@ -0,0 +1,165 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedList;
+
+/**
+ * Writes a command's output into the build log a line at a time, as the command produces it, instead of collecting
+ * all of it and logging it at the end.
+ * <p/>
+ * git redraws its progress meters ("Receiving objects:  42% (...)") by ending each update with a carriage return
+ * rather than a newline. Those updates replace one another here, and one reaches the log at most every progress
+ * interval; the line the meter finishes on (ending "done.") always does. Only the line being written and the last
+ * few complete lines, for the message of a failed command, are kept in memory.
+ * <p/>
+ * Set -DGIT_PROGRESS_INTERVAL=milliseconds when starting Bamboo to change the progress interval.
+ */
+public class BuildLogOutputStream extends OutputStream {
+    private static final Log log = LogFactory.getLog(BuildLogOutputStream.class);
+
+    public static final String GIT_PROGRESS_INTERVAL = "GIT_PROGRESS_INTERVAL";
+    public static final long DEFAULT_PROGRESS_INTERVAL_MILLIS = 5000;
+
+    private static final String CHARSET = "UTF-8";
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final int TAIL_LINES = 20;
+
+    private final BuildLogger buildLogger;
+    private final long progressIntervalMillis;
+    private final LinkedList<String> tail = new LinkedList<String>();
+    private byte[] line = new byte[256];
+    private int length = 0;
+    private String progress;
+    private String loggedProgress;
+    private long progressLoggedAt = -1;
+
+    public BuildLogOutputStream(BuildLogger buildLogger) {
+        this(buildLogger, configuredProgressIntervalMillis());
+    }
+
+    public BuildLogOutputStream(BuildLogger buildLogger, long progressIntervalMillis) {
+        this.buildLogger = buildLogger;
+        this.progressIntervalMillis = progressIntervalMillis;
+    }
+
+    public static long configuredProgressIntervalMillis() {
+        return SystemProperties.nonNegativeLong(GIT_PROGRESS_INTERVAL, DEFAULT_PROGRESS_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Runs a command that can go on for many minutes, such as a fetch or a pull, with its output going into the build
+     * log as it comes rather than at the end.
+     *
+     * @param failure the start of the message if the command fails, which its last lines of error output complete
+     */
+    public static void run(CommandExecutor commandExecutor, BuildLogger buildLogger, String failure, String[] commandLine, File directory) throws IOException {
+        BuildLogOutputStream output = new BuildLogOutputStream(buildLogger);
+        BuildLogOutputStream errorOutput = new BuildLogOutputStream(buildLogger);
+        int exitCode;
+        try {
+            exitCode = commandExecutor.run(commandLine, directory, output, errorOutput);
+        } finally {
+            output.close();
+            errorOutput.close();
+        }
+        if (exitCode != 0) {
+            throw new IOException(failure + errorOutput.getTail());
+        }
+    }
+
+    public synchronized void write(int b) throws IOException {
+        if (b == '\n') {
+            endLine();
+        } else if (b == '\r') {
+            endProgress();
+        } else if (length < MAX_LINE_LENGTH) {
+            if (length == line.length) {
+                byte[] grown = new byte[Math.min(MAX_LINE_LENGTH, line.length * 2)];
+                System.arraycopy(line, 0, grown, 0, length);
+                line = grown;
+            }
+            line[length++] = (byte) b;
+        }
+    }
+
+    public synchronized void write(byte[] bytes, int offset, int count) throws IOException {
+        if (offset < 0 || count < 0 || offset + count > bytes.length) {
+            throw new IndexOutOfBoundsException("BuildLogOutputStream.write: Parameters out of bounds.");
+        }
+        for (int i = offset; i < offset + count; i++) {
+            write(bytes[i]);
+        }
+    }
+
+    /**
+     * @return the last complete lines written, for the message of a command that failed
+     */
+    public synchronized String getTail() {
+        return StringUtils.join(tail, "\n");
+    }
+
+    /**
+     * Logs whatever is left of the last line.
+     */
+    public synchronized void close() {
+        if (length > 0 || progress != null) {
+            endLine();
+        }
+    }
+
+    /*
+     * A newline straight after a progress update ("\r\n", or a meter finishing) ends the meter on that update, which
+     * isn't logged twice.
+     */
+    private void endLine() {
+        String text = length == 0 && progress != null ? progress : text();
+        boolean logged = text.equals(loggedProgress);
+        length = 0;
+        progress = null;
+        loggedProgress = null;
+        if (text.length() == 0) {
+            return;
+        }
+        if (!logged) {
+            log.info(buildLogger.addBuildLogEntry(text));
+        }
+        tail.add(text);
+        if (tail.size() > TAIL_LINES) {
+            tail.removeFirst();
+        }
+    }
+
+    private void endProgress() {
+        if (length == 0) {
+            return;
+        }
+        progress = text();
+        length = 0;
+        long now = currentTimeMillis();
+        if (progressLoggedAt < 0 || now - progressLoggedAt >= progressIntervalMillis) {
+            progressLoggedAt = now;
+            loggedProgress = progress;
+            buildLogger.addBuildLogEntry(progress);
+        }
+    }
+
+    private String text() {
+        try {
+            return new String(line, 0, length, CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
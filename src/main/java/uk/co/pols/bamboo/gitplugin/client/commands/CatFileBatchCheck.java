@@ -0,0 +1,157 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * One running "git cat-file --batch-check" in a repository. Each revision written to it comes back as a line
+ * saying what it names, so looking one up costs a round trip over a pipe rather than starting git.
+ * <p/>
+ * A lookup that takes longer than {@link CommandTimeouts} allows "cat-file" kills the process
+ * ({@link GitCommandTimeoutException}), so a git that stops answering can't hold up its caller for ever.
+ * <p/>
+ * Not thread safe: {@link CatFileBatchPool} hands each one to a single caller at a time.
+ */
+class CatFileBatchCheck {
+    /*
+     * How many revisions are written before their answers are read. Kept small enough that neither pipe can fill
+     * while the other side waits on it.
+     */
+    private static final int PIPELINE_DEPTH = 128;
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        public void write(int b) {
+        }
+
+        public void write(byte[] bytes, int offset, int length) {
+        }
+    };
+
+    private final ProcessBuilderCommandExecutor processes;
+    private final File repositoryDirectory;
+    private final String[] commandLine;
+    private final Process process;
+    private final OutputStream input;
+    private final InputStream output;
+    private long lastUsed = System.currentTimeMillis();
+    private boolean broken = false;
+
+    CatFileBatchCheck(ProcessBuilderCommandExecutor processes, String gitExe, File repositoryDirectory) throws IOException {
+        this.processes = processes;
+        this.repositoryDirectory = repositoryDirectory;
+        this.commandLine = new String[]{gitExe, "cat-file", "--batch-check"};
+        this.process = processes.start(commandLine, repositoryDirectory, DISCARD);
+        this.input = process.getOutputStream();
+        this.output = new BufferedInputStream(process.getInputStream());
+    }
+
+    File getRepositoryDirectory() {
+        return repositoryDirectory;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * @return false once a lookup has failed or git has gone away, after which the process is no use to anyone
+     */
+    boolean isUsable() {
+        if (broken) {
+            return false;
+        }
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /**
+     * @return the object name of each revision, or null for a revision that doesn't exist, in the same order
+     */
+    List<String> check(List<String> revisions) throws IOException {
+        List<String> objectNames = new ArrayList<String>(revisions.size());
+        long timeoutMillis = processes.timeoutFor(commandLine);
+        long started = System.currentTimeMillis();
+        ScheduledFuture<?> deadline = timeoutMillis <= 0 ? null : processes.killAfter(process, timeoutMillis);
+        try {
+            for (int start = 0; start < revisions.size(); start += PIPELINE_DEPTH) {
+                List<String> batch = revisions.subList(start, Math.min(revisions.size(), start + PIPELINE_DEPTH));
+                for (String revision : batch) {
+                    if (revision.indexOf('\n') >= 0) {
+                        throw new IllegalArgumentException("Not a revision: '" + revision + "'");
+                    }
+                    input.write((revision + "\n").getBytes("UTF-8"));
+                }
+                input.flush();
+                for (int i = 0; i < batch.size(); i++) {
+                    objectNames.add(objectName(readLine()));
+                }
+            }
+        } catch (IOException e) {
+            broken = true;
+            // killing the process closes its pipes, so a failed read is expected then
+            if (deadline != null && System.currentTimeMillis() - started >= timeoutMillis) {
+                throw new GitCommandTimeoutException(StringUtils.join(commandLine, " "), timeoutMillis);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            broken = true;
+            throw e;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+        }
+        lastUsed = System.currentTimeMillis();
+        return objectNames;
+    }
+
+    void close() {
+        try {
+            input.close();
+        } catch (IOException e) {
+            // it's going anyway
+        }
+        processes.stop(process);
+        try {
+            output.close();
+        } catch (IOException e) {
+            // nothing left worth reading
+        }
+    }
+
+    /*
+     * "<object name> <type> <size>", or "<revision> missing" / "<revision> ambiguous"
+     */
+    private String objectName(String line) {
+        if (line.endsWith(" missing") || line.endsWith(" ambiguous")) {
+            return null;
+        }
+        int space = line.indexOf(' ');
+        return space < 0 ? line : line.substring(0, space);
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = output.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("git cat-file stopped answering in '" + repositoryDirectory.getAbsolutePath() + "'");
+            }
+            line.write(b);
+        }
+        return line.toString("UTF-8");
+    }
+}
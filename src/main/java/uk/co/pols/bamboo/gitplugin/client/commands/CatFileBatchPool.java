@@ -0,0 +1,264 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves revisions with long-lived "git cat-file --batch-check" processes, kept per repository directory, so
+ * finding the head of a branch after a pull doesn't start git each time.
+ * <p/>
+ * A caller takes a process to itself for the length of a lookup; callers that find none idle start another. Up to
+ * {@link #MAX_IDLE_PER_REPOSITORY} are kept once they're done, and no more than the idle limit across every
+ * repository, the least recently used making way for the newest. One that sits idle past the idle timeout is
+ * stopped. A lookup that fails, or can't find a revision, on a process that has been used before is tried once more
+ * with a fresh one, in case the working copy was deleted and made again under it.
+ * <p/>
+ * Set -DGIT_CAT_FILE_IDLE_TIMEOUT=seconds when starting Bamboo to change how long an idle process is kept, and
+ * -DGIT_CAT_FILE_MAX_IDLE=n to change how many are kept.
+ */
+public class CatFileBatchPool implements RevisionResolver {
+    private static final Log log = LogFactory.getLog(CatFileBatchPool.class);
+
+    public static final String GIT_CAT_FILE_IDLE_TIMEOUT = "GIT_CAT_FILE_IDLE_TIMEOUT";
+    public static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 60;
+    public static final String GIT_CAT_FILE_MAX_IDLE = "GIT_CAT_FILE_MAX_IDLE";
+    public static final int DEFAULT_MAX_IDLE = 16;
+    public static final int MAX_IDLE_PER_REPOSITORY = 2;
+
+    private final GitToolchainRegistry toolchainRegistry;
+    private final ProcessBuilderCommandExecutor processes;
+    private final long idleTimeoutMillis;
+    private final int maxIdle;
+    private final Map<File, LinkedList<CatFileBatchCheck>> idle = new HashMap<File, LinkedList<CatFileBatchCheck>>();
+    private ScheduledExecutorService reaper;
+    private boolean shutdown = false;
+
+    public CatFileBatchPool(GitToolchainRegistry toolchainRegistry, ProcessBuilderCommandExecutor processes, long idleTimeoutMillis, int maxIdle) {
+        this.toolchainRegistry = toolchainRegistry;
+        this.processes = processes;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxIdle = maxIdle;
+    }
+
+    public static long configuredIdleTimeoutMillis() {
+        return 1000L * SystemProperties.nonNegativeLong(GIT_CAT_FILE_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT_SECONDS);
+    }
+
+    public static int configuredMaxIdle() {
+        return SystemProperties.nonNegativeInt(GIT_CAT_FILE_MAX_IDLE, DEFAULT_MAX_IDLE);
+    }
+
+    public String resolve(File repositoryDirectory, String revision) throws IOException {
+        List<String> revisions = new ArrayList<String>(1);
+        revisions.add(revision);
+        return check(repositoryDirectory, revisions).get(0);
+    }
+
+    public Map<String, String> resolveAll(File repositoryDirectory, Collection<String> revisions) throws IOException {
+        List<String> asked = new ArrayList<String>(revisions);
+        List<String> objectNames = check(repositoryDirectory, asked);
+
+        Map<String, String> resolved = new LinkedHashMap<String, String>();
+        for (int i = 0; i < asked.size(); i++) {
+            if (objectNames.get(i) != null) {
+                resolved.put(asked.get(i), objectNames.get(i));
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * @return how many processes are sitting idle, across every repository
+     */
+    public synchronized int idleCount() {
+        int count = 0;
+        for (LinkedList<CatFileBatchCheck> processes : idle.values()) {
+            count += processes.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return how many processes are sitting idle for the repository
+     */
+    synchronized int idleCount(File repositoryDirectory) {
+        LinkedList<CatFileBatchCheck> processes = idle.get(repositoryDirectory.getAbsoluteFile());
+        return processes == null ? 0 : processes.size();
+    }
+
+    /**
+     * Stops every idle process. Processes in use are stopped when they're handed back.
+     */
+    public void shutdown() {
+        List<CatFileBatchCheck> stopping = new ArrayList<CatFileBatchCheck>();
+        synchronized (this) {
+            shutdown = true;
+            for (LinkedList<CatFileBatchCheck> processes : idle.values()) {
+                stopping.addAll(processes);
+            }
+            idle.clear();
+            if (reaper != null) {
+                reaper.shutdownNow();
+                reaper = null;
+            }
+        }
+        for (CatFileBatchCheck process : stopping) {
+            process.close();
+        }
+    }
+
+    private List<String> check(File repositoryDirectory, List<String> revisions) throws IOException {
+        File directory = repositoryDirectory.getAbsoluteFile();
+        CatFileBatchCheck process = borrowIdle(directory);
+        if (process != null) {
+            List<String> objectNames = null;
+            try {
+                objectNames = process.check(revisions);
+            } catch (IOException e) {
+                log.debug("git cat-file failed in '" + directory + "', trying again with a new one", e);
+            } finally {
+                if (objectNames == null || !objectNames.contains(null)) {
+                    giveBack(process);
+                } else {
+                    // the working copy may have been deleted and made again since this process started, leaving it
+                    // looking at a repository that has gone, so only a fresh process is believed about a missing revision
+                    process.close();
+                }
+            }
+            if (objectNames != null && !objectNames.contains(null)) {
+                return objectNames;
+            }
+        }
+
+        process = start(directory);
+        try {
+            return process.check(revisions);
+        } finally {
+            giveBack(process);
+        }
+    }
+
+    private synchronized CatFileBatchCheck borrowIdle(File directory) throws IOException {
+        if (shutdown) {
+            throw new IOException("The git cat-file pool has been shut down");
+        }
+        LinkedList<CatFileBatchCheck> processes = idle.get(directory);
+        while (processes != null && !processes.isEmpty()) {
+            CatFileBatchCheck process = processes.removeFirst();
+            if (process.isUsable()) {
+                return process;
+            }
+            process.close();
+        }
+        return null;
+    }
+
+    private CatFileBatchCheck start(File directory) throws IOException {
+        return new CatFileBatchCheck(processes, toolchainRegistry.toolchain().getGitExe(), directory);
+    }
+
+    private void giveBack(CatFileBatchCheck process) {
+        CatFileBatchCheck evicted = null;
+        synchronized (this) {
+            if (!shutdown && process.isUsable() && maxIdle > 0) {
+                LinkedList<CatFileBatchCheck> processes = idle.get(process.getRepositoryDirectory());
+                if (processes == null) {
+                    processes = new LinkedList<CatFileBatchCheck>();
+                    idle.put(process.getRepositoryDirectory(), processes);
+                }
+                if (processes.size() < MAX_IDLE_PER_REPOSITORY) {
+                    if (idleCount() >= maxIdle) {
+                        evicted = removeLeastRecentlyUsed();
+                    }
+                    processes.addFirst(process);
+                    startReaper();
+                    process = null;
+                }
+            }
+        }
+        if (process != null) {
+            process.close();
+        }
+        if (evicted != null) {
+            evicted.close();
+        }
+    }
+
+    /*
+     * Each repository's idle processes are kept most recently used first, so the oldest is at the end of one of them
+     */
+    private CatFileBatchCheck removeLeastRecentlyUsed() {
+        File oldest = null;
+        for (Map.Entry<File, LinkedList<CatFileBatchCheck>> repository : idle.entrySet()) {
+            LinkedList<CatFileBatchCheck> processes = repository.getValue();
+            if (!processes.isEmpty() && (oldest == null || processes.getLast().getLastUsed() < idle.get(oldest).getLast().getLastUsed())) {
+                oldest = repository.getKey();
+            }
+        }
+        if (oldest == null) {
+            return null;
+        }
+        LinkedList<CatFileBatchCheck> processes = idle.get(oldest);
+        CatFileBatchCheck process = processes.removeLast();
+        if (processes.isEmpty()) {
+            idle.remove(oldest);
+        }
+        return process;
+    }
+
+    private void startReaper() {
+        if (reaper == null && idleTimeoutMillis > 0) {
+            reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "git-cat-file-reaper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            long period = Math.max(1000L, idleTimeoutMillis / 2);
+            reaper.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    stopIdleProcesses();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void stopIdleProcesses() {
+        long idleSince = System.currentTimeMillis() - idleTimeoutMillis;
+        List<CatFileBatchCheck> stopping = new ArrayList<CatFileBatchCheck>();
+        synchronized (this) {
+            for (Iterator<LinkedList<CatFileBatchCheck>> repositories = idle.values().iterator(); repositories.hasNext();) {
+                LinkedList<CatFileBatchCheck> processes = repositories.next();
+                for (Iterator<CatFileBatchCheck> i = processes.iterator(); i.hasNext();) {
+                    CatFileBatchCheck process = i.next();
+                    if (process.getLastUsed() <= idleSince || !process.isUsable()) {
+                        stopping.add(process);
+                        i.remove();
+                    }
+                }
+                if (processes.isEmpty()) {
+                    repositories.remove();
+                }
+            }
+        }
+        for (CatFileBatchCheck process : stopping) {
+            process.close();
+        }
+    }
+}
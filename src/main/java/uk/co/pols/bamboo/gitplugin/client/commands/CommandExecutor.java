@@ -2,7 +2,31 @@ package uk.co.pols.bamboo.gitplugin.client.commands;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 
 public interface CommandExecutor {
+    /**
+     * @return everything the command wrote, standard output and standard error together; only its beginning and end
+     * if it was too big to keep in memory (see {@link CommandOutputStream})
+     */
     String execute(String[] commandLine, File sourceCodeDirectory) throws IOException;
-}
\ No newline at end of file
+
+    /**
+     * @return the command's exit code, with standard output and standard error kept apart
+     */
+    CommandResult run(String[] commandLine, File sourceCodeDirectory) throws IOException;
+
+    /**
+     * Hands the command's standard output to the handler as it is produced.
+     *
+     * @return the command's exit code and whatever it wrote to standard error
+     */
+    CommandResult execute(String[] commandLine, File sourceCodeDirectory, OutputHandler outputHandler) throws IOException;
+
+    /**
+     * Writes the command's standard output and standard error to the streams as it is produced, keeping none of it.
+     *
+     * @return the command's exit code
+     */
+    int run(String[] commandLine, File sourceCodeDirectory, OutputStream output, OutputStream errorOutput) throws IOException;
+}
@@ -0,0 +1,36 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of the git commands a client has run, for working out where the time goes on a busy server.
+ */
+public class CommandMetrics {
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+
+    public void record(long millis, boolean failed) {
+        commands.incrementAndGet();
+        totalMillis.addAndGet(millis);
+        if (failed) {
+            failures.incrementAndGet();
+        }
+    }
+
+    public long getCommands() {
+        return commands.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getTotalMillis() {
+        return totalMillis.get();
+    }
+
+    public String toString() {
+        return getCommands() + " git commands (" + getFailures() + " failed) taking " + getTotalMillis() + "ms";
+    }
+}
@@ -0,0 +1,125 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Collects the raw bytes a command writes and decodes them once, as UTF-8, when the text is asked for.
+ * <p/>
+ * Output is kept in memory until it grows past the spill size, after which it goes to a temporary file, so a large
+ * fetch or log doesn't sit on the heap while the command runs. Spilled output is only ever read back in part, its
+ * beginning and its end, which is what a message or a log entry needs; a command whose whole output matters should
+ * be read with an {@link OutputHandler} instead. {@link #close()} deletes the file.
+ * <p/>
+ * Set -DGIT_OUTPUT_SPILL_SIZE=bytes when starting Bamboo to change the spill size.
+ */
+public class CommandOutputStream extends OutputStream {
+    public static final String GIT_OUTPUT_SPILL_SIZE = "GIT_OUTPUT_SPILL_SIZE";
+    public static final int DEFAULT_SPILL_SIZE = 1024 * 1024;
+    public static final int EXCERPT_SIZE = 32 * 1024;
+
+    private static final String CHARSET = "UTF-8";
+
+    private final int spillSize;
+    private byte[] buffer = new byte[1024];
+    private int count = 0;
+    private File spillFile;
+    private OutputStream spillStream;
+
+    public CommandOutputStream() {
+        this(configuredSpillSize());
+    }
+
+    public CommandOutputStream(int spillSize) {
+        this.spillSize = spillSize;
+    }
+
+    public static int configuredSpillSize() {
+        return SystemProperties.nonNegativeInt(GIT_OUTPUT_SPILL_SIZE, DEFAULT_SPILL_SIZE);
+    }
+
+    public synchronized void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new IndexOutOfBoundsException("CommandOutputStream.write: Parameters out of bounds.");
+        }
+        if (spillStream == null && count + length > spillSize) {
+            spill();
+        }
+        if (spillStream != null) {
+            spillStream.write(bytes, offset, length);
+            return;
+        }
+        if (count + length > buffer.length) {
+            byte[] grown = new byte[Math.min(spillSize, Math.max(buffer.length * 2, count + length))];
+            System.arraycopy(buffer, 0, grown, 0, count);
+            buffer = grown;
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    /**
+     * @return everything written so far, decoded as UTF-8; or, once that has spilled and is more than two excerpts
+     * long, the first and last {@link #EXCERPT_SIZE} bytes of it around a note of how much was left out
+     */
+    public synchronized String getText() throws IOException {
+        if (spillStream == null) {
+            return new String(buffer, 0, count, CHARSET);
+        }
+        spillStream.flush();
+        RandomAccessFile file = new RandomAccessFile(spillFile, "r");
+        try {
+            long length = file.length();
+            if (length <= 2L * EXCERPT_SIZE) {
+                return new String(read(file, 0, (int) length), CHARSET);
+            }
+            return new String(read(file, 0, EXCERPT_SIZE), CHARSET)
+                    + "\n[" + (length - 2L * EXCERPT_SIZE) + " bytes of output left out]\n"
+                    + new String(read(file, length - EXCERPT_SIZE, EXCERPT_SIZE), CHARSET);
+        } finally {
+            file.close();
+        }
+    }
+
+    private byte[] read(RandomAccessFile file, long position, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        file.seek(position);
+        file.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return true once the output has grown too big to keep in memory
+     */
+    public synchronized boolean isSpilled() {
+        return spillStream != null;
+    }
+
+    public synchronized void close() throws IOException {
+        buffer = new byte[0];
+        count = 0;
+        if (spillStream != null) {
+            try {
+                spillStream.close();
+            } finally {
+                spillFile.delete();
+            }
+        }
+    }
+
+    private void spill() throws IOException {
+        spillFile = File.createTempFile("git-output", ".tmp");
+        spillStream = new BufferedOutputStream(new FileOutputStream(spillFile), 64 * 1024);
+        spillStream.write(buffer, 0, count);
+        buffer = null;
+        count = 0;
+    }
+}
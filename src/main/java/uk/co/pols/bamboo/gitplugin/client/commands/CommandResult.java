@@ -0,0 +1,39 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+/**
+ * How a command finished: its exit code and what it wrote to standard output and standard error, kept apart.
+ */
+public class CommandResult {
+    private final int exitCode;
+    private final String output;
+    private final String errorOutput;
+
+    public CommandResult(int exitCode, String output, String errorOutput) {
+        this.exitCode = exitCode;
+        this.output = output;
+        this.errorOutput = errorOutput;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public boolean isSuccessful() {
+        return exitCode == 0;
+    }
+
+    /**
+     * @return standard output, or an empty string if it was handed to an {@link OutputHandler}
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    public String getErrorOutput() {
+        return errorOutput;
+    }
+
+    public String toString() {
+        return "exit code " + exitCode + ": " + errorOutput.trim();
+    }
+}
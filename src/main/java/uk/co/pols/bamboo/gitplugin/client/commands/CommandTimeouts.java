@@ -0,0 +1,90 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * How long each kind of command may run before it is killed, keyed by git sub-command ("ls-remote", "fetch", ...).
+ * Commands run over ssh are keyed by the git sub-command they run on the far side; anything else by its own name.
+ * <p/>
+ * Set -DGIT_TIMEOUT=seconds when starting Bamboo to change the limit for every command, or
+ * -DGIT_TIMEOUT_LS_REMOTE=seconds (the sub-command in upper case, '-' as '_') for just one kind. 0 means no limit.
+ */
+public class CommandTimeouts {
+    public static final String GIT_TIMEOUT = "GIT_TIMEOUT";
+    public static final long DEFAULT_TIMEOUT_SECONDS = 10 * 60;
+
+    private static final Map<String, Long> DEFAULT_TIMEOUT_SECONDS_BY_COMMAND = new HashMap<String, Long>();
+    /*
+     * git options that take their value as the next argument, which mustn't be mistaken for the sub-command
+     */
+    private static final Set<String> OPTIONS_WITH_VALUES = new HashSet<String>(Arrays.asList(
+            "-c", "-C", "--git-dir", "--work-tree", "--namespace", "--super-prefix", "--config-env", "--exec-path"));
+
+    static {
+        DEFAULT_TIMEOUT_SECONDS_BY_COMMAND.put("which", 30L);
+        DEFAULT_TIMEOUT_SECONDS_BY_COMMAND.put("--version", 30L);
+        DEFAULT_TIMEOUT_SECONDS_BY_COMMAND.put("ls-remote", 60L);
+        DEFAULT_TIMEOUT_SECONDS_BY_COMMAND.put("show-ref", 60L);
+        DEFAULT_TIMEOUT_SECONDS_BY_COMMAND.put("cat-file", 60L);
+        DEFAULT_TIMEOUT_SECONDS_BY_COMMAND.put("log", 5 * 60L);
+        DEFAULT_TIMEOUT_SECONDS_BY_COMMAND.put("fetch", 30 * 60L);
+        DEFAULT_TIMEOUT_SECONDS_BY_COMMAND.put("pull", 30 * 60L);
+    }
+
+    private final Properties settings;
+
+    public CommandTimeouts(Properties settings) {
+        this.settings = settings;
+    }
+
+    public static CommandTimeouts configured() {
+        return new CommandTimeouts(System.getProperties());
+    }
+
+    /**
+     * @return how long the command may run in milliseconds, or 0 if it may run for ever
+     */
+    public long timeoutFor(String[] commandLine) {
+        String command = commandName(commandLine);
+        Long defaultSeconds = DEFAULT_TIMEOUT_SECONDS_BY_COMMAND.get(command);
+
+        long seconds = SystemProperties.nonNegativeLong(settings, GIT_TIMEOUT, defaultSeconds == null ? DEFAULT_TIMEOUT_SECONDS : defaultSeconds);
+        return 1000L * SystemProperties.nonNegativeLong(settings, propertyFor(command), seconds);
+    }
+
+    static String commandName(String[] commandLine) {
+        String program = new File(commandLine[0]).getName();
+        int start = 1;
+        if ("ssh".equals(program)) {
+            start = commandLine.length;
+            for (int i = 1; i < commandLine.length; i++) {
+                if ("git".equals(commandLine[i])) {
+                    start = i + 1;
+                    break;
+                }
+            }
+        } else if (!program.startsWith("git")) {
+            return program;
+        }
+
+        for (int i = start; i < commandLine.length; i++) {
+            if (!commandLine[i].startsWith("-") || "--version".equals(commandLine[i])) {
+                return commandLine[i];
+            }
+            if (OPTIONS_WITH_VALUES.contains(commandLine[i])) {
+                i++;
+            }
+        }
+        return program;
+    }
+
+    static String propertyFor(String command) {
+        return GIT_TIMEOUT + "_" + command.replaceAll("^-+", "").replace('-', '_').toUpperCase();
+    }
+}
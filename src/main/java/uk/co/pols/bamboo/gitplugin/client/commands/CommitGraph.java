@@ -0,0 +1,385 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Read-only view of a repository's commit-graph (objects/info/commit-graph, or the chain of split graphs in
+ * objects/info/commit-graphs), which holds the parents and generation number of every commit in a compact,
+ * searchable form.
+ * <p/>
+ * Walks use the generation numbers to stop as soon as nothing older can change the answer, so asking what is new on a
+ * branch, or whether it was force-pushed, reads only the commits near the two tips rather than the whole history.
+ * A question about a commit the graph doesn't hold (it was written before the last fetch) has no answer, and the
+ * caller falls back to asking git.
+ */
+public class CommitGraph {
+    private static final int SIGNATURE = 0x43475048; // "CGPH"
+    private static final int CHUNK_FANOUT = 0x4f494446; // "OIDF"
+    private static final int CHUNK_LOOKUP = 0x4f49444c; // "OIDL"
+    private static final int CHUNK_DATA = 0x43444154; // "CDAT"
+    private static final int CHUNK_EXTRA_EDGES = 0x45444745; // "EDGE"
+    private static final int PARENT_NONE = 0x70000000;
+    private static final int EXTRA_EDGES_NEEDED = 0x80000000;
+    private static final int LAST_EDGE = 0x80000000;
+
+    private static final int INCLUDED = 1;
+    private static final int EXCLUDED = 2;
+
+    private final List<Layer> layers;
+    private final int commitCount;
+
+    private CommitGraph(List<Layer> layers) {
+        this.layers = layers;
+        Layer top = layers.get(layers.size() - 1);
+        this.commitCount = top.base + top.count;
+    }
+
+    /**
+     * @return null if the repository has no commit-graph
+     */
+    static CommitGraph open(File objectsDirectory, boolean mayMap) throws IOException {
+        File single = new File(objectsDirectory, "info" + File.separator + "commit-graph");
+        List<Layer> layers = new ArrayList<Layer>();
+        if (single.isFile()) {
+            layers.add(Layer.open(single, 0, mayMap));
+            return new CommitGraph(layers);
+        }
+
+        File graphs = new File(objectsDirectory, "info" + File.separator + "commit-graphs");
+        File chain = new File(graphs, "commit-graph-chain");
+        if (!chain.isFile()) {
+            return null;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(chain), "UTF-8"));
+        try {
+            String hash;
+            int base = 0;
+            while ((hash = reader.readLine()) != null) {
+                if (hash.trim().length() > 0) {
+                    Layer layer = Layer.open(new File(graphs, "graph-" + hash.trim() + ".graph"), base, mayMap);
+                    layers.add(layer);
+                    base += layer.count;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return layers.isEmpty() ? null : new CommitGraph(layers);
+    }
+
+    public int getCommitCount() {
+        return commitCount;
+    }
+
+    public boolean contains(String objectName) {
+        return positionOf(objectName) >= 0;
+    }
+
+    /**
+     * @return whether ancestor is reachable from descendant (a commit reaches itself), or null if the graph doesn't
+     *         hold both commits
+     */
+    public Boolean isAncestor(String ancestor, String descendant) {
+        List<String> unreachable = walk(descendant, ancestor, 1);
+        return unreachable == null ? null : unreachable.isEmpty();
+    }
+
+    /**
+     * @return the commits reachable from "to" but not from "from" (what "git log from..to" lists), children before
+     *         their parents, or null if the graph doesn't hold both commits
+     */
+    public List<String> range(String from, String to) {
+        return walk(from, to, Integer.MAX_VALUE);
+    }
+
+    /*
+     * Paints the commits reachable from each tip, newest generation first. A commit's children all have higher
+     * generations, so by the time it comes off the queue it has every colour it will ever get, and once the queue
+     * holds only commits reachable from the excluded tip nothing left can be included.
+     */
+    private List<String> walk(String excludedTip, String includedTip, int limit) {
+        int excluded = positionOf(excludedTip);
+        int included = positionOf(includedTip);
+        if (excluded < 0 || included < 0) {
+            return null;
+        }
+
+        final Map<Integer, Integer> colours = new HashMap<Integer, Integer>();
+        TreeSet<Integer> queue = new TreeSet<Integer>(new Comparator<Integer>() {
+            public int compare(Integer left, Integer right) {
+                int byGeneration = generation(right) - generation(left);
+                return byGeneration != 0 ? byGeneration : left.compareTo(right);
+            }
+        });
+        int interesting = 0;
+        colours.put(included, INCLUDED);
+        queue.add(included);
+        interesting++;
+        if (colours.containsKey(excluded)) {
+            colours.put(excluded, INCLUDED | EXCLUDED);
+            interesting--;
+        } else {
+            colours.put(excluded, EXCLUDED);
+            queue.add(excluded);
+        }
+
+        List<String> result = new ArrayList<String>();
+        while (interesting > 0) {
+            int commit = queue.first();
+            queue.remove(commit);
+            if (generation(commit) == 0) {
+                return null; // written by a git that didn't record generations, so the walk order can't be trusted
+            }
+            int colour = colours.get(commit);
+            if (colour == INCLUDED) {
+                interesting--;
+                result.add(objectName(commit));
+                if (result.size() >= limit) {
+                    return result;
+                }
+            }
+            for (int parent : parents(commit)) {
+                Integer old = colours.get(parent);
+                int oldColour = old == null ? 0 : old;
+                int newColour = oldColour | colour;
+                if (newColour == oldColour) {
+                    continue;
+                }
+                colours.put(parent, newColour);
+                if (old == null) {
+                    queue.add(parent);
+                } else if (oldColour == INCLUDED) {
+                    interesting--;
+                }
+                if (newColour == INCLUDED) {
+                    interesting++;
+                }
+            }
+        }
+        return result;
+    }
+
+    int positionOf(String objectName) {
+        byte[] wanted = ObjectIds.parse(objectName);
+        if (wanted == null) {
+            return -1;
+        }
+        for (Layer layer : layers) {
+            int position = layer.positionOf(wanted);
+            if (position >= 0) {
+                return layer.base + position;
+            }
+        }
+        return -1;
+    }
+
+    private Layer layerFor(int position) {
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            if (position >= layers.get(i).base) {
+                return layers.get(i);
+            }
+        }
+        throw new IllegalArgumentException("No commit at position " + position);
+    }
+
+    private int generation(int position) {
+        Layer layer = layerFor(position);
+        return layer.generation(position - layer.base);
+    }
+
+    private String objectName(int position) {
+        Layer layer = layerFor(position);
+        return layer.objectName(position - layer.base);
+    }
+
+    private List<Integer> parents(int position) {
+        Layer layer = layerFor(position);
+        return layer.parents(position - layer.base);
+    }
+
+    /*
+     * One graph file. Parent positions are global across the chain, which is why each layer knows how many commits
+     * the layers beneath it hold.
+     */
+    private static class Layer {
+        private final ByteBuffer content;
+        private final int base;
+        private final int count;
+        private final int objectNameLength;
+        private final int fanout;
+        private final int lookup;
+        private final int data;
+        private final int extraEdges;
+
+        private Layer(ByteBuffer content, int base, int count, int objectNameLength, int fanout, int lookup, int data, int extraEdges) {
+            this.content = content;
+            this.base = base;
+            this.count = count;
+            this.objectNameLength = objectNameLength;
+            this.fanout = fanout;
+            this.lookup = lookup;
+            this.data = data;
+            this.extraEdges = extraEdges;
+        }
+
+        static Layer open(File file, int base, boolean mayMap) throws IOException {
+            ByteBuffer content = read(file, mayMap);
+            if (content.limit() < 8 || content.getInt(0) != SIGNATURE || content.get(4) != 1) {
+                throw new IOException("'" + file.getAbsolutePath() + "' is not a version 1 commit-graph");
+            }
+            int objectNameLength = content.get(5) == 2 ? 32 : 20;
+            int chunkCount = content.get(6) & 0xff;
+
+            int fanout = -1;
+            int lookup = -1;
+            int data = -1;
+            int extraEdges = -1;
+            for (int i = 0; i < chunkCount; i++) {
+                int entry = 8 + i * 12;
+                if (entry + 12 > content.limit()) {
+                    throw new IOException("'" + file.getAbsolutePath() + "' is truncated");
+                }
+                int id = content.getInt(entry);
+                long offset = content.getLong(entry + 4);
+                if (offset < 0 || offset > content.limit()) {
+                    throw new IOException("'" + file.getAbsolutePath() + "' has a chunk outside the file");
+                }
+                if (id == CHUNK_FANOUT) {
+                    fanout = (int) offset;
+                } else if (id == CHUNK_LOOKUP) {
+                    lookup = (int) offset;
+                } else if (id == CHUNK_DATA) {
+                    data = (int) offset;
+                } else if (id == CHUNK_EXTRA_EDGES) {
+                    extraEdges = (int) offset;
+                }
+            }
+            if (fanout < 0 || lookup < 0 || data < 0 || fanout + 256 * 4 > content.limit()) {
+                throw new IOException("'" + file.getAbsolutePath() + "' is missing a required chunk");
+            }
+            int count = content.getInt(fanout + 255 * 4);
+            if (count < 0 || lookup + (long) count * objectNameLength > content.limit() || data + (long) count * (objectNameLength + 16) > content.limit()) {
+                throw new IOException("'" + file.getAbsolutePath() + "' is truncated");
+            }
+            return new Layer(content, base, count, objectNameLength, fanout, lookup, data, extraEdges);
+        }
+
+        int positionOf(byte[] objectName) {
+            if (objectName.length != objectNameLength) {
+                return -1;
+            }
+            int firstByte = objectName[0] & 0xff;
+            int low = firstByte == 0 ? 0 : content.getInt(fanout + (firstByte - 1) * 4);
+            int high = content.getInt(fanout + firstByte * 4);
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                int comparison = compare(middle, objectName);
+                if (comparison == 0) {
+                    return middle;
+                }
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return -1;
+        }
+
+        String objectName(int position) {
+            byte[] objectName = new byte[objectNameLength];
+            int start = lookup + position * objectNameLength;
+            for (int i = 0; i < objectNameLength; i++) {
+                objectName[i] = content.get(start + i);
+            }
+            return ObjectIds.toHex(objectName);
+        }
+
+        /*
+         * The top 30 bits of the word after the parents; the bottom two belong to the commit time.
+         */
+        int generation(int position) {
+            return content.getInt(entry(position) + objectNameLength + 8) >>> 2;
+        }
+
+        List<Integer> parents(int position) {
+            List<Integer> parents = new ArrayList<Integer>(2);
+            int entry = entry(position);
+            int first = content.getInt(entry + objectNameLength);
+            if (first == PARENT_NONE) {
+                return parents;
+            }
+            parents.add(first);
+
+            int second = content.getInt(entry + objectNameLength + 4);
+            if (second == PARENT_NONE) {
+                return parents;
+            }
+            if ((second & EXTRA_EDGES_NEEDED) == 0) {
+                parents.add(second);
+                return parents;
+            }
+            if (extraEdges < 0) {
+                throw new IllegalStateException("Commit-graph has an octopus merge but no extra edges");
+            }
+            int edge = extraEdges + (second & ~EXTRA_EDGES_NEEDED) * 4;
+            while (true) {
+                int parent = content.getInt(edge);
+                parents.add(parent & ~LAST_EDGE);
+                if ((parent & LAST_EDGE) != 0) {
+                    return parents;
+                }
+                edge += 4;
+            }
+        }
+
+        private int entry(int position) {
+            return data + position * (objectNameLength + 16);
+        }
+
+        private int compare(int position, byte[] objectName) {
+            int start = lookup + position * objectNameLength;
+            for (int i = 0; i < objectNameLength; i++) {
+                int difference = (content.get(start + i) & 0xff) - (objectName[i] & 0xff);
+                if (difference != 0) {
+                    return difference;
+                }
+            }
+            return 0;
+        }
+
+        private static ByteBuffer read(File file, boolean mayMap) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("'" + file.getAbsolutePath() + "' is too big to read");
+                }
+                if (mayMap) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+                ByteBuffer content = ByteBuffer.allocate((int) size);
+                while (content.hasRemaining() && channel.read(content) != -1) {
+                    // keep reading
+                }
+                content.flip();
+                return content;
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.tools.ant.taskdefs.condition.Os;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps each repository's commit-graph open until git writes a new one.
+ * <p/>
+ * A graph that is out of date is still right about every commit it holds, it just doesn't hold the newest ones, so
+ * telling files apart by size and timestamp is enough.
+ */
+public class CommitGraphCache {
+    private static final Log log = LogFactory.getLog(CommitGraphCache.class);
+
+    private final boolean mayMap = !Os.isFamily(Os.FAMILY_WINDOWS);
+    private final ConcurrentMap<File, Entry> graphs = new ConcurrentHashMap<File, Entry>();
+
+    /**
+     * @return null if the repository has no commit-graph git can read, or it can't be read
+     */
+    public CommitGraph forRepository(File repositoryDirectory) {
+        try {
+            GitDirectory gitDirectory = GitDirectory.find(repositoryDirectory);
+            if (gitDirectory == null) {
+                return null;
+            }
+            File objectsDirectory = gitDirectory.getObjectsDirectory();
+            File file = graphFile(objectsDirectory);
+            if (!file.isFile()) {
+                graphs.remove(objectsDirectory);
+                return null;
+            }
+
+            Entry entry = graphs.get(objectsDirectory);
+            if (entry == null || entry.lastModified != file.lastModified() || entry.length != file.length()) {
+                entry = new Entry(file.lastModified(), file.length(), CommitGraph.open(objectsDirectory, mayMap));
+                graphs.put(objectsDirectory, entry);
+            }
+            return entry.graph;
+        } catch (IOException e) {
+            log.warn("Could not read the commit-graph of '" + repositoryDirectory.getAbsolutePath() + "', asking git instead", e);
+            return null;
+        }
+    }
+
+    private File graphFile(File objectsDirectory) {
+        File single = new File(objectsDirectory, "info" + File.separator + "commit-graph");
+        if (single.isFile()) {
+            return single;
+        }
+        return new File(objectsDirectory, "info" + File.separator + "commit-graphs" + File.separator + "commit-graph-chain");
+    }
+
+    private static class Entry {
+        private final long lastModified;
+        private final long length;
+        private final CommitGraph graph;
+
+        Entry(long lastModified, long length, CommitGraph graph) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.graph = graph;
+        }
+    }
+}
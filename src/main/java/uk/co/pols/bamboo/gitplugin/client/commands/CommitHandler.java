@@ -0,0 +1,10 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.commit.Commit;
+
+/**
+ * Receives each commit as soon as a log parser has read all of it.
+ */
+public interface CommitHandler {
+    void handle(Commit commit);
+}
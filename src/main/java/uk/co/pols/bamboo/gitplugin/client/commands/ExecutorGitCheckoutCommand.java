@@ -0,0 +1,80 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Puts a working copy at exactly the revision a build is for: only the branch is fetched, with no tags, and the
+ * commit is checked out rather than merged, so there are never merge commits in the working copy.
+ * <p/>
+ * A shallow or partial fetch needs nothing setting up beforehand: fetching with a filter makes git record the
+ * repository url as the place to get missing objects from later.
+ */
+public class ExecutorGitCheckoutCommand implements GitCheckoutCommand {
+    private static final Log log = LogFactory.getLog(ExecutorGitCheckoutCommand.class);
+
+    private String gitExe;
+    private File sourceCodeDirectory;
+    private CommandExecutor commandExecutor;
+
+    public ExecutorGitCheckoutCommand(String gitExe, File sourceCodeDirectory, CommandExecutor commandExecutor) {
+        this.gitExe = gitExe;
+        this.sourceCodeDirectory = sourceCodeDirectory;
+        this.commandExecutor = commandExecutor;
+    }
+
+    public void fetchBranch(BuildLogger buildLogger, String repositoryUrl, String branch, FetchOptions fetchOptions) throws IOException {
+        log.info(buildLogger.addBuildLogEntry("Fetching branch '" + branch + "' @ '" + repositoryUrl + "' into '" + sourceCodeDirectory.getAbsolutePath() + "'" + describe(fetchOptions) + "."));
+
+        fetch(buildLogger, repositoryUrl, branch, fetchOptions.arguments(fetchOptions.getDepth()));
+    }
+
+    public void deepenBranch(BuildLogger buildLogger, String repositoryUrl, String branch, FetchOptions fetchOptions, int depth) throws IOException {
+        List<String> arguments = fetchOptions.arguments(depth);
+        if (depth > 0) {
+            log.info(buildLogger.addBuildLogEntry("Deepening branch '" + branch + "' @ '" + repositoryUrl + "' to " + depth + " commits."));
+        } else {
+            log.info(buildLogger.addBuildLogEntry("Fetching the whole history of branch '" + branch + "' @ '" + repositoryUrl + "'."));
+            arguments.add(0, "--unshallow");
+        }
+        fetch(buildLogger, repositoryUrl, branch, arguments);
+    }
+
+    private void fetch(BuildLogger buildLogger, String repositoryUrl, String branch, List<String> fetchArguments) throws IOException {
+        List<String> commandLine = new ArrayList<String>();
+        commandLine.add(gitExe);
+        commandLine.add("fetch");
+        commandLine.add("--no-tags");
+        commandLine.add("--progress");
+        commandLine.addAll(fetchArguments);
+        commandLine.add(repositoryUrl);
+        commandLine.add("+refs/heads/" + branch + ":refs/remotes/origin/" + branch);
+
+        BuildLogOutputStream.run(commandExecutor, buildLogger, "Could not fetch from '" + repositoryUrl + "'. git-fetch: ", commandLine.toArray(new String[commandLine.size()]), sourceCodeDirectory);
+    }
+
+    private String describe(FetchOptions fetchOptions) {
+        return fetchOptions.isFull() ? "" : " (" + fetchOptions + ")";
+    }
+
+    public void checkoutDetached(BuildLogger buildLogger, String revision) throws IOException {
+        log.info(buildLogger.addBuildLogEntry("Checking out revision '" + revision + "' in '" + sourceCodeDirectory.getAbsolutePath() + "'."));
+
+        CommandResult checkoutResult = commandExecutor.run(new String[]{gitExe, "checkout", "-f", revision}, sourceCodeDirectory);
+        checkCommandResult(buildLogger, "Could not check out '" + revision + "'. git-checkout: ", checkoutResult);
+    }
+
+    private void checkCommandResult(BuildLogger buildLogger, String failure, CommandResult result) throws IOException {
+        if (!result.isSuccessful()) {
+            throw new IOException(failure + result.getErrorOutput());
+        } else {
+            log.info(buildLogger.addBuildLogEntry(result.getOutput() + result.getErrorOutput()));
+        }
+    }
+}
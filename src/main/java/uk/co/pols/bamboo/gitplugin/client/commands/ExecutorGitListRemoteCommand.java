@@ -5,32 +5,55 @@ import org.apache.commons.logging.LogFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 public class ExecutorGitListRemoteCommand implements GitListRemoteCommand {
     private static final Log log = LogFactory.getLog(ExecutorGitListRemoteCommand.class);
 
     private final String gitExe;
     private final CommandExecutor commandExecutor;
+    private final RefAdvertisementCache refAdvertisementCache;
 
-    private static final Pattern GIT_SHA1_PATTERN = Pattern.compile("([0-9a-f]+)\\s+(.*)");
-
-    public ExecutorGitListRemoteCommand(String gitExe, CommandExecutor commandExecutor) {
+    public ExecutorGitListRemoteCommand(String gitExe, CommandExecutor commandExecutor, RefAdvertisementCache refAdvertisementCache) {
         this.gitExe = gitExe;
         this.commandExecutor = commandExecutor;
+        this.refAdvertisementCache = refAdvertisementCache;
     }
 
     public String getLastCommit(String repositoryUrl, String branch) throws IOException {
-        log.info("Running '" + gitExe + " ls-remote '" + repositoryUrl + "' " + branch);
-        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
-        final String result = commandExecutor.execute(new String[] {gitExe, "ls-remote", repositoryUrl, branch}, tmpDir);
-        final Matcher matcher = GIT_SHA1_PATTERN.matcher(result.trim());
-        if (matcher.matches()) {
-            final String sha1 = matcher.group(1);
+        final RefAdvertisement refs = listRefs(repositoryUrl);
+        final String sha1 = refs.getRevision(branch);
+        if (sha1 != null) {
             log.info("Latest commit for branch '" + branch + "' @ '" + repositoryUrl + "' is '" + sha1 + "'.");
             return sha1;
         }
-        throw new IOException("Could not determine latest commit for branch '" + branch + "' @ '" + repositoryUrl + "'. git-ls-remote: " + result);
+        throw new IOException("Could not determine latest commit for branch '" + branch + "' @ '" + repositoryUrl + "'. git-ls-remote: " + refs.getUnparsedOutput());
+    }
+
+    /**
+     * Answers every branch from the one listing of the repository's refs.
+     */
+    public Map<String, String> getLastCommits(String repositoryUrl, Collection<String> branches) throws IOException {
+        return listRefs(repositoryUrl).getRevisions(branches);
+    }
+
+    private RefAdvertisement listRefs(final String repositoryUrl) throws IOException {
+        return refAdvertisementCache.get(repositoryUrl, new Callable<RefAdvertisement>() {
+            public RefAdvertisement call() throws IOException {
+                log.info("Running '" + gitExe + " ls-remote '" + repositoryUrl + "'");
+                final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+                final RefAdvertisement[] refs = new RefAdvertisement[]{RefAdvertisement.parse("")};
+                final CommandResult result = commandExecutor.execute(new String[]{gitExe, "ls-remote", repositoryUrl}, tmpDir, new OutputHandler() {
+                    public void handle(InputStream output) throws IOException {
+                        refs[0] = RefAdvertisement.parse(new InputStreamReader(output, "UTF-8"));
+                    }
+                });
+                return new RefAdvertisement(refs[0].getRefs(), (refs[0].getUnparsedOutput() + "\n" + result.getErrorOutput()).trim());
+            }
+        });
     }
-}
\ No newline at end of file
+}
@@ -6,6 +6,8 @@ import org.apache.commons.logging.LogFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ExecutorGitLogCommand implements GitLogCommand {
@@ -15,21 +17,33 @@ public class ExecutorGitLogCommand implements GitLogCommand {
     private File sourceCodeDirectory;
     private String lastRevisionChecked;
     private CommandExecutor commandExecutor;
+    private RevisionResolver revisionResolver;
 
-    public ExecutorGitLogCommand(String gitExe, File sourceCodeDirectory, String lastRevisionChecked, CommandExecutor commandExecutor) {
+    public ExecutorGitLogCommand(String gitExe, File sourceCodeDirectory, String lastRevisionChecked, CommandExecutor commandExecutor, RevisionResolver revisionResolver) {
         this.gitExe = gitExe;
         this.sourceCodeDirectory = sourceCodeDirectory;
         this.lastRevisionChecked = lastRevisionChecked;
         this.commandExecutor = commandExecutor;
+        this.revisionResolver = revisionResolver;
     }
 
     public List<Commit> extractCommits() throws IOException {
-        String logText = commandExecutor.execute(getCommandLine(), sourceCodeDirectory);
+        final NulDelimitedGitLogParser logParser = new NulDelimitedGitLogParser();
+        final List<Commit> commits = new ArrayList<Commit>();
 
-        log.info(logText);
-        GitLogParser logParser = new GitLogParser(logText);
-
-        List<Commit> commits = logParser.extractCommits(lastRevisionChecked);
+        CommandResult result = commandExecutor.execute(getCommandLine(), sourceCodeDirectory, new OutputHandler() {
+            public void handle(InputStream output) throws IOException {
+                logParser.parse(output, lastRevisionChecked, new CommitHandler() {
+                    public void handle(Commit commit) {
+                        commits.add(commit);
+                    }
+                });
+            }
+        });
+        if (!result.isSuccessful()) {
+            throw new IOException("Could not read history of '" + sourceCodeDirectory.getAbsolutePath() + "'. git-log: " + result.getErrorOutput().trim());
+        }
+        log.info("Read " + commits.size() + " commits from '" + sourceCodeDirectory.getAbsolutePath() + "'");
         lastRevisionChecked = logParser.getMostRecentCommitDate();
 
         return commits;
@@ -39,14 +53,18 @@ public class ExecutorGitLogCommand implements GitLogCommand {
         return lastRevisionChecked;
     }
 
+    /*
+     * The pull updates refs/heads/<branch>, so that's the ref we read; "" if there isn't one.
+     */
     public String getHeadRevision(String branch) throws IOException {
-        return commandExecutor.execute(new String[]{gitExe, "show-ref", "-s", branch}, sourceCodeDirectory).trim();
+        String headRevision = revisionResolver.resolve(sourceCodeDirectory, "refs/heads/" + branch);
+        return headRevision == null ? "" : headRevision;
     }
 
     private String[] getCommandLine() {
         if (lastRevisionChecked != null) {
-            return new String[]{gitExe, "log", "--numstat", "--date=iso8601", "--since=\"" + lastRevisionChecked + "\""};
+            return new String[]{gitExe, "log", "-z", "--numstat", NulDelimitedGitLogParser.LOG_FORMAT, "--since=\"" + lastRevisionChecked + "\""};
         }
-        return new String[]{gitExe, "log", "-1", "--numstat", "--date=iso8601"};
+        return new String[]{gitExe, "log", "-1", "-z", "--numstat", NulDelimitedGitLogParser.LOG_FORMAT};
     }
 }
\ No newline at end of file
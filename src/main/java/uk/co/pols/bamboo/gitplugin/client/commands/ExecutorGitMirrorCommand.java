@@ -0,0 +1,102 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Keeps a bare mirror of each remote repository on the server, brought up to date with an incremental fetch, so the
+ * history can be read locally whatever protocol the repository is served over.
+ * <p/>
+ * After each fetch the mirror's commit-graph is rewritten, when git is new enough to write one, so both git and
+ * {@link CommitGraph} can walk the history without opening every commit. A failure there is only logged.
+ * <p/>
+ * The mirrors live in "git-bamboo-mirrors" under java.io.tmpdir. Set -DGIT_MIRROR_DIR=/your/path when starting
+ * Bamboo to keep them somewhere else.
+ */
+public class ExecutorGitMirrorCommand implements GitMirrorCommand {
+    private static final Log log = LogFactory.getLog(ExecutorGitMirrorCommand.class);
+
+    public static final String GIT_MIRROR_DIR = "GIT_MIRROR_DIR";
+
+    private final GitToolchain toolchain;
+    private final String gitExe;
+    private final File mirrorsDirectory;
+    private final CommandExecutor commandExecutor;
+
+    public ExecutorGitMirrorCommand(GitToolchain toolchain, File mirrorsDirectory, CommandExecutor commandExecutor) {
+        this.toolchain = toolchain;
+        this.gitExe = toolchain.getGitExe();
+        this.mirrorsDirectory = mirrorsDirectory;
+        this.commandExecutor = commandExecutor;
+    }
+
+    public static File configuredMirrorsDirectory() {
+        File mirrorsDirectory = SystemProperties.directory(GIT_MIRROR_DIR);
+        return mirrorsDirectory != null ? mirrorsDirectory : new File(System.getProperty("java.io.tmpdir"), "git-bamboo-mirrors");
+    }
+
+    public File update(BuildLogger buildLogger, String repositoryUrl) throws IOException {
+        final File mirrorDirectory = mirrorDirectoryFor(repositoryUrl);
+
+        if (!new File(mirrorDirectory, "HEAD").isFile()) {
+            log.info(buildLogger.addBuildLogEntry("Creating a mirror of '" + repositoryUrl + "' in '" + mirrorDirectory.getAbsolutePath() + "'."));
+            if (!mirrorDirectory.isDirectory() && !mirrorDirectory.mkdirs()) {
+                throw new IOException("Could not create mirror directory '" + mirrorDirectory.getAbsolutePath() + "'");
+            }
+            checkCommandResult(repositoryUrl, commandExecutor.run(new String[]{gitExe, "init", "--bare"}, mirrorDirectory));
+        }
+
+        log.info(buildLogger.addBuildLogEntry("Updating the mirror of '" + repositoryUrl + "' in '" + mirrorDirectory.getAbsolutePath() + "'."));
+        checkCommandResult(repositoryUrl, commandExecutor.run(new String[]{gitExe, "fetch", "--quiet", "--prune", repositoryUrl, "+refs/heads/*:refs/heads/*"}, mirrorDirectory));
+        if (toolchain.supportsCommitGraph()) {
+            writeCommitGraph(mirrorDirectory);
+        }
+        return mirrorDirectory;
+    }
+
+    private void writeCommitGraph(File mirrorDirectory) {
+        try {
+            CommandResult result = commandExecutor.run(new String[]{gitExe, "commit-graph", "write", "--reachable"}, mirrorDirectory);
+            if (!result.isSuccessful()) {
+                log.warn("Could not write the commit-graph of mirror '" + mirrorDirectory.getAbsolutePath() + "': " + result.getErrorOutput().trim());
+            }
+        } catch (IOException e) {
+            log.warn("Could not write the commit-graph of mirror '" + mirrorDirectory.getAbsolutePath() + "'", e);
+        }
+    }
+
+    File mirrorDirectoryFor(String repositoryUrl) {
+        return new File(mirrorsDirectory, directoryNameFor(repositoryUrl));
+    }
+
+    /*
+     * Readable, but unique to the url.
+     */
+    static String directoryNameFor(String repositoryUrl) {
+        String lastPathSegment = repositoryUrl.replaceAll("/+$", "").replaceAll("^.*[/:]", "").replaceAll("[^A-Za-z0-9._-]", "_");
+        return lastPathSegment + "-" + sha1Of(repositoryUrl).substring(0, 12);
+    }
+
+    private static String sha1Of(String text) {
+        try {
+            return ObjectIds.toHex(MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void checkCommandResult(String repositoryUrl, CommandResult result) throws IOException {
+        if (!result.isSuccessful()) {
+            throw new IOException("Could not update the mirror of '" + repositoryUrl + "'. git-fetch: " + result.getErrorOutput());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+/**
+ * Keeps one bare repository per remote repository on an agent, which the working copies of every plan building it
+ * borrow objects from through objects/info/alternates. The cache is fetched into first, so a working copy's own fetch
+ * finds the objects already there (git counts the alternate's refs as ones it has) and transfers next to nothing, and
+ * a new working copy fills up without copying anything.
+ * <p/>
+ * Working copies depend on the cache for their objects, so it never loses any: branches deleted on the remote are
+ * kept, and unreachable objects are never pruned. For the same reason it is off unless -DGIT_OBJECT_CACHE_DIR=/your/path
+ * names somewhere durable when the agent starts; a temporary directory cleaned behind the agent's back would break
+ * every working copy using it.
+ */
+public class ExecutorGitObjectCacheCommand implements GitObjectCacheCommand {
+    private static final Log log = LogFactory.getLog(ExecutorGitObjectCacheCommand.class);
+
+    public static final String GIT_OBJECT_CACHE_DIR = "GIT_OBJECT_CACHE_DIR";
+
+    private final String gitExe;
+    private final File cachesDirectory;
+    private final CommandExecutor commandExecutor;
+
+    public ExecutorGitObjectCacheCommand(String gitExe, File cachesDirectory, CommandExecutor commandExecutor) {
+        this.gitExe = gitExe;
+        this.cachesDirectory = cachesDirectory;
+        this.commandExecutor = commandExecutor;
+    }
+
+    /**
+     * @return null if there is no object cache on this machine
+     */
+    public static File configuredCachesDirectory() {
+        return SystemProperties.directory(GIT_OBJECT_CACHE_DIR);
+    }
+
+    public File update(BuildLogger buildLogger, String repositoryUrl) throws IOException {
+        final File cacheDirectory = cacheDirectoryFor(repositoryUrl);
+
+        if (!new File(cacheDirectory, "HEAD").isFile()) {
+            log.info(buildLogger.addBuildLogEntry("Creating the object cache of '" + repositoryUrl + "' in '" + cacheDirectory.getAbsolutePath() + "'."));
+            if (!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()) {
+                throw new IOException("Could not create object cache directory '" + cacheDirectory.getAbsolutePath() + "'");
+            }
+            checkCommandResult(repositoryUrl, "git-init: ", commandExecutor.run(new String[]{gitExe, "init", "--bare"}, cacheDirectory));
+            checkCommandResult(repositoryUrl, "git-config: ", commandExecutor.run(new String[]{gitExe, "config", "gc.pruneExpire", "never"}, cacheDirectory));
+        }
+
+        log.info(buildLogger.addBuildLogEntry("Updating the object cache of '" + repositoryUrl + "' in '" + cacheDirectory.getAbsolutePath() + "'."));
+        checkCommandResult(repositoryUrl, "git-fetch: ", commandExecutor.run(new String[]{gitExe, "fetch", "--quiet", "--no-tags", repositoryUrl, "+refs/heads/*:refs/heads/*"}, cacheDirectory));
+        return cacheDirectory;
+    }
+
+    /*
+     * Only ever adds to the alternates file, never rewrites what is there.
+     */
+    public void share(File cacheDirectory, File sourceCodeDirectory) throws IOException {
+        GitDirectory gitDirectory = GitDirectory.find(sourceCodeDirectory);
+        if (gitDirectory == null) {
+            throw new IOException("'" + sourceCodeDirectory.getAbsolutePath() + "' is not a git repository");
+        }
+        String cacheObjects = new File(cacheDirectory, "objects").getAbsolutePath();
+        File alternates = new File(gitDirectory.getObjectsDirectory(), "info/alternates");
+        if (alternates.isFile() && lists(alternates, cacheObjects)) {
+            return;
+        }
+
+        alternates.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(alternates, true);
+        try {
+            out.write((cacheObjects + "\n").getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    public File cacheDirectoryFor(String repositoryUrl) {
+        return new File(cachesDirectory, ExecutorGitMirrorCommand.directoryNameFor(repositoryUrl));
+    }
+
+    /*
+     * The lock file sits beside the cache rather than in it, so it can be taken before the cache exists.
+     */
+    public Closeable lock(String repositoryUrl) throws IOException {
+        return RepositoryFileLock.acquire(new File(cachesDirectory, ExecutorGitMirrorCommand.directoryNameFor(repositoryUrl) + ".lock"));
+    }
+
+    private boolean lists(File alternates, String objectsDirectory) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(alternates), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().equals(objectsDirectory)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void checkCommandResult(String repositoryUrl, String command, CommandResult result) throws IOException {
+        if (!result.isSuccessful()) {
+            throw new IOException("Could not update the object cache of '" + repositoryUrl + "'. " + command + result.getErrorOutput());
+        }
+    }
+}
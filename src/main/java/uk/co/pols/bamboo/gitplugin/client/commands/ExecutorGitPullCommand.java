@@ -13,32 +13,52 @@ public class ExecutorGitPullCommand implements GitPullCommand {
     private String gitExe;
     private File sourceCodeDirectory;
     private CommandExecutor commandExecutor;
+    private ObjectLookup objectLookup;
+    private RevisionResolver revisionResolver;
 
-    public ExecutorGitPullCommand(String gitExe, File sourceCodeDirectory, CommandExecutor commandExecutor) {
+    public ExecutorGitPullCommand(String gitExe, File sourceCodeDirectory, CommandExecutor commandExecutor, ObjectLookup objectLookup, RevisionResolver revisionResolver) {
         this.gitExe = gitExe;
         this.sourceCodeDirectory = sourceCodeDirectory;
         this.commandExecutor = commandExecutor;
+        this.objectLookup = objectLookup;
+        this.revisionResolver = revisionResolver;
     }
 
     public void pullUpdatesFromRemoteRepository(BuildLogger buildLogger, String repositoryUrl, String branch) throws IOException {
         log.info(buildLogger.addBuildLogEntry("Pulling source from branch '" + branch + "' @ '" + repositoryUrl + "' into '" + sourceCodeDirectory.getAbsolutePath() + "'."));
 
-        String pullOutput = commandExecutor.execute(new String[]{gitExe, "pull", repositoryUrl, branch + ":" + branch}, sourceCodeDirectory);
-        checkCommandOutput(buildLogger, repositoryUrl, pullOutput);
+        BuildLogOutputStream.run(commandExecutor, buildLogger, "Could not pull from '" + repositoryUrl + "'. git-pull: ", new String[]{gitExe, "pull", "--progress", repositoryUrl, branch + ":" + branch}, sourceCodeDirectory);
+    }
+
+    /*
+     * Looking in the files first is cheap and usually answers no; git is only asked whether what's there is a commit.
+     */
+    public boolean hasRevision(String revision) throws IOException {
+        return objectLookup.hasObject(sourceCodeDirectory, revision)
+                && revision.equals(revisionResolver.resolve(sourceCodeDirectory, revision + "^{commit}"));
+    }
+
+    public boolean isAtRevision(String revision) throws IOException {
+        return revision.equals(revisionResolver.resolve(sourceCodeDirectory, "HEAD"));
+    }
 
-        // git submodule commands will silently do nothing if no submodules are configured
-        String submoduleInitOutput = commandExecutor.execute(new String[]{gitExe, "submodule", "init"}, sourceCodeDirectory);
-        checkCommandOutput(buildLogger, repositoryUrl, submoduleInitOutput);
+    /*
+     * Checks the commit out detached rather than merging it, so the working copy ends up at exactly that commit even
+     * when it is behind what's checked out now, or on a line of history that has since been rewritten.
+     */
+    public String checkoutLocalRevision(BuildLogger buildLogger, String revision) throws IOException {
+        log.info(buildLogger.addBuildLogEntry("Checking out revision '" + revision + "', which is already in '" + sourceCodeDirectory.getAbsolutePath() + "'."));
 
-        String submoduleUpdateOutput = commandExecutor.execute(new String[]{gitExe, "submodule", "update"}, sourceCodeDirectory);
-        checkCommandOutput(buildLogger, repositoryUrl, submoduleUpdateOutput);
+        CommandResult checkoutResult = commandExecutor.run(new String[]{gitExe, "checkout", "-q", revision}, sourceCodeDirectory);
+        checkCommandResult(buildLogger, "Could not check out '" + revision + "'. git-checkout: ", checkoutResult);
+        return revisionResolver.resolve(sourceCodeDirectory, "HEAD");
     }
 
-    private void checkCommandOutput(BuildLogger buildLogger, String repositoryUrl, String output) throws IOException {
-        if (output.contains("fatal:")) {
-            throw new IOException("Could not pull from '" + repositoryUrl + "'. git-pull: " + output);
+    private void checkCommandResult(BuildLogger buildLogger, String failure, CommandResult result) throws IOException {
+        if (!result.isSuccessful()) {
+            throw new IOException(failure + result.getErrorOutput());
         } else {
-            log.info(buildLogger.addBuildLogEntry(output));
+            log.info(buildLogger.addBuildLogEntry(result.getOutput() + result.getErrorOutput()));
         }
     }
 }
\ No newline at end of file
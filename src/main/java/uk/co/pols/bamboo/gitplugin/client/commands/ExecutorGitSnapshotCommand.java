@@ -0,0 +1,153 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Keeps a git bundle of each repository on an agent, so a working copy created on an agent that has just started
+ * (an elastic agent with nothing in its build directory) starts from a copy on local disk rather than fetching the
+ * whole history.
+ * <p/>
+ * The bundle holds the history of the HEAD of a working copy that was brought up to date, and is restored into a new
+ * working copy as refs/bamboo/snapshot. The fetch that follows counts that ref as one the working copy has, so only
+ * the commits since the snapshot cross the network. A bundle is written beside the old one and renamed over it, so a
+ * working copy being restored never reads half a snapshot.
+ * <p/>
+ * Snapshots are off unless -DGIT_SNAPSHOT_DIR=/your/path says where to keep them; point it at something that
+ * outlives the agent, such as a volume baked into the agent's image. A snapshot is taken again once it is older than
+ * -DGIT_SNAPSHOT_MAX_AGE seconds, a day by default.
+ */
+public class ExecutorGitSnapshotCommand implements GitSnapshotCommand {
+    private static final Log log = LogFactory.getLog(ExecutorGitSnapshotCommand.class);
+
+    public static final String GIT_SNAPSHOT_DIR = "GIT_SNAPSHOT_DIR";
+    public static final String GIT_SNAPSHOT_MAX_AGE = "GIT_SNAPSHOT_MAX_AGE";
+    public static final long DEFAULT_MAX_AGE_SECONDS = 24 * 60 * 60;
+    public static final String SNAPSHOT_REF = "refs/bamboo/snapshot";
+
+    private final String gitExe;
+    private final File snapshotsDirectory;
+    private final long maxAgeMillis;
+    private final CommandExecutor commandExecutor;
+
+    public ExecutorGitSnapshotCommand(String gitExe, File snapshotsDirectory, long maxAgeMillis, CommandExecutor commandExecutor) {
+        this.gitExe = gitExe;
+        this.snapshotsDirectory = snapshotsDirectory;
+        this.maxAgeMillis = maxAgeMillis;
+        this.commandExecutor = commandExecutor;
+    }
+
+    /**
+     * @return null if snapshots aren't kept on this machine
+     */
+    public static File configuredSnapshotsDirectory() {
+        return SystemProperties.directory(GIT_SNAPSHOT_DIR);
+    }
+
+    public static long configuredMaxAgeMillis() {
+        return 1000L * SystemProperties.nonNegativeLong(GIT_SNAPSHOT_MAX_AGE, DEFAULT_MAX_AGE_SECONDS);
+    }
+
+    public boolean restore(BuildLogger buildLogger, String repositoryUrl, File sourceCodeDirectory) throws IOException {
+        File snapshot = snapshotFor(repositoryUrl);
+        if (!snapshot.isFile()) {
+            return false;
+        }
+
+        log.info(buildLogger.addBuildLogEntry("Restoring '" + sourceCodeDirectory.getAbsolutePath() + "' from the snapshot of '" + repositoryUrl + "' in '" + snapshot.getAbsolutePath() + "'."));
+        CommandResult result = commandExecutor.run(new String[]{gitExe, "fetch", "--no-tags", snapshot.getAbsolutePath(), "+HEAD:" + SNAPSHOT_REF}, sourceCodeDirectory);
+        if (!result.isSuccessful()) {
+            throw new IOException("Could not restore from the snapshot of '" + repositoryUrl + "'. git-fetch: " + result.getErrorOutput());
+        }
+        return true;
+    }
+
+    public boolean isStale(String repositoryUrl) {
+        File snapshot = snapshotFor(repositoryUrl);
+        return !snapshot.isFile() || snapshot.lastModified() < System.currentTimeMillis() - maxAgeMillis;
+    }
+
+    public void refresh(String repositoryUrl, File sourceCodeDirectory) throws IOException {
+        if (GitDirectory.find(sourceCodeDirectory) == null) {
+            throw new IOException("'" + sourceCodeDirectory.getAbsolutePath() + "' is not a git repository");
+        }
+        if (!isComplete(sourceCodeDirectory)) {
+            log.info("Not taking a snapshot of '" + repositoryUrl + "' from '" + sourceCodeDirectory.getAbsolutePath() + "', which is shallow or a partial clone.");
+            return;
+        }
+        if (!snapshotsDirectory.isDirectory() && !snapshotsDirectory.mkdirs()) {
+            throw new IOException("Could not create snapshot directory '" + snapshotsDirectory.getAbsolutePath() + "'");
+        }
+
+        File snapshot = snapshotFor(repositoryUrl);
+        File partial = File.createTempFile(snapshot.getName(), ".partial", snapshotsDirectory);
+        try {
+            log.info("Taking a snapshot of '" + repositoryUrl + "' from '" + sourceCodeDirectory.getAbsolutePath() + "' in '" + snapshot.getAbsolutePath() + "'.");
+            CommandResult result = commandExecutor.run(new String[]{gitExe, "bundle", "create", partial.getAbsolutePath(), "HEAD"}, sourceCodeDirectory);
+            if (!result.isSuccessful()) {
+                throw new IOException("Could not take a snapshot of '" + repositoryUrl + "'. git-bundle create: " + result.getErrorOutput());
+            }
+            if (!partial.renameTo(snapshot) && !(snapshot.delete() && partial.renameTo(snapshot))) {
+                throw new IOException("Could not replace the snapshot '" + snapshot.getAbsolutePath() + "'");
+            }
+        } finally {
+            partial.delete();
+        }
+    }
+
+    /*
+     * A shallow working copy is missing the commits beyond its boundary, and a partial clone the objects its fetch
+     * filtered out, so a bundle of either couldn't be restored into a new working copy. git marks a partial clone
+     * with extensions.partialClone, and the packs it fetched from the promisor remote with a .promisor file.
+     */
+    public boolean isComplete(File sourceCodeDirectory) {
+        try {
+            GitDirectory gitDirectory = GitDirectory.find(sourceCodeDirectory);
+            if (gitDirectory == null || new File(gitDirectory.getCommonDirectory(), "shallow").exists()) {
+                return false;
+            }
+            String[] promisorPacks = new File(gitDirectory.getObjectsDirectory(), "pack").list(new FilenameFilter() {
+                public boolean accept(File directory, String name) {
+                    return name.endsWith(".promisor");
+                }
+            });
+            return (promisorPacks == null || promisorPacks.length == 0) && !isPartialClone(new File(gitDirectory.getCommonDirectory(), "config"));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean isPartialClone(File config) throws IOException {
+        if (!config.isFile()) {
+            return false;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(config), "UTF-8"));
+        try {
+            boolean inExtensions = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("[")) {
+                    inExtensions = line.toLowerCase().startsWith("[extensions]");
+                } else if (inExtensions && line.toLowerCase().startsWith("partialclone")) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    File snapshotFor(String repositoryUrl) {
+        return new File(snapshotsDirectory, ExecutorGitMirrorCommand.directoryNameFor(repositoryUrl) + ".bundle");
+    }
+}
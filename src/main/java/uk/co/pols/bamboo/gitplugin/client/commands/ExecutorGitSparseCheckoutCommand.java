@@ -0,0 +1,58 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Runs "git sparse-checkout" in cone mode, which matches whole directories and so stays fast however many paths a
+ * plan names. "init --cone" comes first every time: it is what turns cone mode on for git before 2.35, whose "set"
+ * has no --cone, and it leaves an existing sparse checkout alone.
+ */
+public class ExecutorGitSparseCheckoutCommand implements GitSparseCheckoutCommand {
+    private static final Log log = LogFactory.getLog(ExecutorGitSparseCheckoutCommand.class);
+
+    private final String gitExe;
+    private final File sourceCodeDirectory;
+    private final CommandExecutor commandExecutor;
+
+    public ExecutorGitSparseCheckoutCommand(String gitExe, File sourceCodeDirectory, CommandExecutor commandExecutor) {
+        this.gitExe = gitExe;
+        this.sourceCodeDirectory = sourceCodeDirectory;
+        this.commandExecutor = commandExecutor;
+    }
+
+    public void set(BuildLogger buildLogger, List<String> paths) throws IOException {
+        log.info(buildLogger.addBuildLogEntry("Narrowing '" + sourceCodeDirectory.getAbsolutePath() + "' to sparse checkout paths " + paths + "."));
+        checkCommandResult(buildLogger, "init", commandExecutor.run(new String[]{gitExe, "sparse-checkout", "init", "--cone"}, sourceCodeDirectory));
+
+        String[] commandLine = new String[paths.size() + 4];
+        commandLine[0] = gitExe;
+        commandLine[1] = "sparse-checkout";
+        commandLine[2] = "set";
+        commandLine[3] = "--";
+        for (int i = 0; i < paths.size(); i++) {
+            commandLine[i + 4] = paths.get(i);
+        }
+        checkCommandResult(buildLogger, "set", commandExecutor.run(commandLine, sourceCodeDirectory));
+    }
+
+    public void disable(BuildLogger buildLogger) throws IOException {
+        log.info(buildLogger.addBuildLogEntry("Restoring the whole working tree of '" + sourceCodeDirectory.getAbsolutePath() + "'."));
+        checkCommandResult(buildLogger, "disable", commandExecutor.run(new String[]{gitExe, "sparse-checkout", "disable"}, sourceCodeDirectory));
+    }
+
+    private void checkCommandResult(BuildLogger buildLogger, String subcommand, CommandResult result) throws IOException {
+        if (!result.isSuccessful()) {
+            throw new IOException("Could not change the sparse checkout of '" + sourceCodeDirectory.getAbsolutePath() + "'. git-sparse-checkout " + subcommand + ": " + result.getErrorOutput());
+        }
+        String output = result.getOutput() + result.getErrorOutput();
+        if (output.length() > 0) {
+            log.info(buildLogger.addBuildLogEntry(output));
+        }
+    }
+}
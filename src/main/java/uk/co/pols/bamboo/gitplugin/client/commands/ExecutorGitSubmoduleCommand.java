@@ -0,0 +1,228 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Brings the submodules of a working copy in line with the commit it has checked out.
+ * <p/>
+ * Only the submodules whose checked out commit differs from the gitlink the working copy now records are updated,
+ * each by a git of its own running side by side with the others, and a working copy without a .gitmodules file
+ * doesn't run git at all. With an object cache on the agent each submodule borrows objects from the cache of its own
+ * url, so a new one is cloned with --reference and an existing one fetches next to nothing.
+ */
+public class ExecutorGitSubmoduleCommand implements GitSubmoduleCommand {
+    private static final Log log = LogFactory.getLog(ExecutorGitSubmoduleCommand.class);
+
+    private static final String GITLINK_MODE = "160000";
+    private static final String SUBMODULE_PREFIX = "submodule.";
+
+    private final String gitExe;
+    private final File sourceCodeDirectory;
+    private final CommandExecutor commandExecutor;
+    private final AsyncCommandExecutor asyncCommandExecutor;
+    private final RevisionResolver revisionResolver;
+    private final SharedObjectCache sharedObjectCache;
+
+    /**
+     * @param sharedObjectCache null if the agent keeps no object cache
+     */
+    public ExecutorGitSubmoduleCommand(String gitExe, File sourceCodeDirectory, CommandExecutor commandExecutor, AsyncCommandExecutor asyncCommandExecutor, RevisionResolver revisionResolver, SharedObjectCache sharedObjectCache) {
+        this.gitExe = gitExe;
+        this.sourceCodeDirectory = sourceCodeDirectory;
+        this.commandExecutor = commandExecutor;
+        this.asyncCommandExecutor = asyncCommandExecutor;
+        this.revisionResolver = revisionResolver;
+        this.sharedObjectCache = sharedObjectCache;
+    }
+
+    public void update(final BuildLogger buildLogger) throws IOException {
+        if (!new File(sourceCodeDirectory, ".gitmodules").isFile()) {
+            return;
+        }
+
+        Map<String, String> namesByPath = namesByPath();
+        if (namesByPath.isEmpty()) {
+            return;
+        }
+        List<Submodule> changed = changedSubmodules(namesByPath);
+        if (changed.isEmpty()) {
+            log.info(buildLogger.addBuildLogEntry("The submodules of '" + sourceCodeDirectory.getAbsolutePath() + "' are up to date."));
+            return;
+        }
+
+        CommandResult submoduleInitResult = commandExecutor.run(new String[]{gitExe, "submodule", "init"}, sourceCodeDirectory);
+        checkCommandResult(buildLogger, "init", submoduleInitResult);
+        if (sharedObjectCache != null) {
+            Map<String, String> urlsByName = urlsByName();
+            for (Submodule submodule : changed) {
+                submodule.url = urlsByName.get(submodule.name);
+            }
+        }
+
+        List<Future<CommandResult>> updates = new ArrayList<Future<CommandResult>>();
+        for (final Submodule submodule : changed) {
+            updates.add(asyncCommandExecutor.submit(new Callable<CommandResult>() {
+                public CommandResult call() throws IOException {
+                    return update(buildLogger, submodule);
+                }
+            }));
+        }
+
+        IOException failure = null;
+        for (int i = 0; i < changed.size(); i++) {
+            Submodule submodule = changed.get(i);
+            try {
+                CommandResult result = AsyncCommandExecutor.await(updates.get(i));
+                if (!result.isSuccessful()) {
+                    throw new IOException("Could not update submodule '" + submodule.path + "' of '" + sourceCodeDirectory.getAbsolutePath() + "'. git-submodule update: " + result.getErrorOutput());
+                }
+                String output = result.getOutput() + result.getErrorOutput();
+                if (output.length() > 0) {
+                    log.info(buildLogger.addBuildLogEntry(output));
+                }
+                log.info(buildLogger.addBuildLogEntry("Updated submodule '" + submodule.path + "' to '" + submodule.revision + "' in " + submodule.elapsedMillis + " ms."));
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private CommandResult update(BuildLogger buildLogger, Submodule submodule) throws IOException {
+        long start = System.currentTimeMillis();
+        List<String> commandLine = new ArrayList<String>();
+        commandLine.add(gitExe);
+        commandLine.add("submodule");
+        commandLine.add("update");
+        if (sharedObjectCache != null && submodule.url != null) {
+            File submoduleDirectory = new File(sourceCodeDirectory, submodule.path);
+            boolean checkedOut = GitDirectory.find(submoduleDirectory) != null;
+            File cacheDirectory = sharedObjectCache.share(buildLogger, submodule.url, checkedOut ? submoduleDirectory : null);
+            if (cacheDirectory != null && !checkedOut) {
+                commandLine.add("--reference");
+                commandLine.add(cacheDirectory.getAbsolutePath());
+            }
+        }
+        commandLine.add("--");
+        commandLine.add(submodule.path);
+
+        CommandResult result = commandExecutor.run(commandLine.toArray(new String[commandLine.size()]), sourceCodeDirectory);
+        submodule.elapsedMillis = System.currentTimeMillis() - start;
+        return result;
+    }
+
+    /*
+     * A submodule that isn't checked out yet, or whose HEAD isn't the commit the working copy records for it, has
+     * changed.
+     */
+    private List<Submodule> changedSubmodules(Map<String, String> namesByPath) throws IOException {
+        List<String> commandLine = new ArrayList<String>();
+        commandLine.add(gitExe);
+        commandLine.add("ls-files");
+        commandLine.add("--stage");
+        commandLine.add("-z");
+        commandLine.add("--");
+        commandLine.addAll(namesByPath.keySet());
+        CommandResult result = commandExecutor.run(commandLine.toArray(new String[commandLine.size()]), sourceCodeDirectory);
+        if (!result.isSuccessful()) {
+            throw new IOException("Could not list the submodules of '" + sourceCodeDirectory.getAbsolutePath() + "'. git-ls-files: " + result.getErrorOutput());
+        }
+
+        List<Submodule> changed = new ArrayList<Submodule>();
+        for (String entry : result.getOutput().split("\0")) {
+            // <mode> SP <object name> SP <stage> TAB <path>
+            int tab = entry.indexOf('\t');
+            if (tab < 0 || !entry.startsWith(GITLINK_MODE + " ")) {
+                continue;
+            }
+            String path = entry.substring(tab + 1);
+            String revision = entry.substring(GITLINK_MODE.length() + 1, entry.indexOf(' ', GITLINK_MODE.length() + 1));
+            File submoduleDirectory = new File(sourceCodeDirectory, path);
+            if (GitDirectory.find(submoduleDirectory) == null || !revision.equals(revisionResolver.resolve(submoduleDirectory, "HEAD"))) {
+                changed.add(new Submodule(namesByPath.get(path), path, revision));
+            }
+        }
+        return changed;
+    }
+
+    private Map<String, String> namesByPath() throws IOException {
+        Map<String, String> namesByPath = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, String> setting : settings("list the submodules", "-f", ".gitmodules", "--get-regexp", "^submodule\\..*\\.path$").entrySet()) {
+            namesByPath.put(setting.getValue(), nameIn(setting.getKey(), ".path"));
+        }
+        return namesByPath;
+    }
+
+    private Map<String, String> urlsByName() throws IOException {
+        Map<String, String> urlsByName = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, String> setting : settings("read the submodule urls", "--get-regexp", "^submodule\\..*\\.url$").entrySet()) {
+            urlsByName.put(nameIn(setting.getKey(), ".url"), setting.getValue());
+        }
+        return urlsByName;
+    }
+
+    /*
+     * With -z each setting is its key, a newline, its value and a NUL. No match at all exits with 1.
+     */
+    private Map<String, String> settings(String purpose, String... arguments) throws IOException {
+        String[] commandLine = new String[arguments.length + 3];
+        commandLine[0] = gitExe;
+        commandLine[1] = "config";
+        commandLine[2] = "-z";
+        System.arraycopy(arguments, 0, commandLine, 3, arguments.length);
+        CommandResult result = commandExecutor.run(commandLine, sourceCodeDirectory);
+        if (!result.isSuccessful() && result.getExitCode() != 1) {
+            throw new IOException("Could not " + purpose + " of '" + sourceCodeDirectory.getAbsolutePath() + "'. git-config: " + result.getErrorOutput());
+        }
+
+        Map<String, String> settings = new LinkedHashMap<String, String>();
+        for (String setting : result.getOutput().split("\0")) {
+            int newline = setting.indexOf('\n');
+            if (newline > 0) {
+                settings.put(setting.substring(0, newline), setting.substring(newline + 1));
+            }
+        }
+        return settings;
+    }
+
+    private static String nameIn(String key, String suffix) {
+        return key.substring(SUBMODULE_PREFIX.length(), key.length() - suffix.length());
+    }
+
+    private void checkCommandResult(BuildLogger buildLogger, String subcommand, CommandResult result) throws IOException {
+        if (!result.isSuccessful()) {
+            throw new IOException("Could not update the submodules of '" + sourceCodeDirectory.getAbsolutePath() + "'. git-submodule " + subcommand + ": " + result.getErrorOutput());
+        } else {
+            log.info(buildLogger.addBuildLogEntry(result.getOutput() + result.getErrorOutput()));
+        }
+    }
+
+    private static class Submodule {
+        private final String name;
+        private final String path;
+        private final String revision;
+        private String url;
+        private volatile long elapsedMillis;
+
+        private Submodule(String name, String path, String revision) {
+            this.name = name;
+            this.path = path;
+            this.revision = revision;
+        }
+    }
+}
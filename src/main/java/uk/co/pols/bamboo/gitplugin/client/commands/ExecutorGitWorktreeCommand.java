@@ -0,0 +1,55 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Makes plan working copies worktrees of one repository on the agent, so they share its objects and a single fetch
+ * serves them all.
+ */
+public class ExecutorGitWorktreeCommand implements GitWorktreeCommand {
+    private static final Log log = LogFactory.getLog(ExecutorGitWorktreeCommand.class);
+
+    private String gitExe;
+    private File repositoryDirectory;
+    private CommandExecutor commandExecutor;
+
+    public ExecutorGitWorktreeCommand(String gitExe, File repositoryDirectory, CommandExecutor commandExecutor) {
+        this.gitExe = gitExe;
+        this.repositoryDirectory = repositoryDirectory;
+        this.commandExecutor = commandExecutor;
+    }
+
+    public boolean isWorktree(File sourceCodeDirectory) throws IOException {
+        GitDirectory gitDirectory = GitDirectory.find(sourceCodeDirectory);
+        return gitDirectory != null && gitDirectory.getCommonDirectory().getCanonicalFile().equals(repositoryDirectory.getCanonicalFile());
+    }
+
+    public boolean isRepository(File sourceCodeDirectory) throws IOException {
+        return GitDirectory.find(sourceCodeDirectory) != null;
+    }
+
+    public void add(BuildLogger buildLogger, File sourceCodeDirectory, String revision) throws IOException {
+        log.info(buildLogger.addBuildLogEntry("Creating worktree '" + sourceCodeDirectory.getAbsolutePath() + "' of '" + repositoryDirectory.getAbsolutePath() + "' at revision '" + revision + "'."));
+
+        CommandResult addResult = commandExecutor.run(new String[]{gitExe, "worktree", "add", "--detach", sourceCodeDirectory.getAbsolutePath(), revision}, repositoryDirectory);
+        checkCommandResult(buildLogger, "Could not create worktree '" + sourceCodeDirectory.getAbsolutePath() + "'. git-worktree add: ", addResult);
+    }
+
+    public void prune(BuildLogger buildLogger) throws IOException {
+        CommandResult pruneResult = commandExecutor.run(new String[]{gitExe, "worktree", "prune"}, repositoryDirectory);
+        checkCommandResult(buildLogger, "Could not prune the worktrees of '" + repositoryDirectory.getAbsolutePath() + "'. git-worktree prune: ", pruneResult);
+    }
+
+    private void checkCommandResult(BuildLogger buildLogger, String failure, CommandResult result) throws IOException {
+        if (!result.isSuccessful()) {
+            throw new IOException(failure + result.getErrorOutput());
+        } else if (result.getOutput().length() + result.getErrorOutput().length() > 0) {
+            log.info(buildLogger.addBuildLogEntry(result.getOutput() + result.getErrorOutput()));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.commit.Commit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the commits made since the last build out of a local mirror of the remote repository.
+ * <p/>
+ * When the mirror's commit-graph already holds both ends of the range it is asked first: an empty range needs no
+ * "git log" at all, and a branch whose history no longer contains the last built commit is reported as force-pushed.
+ */
+public class ExecutorMirrorGitLogCommand implements GitLogCommand {
+    private static final Log log = LogFactory.getLog(ExecutorMirrorGitLogCommand.class);
+
+    private final String gitExe;
+    private final File mirrorDirectory;
+    private final String branch;
+    private String lastBuiltRevision;
+    private final CommandExecutor commandExecutor;
+    private final RevisionResolver revisionResolver;
+    private final CommitGraphCache commitGraphs;
+
+    public ExecutorMirrorGitLogCommand(String gitExe, File mirrorDirectory, String branch, String lastBuiltRevision, CommandExecutor commandExecutor, RevisionResolver revisionResolver, CommitGraphCache commitGraphs) {
+        this.gitExe = gitExe;
+        this.mirrorDirectory = mirrorDirectory;
+        this.branch = branch;
+        this.lastBuiltRevision = lastBuiltRevision;
+        this.commandExecutor = commandExecutor;
+        this.revisionResolver = revisionResolver;
+        this.commitGraphs = commitGraphs;
+    }
+
+    public List<Commit> extractCommits() throws IOException {
+        if (lastBuiltRevision != null && nothingNewInCommitGraph()) {
+            log.info("No commits on '" + branch + "' in mirror '" + mirrorDirectory.getAbsolutePath() + "' since '" + lastBuiltRevision + "'");
+            return Collections.emptyList();
+        }
+
+        final String[] commandLine = getCommandLine();
+        log.info(Arrays.toString(commandLine));
+        final NulDelimitedGitLogParser logParser = new NulDelimitedGitLogParser();
+        final List<Commit> commits = new ArrayList<Commit>();
+
+        CommandResult result = commandExecutor.execute(commandLine, mirrorDirectory, new OutputHandler() {
+            public void handle(InputStream output) throws IOException {
+                logParser.parse(output, null, new CommitHandler() {
+                    public void handle(Commit commit) {
+                        commits.add(commit);
+                    }
+                });
+            }
+        });
+        if (!result.isSuccessful()) {
+            throw new IOException("Could not read history of '" + branch + "' from mirror '" + mirrorDirectory.getAbsolutePath() + "'. git-log: " + result.getErrorOutput().trim());
+        }
+        lastBuiltRevision = logParser.getMostRecentCommitDate();
+
+        return commits;
+    }
+
+    private boolean nothingNewInCommitGraph() throws IOException {
+        CommitGraph commitGraph = commitGraphs.forRepository(mirrorDirectory);
+        if (commitGraph == null) {
+            return false;
+        }
+        String head = revisionResolver.resolve(mirrorDirectory, "refs/heads/" + branch);
+        if (head == null) {
+            return false;
+        }
+        if (head.equals(lastBuiltRevision) || Boolean.TRUE.equals(commitGraph.isAncestor(head, lastBuiltRevision))) {
+            return true;
+        }
+        if (Boolean.FALSE.equals(commitGraph.isAncestor(lastBuiltRevision, head))) {
+            log.warn("'" + branch + "' in mirror '" + mirrorDirectory.getAbsolutePath() + "' was force-pushed: '" + lastBuiltRevision + "' is no longer in its history");
+        }
+        return false;
+    }
+
+    public String getLastRevisionChecked() {
+        throw new IllegalStateException("Last revision checked not available for mirror log command.");
+    }
+
+    public String getHeadRevision(String branch) throws IOException {
+        throw new IllegalStateException("Head revision checked not available for mirror log command.");
+    }
+
+    private String[] getCommandLine() {
+        String revisionRange = String.format("%s..%s", lastBuiltRevision == null ? branch + "~" : lastBuiltRevision, branch);
+        return new String[]{gitExe, "log", revisionRange, "-z", "--numstat", NulDelimitedGitLogParser.LOG_FORMAT, "--"};
+    }
+}
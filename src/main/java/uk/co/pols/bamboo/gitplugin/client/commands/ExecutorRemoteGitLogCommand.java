@@ -2,6 +2,8 @@ package uk.co.pols.bamboo.gitplugin.client.commands;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -50,11 +52,21 @@ public class ExecutorRemoteGitLogCommand implements GitLogCommand {
 
         final String[] commandLine = getCommandLine(sshUserAndHost, repositoryPath);
         log.info(Arrays.toString(commandLine));
-        String logText = commandExecutor.execute(commandLine, new File(System.getProperty("java.io.tmpdir")));
-
-        GitLogParser logParser = new GitLogParser(logText);
-
-        List<Commit> commits = logParser.extractCommits(null);
+        final NulDelimitedGitLogParser logParser = new NulDelimitedGitLogParser();
+        final List<Commit> commits = new ArrayList<Commit>();
+
+        CommandResult result = commandExecutor.execute(commandLine, new File(System.getProperty("java.io.tmpdir")), new OutputHandler() {
+            public void handle(InputStream output) throws IOException {
+                logParser.parse(output, null, new CommitHandler() {
+                    public void handle(Commit commit) {
+                        commits.add(commit);
+                    }
+                });
+            }
+        });
+        if (!result.isSuccessful()) {
+            throw new IOException("Could not read history of '" + repositoryPath + "' over ssh from '" + sshUserAndHost + "'. git-log: " + result.getErrorOutput().trim());
+        }
         lastBuiltRevision = logParser.getMostRecentCommitDate();
 
         return commits;
@@ -78,6 +90,6 @@ public class ExecutorRemoteGitLogCommand implements GitLogCommand {
 
     private String[] getCommandLine(String sshTarget, String repoDir) {
         String revisionRange =  String.format("%s..%s", lastBuiltRevision == null ? branch + "~" : lastBuiltRevision, branch);
-        return new String[] {"ssh", sshTarget, "git", "--git-dir=" + repoDir, "log", revisionRange, "--numstat", "--date=iso8601"};
+        return new String[] {"ssh", sshTarget, "git", "--git-dir=" + repoDir, "log", revisionRange, "-z", "--numstat", NulDelimitedGitLogParser.LOG_FORMAT};
     }
 }
\ No newline at end of file
@@ -0,0 +1,75 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How much of the repository a fetch brings into a working copy: the full history, or only the last few commits
+ * (a shallow fetch), and every object or only the ones the checkout needs (a partial clone, whose missing blobs and
+ * trees git fetches from the remote repository when something asks for them).
+ */
+public class FetchOptions implements Serializable {
+    public static final FetchOptions FULL = new FetchOptions(0, null);
+
+    public static final String BLOBLESS = "blob:none";
+    public static final String TREELESS = "tree:0";
+
+    private final int depth;
+    private final String filter;
+
+    /**
+     * @param depth  how many commits of history to fetch; 0 for all of it
+     * @param filter the objects to leave behind, {@link #BLOBLESS} or {@link #TREELESS}; null for none
+     */
+    public FetchOptions(int depth, String filter) {
+        this.depth = depth;
+        this.filter = filter == null || filter.length() == 0 ? null : filter;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public String getFilter() {
+        return filter;
+    }
+
+    public boolean isShallow() {
+        return depth > 0;
+    }
+
+    public boolean isFull() {
+        return depth == 0 && filter == null;
+    }
+
+    /**
+     * @return the git fetch options for a fetch reaching back this many commits; 0 for the whole history
+     */
+    List<String> arguments(int commits) {
+        List<String> arguments = new ArrayList<String>();
+        if (commits > 0) {
+            arguments.add("--depth=" + commits);
+        }
+        if (filter != null) {
+            arguments.add("--filter=" + filter);
+        }
+        return arguments;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof FetchOptions)) {
+            return false;
+        }
+        FetchOptions other = (FetchOptions) o;
+        return depth == other.depth && (filter == null ? other.filter == null : filter.equals(other.filter));
+    }
+
+    public int hashCode() {
+        return 31 * depth + (filter == null ? 0 : filter.hashCode());
+    }
+
+    public String toString() {
+        return isFull() ? "full" : "depth " + (depth > 0 ? String.valueOf(depth) : "full") + ", filter " + (filter == null ? "none" : filter);
+    }
+}
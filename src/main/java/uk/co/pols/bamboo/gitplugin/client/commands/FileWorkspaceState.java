@@ -0,0 +1,134 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Keeps the workspace state in a small properties file inside the working copy's git directory, where neither a
+ * build nor git will touch it.
+ * <p/>
+ * The record is only written once an update has finished, so a pull or submodule update that failed part way leaves
+ * the old one behind; it names the old revision, which HEAD is no longer at, so the next build does the work again.
+ */
+public class FileWorkspaceState implements WorkspaceState {
+    static final String FILE_NAME = "bamboo-workspace";
+
+    private static final String REPOSITORY_URL = "repository.url";
+    private static final String BRANCH = "branch";
+    private static final String REVISION = "revision";
+    private static final String SPARSE_PATHS = "sparse.paths";
+
+    private final File sourceCodeDirectory;
+    private final RevisionResolver revisionResolver;
+
+    public FileWorkspaceState(File sourceCodeDirectory, RevisionResolver revisionResolver) {
+        this.sourceCodeDirectory = sourceCodeDirectory;
+        this.revisionResolver = revisionResolver;
+    }
+
+    public boolean isAt(String repositoryUrl, String branch, String revision) throws IOException {
+        GitDirectory gitDirectory = GitDirectory.find(sourceCodeDirectory);
+        if (gitDirectory == null) {
+            return false;
+        }
+        Properties state = read(new File(gitDirectory.getDirectory(), FILE_NAME));
+        return state != null
+                && revision.equals(state.getProperty(REVISION))
+                && repositoryUrl.equals(state.getProperty(REPOSITORY_URL))
+                && branch.equals(state.getProperty(BRANCH))
+                && revision.equals(revisionResolver.resolve(sourceCodeDirectory, "HEAD"));
+    }
+
+    public void record(String repositoryUrl, String branch, String revision) throws IOException {
+        GitDirectory gitDirectory = GitDirectory.find(sourceCodeDirectory);
+        if (gitDirectory == null) {
+            return;
+        }
+        Properties state = readOrCreate(gitDirectory);
+        state.setProperty(REPOSITORY_URL, repositoryUrl);
+        state.setProperty(BRANCH, branch);
+        state.setProperty(REVISION, revision);
+        write(gitDirectory, state);
+    }
+
+    public boolean hasSparsePaths(List<String> paths) throws IOException {
+        GitDirectory gitDirectory = GitDirectory.find(sourceCodeDirectory);
+        if (gitDirectory == null) {
+            return paths.isEmpty();
+        }
+        Properties state = readOrCreate(gitDirectory);
+        return joined(paths).equals(state.getProperty(SPARSE_PATHS, ""));
+    }
+
+    public void recordSparsePaths(List<String> paths) throws IOException {
+        GitDirectory gitDirectory = GitDirectory.find(sourceCodeDirectory);
+        if (gitDirectory == null) {
+            return;
+        }
+        Properties state = readOrCreate(gitDirectory);
+        state.setProperty(SPARSE_PATHS, joined(paths));
+        write(gitDirectory, state);
+    }
+
+    private static String joined(List<String> paths) {
+        StringBuilder joined = new StringBuilder();
+        for (String path : paths) {
+            joined.append(path).append('\n');
+        }
+        return joined.toString();
+    }
+
+    private Properties readOrCreate(GitDirectory gitDirectory) throws IOException {
+        Properties state = read(new File(gitDirectory.getDirectory(), FILE_NAME));
+        return state == null ? new Properties() : state;
+    }
+
+    /*
+     * Written to a temporary file and renamed over the old record, so a build reading it never sees half of one.
+     */
+    private void write(GitDirectory gitDirectory, Properties state) throws IOException {
+        File file = new File(gitDirectory.getDirectory(), FILE_NAME);
+        File temporary = new File(gitDirectory.getDirectory(), FILE_NAME + ".tmp");
+        OutputStream out = new FileOutputStream(temporary);
+        try {
+            state.store(out, "Last update of " + sourceCodeDirectory.getAbsolutePath());
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            // Windows won't rename over an existing file
+            file.delete();
+            if (!temporary.renameTo(file)) {
+                temporary.delete();
+                throw new IOException("Could not write the workspace state to '" + file.getAbsolutePath() + "'");
+            }
+        }
+    }
+
+    private Properties read(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties state = new Properties();
+        InputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            // replaced while we looked
+            return null;
+        }
+        try {
+            state.load(in);
+        } finally {
+            in.close();
+        }
+        return state;
+    }
+}
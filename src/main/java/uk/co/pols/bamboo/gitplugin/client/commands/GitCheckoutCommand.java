@@ -0,0 +1,24 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+
+import java.io.IOException;
+
+public interface GitCheckoutCommand {
+    /**
+     * Brings the branch into the working copy's remote-tracking branch, leaving the tags behind.
+     */
+    void fetchBranch(BuildLogger buildLogger, String repositoryUrl, String branch, FetchOptions fetchOptions) throws IOException;
+
+    /**
+     * Fetches more of the branch's history into a shallow working copy.
+     *
+     * @param depth how many commits back from the tip to reach; 0 for the whole history
+     */
+    void deepenBranch(BuildLogger buildLogger, String repositoryUrl, String branch, FetchOptions fetchOptions, int depth) throws IOException;
+
+    /**
+     * Checks the commit out with a detached HEAD, throwing away anything a previous build changed.
+     */
+    void checkoutDetached(BuildLogger buildLogger, String revision) throws IOException;
+}
@@ -0,0 +1,19 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a command ran past its deadline and was killed.
+ */
+public class GitCommandTimeoutException extends IOException {
+    private final long timeoutMillis;
+
+    public GitCommandTimeoutException(String command, long timeoutMillis) {
+        super("'" + command + "' was killed after running for more than " + (timeoutMillis / 1000) + " seconds");
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+}
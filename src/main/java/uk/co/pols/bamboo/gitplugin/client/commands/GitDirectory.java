@@ -0,0 +1,82 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Where a repository on this machine keeps its refs and objects: the .git directory of a working copy, a bare
+ * repository such as a mirror, or the git directory a linked worktree's .git file points at. In a linked worktree
+ * HEAD (and refs/bisect, refs/worktree) live in its own git directory and everything else in the common one it names.
+ */
+class GitDirectory {
+    private static final String GITDIR_PREFIX = "gitdir: ";
+
+    private final File directory;
+    private final File commonDirectory;
+
+    GitDirectory(File directory, File commonDirectory) {
+        this.directory = directory;
+        this.commonDirectory = commonDirectory;
+    }
+
+    /**
+     * @return null if the directory isn't a repository
+     */
+    static GitDirectory find(File repositoryDirectory) throws IOException {
+        File dotGit = new File(repositoryDirectory, ".git");
+        File directory;
+        if (dotGit.isDirectory()) {
+            directory = dotGit;
+        } else if (dotGit.isFile()) {
+            String gitdir = RefFileResolver.firstLine(dotGit);
+            if (gitdir == null || !gitdir.startsWith(GITDIR_PREFIX)) {
+                return null;
+            }
+            directory = relativeTo(repositoryDirectory, gitdir.substring(GITDIR_PREFIX.length()).trim());
+        } else if (new File(repositoryDirectory, "HEAD").isFile() && new File(repositoryDirectory, "refs").isDirectory()) {
+            directory = repositoryDirectory;
+        } else {
+            return null;
+        }
+
+        File commondir = new File(directory, "commondir");
+        if (commondir.isFile()) {
+            String common = RefFileResolver.firstLine(commondir);
+            if (common != null) {
+                return new GitDirectory(directory, relativeTo(directory, common.trim()));
+            }
+        }
+        return new GitDirectory(directory, directory);
+    }
+
+    /**
+     * @return the git directory of this working copy, which holds its HEAD and index
+     */
+    File getDirectory() {
+        return directory;
+    }
+
+    File getCommonDirectory() {
+        return commonDirectory;
+    }
+
+    File getObjectsDirectory() {
+        return new File(commonDirectory, "objects");
+    }
+
+    File directoryFor(String refName) {
+        if (refName.indexOf('/') < 0 || refName.startsWith("refs/bisect/") || refName.startsWith("refs/worktree/")) {
+            return directory;
+        }
+        return commonDirectory;
+    }
+
+    static File relativeTo(File base, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(base, path);
+    }
+
+    public String toString() {
+        return directory.getAbsolutePath();
+    }
+}
@@ -1,8 +1,12 @@
 package uk.co.pols.bamboo.gitplugin.client.commands;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 
 public interface GitListRemoteCommand
 {
     String getLastCommit(String repositoryUrl, String branch) throws IOException;
+
+    Map<String, String> getLastCommits(String repositoryUrl, Collection<String> branches) throws IOException;
 }
@@ -0,0 +1,10 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+
+import java.io.File;
+import java.io.IOException;
+
+public interface GitMirrorCommand {
+    File update(BuildLogger buildLogger, String repositoryUrl) throws IOException;
+}
@@ -0,0 +1,29 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+public interface GitObjectCacheCommand {
+    File cacheDirectoryFor(String repositoryUrl);
+
+    /**
+     * Waits for any other agent on this machine to finish with the repository's cache, and keeps them out until
+     * the lock is closed. Callers in this JVM must already hold the repository's lock.
+     */
+    Closeable lock(String repositoryUrl) throws IOException;
+
+    /**
+     * Fetches the repository's branches into this machine's object cache.
+     *
+     * @return the cache repository
+     */
+    File update(BuildLogger buildLogger, String repositoryUrl) throws IOException;
+
+    /**
+     * Lets a working copy read objects straight out of the cache, so it never has to fetch them itself.
+     */
+    void share(File cacheDirectory, File sourceCodeDirectory) throws IOException;
+}
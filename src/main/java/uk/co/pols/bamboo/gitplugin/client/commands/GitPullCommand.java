@@ -6,4 +6,19 @@ import java.io.IOException;
 
 public interface GitPullCommand {
     void pullUpdatesFromRemoteRepository(BuildLogger buildLogger, String repositoryUrl, String branch) throws IOException;
+
+    /**
+     * @return true if the working copy already holds the commit, so it can be checked out without fetching anything
+     */
+    boolean hasRevision(String revision) throws IOException;
+
+    /**
+     * @return true if the working copy has the commit checked out already
+     */
+    boolean isAtRevision(String revision) throws IOException;
+
+    /**
+     * @return the commit the working copy is at afterwards
+     */
+    String checkoutLocalRevision(BuildLogger buildLogger, String revision) throws IOException;
 }
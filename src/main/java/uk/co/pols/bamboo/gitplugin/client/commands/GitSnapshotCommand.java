@@ -0,0 +1,32 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+
+import java.io.File;
+import java.io.IOException;
+
+public interface GitSnapshotCommand {
+    /**
+     * Fills a newly initialised working copy with the objects in this machine's snapshot of the repository, so its
+     * first fetch only has to bring in what has changed since the snapshot was taken.
+     *
+     * @return false if there is no snapshot of the repository
+     */
+    boolean restore(BuildLogger buildLogger, String repositoryUrl, File sourceCodeDirectory) throws IOException;
+
+    /**
+     * @return true if there is no snapshot of the repository, or it was taken too long ago
+     */
+    boolean isStale(String repositoryUrl);
+
+    /**
+     * @return false if the working copy is shallow or a partial clone, so a snapshot of it couldn't be restored
+     */
+    boolean isComplete(File sourceCodeDirectory);
+
+    /**
+     * Replaces the repository's snapshot with one of the history of the working copy's HEAD, unless the working copy isn't
+     * {@link #isComplete complete}.
+     */
+    void refresh(String repositoryUrl, File sourceCodeDirectory) throws IOException;
+}
@@ -0,0 +1,18 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+
+import java.io.IOException;
+import java.util.List;
+
+public interface GitSparseCheckoutCommand {
+    /**
+     * Narrows the working tree to the files at the top level and the directories given (cone mode).
+     */
+    void set(BuildLogger buildLogger, List<String> paths) throws IOException;
+
+    /**
+     * Brings back the whole working tree.
+     */
+    void disable(BuildLogger buildLogger) throws IOException;
+}
@@ -0,0 +1,9 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+
+import java.io.IOException;
+
+public interface GitSubmoduleCommand {
+    void update(BuildLogger buildLogger) throws IOException;
+}
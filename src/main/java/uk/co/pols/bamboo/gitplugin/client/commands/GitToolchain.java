@@ -0,0 +1,89 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The git binary the plugin runs and what that version of git can do, so commands can pick a faster way of working
+ * without asking git each time.
+ * <p/>
+ * An unrecognised version is treated as 0.0, which supports none of the optional features.
+ */
+public class GitToolchain {
+    private static final Pattern VERSION_PATTERN = Pattern.compile("git version (\\d+)\\.(\\d+)(?:\\.(\\d+))?.*", Pattern.DOTALL);
+
+    private final String gitExe;
+    private final String version;
+    private final int major;
+    private final int minor;
+    private final int patch;
+
+    public GitToolchain(String gitExe, String version, int major, int minor, int patch) {
+        this.gitExe = gitExe;
+        this.version = version;
+        this.major = major;
+        this.minor = minor;
+        this.patch = patch;
+    }
+
+    /**
+     * @param versionOutput what "git --version" printed, e.g. "git version 2.39.5" or "git version 2.41.0.windows.1"
+     */
+    public static GitToolchain parse(String gitExe, String versionOutput) {
+        String version = versionOutput == null ? "" : versionOutput.trim();
+        Matcher matcher = VERSION_PATTERN.matcher(version);
+        if (!matcher.matches()) {
+            return new GitToolchain(gitExe, version, 0, 0, 0);
+        }
+        return new GitToolchain(gitExe, version,
+                Integer.parseInt(matcher.group(1)),
+                Integer.parseInt(matcher.group(2)),
+                matcher.group(3) == null ? 0 : Integer.parseInt(matcher.group(3)));
+    }
+
+    public String getGitExe() {
+        return gitExe;
+    }
+
+    public boolean isAtLeast(int major, int minor, int patch) {
+        if (this.major != major) {
+            return this.major > major;
+        }
+        if (this.minor != minor) {
+            return this.minor > minor;
+        }
+        return this.patch >= patch;
+    }
+
+    /**
+     * "git worktree add" (git 2.5)
+     */
+    public boolean supportsWorktrees() {
+        return isAtLeast(2, 5, 0);
+    }
+
+    /**
+     * Writing and reading the commit-graph file (git 2.18)
+     */
+    public boolean supportsCommitGraph() {
+        return isAtLeast(2, 18, 0);
+    }
+
+    /**
+     * "--filter" on clone and fetch (git 2.19)
+     */
+    public boolean supportsPartialClone() {
+        return isAtLeast(2, 19, 0);
+    }
+
+    /**
+     * The "git sparse-checkout" command in cone mode (git 2.25)
+     */
+    public boolean supportsSparseCheckout() {
+        return isAtLeast(2, 25, 0);
+    }
+
+    public String toString() {
+        return "'" + gitExe + "' (" + (version.length() > 0 ? version : "unknown version") + ")";
+    }
+}
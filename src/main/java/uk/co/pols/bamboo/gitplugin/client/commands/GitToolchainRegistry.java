@@ -0,0 +1,56 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Finds the git binary and asks it for its version the first time a toolchain is wanted, then answers every later
+ * caller from that, so a poll doesn't fork "which git" and "git --version" for every command it runs.
+ * <p/>
+ * Restart Bamboo (or call {@link #reset()}) to pick up a different git.
+ */
+public class GitToolchainRegistry {
+    private static final Log log = LogFactory.getLog(GitToolchainRegistry.class);
+
+    private final GitCommandDiscoverer gitCommandDiscoverer;
+    private final CommandExecutor commandExecutor;
+    private volatile GitToolchain toolchain;
+
+    public GitToolchainRegistry(GitCommandDiscoverer gitCommandDiscoverer, CommandExecutor commandExecutor) {
+        this.gitCommandDiscoverer = gitCommandDiscoverer;
+        this.commandExecutor = commandExecutor;
+    }
+
+    public GitToolchain toolchain() {
+        GitToolchain resolved = toolchain;
+        if (resolved == null) {
+            synchronized (this) {
+                resolved = toolchain;
+                if (resolved == null) {
+                    resolved = toolchain = discover();
+                }
+            }
+        }
+        return resolved;
+    }
+
+    public synchronized void reset() {
+        toolchain = null;
+    }
+
+    private GitToolchain discover() {
+        String gitExe = gitCommandDiscoverer.gitCommand();
+        GitToolchain discovered;
+        try {
+            discovered = GitToolchain.parse(gitExe, commandExecutor.execute(new String[]{gitExe, "--version"}, new File(System.getProperty("java.io.tmpdir"))));
+        } catch (IOException e) {
+            log.warn("Could not determine the version of git '" + gitExe + "', assuming it has no optional features", e);
+            discovered = GitToolchain.parse(gitExe, null);
+        }
+        log.info("Using git " + discovered);
+        return discovered;
+    }
+}
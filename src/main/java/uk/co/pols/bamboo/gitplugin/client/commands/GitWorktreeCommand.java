@@ -0,0 +1,29 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+
+import java.io.File;
+import java.io.IOException;
+
+public interface GitWorktreeCommand {
+    /**
+     * @return true if the directory is a worktree of this repository
+     */
+    boolean isWorktree(File sourceCodeDirectory) throws IOException;
+
+    /**
+     * @return true if the directory is a repository, or a worktree of one, whichever repository that is
+     */
+    boolean isRepository(File sourceCodeDirectory) throws IOException;
+
+    /**
+     * Creates a worktree with the revision checked out and a detached HEAD, so any number of plans can build the
+     * same branch.
+     */
+    void add(BuildLogger buildLogger, File sourceCodeDirectory, String revision) throws IOException;
+
+    /**
+     * Forgets the worktrees whose directories have been deleted.
+     */
+    void prune(BuildLogger buildLogger) throws IOException;
+}
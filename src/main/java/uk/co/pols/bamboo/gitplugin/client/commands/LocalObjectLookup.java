@@ -0,0 +1,149 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import org.apache.tools.ant.taskdefs.condition.Os;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Looks for an object in a repository's own files: first as a loose object, then in every pack index, then in the
+ * repositories named in objects/info/alternates.
+ * <p/>
+ * Pack indexes are opened once and kept; a pack's name is the hash of its contents, so an index never changes, and
+ * ones git gc has deleted are forgotten the next time their directory is looked at. No more than
+ * {@link #MAX_PACK_INDEXES} are kept, the least recently used going first, and those of repositories that have been
+ * deleted are dropped whenever another is opened.
+ */
+public class LocalObjectLookup implements ObjectLookup {
+    public static final int MAX_PACK_INDEXES = 256;
+
+    private static final int MAX_ALTERNATE_DEPTH = 5;
+
+    private final boolean mayMap = !Os.isFamily(Os.FAMILY_WINDOWS);
+    private final int maxPackIndexes;
+    private final Map<File, PackIndex> packIndexes = new LinkedHashMap<File, PackIndex>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<File, PackIndex> eldest) {
+            return size() > maxPackIndexes;
+        }
+    };
+
+    public LocalObjectLookup() {
+        this(MAX_PACK_INDEXES);
+    }
+
+    public LocalObjectLookup(int maxPackIndexes) {
+        this.maxPackIndexes = maxPackIndexes;
+    }
+
+    public boolean hasObject(File repositoryDirectory, String objectName) throws IOException {
+        byte[] wanted = ObjectIds.parse(objectName);
+        GitDirectory gitDirectory = GitDirectory.find(repositoryDirectory);
+        return wanted != null && gitDirectory != null && hasObject(gitDirectory.getObjectsDirectory(), objectName.toLowerCase(), wanted, 0);
+    }
+
+    private boolean hasObject(File objectsDirectory, String objectName, byte[] wanted, int depth) throws IOException {
+        if (new File(objectsDirectory, objectName.substring(0, 2) + File.separator + objectName.substring(2)).isFile()) {
+            return true;
+        }
+        if (isInAPack(new File(objectsDirectory, "pack"), wanted)) {
+            return true;
+        }
+        if (depth < MAX_ALTERNATE_DEPTH) {
+            for (File alternate : alternates(objectsDirectory)) {
+                if (hasObject(alternate, objectName, wanted, depth + 1)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isInAPack(File packDirectory, byte[] wanted) throws IOException {
+        File[] files = packDirectory.listFiles();
+        Set<File> indexes = new HashSet<File>();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(".idx")) {
+                    indexes.add(file);
+                }
+            }
+        }
+        forgetIndexesNoLongerIn(packDirectory, indexes);
+
+        for (File index : indexes) {
+            PackIndex packIndex = packIndex(index);
+            if (packIndex == null) {
+                try {
+                    packIndex = PackIndex.open(index, wanted.length, mayMap);
+                } catch (FileNotFoundException e) {
+                    // removed by git gc since we listed the directory
+                    continue;
+                }
+                keep(index, packIndex);
+            }
+            if (packIndex.contains(wanted)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return how many pack indexes are open
+     */
+    synchronized int packIndexCount() {
+        return packIndexes.size();
+    }
+
+    private synchronized PackIndex packIndex(File index) {
+        return packIndexes.get(index);
+    }
+
+    private synchronized void forgetIndexesNoLongerIn(File packDirectory, Set<File> indexes) {
+        for (Iterator<File> known = packIndexes.keySet().iterator(); known.hasNext();) {
+            File index = known.next();
+            if (packDirectory.equals(index.getParentFile()) && !indexes.contains(index)) {
+                known.remove();
+            }
+        }
+    }
+
+    private synchronized void keep(File index, PackIndex packIndex) {
+        for (Iterator<File> known = packIndexes.keySet().iterator(); known.hasNext();) {
+            if (!known.next().getParentFile().isDirectory()) {
+                known.remove();
+            }
+        }
+        packIndexes.put(index, packIndex);
+    }
+
+    private Set<File> alternates(File objectsDirectory) throws IOException {
+        Set<File> alternates = new HashSet<File>();
+        File file = new File(objectsDirectory, "info" + File.separator + "alternates");
+        if (!file.isFile()) {
+            return alternates;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    alternates.add(GitDirectory.relativeTo(objectsDirectory, line));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return alternates;
+    }
+}
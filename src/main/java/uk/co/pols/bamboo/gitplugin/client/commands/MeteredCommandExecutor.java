@@ -0,0 +1,67 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Records how many commands ran, how many failed (threw, or exited non-zero where the exit code is known) and how
+ * long they took.
+ */
+public class MeteredCommandExecutor implements CommandExecutor {
+    private final CommandExecutor commandExecutor;
+    private final CommandMetrics metrics;
+
+    public MeteredCommandExecutor(CommandExecutor commandExecutor, CommandMetrics metrics) {
+        this.commandExecutor = commandExecutor;
+        this.metrics = metrics;
+    }
+
+    public String execute(String[] commandLine, File sourceCodeDirectory) throws IOException {
+        long started = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            String output = commandExecutor.execute(commandLine, sourceCodeDirectory);
+            failed = false;
+            return output;
+        } finally {
+            metrics.record(System.currentTimeMillis() - started, failed);
+        }
+    }
+
+    public CommandResult run(String[] commandLine, File sourceCodeDirectory) throws IOException {
+        long started = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            CommandResult result = commandExecutor.run(commandLine, sourceCodeDirectory);
+            failed = !result.isSuccessful();
+            return result;
+        } finally {
+            metrics.record(System.currentTimeMillis() - started, failed);
+        }
+    }
+
+    public CommandResult execute(String[] commandLine, File sourceCodeDirectory, OutputHandler outputHandler) throws IOException {
+        long started = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            CommandResult result = commandExecutor.execute(commandLine, sourceCodeDirectory, outputHandler);
+            failed = !result.isSuccessful();
+            return result;
+        } finally {
+            metrics.record(System.currentTimeMillis() - started, failed);
+        }
+    }
+
+    public int run(String[] commandLine, File sourceCodeDirectory, OutputStream output, OutputStream errorOutput) throws IOException {
+        long started = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            int exitCode = commandExecutor.run(commandLine, sourceCodeDirectory, output, errorOutput);
+            failed = exitCode != 0;
+            return exitCode;
+        } finally {
+            metrics.record(System.currentTimeMillis() - started, failed);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.author.Author;
+import com.atlassian.bamboo.author.AuthorImpl;
+import com.atlassian.bamboo.commit.Commit;
+import com.atlassian.bamboo.commit.CommitFile;
+import com.atlassian.bamboo.commit.CommitFileImpl;
+import com.atlassian.bamboo.commit.CommitImpl;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the machine readable log produced by running git log with "-z --numstat" and {@link #LOG_FORMAT}.
+ * <p/>
+ * Every field is NUL terminated, so fields are found by scanning for NUL bytes rather than by guessing what a line
+ * is from how it starts. Each commit starts with a \001 marker followed by its sha1, author name, ISO date and raw
+ * message, then one "added\tdeleted\tpath" field per changed file. A rename leaves the path empty and puts the old
+ * and new paths in the two fields that follow.
+ */
+public class NulDelimitedGitLogParser {
+    public static final String LOG_FORMAT = "--format=%x01%H%x00%an%x00%ai%x00%B%x00";
+
+    private static final DateTimeFormatter GIT_ISO_DATE_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss Z");
+    private static final byte COMMIT_MARKER = 1;
+    private static final byte NUL = 0;
+    private static final byte TAB = '\t';
+    private static final byte NEWLINE = '\n';
+
+    private String mostRecentCommitDate = null;
+
+    public void parse(InputStream log, String notOnlastRevisionChecked, CommitHandler commitHandler) throws IOException {
+        FieldReader fields = new FieldReader(log);
+        CommitRecord commit = null;
+
+        while (fields.next()) {
+            if (fields.length() > 0 && fields.byteAt(0) == COMMIT_MARKER) {
+                handle(commit, notOnlastRevisionChecked, commitHandler);
+                commit = new CommitRecord(fields.text(1, fields.length()));
+                commit.author = fields.next() ? fields.text(0, fields.length()) : null;
+                commit.date = fields.next() ? fields.text(0, fields.length()) : null;
+                commit.comment = fields.next() ? fields.text(0, fields.length()) : "";
+            } else if (commit != null) {
+                readFileStat(fields, commit);
+            }
+        }
+        handle(commit, notOnlastRevisionChecked, commitHandler);
+    }
+
+    public String getMostRecentCommitDate() {
+        return mostRecentCommitDate;
+    }
+
+    private void readFileStat(FieldReader fields, CommitRecord commit) throws IOException {
+        int start = 0;
+        while (start < fields.length() && fields.byteAt(start) == NEWLINE) {
+            start++;
+        }
+        int linesAddedEnd = fields.indexOf(TAB, start);
+        int linesDeletedEnd = linesAddedEnd < 0 ? -1 : fields.indexOf(TAB, linesAddedEnd + 1);
+        if (linesDeletedEnd < 0) {
+            return;
+        }
+
+        if (linesDeletedEnd + 1 == fields.length()) {
+            if (fields.next() && fields.next()) {
+                commit.files.add(fields.text(0, fields.length()));
+            }
+        } else {
+            commit.files.add(fields.text(linesDeletedEnd + 1, fields.length()));
+        }
+    }
+
+    private void handle(CommitRecord commit, String notOnlastRevisionChecked, CommitHandler commitHandler) {
+        if (commit == null || commit.author == null || commit.date == null) {
+            return;
+        }
+        if (mostRecentCommitDate == null) {
+            mostRecentCommitDate = commit.date;
+        }
+        DateTime date = GIT_ISO_DATE_FORMAT.parseDateTime(commit.date);
+        if (notOnlastRevisionChecked != null && GIT_ISO_DATE_FORMAT.parseDateTime(notOnlastRevisionChecked).equals(date)) {
+            return;
+        }
+        commitHandler.handle(commit.toBambooCommit(date));
+    }
+
+    private static class CommitRecord {
+        private final String commitId;
+        private final List<String> files = new ArrayList<String>();
+        private String author;
+        private String date;
+        private String comment;
+
+        CommitRecord(String commitId) {
+            this.commitId = commitId;
+        }
+
+        Commit toBambooCommit(DateTime date) {
+            Author commitAuthor = new AuthorImpl(author.length() > 0 ? author : Author.UNKNOWN_AUTHOR);
+            CommitImpl commit = new CommitImpl(commitAuthor, comment, date.toDate());
+            List<CommitFile> commitFiles = new ArrayList<CommitFile>();
+            for (String file : files) {
+                CommitFileImpl commitFile = new CommitFileImpl(file);
+                commitFile.setRevision(commitId);
+                commitFiles.add(commitFile);
+            }
+            commit.setFiles(commitFiles);
+            return commit;
+        }
+    }
+
+    /*
+     * Reads the stream a buffer at a time and hands out one NUL terminated field at a time, so only the current field
+     * is ever held in memory.
+     */
+    private static class FieldReader {
+        private final InputStream in;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int position = 0;
+        private int limit = 0;
+        private byte[] field = new byte[256];
+        private int fieldLength = 0;
+
+        FieldReader(InputStream in) {
+            this.in = in;
+        }
+
+        boolean next() throws IOException {
+            fieldLength = 0;
+            boolean readAnything = false;
+            while (true) {
+                if (position == limit) {
+                    limit = in.read(buffer);
+                    position = 0;
+                    if (limit < 0) {
+                        limit = 0;
+                        return readAnything;
+                    }
+                }
+                readAnything = true;
+                int end = position;
+                while (end < limit && buffer[end] != NUL) {
+                    end++;
+                }
+                append(position, end - position);
+                if (end < limit) {
+                    position = end + 1;
+                    return true;
+                }
+                position = limit;
+            }
+        }
+
+        int length() {
+            return fieldLength;
+        }
+
+        byte byteAt(int index) {
+            return field[index];
+        }
+
+        int indexOf(byte b, int from) {
+            for (int i = from; i < fieldLength; i++) {
+                if (field[i] == b) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        String text(int from, int to) throws IOException {
+            return new String(field, from, to - from, "UTF-8");
+        }
+
+        private void append(int from, int length) {
+            if (fieldLength + length > field.length) {
+                byte[] grown = new byte[Math.max(field.length * 2, fieldLength + length)];
+                System.arraycopy(field, 0, grown, 0, fieldLength);
+                field = grown;
+            }
+            System.arraycopy(buffer, from, field, fieldLength, length);
+            fieldLength += length;
+        }
+    }
+}
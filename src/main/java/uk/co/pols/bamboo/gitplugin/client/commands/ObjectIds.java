@@ -0,0 +1,49 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+/**
+ * Converts object names between the hex git prints and the bytes its index files hold.
+ */
+class ObjectIds {
+    private ObjectIds() {
+    }
+
+    /**
+     * @return whether the value is a full object name, 40 hex digits or 64 in a SHA-256 repository
+     */
+    static boolean isObjectName(String value) {
+        if (value == null || (value.length() != 40 && value.length() != 64)) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a full object name as bytes; null for anything else
+     */
+    static byte[] parse(String objectName) {
+        if (!isObjectName(objectName)) {
+            return null;
+        }
+        byte[] bytes = new byte[objectName.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((Character.digit(objectName.charAt(2 * i), 16) << 4) | Character.digit(objectName.charAt(2 * i + 1), 16));
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the bytes in lower case hex, two digits each
+     */
+    static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
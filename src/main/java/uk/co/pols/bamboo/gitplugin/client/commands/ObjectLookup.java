@@ -0,0 +1,11 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Answers whether a repository on this machine already holds an object, without asking git.
+ */
+public interface ObjectLookup {
+    boolean hasObject(File repositoryDirectory, String objectName) throws IOException;
+}
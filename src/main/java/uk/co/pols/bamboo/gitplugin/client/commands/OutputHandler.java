@@ -0,0 +1,11 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Consumes a command's standard output as the command writes it, rather than after it has all been buffered.
+ */
+public interface OutputHandler {
+    void handle(InputStream output) throws IOException;
+}
@@ -0,0 +1,103 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of a version 2 pack index (objects/pack/pack-*.idx), answering whether the pack holds an object.
+ * <p/>
+ * The fanout table gives the range of sorted object names starting with the wanted first byte, and a binary search
+ * of that range does the rest, so a lookup touches a handful of pages of the file. The file is memory-mapped unless
+ * mapping is turned off (Windows, where a mapped file can't be deleted by git gc).
+ */
+class PackIndex {
+    private static final int MAGIC = 0xff744f63; // "\377tOc"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int FANOUT_SIZE = 256 * 4;
+
+    private final ByteBuffer content;
+    private final int objectCount;
+    private final int objectNameLength;
+
+    private PackIndex(ByteBuffer content, int objectCount, int objectNameLength) {
+        this.content = content;
+        this.objectCount = objectCount;
+        this.objectNameLength = objectNameLength;
+    }
+
+    /**
+     * @param objectNameLength 20 for a SHA-1 repository, 32 for SHA-256
+     */
+    static PackIndex open(File file, int objectNameLength, boolean mayMap) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("'" + file.getAbsolutePath() + "' is too big to read");
+            }
+            ByteBuffer content;
+            if (mayMap) {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                content = ByteBuffer.allocate((int) size);
+                while (content.hasRemaining() && channel.read(content) != -1) {
+                    // keep reading
+                }
+                content.flip();
+            }
+
+            if (content.limit() < HEADER_SIZE + FANOUT_SIZE || content.getInt(0) != MAGIC || content.getInt(4) != VERSION) {
+                throw new IOException("'" + file.getAbsolutePath() + "' is not a version " + VERSION + " pack index");
+            }
+            int objectCount = content.getInt(HEADER_SIZE + FANOUT_SIZE - 4);
+            if (objectCount < 0 || content.limit() < HEADER_SIZE + FANOUT_SIZE + (long) objectCount * objectNameLength) {
+                throw new IOException("'" + file.getAbsolutePath() + "' is truncated");
+            }
+            return new PackIndex(content, objectCount, objectNameLength);
+        } finally {
+            in.close();
+        }
+    }
+
+    int getObjectCount() {
+        return objectCount;
+    }
+
+    boolean contains(byte[] objectName) {
+        if (objectName.length != objectNameLength) {
+            return false;
+        }
+        int firstByte = objectName[0] & 0xff;
+        int low = firstByte == 0 ? 0 : content.getInt(HEADER_SIZE + (firstByte - 1) * 4);
+        int high = content.getInt(HEADER_SIZE + firstByte * 4);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(middle, objectName);
+            if (comparison == 0) {
+                return true;
+            }
+            if (comparison < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return false;
+    }
+
+    private int compare(int index, byte[] objectName) {
+        int position = HEADER_SIZE + FANOUT_SIZE + index * objectNameLength;
+        for (int i = 0; i < objectNameLength; i++) {
+            int difference = (content.get(position + i) & 0xff) - (objectName[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return 0;
+    }
+}
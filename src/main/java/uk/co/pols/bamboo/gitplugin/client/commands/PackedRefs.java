@@ -0,0 +1,188 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * One reading of a repository's packed-refs file, searched in place rather than parsed into a map.
+ * <p/>
+ * A file of at least the map size is memory-mapped, anything smaller is read onto the heap. When the header says
+ * the refs are sorted (every git since 1.8 writes them that way) a lookup is a binary search; otherwise it is a scan.
+ */
+class PackedRefs {
+    private static final String SORTED_TRAIT = " sorted";
+
+    private final ByteBuffer content;
+    private final int firstRecord;
+    private final boolean sorted;
+    private final long lastModified;
+    private final long length;
+    private final long readAt;
+
+    private PackedRefs(ByteBuffer content, long lastModified, long length, long readAt) {
+        this.content = content;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.readAt = readAt;
+
+        int end = content.limit();
+        if (end > 0 && content.get(0) == '#') {
+            int headerEnd = endOfLine(0);
+            this.sorted = asString(0, headerEnd).indexOf(SORTED_TRAIT) >= 0;
+            this.firstRecord = Math.min(end, headerEnd + 1);
+        } else {
+            this.sorted = false;
+            this.firstRecord = 0;
+        }
+    }
+
+    static PackedRefs read(File file, int mapSize, boolean mayMap) throws IOException {
+        long readAt = System.currentTimeMillis();
+        long lastModified = file.lastModified();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("'" + file.getAbsolutePath() + "' is too big to read");
+            }
+            ByteBuffer content;
+            if (mayMap && size >= mapSize) {
+                content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                content = ByteBuffer.allocate((int) size);
+                while (content.hasRemaining() && channel.read(content) != -1) {
+                    // keep reading
+                }
+                content.flip();
+            }
+            return new PackedRefs(content, lastModified, content.limit(), readAt);
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * A file changed within the last couple of seconds may change again without its timestamp moving (many file
+     * systems only keep whole seconds), so a reading is only trusted after that.
+     */
+    boolean isCurrent(File file) {
+        long modified = file.lastModified();
+        return modified == lastModified && file.length() == length && lastModified < readAt - 2000;
+    }
+
+    /**
+     * @return the object name the ref points at, or null if it isn't in the file
+     */
+    String find(String refName) {
+        byte[] wanted;
+        try {
+            wanted = refName.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+        return sorted ? binarySearch(wanted) : scan(wanted);
+    }
+
+    private String binarySearch(byte[] wanted) {
+        int low = firstRecord;
+        int high = content.limit();
+        while (low < high) {
+            int record = startOfRecord(low, low + (high - low) / 2);
+            int comparison = compareRefName(record, wanted);
+            if (comparison == 0) {
+                return objectName(record);
+            }
+            if (comparison < 0) {
+                low = endOfRecord(record);
+            } else {
+                high = record;
+            }
+        }
+        return null;
+    }
+
+    private String scan(byte[] wanted) {
+        for (int record = firstRecord; record < content.limit(); record = endOfRecord(record)) {
+            if (content.get(record) != '#' && compareRefName(record, wanted) == 0) {
+                return objectName(record);
+            }
+        }
+        return null;
+    }
+
+    /*
+     * The start of the record holding position, never before low (which is always the start of one). A "^" line
+     * holds the peeled value of the tag above it and belongs to that record.
+     */
+    private int startOfRecord(int low, int position) {
+        int start = startOfLine(low, position);
+        while (start > low && content.get(start) == '^') {
+            start = startOfLine(low, start - 1);
+        }
+        return start;
+    }
+
+    private int startOfLine(int low, int position) {
+        int start = position;
+        while (start > low && content.get(start - 1) != '\n') {
+            start--;
+        }
+        return start;
+    }
+
+    private int endOfRecord(int record) {
+        int end = Math.min(content.limit(), endOfLine(record) + 1);
+        while (end < content.limit() && content.get(end) == '^') {
+            end = Math.min(content.limit(), endOfLine(end) + 1);
+        }
+        return end;
+    }
+
+    private int endOfLine(int position) {
+        int end = position;
+        while (end < content.limit() && content.get(end) != '\n') {
+            end++;
+        }
+        return end;
+    }
+
+    private int compareRefName(int record, byte[] wanted) {
+        int position = refNameStart(record);
+        int end = endOfLine(record);
+        for (int i = 0; i < wanted.length; i++, position++) {
+            if (position >= end) {
+                return -1;
+            }
+            int difference = (content.get(position) & 0xff) - (wanted[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return position < end ? 1 : 0;
+    }
+
+    private int refNameStart(int record) {
+        int position = record;
+        while (position < content.limit() && content.get(position) != ' ' && content.get(position) != '\n') {
+            position++;
+        }
+        return position + 1;
+    }
+
+    private String objectName(int record) {
+        return asString(record, refNameStart(record) - 1);
+    }
+
+    private String asString(int start, int end) {
+        StringBuilder text = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            text.append((char) (content.get(i) & 0xff));
+        }
+        return text.toString();
+    }
+}
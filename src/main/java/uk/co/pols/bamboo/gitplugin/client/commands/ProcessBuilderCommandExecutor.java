@@ -0,0 +1,339 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs commands with ProcessBuilder.
+ * <p/>
+ * Each command's output and error output are read with plain blocking reads on threads from a pool this executor
+ * owns, so threads are reused from one command to the next rather than started for each. The calling thread just
+ * waits for the command, and one watchdog thread kills commands that run past the deadline {@link CommandTimeouts}
+ * gives them, along with anything they started ({@link GitCommandTimeoutException}). Interrupting the calling thread
+ * while it waits kills the command too (an InterruptedIOException).
+ * <p/>
+ * {@link #shutdown()} kills whatever is still running and stops the threads.
+ */
+public class ProcessBuilderCommandExecutor implements CommandExecutor {
+    private static final long IDLE_THREAD_SECONDS = 60;
+
+    private final CommandTimeouts timeouts;
+    private final ScheduledThreadPoolExecutor watchdog;
+    private final ThreadPoolExecutor streams;
+    private final Set<Process> running = new HashSet<Process>();
+    private boolean shutdown = false;
+
+    public ProcessBuilderCommandExecutor() {
+        this(CommandTimeouts.configured());
+    }
+
+    public ProcessBuilderCommandExecutor(CommandTimeouts timeouts) {
+        this.timeouts = timeouts;
+        this.watchdog = new ScheduledThreadPoolExecutor(1, daemonThreads("git-command-watchdog"));
+        this.watchdog.setKeepAliveTime(IDLE_THREAD_SECONDS, TimeUnit.SECONDS);
+        AsyncCommandExecutor.allowCoreThreadTimeOut(watchdog);
+        this.streams = new ThreadPoolExecutor(0, Integer.MAX_VALUE, IDLE_THREAD_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), daemonThreads("git-command-output"));
+    }
+
+    public String execute(String[] commandLine, File sourceCodeDirectory) throws IOException {
+        CommandOutputStream outputStream = new CommandOutputStream();
+        try {
+            run(commandLine, sourceCodeDirectory, true, new CopyingOutputHandler(outputStream), null);
+            return outputStream.getText();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    public CommandResult run(String[] commandLine, File sourceCodeDirectory) throws IOException {
+        CommandOutputStream outputStream = new CommandOutputStream();
+        CommandOutputStream errorOutputStream = new CommandOutputStream();
+        try {
+            int exitCode = run(commandLine, sourceCodeDirectory, false, new CopyingOutputHandler(outputStream), errorOutputStream);
+            return new CommandResult(exitCode, outputStream.getText(), errorOutputStream.getText());
+        } finally {
+            outputStream.close();
+            errorOutputStream.close();
+        }
+    }
+
+    public CommandResult execute(String[] commandLine, File sourceCodeDirectory, OutputHandler outputHandler) throws IOException {
+        CommandOutputStream errorOutputStream = new CommandOutputStream();
+        try {
+            int exitCode = run(commandLine, sourceCodeDirectory, false, outputHandler, errorOutputStream);
+            return new CommandResult(exitCode, "", errorOutputStream.getText());
+        } finally {
+            errorOutputStream.close();
+        }
+    }
+
+    public int run(String[] commandLine, File sourceCodeDirectory, OutputStream output, OutputStream errorOutput) throws IOException {
+        return run(commandLine, sourceCodeDirectory, false, new CopyingOutputHandler(output), errorOutput);
+    }
+
+    /**
+     * Starts a command that keeps running after this returns, for callers that talk to it over its standard input
+     * and output. Its error output is copied to errorOutput, and {@link #shutdown()} kills it if it is still running.
+     * The caller {@link #stop(Process) stops} it when done with it.
+     */
+    public Process start(String[] commandLine, File sourceCodeDirectory, OutputStream errorOutput) throws IOException {
+        Process process = start(commandLine, sourceCodeDirectory, false);
+        try {
+            streams.submit(new Copy(process.getErrorStream(), errorOutput));
+        } catch (RejectedExecutionException e) {
+            stop(process);
+            throw new IOException("The git command executor has been shut down");
+        }
+        return process;
+    }
+
+    /**
+     * Kills a command {@link #start(String[], File, OutputStream) started} here, with anything it started.
+     */
+    public void stop(Process process) {
+        synchronized (running) {
+            running.remove(process);
+        }
+        ProcessTree.destroy(process);
+    }
+
+    /**
+     * @return how long the command may run in milliseconds, or 0 if it may run for ever
+     */
+    public long timeoutFor(String[] commandLine) {
+        return timeouts.timeoutFor(commandLine);
+    }
+
+    /**
+     * Kills a command {@link #start(String[], File, OutputStream) started} here, with anything it started, once the
+     * time is up, unless the returned future is cancelled first.
+     */
+    public ScheduledFuture<?> killAfter(final Process process, long timeoutMillis) throws IOException {
+        try {
+            return watchdog.schedule(new Runnable() {
+                public void run() {
+                    ProcessTree.destroy(process);
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("The git command executor has been shut down");
+        }
+    }
+
+    /**
+     * @return how many commands started here are still running
+     */
+    int runningCount() {
+        synchronized (running) {
+            return running.size();
+        }
+    }
+
+    /**
+     * Kills every command still running and stops the threads. Commands started afterwards fail.
+     */
+    public void shutdown() {
+        List<Process> killing;
+        synchronized (running) {
+            shutdown = true;
+            killing = new ArrayList<Process>(running);
+            running.clear();
+        }
+        for (Process process : killing) {
+            ProcessTree.destroy(process);
+        }
+        watchdog.shutdownNow();
+        streams.shutdownNow();
+    }
+
+    private int run(String[] commandLine, File sourceCodeDirectory, boolean mergeErrorOutput, final OutputHandler outputHandler, OutputStream errorOutputStream) throws IOException {
+        final Process process = start(commandLine, sourceCodeDirectory, mergeErrorOutput);
+        process.getOutputStream().close();
+        long timeoutMillis = timeouts.timeoutFor(commandLine);
+        final AtomicBoolean timedOut = new AtomicBoolean(false);
+
+        IOException readException = null;
+        int exitCode = -1;
+        boolean exited = false;
+        ScheduledFuture<?> deadline = null;
+        try {
+            final InputStream output = process.getInputStream();
+            Future<?> reading = streams.submit(new Callable<Object>() {
+                public Object call() throws IOException {
+                    try {
+                        outputHandler.handle(output);
+                    } finally {
+                        drain(output);
+                    }
+                    return null;
+                }
+            });
+            Future<?> readingErrors = mergeErrorOutput ? null : streams.submit(new Copy(process.getErrorStream(), errorOutputStream));
+            if (timeoutMillis > 0) {
+                deadline = watchdog.schedule(new Runnable() {
+                    public void run() {
+                        timedOut.set(true);
+                        ProcessTree.destroy(process);
+                    }
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+
+            exitCode = process.waitFor();
+            exited = true;
+            readException = await(reading);
+            if (readingErrors != null) {
+                IOException errorReadException = await(readingErrors);
+                readException = readException == null ? errorReadException : readException;
+            }
+        } catch (InterruptedException e) {
+            ProcessTree.destroy(process);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted running '" + StringUtils.join(commandLine, " ") + "', so it was killed");
+        } catch (RejectedExecutionException e) {
+            throw new IOException("The git command executor has been shut down");
+        } finally {
+            if (!exited) {
+                ProcessTree.destroy(process);
+            }
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            synchronized (running) {
+                running.remove(process);
+            }
+        }
+
+        // killing the command closes its streams, so a failed read is expected then
+        if (timedOut.get()) {
+            throw new GitCommandTimeoutException(StringUtils.join(commandLine, " "), timeoutMillis);
+        }
+        if (readException != null) {
+            throw readException;
+        }
+        return exitCode;
+    }
+
+    private Process start(String[] commandLine, File sourceCodeDirectory, boolean mergeErrorOutput) throws IOException {
+        ProcessBuilder processBuilder = new ProcessBuilder(commandLine).redirectErrorStream(mergeErrorOutput);
+        if (sourceCodeDirectory != null && sourceCodeDirectory.getPath().length() > 0) {
+            processBuilder.directory(sourceCodeDirectory);
+        }
+        synchronized (running) {
+            if (shutdown) {
+                throw new IOException("The git command executor has been shut down");
+            }
+            Process process = processBuilder.start();
+            running.add(process);
+            return process;
+        }
+    }
+
+    /**
+     * @return the IOException the reading threw, if any
+     */
+    private IOException await(Future<?> reading) throws InterruptedException {
+        try {
+            reading.get();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                return (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static void drain(InputStream output) {
+        byte[] buffer = new byte[8192];
+        try {
+            while (output.read(buffer) != -1) {
+                // discard
+            }
+        } catch (IOException e) {
+            // the process has gone, so there is nothing left to drain
+        } finally {
+            try {
+                output.close();
+            } catch (IOException e) {
+                // nothing left to read anyway
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Copies a stream to its end, then closes it.
+     */
+    private static class Copy implements Callable<Object> {
+        private final InputStream in;
+        private final OutputStream out;
+
+        Copy(InputStream in, OutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        public Object call() throws IOException {
+            try {
+                new CopyingOutputHandler(out).handle(in);
+            } finally {
+                drain(in);
+            }
+            return null;
+        }
+    }
+
+    private static class CopyingOutputHandler implements OutputHandler {
+        private final OutputStream outputStream;
+
+        CopyingOutputHandler(OutputStream outputStream) {
+            this.outputStream = outputStream;
+        }
+
+        public void handle(InputStream output) throws IOException {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = output.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+
+/**
+ * Kills a process along with everything it started, so killing git also kills the ssh (or credential helper, or
+ * remote helper) it is waiting on.
+ * <p/>
+ * Finding the children needs Java 9's ProcessHandle, which is looked up by reflection; on older JVMs only the process
+ * itself is killed.
+ */
+class ProcessTree {
+    private static final Method TO_HANDLE;
+    private static final Method DESCENDANTS;
+    private static final Method ITERATOR;
+    private static final Method DESTROY_FORCIBLY;
+
+    static {
+        Method toHandle = null;
+        Method descendants = null;
+        Method iterator = null;
+        Method destroyForcibly = null;
+        try {
+            Class<?> processHandle = Class.forName("java.lang.ProcessHandle");
+            toHandle = Process.class.getMethod("toHandle");
+            descendants = processHandle.getMethod("descendants");
+            iterator = Class.forName("java.util.stream.BaseStream").getMethod("iterator");
+            destroyForcibly = processHandle.getMethod("destroyForcibly");
+        } catch (Exception e) {
+            toHandle = null;
+        }
+        TO_HANDLE = toHandle;
+        DESCENDANTS = descendants;
+        ITERATOR = iterator;
+        DESTROY_FORCIBLY = destroyForcibly;
+    }
+
+    private ProcessTree() {
+    }
+
+    static void destroy(Process process) {
+        destroyDescendants(process);
+        process.destroy();
+    }
+
+    /*
+     * The children have to be found while the process is still alive; once it has gone they belong to init.
+     */
+    static void destroyDescendants(Process process) {
+        if (TO_HANDLE == null) {
+            return;
+        }
+        try {
+            Iterator<?> descendants = (Iterator<?>) ITERATOR.invoke(DESCENDANTS.invoke(TO_HANDLE.invoke(process)));
+            while (descendants.hasNext()) {
+                DESTROY_FORCIBLY.invoke(descendants.next());
+            }
+        } catch (Exception e) {
+            // the process has already gone, or the JVM won't let us see its children
+        }
+    }
+}
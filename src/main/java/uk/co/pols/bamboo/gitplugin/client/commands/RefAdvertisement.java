@@ -0,0 +1,103 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The refs a remote repository advertised in answer to a single "git ls-remote", keyed by full ref name.
+ * <p/>
+ * Anything in the output that isn't a "sha1 ref" line (warnings, "fatal:" messages) is kept so it can be reported
+ * when a branch can't be found.
+ */
+public class RefAdvertisement {
+    private static final Pattern REF_LINE_PATTERN = Pattern.compile("([0-9a-f]{40})\\s+(\\S+)");
+    private static final String HEADS_PREFIX = "refs/heads/";
+    private static final String TAGS_PREFIX = "refs/tags/";
+
+    private final Map<String, String> refs;
+    private final String unparsedOutput;
+
+    public RefAdvertisement(Map<String, String> refs, String unparsedOutput) {
+        this.refs = Collections.unmodifiableMap(new LinkedHashMap<String, String>(refs));
+        this.unparsedOutput = unparsedOutput;
+    }
+
+    public static RefAdvertisement parse(String lsRemoteOutput) {
+        try {
+            return parse(new StringReader(lsRemoteOutput));
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the listing a line at a time as ls-remote writes it, so the whole of a large one is never held as text.
+     */
+    public static RefAdvertisement parse(Reader lsRemoteOutput) throws IOException {
+        Map<String, String> refs = new LinkedHashMap<String, String>();
+        StringBuffer unparsed = new StringBuffer();
+
+        BufferedReader reader = new BufferedReader(lsRemoteOutput);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String trimmed = line.trim();
+            Matcher matcher = REF_LINE_PATTERN.matcher(trimmed);
+            if (matcher.matches()) {
+                refs.put(matcher.group(2), matcher.group(1));
+            } else if (trimmed.length() > 0) {
+                unparsed.append(trimmed).append("\n");
+            }
+        }
+        return new RefAdvertisement(refs, unparsed.toString().trim());
+    }
+
+    /**
+     * Resolves a branch the way "git ls-remote &lt;url&gt; &lt;branch&gt;" would pick it: a full ref name first, then a
+     * branch, then a tag.
+     *
+     * @return the sha1 the ref points at, or null if the remote didn't advertise it
+     */
+    public String getRevision(String branch) {
+        if (refs.containsKey(branch)) {
+            return refs.get(branch);
+        }
+        if (refs.containsKey(HEADS_PREFIX + branch)) {
+            return refs.get(HEADS_PREFIX + branch);
+        }
+        return refs.get(TAGS_PREFIX + branch);
+    }
+
+    /**
+     * @return the revision of each branch the remote advertised, keyed by branch as given. Unknown branches are left out.
+     */
+    public Map<String, String> getRevisions(Collection<String> branches) {
+        Map<String, String> revisions = new LinkedHashMap<String, String>();
+        for (String branch : branches) {
+            String revision = getRevision(branch);
+            if (revision != null) {
+                revisions.put(branch, revision);
+            }
+        }
+        return revisions;
+    }
+
+    public Map<String, String> getRefs() {
+        return refs;
+    }
+
+    public boolean isEmpty() {
+        return refs.isEmpty();
+    }
+
+    public String getUnparsedOutput() {
+        return unparsedOutput;
+    }
+}
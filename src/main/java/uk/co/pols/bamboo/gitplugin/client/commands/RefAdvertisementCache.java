@@ -0,0 +1,106 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Remembers the refs advertised by each repository url for a short time, so every plan and branch polling the same
+ * url within that window is answered by one "git ls-remote".
+ * <p/>
+ * Callers that arrive while a listing is still running wait for it rather than starting their own. Failed or empty
+ * listings are never kept.
+ * <p/>
+ * Set -DGIT_LS_REMOTE_TTL=seconds when starting Bamboo to change how long a listing is reused (0 turns it off).
+ */
+public class RefAdvertisementCache {
+    public static final String GIT_LS_REMOTE_TTL = "GIT_LS_REMOTE_TTL";
+    public static final long DEFAULT_TTL_SECONDS = 15;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final long timeToLiveMillis;
+
+    public RefAdvertisementCache(long timeToLiveMillis) {
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    public static long configuredTimeToLiveMillis() {
+        return 1000L * SystemProperties.nonNegativeLong(GIT_LS_REMOTE_TTL, DEFAULT_TTL_SECONDS);
+    }
+
+    public RefAdvertisement get(String repositoryUrl, Callable<RefAdvertisement> lsRemote) throws IOException {
+        while (true) {
+            Entry entry = entries.get(repositoryUrl);
+            if (entry == null || entry.isExpired()) {
+                Entry fresh = new Entry(lsRemote);
+                boolean installed = (entry == null)
+                        ? entries.putIfAbsent(repositoryUrl, fresh) == null
+                        : entries.replace(repositoryUrl, entry, fresh);
+                if (!installed) {
+                    continue;
+                }
+                fresh.run();
+                entry = fresh;
+            }
+            return entry.get(repositoryUrl);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /*
+     * The listing's finishing time is set before the future completes, so nobody can see it done and not yet timed,
+     * which would make it look long expired and start a second ls-remote.
+     */
+    private class Entry {
+        private final FutureTask<RefAdvertisement> lsRemote;
+        private volatile long completedAt;
+
+        Entry(Callable<RefAdvertisement> lsRemote) {
+            this.lsRemote = new FutureTask<RefAdvertisement>(lsRemote) {
+                protected void set(RefAdvertisement advertisement) {
+                    completedAt = System.currentTimeMillis();
+                    super.set(advertisement);
+                }
+
+                protected void setException(Throwable failure) {
+                    completedAt = System.currentTimeMillis();
+                    super.setException(failure);
+                }
+            };
+        }
+
+        void run() {
+            lsRemote.run();
+        }
+
+        boolean isExpired() {
+            return lsRemote.isDone() && System.currentTimeMillis() - completedAt >= timeToLiveMillis;
+        }
+
+        RefAdvertisement get(String repositoryUrl) throws IOException {
+            try {
+                RefAdvertisement advertisement = lsRemote.get();
+                if (advertisement.isEmpty()) {
+                    entries.remove(repositoryUrl, this);
+                }
+                return advertisement;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for the refs of '" + repositoryUrl + "'");
+            } catch (ExecutionException e) {
+                entries.remove(repositoryUrl, this);
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+}
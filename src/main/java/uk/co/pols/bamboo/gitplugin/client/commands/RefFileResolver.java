@@ -0,0 +1,151 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import org.apache.tools.ant.taskdefs.condition.Os;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads refs straight out of a repository's files: HEAD, the loose refs under refs/ and the packed-refs file, so
+ * finding the head of a branch after a pull doesn't need git at all.
+ * <p/>
+ * Loose refs are read every time (they're tiny, and a pull rewrites them); packed-refs is kept, memory-mapped when
+ * it's large, until its size or timestamp changes. Works for a working copy, a bare repository such as a mirror, and
+ * a linked worktree (a .git file pointing at the real git directory).
+ * <p/>
+ * Anything that isn't HEAD or a full ref name ("HEAD~1", an abbreviated object name), and any repository keeping its
+ * refs some other way (reftable), is handed to the fallback resolver.
+ */
+public class RefFileResolver implements RevisionResolver {
+    public static final int DEFAULT_MAP_SIZE = 256 * 1024;
+
+    private static final int MAX_SYMBOLIC_REF_DEPTH = 5;
+    private static final String SYMBOLIC_REF_PREFIX = "ref: ";
+
+    private final RevisionResolver fallback;
+    private final int mapSize;
+    private final boolean mayMap = !Os.isFamily(Os.FAMILY_WINDOWS);
+    private final ConcurrentMap<File, PackedRefs> packedRefs = new ConcurrentHashMap<File, PackedRefs>();
+
+    public RefFileResolver(RevisionResolver fallback) {
+        this(fallback, DEFAULT_MAP_SIZE);
+    }
+
+    /**
+     * @param mapSize packed-refs files at least this big are memory-mapped rather than read
+     */
+    public RefFileResolver(RevisionResolver fallback, int mapSize) {
+        this.fallback = fallback;
+        this.mapSize = mapSize;
+    }
+
+    public String resolve(File repositoryDirectory, String revision) throws IOException {
+        GitDirectory gitDirectory = GitDirectory.find(repositoryDirectory);
+        if (gitDirectory == null || !canRead(gitDirectory, revision)) {
+            return fallback.resolve(repositoryDirectory, revision);
+        }
+        return read(gitDirectory, revision, 0);
+    }
+
+    public Map<String, String> resolveAll(File repositoryDirectory, Collection<String> revisions) throws IOException {
+        GitDirectory gitDirectory = GitDirectory.find(repositoryDirectory);
+        List<String> forTheFallback = new ArrayList<String>();
+        Map<String, String> readHere = new LinkedHashMap<String, String>();
+        for (String revision : revisions) {
+            if (gitDirectory == null || !canRead(gitDirectory, revision)) {
+                forTheFallback.add(revision);
+            } else {
+                readHere.put(revision, read(gitDirectory, revision, 0));
+            }
+        }
+        Map<String, String> fromTheFallback = new LinkedHashMap<String, String>();
+        if (!forTheFallback.isEmpty()) {
+            fromTheFallback = fallback.resolveAll(repositoryDirectory, forTheFallback);
+        }
+
+        Map<String, String> resolved = new LinkedHashMap<String, String>();
+        for (String revision : revisions) {
+            String objectName = readHere.containsKey(revision) ? readHere.get(revision) : fromTheFallback.get(revision);
+            if (objectName != null) {
+                resolved.put(revision, objectName);
+            }
+        }
+        return resolved;
+    }
+
+    private boolean canRead(GitDirectory gitDirectory, String revision) {
+        return ("HEAD".equals(revision) || (revision.startsWith("refs/") && revision.indexOf("..") < 0))
+                && !new File(gitDirectory.getCommonDirectory(), "reftable").exists();
+    }
+
+    private String read(GitDirectory gitDirectory, String refName, int depth) throws IOException {
+        if (depth > MAX_SYMBOLIC_REF_DEPTH) {
+            throw new IOException("Too many levels of symbolic refs resolving '" + refName + "' in '" + gitDirectory + "'");
+        }
+        String value = readLooseRef(gitDirectory.directoryFor(refName), refName);
+        if (value == null) {
+            return readPackedRef(gitDirectory.getCommonDirectory(), refName);
+        }
+        if (value.startsWith(SYMBOLIC_REF_PREFIX)) {
+            return read(gitDirectory, value.substring(SYMBOLIC_REF_PREFIX.length()).trim(), depth + 1);
+        }
+        if (!ObjectIds.isObjectName(value)) {
+            throw new IOException("'" + refName + "' in '" + gitDirectory + "' doesn't hold an object name: '" + value + "'");
+        }
+        return value;
+    }
+
+    private String readLooseRef(File directory, String refName) throws IOException {
+        File ref = new File(directory, refName);
+        if (!ref.isFile()) {
+            return null;
+        }
+        try {
+            String line = firstLine(ref);
+            return line == null ? null : line.trim();
+        } catch (FileNotFoundException e) {
+            // packed away while we looked
+            return null;
+        }
+    }
+
+    private String readPackedRef(File commonDirectory, String refName) throws IOException {
+        File file = new File(commonDirectory, "packed-refs");
+        if (!file.isFile()) {
+            packedRefs.remove(file);
+            return null;
+        }
+        PackedRefs refs = packedRefs.get(file);
+        if (refs == null || !refs.isCurrent(file)) {
+            try {
+                refs = PackedRefs.read(file, mapSize, mayMap);
+            } catch (FileNotFoundException e) {
+                // packed away again while we looked
+                packedRefs.remove(file);
+                return null;
+            }
+            packedRefs.put(file, refs);
+        }
+        return refs.find(refName);
+    }
+
+    static String firstLine(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            return reader.readLine();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+
+/**
+ * An exclusive lock on a file beside a repository shared by every agent on the machine, so agents running in
+ * different JVMs take turns changing it.
+ * <p/>
+ * The operating system holds the lock for the whole JVM, and a second attempt from the same JVM fails rather than
+ * waiting, so callers take the in-JVM lock for the repository first.
+ */
+class RepositoryFileLock implements Closeable {
+    private final RandomAccessFile file;
+    private final FileLock lock;
+
+    private RepositoryFileLock(RandomAccessFile file, FileLock lock) {
+        this.file = file;
+        this.lock = lock;
+    }
+
+    /**
+     * Waits until no other process holds the lock.
+     */
+    static RepositoryFileLock acquire(File lockFile) throws IOException {
+        File directory = lockFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create '" + directory.getAbsolutePath() + "' to hold the lock file");
+        }
+        RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+        try {
+            return new RepositoryFileLock(file, file.getChannel().lock());
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            lock.release();
+        } finally {
+            file.close();
+        }
+    }
+}
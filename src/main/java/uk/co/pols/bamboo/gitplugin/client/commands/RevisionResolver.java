@@ -0,0 +1,21 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Turns ref names and other revisions into the object names they point at, in a repository on this machine.
+ */
+public interface RevisionResolver {
+    /**
+     * @return the object name the revision points at, or null if there is no such revision
+     */
+    String resolve(File repositoryDirectory, String revision) throws IOException;
+
+    /**
+     * @return the object name of each revision that exists, in the order they were asked for
+     */
+    Map<String, String> resolveAll(File repositoryDirectory, Collection<String> revisions) throws IOException;
+}
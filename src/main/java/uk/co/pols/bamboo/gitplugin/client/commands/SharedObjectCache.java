@@ -0,0 +1,19 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+
+import java.io.File;
+
+/**
+ * The agent's object cache as a command other than the client sees it: brought up to date under the client's locks,
+ * and never a reason to fail, since a repository that can't use it fetches everything itself.
+ */
+public interface SharedObjectCache {
+    /**
+     * Brings the cache of the repository up to date and has the working copy borrow objects from it.
+     *
+     * @param sourceCodeDirectory null when there is no working copy yet, only a cache to clone it with
+     * @return the cache directory, or null if it can't be used
+     */
+    File share(BuildLogger buildLogger, String repositoryUrl, File sourceCodeDirectory);
+}
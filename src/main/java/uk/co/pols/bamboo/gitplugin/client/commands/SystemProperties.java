@@ -0,0 +1,38 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * Reads the -D settings the plugin is tuned with. A number that is missing or can't be read takes its default, and a
+ * negative one counts as 0; a directory that is missing or blank is null.
+ */
+class SystemProperties {
+    private SystemProperties() {
+    }
+
+    static long nonNegativeLong(String name, long defaultValue) {
+        return nonNegativeLong(System.getProperties(), name, defaultValue);
+    }
+
+    static long nonNegativeLong(Properties settings, String name, long defaultValue) {
+        String value = settings.getProperty(name);
+        try {
+            return value == null ? defaultValue : Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    static int nonNegativeInt(String name, int defaultValue) {
+        return (int) Math.min(Integer.MAX_VALUE, nonNegativeLong(name, defaultValue));
+    }
+
+    static File directory(String name) {
+        String directory = System.getProperty(name);
+        if (directory == null || directory.trim().length() == 0) {
+            return null;
+        }
+        return new File(directory.trim());
+    }
+}
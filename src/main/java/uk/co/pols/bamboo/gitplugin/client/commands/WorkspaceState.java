@@ -0,0 +1,26 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * What a working copy was last brought up to, kept alongside it so the next build can tell without git, and without
+ * going to the remote repository, that there is nothing to do.
+ */
+public interface WorkspaceState {
+    /**
+     * @return true if the last update of the working copy, submodules and all, finished at this revision of this
+     *         branch, and HEAD is still there
+     */
+    boolean isAt(String repositoryUrl, String branch, String revision) throws IOException;
+
+    void record(String repositoryUrl, String branch, String revision) throws IOException;
+
+    /**
+     * @return true if the working tree was last narrowed to exactly these sparse checkout paths, or is whole and
+     *         none are given
+     */
+    boolean hasSparsePaths(List<String> paths) throws IOException;
+
+    void recordSparsePaths(List<String> paths) throws IOException;
+}
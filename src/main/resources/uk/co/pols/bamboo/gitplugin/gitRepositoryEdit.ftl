@@ -9,6 +9,28 @@
                description= 'The repository branch to build'
                required='true' /]
 
+[@ww.checkbox labelKey='Check out the exact revision'
+              name='repository.github.detachedCheckout'
+              description='Fetch only the branch, without tags, and check out the revision being built with a detached HEAD instead of pulling the branch' /]
+
+[@ww.checkbox labelKey='Share a repository with other plans'
+              name='repository.github.worktree'
+              description='Make the working directory a worktree of one repository per url on the agent, fetched once for every plan building it. Needs git 2.5 and an object cache directory on the agent' /]
+
+[@ww.textfield labelKey='Fetch depth'
+               name='repository.github.fetchDepth'
+               description='How many commits of history to fetch into the working copy; blank or 0 for all of it. More is fetched if a build needs an older commit' /]
+
+[@ww.select labelKey='Partial clone filter'
+            name='repository.github.cloneFilter'
+            list="#{'':'None', 'blob:none':'Blobless (blob:none)', 'tree:0':'Treeless (tree:0)'}"
+            description='Leave file contents (blobless) or trees as well (treeless) on the remote repository until a build needs them' /]
+
+[@ww.textarea labelKey='Sparse checkout paths'
+              name='repository.github.sparsePaths'
+              rows='4'
+              description='Directories to check out, one per line, as well as the files at the top of the repository; blank for the whole tree. Needs git 2.25, and is not used when the repository is shared with other plans' /]
+
 <SCRIPT TYPE="text/javascript">
 <!--
 function populateGitHubWebUrl(textForm) {
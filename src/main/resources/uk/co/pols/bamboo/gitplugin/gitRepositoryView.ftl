@@ -1,2 +1,7 @@
 [@ww.label labelKey='Repository URL' name='build.buildDefinition.repository.repositoryUrl' /]
-[@ww.label labelKey='Branch'         name='build.buildDefinition.repository.branch'        /]
\ No newline at end of file
+[@ww.label labelKey='Branch'         name='build.buildDefinition.repository.branch'        /]
+[@ww.label labelKey='Check out the exact revision' name='build.buildDefinition.repository.detachedCheckout' /]
+[@ww.label labelKey='Share a repository with other plans' name='build.buildDefinition.repository.worktree' /]
+[@ww.label labelKey='Fetch depth' name='build.buildDefinition.repository.fetchDepth' /]
+[@ww.label labelKey='Partial clone filter' name='build.buildDefinition.repository.cloneFilter' /]
+[@ww.label labelKey='Sparse checkout paths' name='build.buildDefinition.repository.sparsePaths' /]
\ No newline at end of file
@@ -1,40 +1,91 @@
 package uk.co.pols.bamboo.gitplugin;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import com.atlassian.bamboo.build.logger.BuildLogger;
 import com.atlassian.bamboo.commit.Commit;
 import com.atlassian.bamboo.repository.RepositoryException;
 
+import org.hamcrest.Description;
 import org.jmock.Expectations;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
 import org.jmock.integration.junit3.MockObjectTestCase;
 
 import uk.co.pols.bamboo.gitplugin.client.CmdLineGitClient;
+import uk.co.pols.bamboo.gitplugin.client.RepositoryLocks;
+import uk.co.pols.bamboo.gitplugin.client.commands.AsyncCommandExecutor;
+import uk.co.pols.bamboo.gitplugin.client.commands.BestGuessGitCommandDiscoverer;
+import uk.co.pols.bamboo.gitplugin.client.commands.CatFileBatchPool;
+import uk.co.pols.bamboo.gitplugin.client.commands.FetchOptions;
+import uk.co.pols.bamboo.gitplugin.client.commands.GitCheckoutCommand;
+import uk.co.pols.bamboo.gitplugin.client.commands.GitCommandTimeoutException;
 import uk.co.pols.bamboo.gitplugin.client.commands.GitInitCommand;
 import uk.co.pols.bamboo.gitplugin.client.commands.GitListRemoteCommand;
 import uk.co.pols.bamboo.gitplugin.client.commands.GitLogCommand;
+import uk.co.pols.bamboo.gitplugin.client.commands.GitMirrorCommand;
+import uk.co.pols.bamboo.gitplugin.client.commands.GitObjectCacheCommand;
 import uk.co.pols.bamboo.gitplugin.client.commands.GitPullCommand;
 import uk.co.pols.bamboo.gitplugin.client.commands.GitRemoteCommand;
+import uk.co.pols.bamboo.gitplugin.client.commands.GitSnapshotCommand;
+import uk.co.pols.bamboo.gitplugin.client.commands.GitSparseCheckoutCommand;
+import uk.co.pols.bamboo.gitplugin.client.commands.GitSubmoduleCommand;
+import uk.co.pols.bamboo.gitplugin.client.commands.GitToolchain;
+import uk.co.pols.bamboo.gitplugin.client.commands.GitToolchainRegistry;
+import uk.co.pols.bamboo.gitplugin.client.commands.GitWorktreeCommand;
+import uk.co.pols.bamboo.gitplugin.client.commands.LocalObjectLookup;
+import uk.co.pols.bamboo.gitplugin.client.commands.ProcessBuilderCommandExecutor;
+import uk.co.pols.bamboo.gitplugin.client.commands.RefAdvertisementCache;
+import uk.co.pols.bamboo.gitplugin.client.commands.RefFileResolver;
+import uk.co.pols.bamboo.gitplugin.client.commands.WorkspaceState;
 
 public class CmdLineGitClientTest extends MockObjectTestCase {
     private static final String LAST_REVISION_CHECKED = "1cc17a8203f7c5c82e89ae5f687d12b7be65951e";
+    private static final String BUILD_REVISION = "ca23c1bc865fbd60b4d0c5dcdb264afd65789026";
     private static final String REPOSITORY_URL = "repository.url";
     private static final String REPOSITORY_BRANCH = "master";
     private static final String PLAN_KEY = "plankey";
     private static final File SOURCE_CODE_DIRECTORY = new File("src");
+    private static final File MIRROR_DIRECTORY = new File("mirror");
 
     private BuildLogger buildLogger = mock(BuildLogger.class);
     private GitPullCommand gitPullCommand = mock(GitPullCommand.class);
+    private WorkspaceState workspaceState = mock(WorkspaceState.class);
+    private GitCheckoutCommand gitCheckoutCommand = mock(GitCheckoutCommand.class);
+    private GitObjectCacheCommand gitObjectCacheCommand = null;
+    private GitSnapshotCommand gitSnapshotCommand = null;
+    private GitWorktreeCommand gitWorktreeCommand = mock(GitWorktreeCommand.class);
+    private GitSparseCheckoutCommand gitSparseCheckoutCommand = mock(GitSparseCheckoutCommand.class);
+    private Closeable cacheLock = mock(Closeable.class);
+    private GitToolchain toolchain = GitToolchain.parse("git", "git version 2.39.5");
+    private GitSubmoduleCommand gitSubmoduleCommand = mock(GitSubmoduleCommand.class);
     private GitLogCommand gitLogCommand = mock(GitLogCommand.class);
     private GitLogCommand gitRemoteLogCommand = mock(GitLogCommand.class, "remoteGitLogCommand");
+    private GitLogCommand gitMirrorLogCommand = mock(GitLogCommand.class, "mirrorGitLogCommand");
+    private GitMirrorCommand gitMirrorCommand = mock(GitMirrorCommand.class);
     private GitInitCommand gitInitCommand = mock(GitInitCommand.class);
     private GitRemoteCommand gitRemoteCommand = mock(GitRemoteCommand.class);
     private GitListRemoteCommand gitListRemoteCommand = mock(GitListRemoteCommand.class);
+    private final ProcessBuilderCommandExecutor processes = new ProcessBuilderCommandExecutor();
+    private final GitToolchainRegistry toolchainRegistry = new GitToolchainRegistry(new BestGuessGitCommandDiscoverer(processes), processes);
+    private final AsyncCommandExecutor asyncCommandExecutor = AsyncCommandExecutor.create(processes, 2);
+    private final CatFileBatchPool catFileBatchPool = new CatFileBatchPool(toolchainRegistry, processes, CatFileBatchPool.configuredIdleTimeoutMillis(), CatFileBatchPool.configuredMaxIdle());
     private final CmdLineGitClient gitClient = gitClient();
 
+    public void tearDown() {
+        asyncCommandExecutor.shutdown();
+        catFileBatchPool.shutdown();
+        processes.shutdown();
+    }
+
     /*
     String getLatestRevision(BuildLogger buildLogger, String repositoryUrl, String branch, String planKey) throws RepositoryException;
      */
@@ -65,27 +116,220 @@ public class CmdLineGitClientTest extends MockObjectTestCase {
         }
     }
 
+    public void testGetLatestRevisionSaysWhenTheRemoteTookTooLong() throws RepositoryException, IOException {
+        final IOException timeout = new GitCommandTimeoutException("git ls-remote repository.url", 60000);
+
+        checking(new Expectations() {{
+            one(gitListRemoteCommand).getLastCommit(REPOSITORY_URL, REPOSITORY_BRANCH); will(throwException(timeout));
+        }});
+
+        try {
+            gitClient.getLatestRevision(REPOSITORY_URL, REPOSITORY_BRANCH, PLAN_KEY);
+            fail("Should throw RepositoryException");
+        } catch (RepositoryException e) {
+            assertEquals("Could not get latest revision from remote repository 'repository.url': 'git ls-remote repository.url' was killed after running for more than 60 seconds", e.getMessage());
+            assertSame(timeout, e.getCause());
+        }
+    }
+
+    public void testGetLatestRevisionsAnswersManyBranchesAtOnce() throws RepositoryException, IOException {
+        final Map<String, String> revisions = Collections.singletonMap(REPOSITORY_BRANCH, LAST_REVISION_CHECKED);
+        checking(new Expectations() {{
+            one(gitListRemoteCommand).getLastCommits(REPOSITORY_URL, Arrays.asList(REPOSITORY_BRANCH, "other")); will(returnValue(revisions));
+        }});
+
+        assertSame(revisions, gitClient.getLatestRevisions(REPOSITORY_URL, Arrays.asList(REPOSITORY_BRANCH, "other")));
+    }
+
+    public void testGetLatestRevisionsListsEachRepository() throws RepositoryException, IOException {
+        final Map<String, String> revisions = Collections.singletonMap(REPOSITORY_BRANCH, LAST_REVISION_CHECKED);
+        checking(new Expectations() {{
+            one(gitListRemoteCommand).getLastCommits(REPOSITORY_URL, Arrays.asList(REPOSITORY_BRANCH)); will(returnValue(revisions));
+        }});
+
+        Map<String, Map<String, String>> latest = gitClient.getLatestRevisions(Collections.singletonMap(REPOSITORY_URL, Arrays.asList(REPOSITORY_BRANCH)));
+
+        assertEquals(Collections.singletonMap(REPOSITORY_URL, revisions), latest);
+    }
+
+    public void testGetLatestRevisionsWrapsExceptionListingARepository() throws IOException {
+        final IOException ioException = new IOException("EXPECTED EXCEPTION");
+        checking(new Expectations() {{
+            one(gitListRemoteCommand).getLastCommits(REPOSITORY_URL, Arrays.asList(REPOSITORY_BRANCH)); will(throwException(ioException));
+        }});
+
+        try {
+            gitClient.getLatestRevisions(Collections.singletonMap(REPOSITORY_URL, Arrays.asList(REPOSITORY_BRANCH)));
+            fail("Should throw RepositoryException");
+        } catch (RepositoryException e) {
+            assertEquals("Could not get latest revisions from remote repository 'repository.url'", e.getMessage());
+            assertSame(ioException, e.getCause());
+        }
+    }
+
     public void testPullFromRemoteCallsGitCommandAndReturnsResult() throws RepositoryException, IOException {
         checking(new Expectations() {{
             one(buildLogger).addBuildLogEntry("Pulling changes on 'plankey' from 'master' @ 'repository.url");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(false));
             one(gitPullCommand).pullUpdatesFromRemoteRepository(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH);
+            one(gitSubmoduleCommand).update(buildLogger);
             one(gitLogCommand).getHeadRevision(REPOSITORY_BRANCH); will(returnValue(LAST_REVISION_CHECKED));
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, LAST_REVISION_CHECKED);
         }});
 
-        final String result = gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, PLAN_KEY, SOURCE_CODE_DIRECTORY);
+        final String result = gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY);
         assertEquals(LAST_REVISION_CHECKED, result);
     }
 
+    public void testPullFromRemoteRefreshesAStaleSnapshotInTheBackground() throws RepositoryException, IOException, InterruptedException {
+        gitSnapshotCommand = mock(GitSnapshotCommand.class);
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Pulling changes on 'plankey' from 'master' @ 'repository.url");
+            one(gitPullCommand).pullUpdatesFromRemoteRepository(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH);
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(gitLogCommand).getHeadRevision(REPOSITORY_BRANCH); will(returnValue(LAST_REVISION_CHECKED));
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, LAST_REVISION_CHECKED);
+            one(gitSnapshotCommand).isStale(REPOSITORY_URL); will(returnValue(true));
+            one(gitSnapshotCommand).isComplete(SOURCE_CODE_DIRECTORY); will(returnValue(true));
+            one(gitSnapshotCommand).refresh(REPOSITORY_URL, SOURCE_CODE_DIRECTORY); will(countDown(refreshed));
+        }});
+
+        assertEquals(LAST_REVISION_CHECKED, gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, null, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+        assertTrue(refreshed.await(10, TimeUnit.SECONDS));
+    }
+
+    public void testPullFromRemoteLeavesAFreshSnapshotAlone() throws RepositoryException, IOException {
+        gitSnapshotCommand = mock(GitSnapshotCommand.class);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Pulling changes on 'plankey' from 'master' @ 'repository.url");
+            one(gitPullCommand).pullUpdatesFromRemoteRepository(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH);
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(gitLogCommand).getHeadRevision(REPOSITORY_BRANCH); will(returnValue(LAST_REVISION_CHECKED));
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, LAST_REVISION_CHECKED);
+            one(gitSnapshotCommand).isStale(REPOSITORY_URL); will(returnValue(false));
+        }});
+
+        assertEquals(LAST_REVISION_CHECKED, gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, null, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testPullFromRemoteTakesNoSnapshotOfAShallowOrPartialWorkingCopy() throws RepositoryException, IOException {
+        gitSnapshotCommand = mock(GitSnapshotCommand.class);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Pulling changes on 'plankey' from 'master' @ 'repository.url");
+            one(gitPullCommand).pullUpdatesFromRemoteRepository(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH);
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(gitLogCommand).getHeadRevision(REPOSITORY_BRANCH); will(returnValue(LAST_REVISION_CHECKED));
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, LAST_REVISION_CHECKED);
+            one(gitSnapshotCommand).isStale(REPOSITORY_URL); will(returnValue(true));
+            one(gitSnapshotCommand).isComplete(SOURCE_CODE_DIRECTORY); will(returnValue(false));
+            never(gitSnapshotCommand).refresh(REPOSITORY_URL, SOURCE_CODE_DIRECTORY);
+        }});
+
+        assertEquals(LAST_REVISION_CHECKED, gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, null, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testPullFromRemoteDoesNothingWhenTheWorkspaceStateSaysItIsAlreadyAtTheRevision() throws RepositoryException, IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Pulling changes on 'plankey' from 'master' @ 'repository.url");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(true));
+            one(buildLogger).addBuildLogEntry("'" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "' is already at revision '" + BUILD_REVISION + "', not fetching.");
+        }});
+
+        assertEquals(BUILD_REVISION, gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testPullFromRemoteFinishesTheSubmodulesOfAWorkingCopyAtTheRevisionWithoutARecordOfIt() throws RepositoryException, IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Pulling changes on 'plankey' from 'master' @ 'repository.url");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(true));
+            one(gitPullCommand).isAtRevision(BUILD_REVISION); will(returnValue(true));
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION);
+        }});
+
+        assertEquals(BUILD_REVISION, gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testPullFromRemoteChecksOutARevisionTheWorkingCopyAlreadyHasWithoutFetching() throws RepositoryException, IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Pulling changes on 'plankey' from 'master' @ 'repository.url");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(true));
+            one(gitPullCommand).isAtRevision(BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).checkoutLocalRevision(buildLogger, BUILD_REVISION); will(returnValue(BUILD_REVISION));
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION);
+        }});
+
+        assertEquals(BUILD_REVISION, gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testPullFromRemoteAlwaysPullsWhenThereIsNoRevision() throws RepositoryException, IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Pulling changes on 'plankey' from 'master' @ 'repository.url");
+            one(gitPullCommand).pullUpdatesFromRemoteRepository(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH);
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(gitLogCommand).getHeadRevision(REPOSITORY_BRANCH); will(returnValue(LAST_REVISION_CHECKED));
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, LAST_REVISION_CHECKED);
+        }});
+
+        assertEquals(LAST_REVISION_CHECKED, gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, null, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testPullFromRemoteChecksOutARevisionFoundInTheObjectCacheWithoutFetching() throws RepositoryException, IOException {
+        gitObjectCacheCommand = mock(GitObjectCacheCommand.class);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Pulling changes on 'plankey' from 'master' @ 'repository.url");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(false));
+            one(gitObjectCacheCommand).lock(REPOSITORY_URL); will(returnValue(cacheLock));
+            one(gitObjectCacheCommand).update(buildLogger, REPOSITORY_URL); will(returnValue(MIRROR_DIRECTORY));
+            one(cacheLock).close();
+            one(gitObjectCacheCommand).share(MIRROR_DIRECTORY, SOURCE_CODE_DIRECTORY);
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(true));
+            one(gitPullCommand).isAtRevision(BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).checkoutLocalRevision(buildLogger, BUILD_REVISION); will(returnValue(BUILD_REVISION));
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION);
+        }});
+
+        assertEquals(BUILD_REVISION, gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testPullFromRemotePullsEverythingItselfWhenTheObjectCacheCannotBeUpdated() throws RepositoryException, IOException {
+        gitObjectCacheCommand = mock(GitObjectCacheCommand.class);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Pulling changes on 'plankey' from 'master' @ 'repository.url");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(false));
+            one(gitObjectCacheCommand).lock(REPOSITORY_URL); will(returnValue(cacheLock));
+            one(gitObjectCacheCommand).update(buildLogger, REPOSITORY_URL); will(throwException(new IOException("disk full")));
+            one(cacheLock).close();
+            one(buildLogger).addBuildLogEntry("Could not use the object cache of 'repository.url', fetching from the remote repository instead: disk full");
+            one(gitPullCommand).pullUpdatesFromRemoteRepository(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH);
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(gitLogCommand).getHeadRevision(REPOSITORY_BRANCH); will(returnValue(LAST_REVISION_CHECKED));
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, LAST_REVISION_CHECKED);
+        }});
+
+        assertEquals(LAST_REVISION_CHECKED, gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
     public void testPullFromRemoteWrapsExceptionPullingUpdates() throws RepositoryException, IOException {
         final IOException ioException = new IOException("EXPECTED EXCEPTION");
 
         checking(new Expectations() {{
             one(buildLogger).addBuildLogEntry("Pulling changes on 'plankey' from 'master' @ 'repository.url");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(false));
             one(gitPullCommand).pullUpdatesFromRemoteRepository(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH); will(throwException(ioException));
         }});
 
         try {
-            gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, PLAN_KEY, SOURCE_CODE_DIRECTORY);
+            gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY);
             fail("Should throw RepositoryException");
         } catch (RepositoryException e) {
             assertEquals("Could not update working dir '/Users/mrowe/src/java_crap/git-bamboo-plugin/src' from remote repository 'repository.url'", e.getMessage());
@@ -98,12 +342,15 @@ public class CmdLineGitClientTest extends MockObjectTestCase {
 
         checking(new Expectations() {{
             one(buildLogger).addBuildLogEntry("Pulling changes on 'plankey' from 'master' @ 'repository.url");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(false));
             one(gitPullCommand).pullUpdatesFromRemoteRepository(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH);
+            one(gitSubmoduleCommand).update(buildLogger);
             one(gitLogCommand).getHeadRevision(REPOSITORY_BRANCH); will(throwException(ioException));
         }});
 
         try {
-            gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, PLAN_KEY, SOURCE_CODE_DIRECTORY);
+            gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY);
             fail("Should throw RepositoryException");
         } catch (RepositoryException e) {
             assertEquals("Could not update working dir '/Users/mrowe/src/java_crap/git-bamboo-plugin/src' from remote repository 'repository.url'", e.getMessage());
@@ -114,23 +361,285 @@ public class CmdLineGitClientTest extends MockObjectTestCase {
     public void testPullFromRemoteThrowsRepositoryExceptionIfItCouldNotDetermineRevision() throws IOException {
         checking(new Expectations() {{
             one(buildLogger).addBuildLogEntry("Pulling changes on 'plankey' from 'master' @ 'repository.url");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(false));
             one(gitPullCommand).pullUpdatesFromRemoteRepository(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH);
+            one(gitSubmoduleCommand).update(buildLogger);
             one(gitLogCommand).getHeadRevision(REPOSITORY_BRANCH); will(returnValue(""));
         }});
 
         try {
-            gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, PLAN_KEY, SOURCE_CODE_DIRECTORY);
+            gitClient.pullFromRemote(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY);
             fail("Should throw RepositoryException");
         } catch (RepositoryException e) {
             assertEquals("Could not determine revision for changes pulled into '/Users/mrowe/src/java_crap/git-bamboo-plugin/src' from 'repository.url'.", e.getMessage());
         }
     }
 
+    public void testCheckoutRevisionFetchesTheBranchAndChecksOutTheRevision() throws RepositoryException, IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + BUILD_REVISION + "' on 'plankey' from 'master' @ 'repository.url'");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(false));
+            one(gitCheckoutCommand).fetchBranch(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, FetchOptions.FULL);
+            one(gitCheckoutCommand).checkoutDetached(buildLogger, BUILD_REVISION);
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION);
+        }});
+
+        assertEquals(BUILD_REVISION, gitClient.checkoutRevision(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, FetchOptions.FULL, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testCheckoutRevisionDeepensAShallowFetchThatDoesNotReachTheRevision() throws RepositoryException, IOException {
+        final FetchOptions shallow = new FetchOptions(10, FetchOptions.BLOBLESS);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + BUILD_REVISION + "' on 'plankey' from 'master' @ 'repository.url'");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(false));
+            one(gitCheckoutCommand).fetchBranch(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, shallow);
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(false));
+            one(gitCheckoutCommand).deepenBranch(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, shallow, 20);
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(true));
+            one(gitCheckoutCommand).checkoutDetached(buildLogger, BUILD_REVISION);
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION);
+        }});
+
+        assertEquals(BUILD_REVISION, gitClient.checkoutRevision(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, shallow, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testCheckoutRevisionFetchesEveryObjectWithAGitTooOldForPartialClones() throws RepositoryException, IOException {
+        toolchain = GitToolchain.parse("git", "git version 2.17.1");
+        final FetchOptions unfiltered = new FetchOptions(10, null);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + BUILD_REVISION + "' on 'plankey' from 'master' @ 'repository.url'");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(false));
+            one(buildLogger).addBuildLogEntry("Partial clones need git 2.19 or later, so '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "' fetches every object.");
+            one(gitCheckoutCommand).fetchBranch(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, unfiltered);
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(true));
+            one(gitCheckoutCommand).checkoutDetached(buildLogger, BUILD_REVISION);
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION);
+        }});
+
+        assertEquals(BUILD_REVISION, gitClient.checkoutRevision(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, new FetchOptions(10, FetchOptions.BLOBLESS), PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testCheckoutRevisionFetchesTheWholeHistoryWhenDeepeningDoesNotFindTheRevision() throws RepositoryException, IOException {
+        final FetchOptions shallow = new FetchOptions(1, null);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + BUILD_REVISION + "' on 'plankey' from 'master' @ 'repository.url'");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            exactly(6).of(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(false));
+            one(gitCheckoutCommand).fetchBranch(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, shallow);
+            one(gitCheckoutCommand).deepenBranch(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, shallow, 2);
+            one(gitCheckoutCommand).deepenBranch(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, shallow, 4);
+            one(gitCheckoutCommand).deepenBranch(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, shallow, 8);
+            one(gitCheckoutCommand).deepenBranch(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, shallow, 16);
+            one(gitCheckoutCommand).deepenBranch(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, shallow, 0);
+            one(gitCheckoutCommand).checkoutDetached(buildLogger, BUILD_REVISION);
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION);
+        }});
+
+        assertEquals(BUILD_REVISION, gitClient.checkoutRevision(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, shallow, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testCheckoutRevisionFetchesOnlyWhatTheObjectCacheDoesNotHave() throws RepositoryException, IOException {
+        gitObjectCacheCommand = mock(GitObjectCacheCommand.class);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + BUILD_REVISION + "' on 'plankey' from 'master' @ 'repository.url'");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            exactly(2).of(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(false));
+            one(gitObjectCacheCommand).lock(REPOSITORY_URL); will(returnValue(cacheLock));
+            one(gitObjectCacheCommand).update(buildLogger, REPOSITORY_URL); will(returnValue(MIRROR_DIRECTORY));
+            one(cacheLock).close();
+            one(gitObjectCacheCommand).share(MIRROR_DIRECTORY, SOURCE_CODE_DIRECTORY);
+            one(gitCheckoutCommand).fetchBranch(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, FetchOptions.FULL);
+            one(gitCheckoutCommand).checkoutDetached(buildLogger, BUILD_REVISION);
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION);
+        }});
+
+        assertEquals(BUILD_REVISION, gitClient.checkoutRevision(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, FetchOptions.FULL, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testCheckoutRevisionDoesNotFetchARevisionTheWorkingCopyAlreadyHas() throws RepositoryException, IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + BUILD_REVISION + "' on 'plankey' from 'master' @ 'repository.url'");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(true));
+            one(gitCheckoutCommand).checkoutDetached(buildLogger, BUILD_REVISION);
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION);
+        }});
+
+        assertEquals(BUILD_REVISION, gitClient.checkoutRevision(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, FetchOptions.FULL, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testCheckoutRevisionDoesNothingWhenTheWorkspaceStateSaysItIsAlreadyAtTheRevision() throws RepositoryException, IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + BUILD_REVISION + "' on 'plankey' from 'master' @ 'repository.url'");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(true));
+            one(buildLogger).addBuildLogEntry("'" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "' is already at revision '" + BUILD_REVISION + "', not fetching.");
+        }});
+
+        assertEquals(BUILD_REVISION, gitClient.checkoutRevision(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, FetchOptions.FULL, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testCheckoutRevisionWrapsExceptionFetchingTheBranch() throws IOException {
+        final IOException ioException = new IOException("EXPECTED EXCEPTION");
+
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + BUILD_REVISION + "' on 'plankey' from 'master' @ 'repository.url'");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitPullCommand).hasRevision(BUILD_REVISION); will(returnValue(false));
+            one(gitCheckoutCommand).fetchBranch(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, FetchOptions.FULL); will(throwException(ioException));
+        }});
+
+        try {
+            gitClient.checkoutRevision(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, FetchOptions.FULL, PLAN_KEY, SOURCE_CODE_DIRECTORY);
+            fail("Should throw RepositoryException");
+        } catch (RepositoryException e) {
+            assertEquals("Could not check out revision '" + BUILD_REVISION + "' in working dir '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "' from remote repository 'repository.url'", e.getMessage());
+            assertSame(ioException, e.getCause());
+        }
+    }
+
+    public void testCheckoutWorktreeFetchesIntoTheSharedRepositoryAndAddsAWorktree() throws RepositoryException, IOException {
+        gitObjectCacheCommand = mock(GitObjectCacheCommand.class);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + BUILD_REVISION + "' on 'plankey' from 'master' @ 'repository.url' into a worktree");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitObjectCacheCommand).cacheDirectoryFor(REPOSITORY_URL); will(returnValue(MIRROR_DIRECTORY));
+            one(gitWorktreeCommand).isWorktree(SOURCE_CODE_DIRECTORY); will(returnValue(false));
+            one(gitWorktreeCommand).isRepository(SOURCE_CODE_DIRECTORY); will(returnValue(false));
+            one(gitObjectCacheCommand).lock(REPOSITORY_URL); will(returnValue(cacheLock));
+            one(gitObjectCacheCommand).update(buildLogger, REPOSITORY_URL); will(returnValue(MIRROR_DIRECTORY));
+            one(gitWorktreeCommand).prune(buildLogger);
+            one(gitWorktreeCommand).add(buildLogger, SOURCE_CODE_DIRECTORY, BUILD_REVISION);
+            one(cacheLock).close();
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION);
+        }});
+
+        assertEquals(BUILD_REVISION, gitClient.checkoutWorktree(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testCheckoutWorktreeChecksOutTheRevisionInAnExistingWorktree() throws RepositoryException, IOException {
+        gitObjectCacheCommand = mock(GitObjectCacheCommand.class);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + BUILD_REVISION + "' on 'plankey' from 'master' @ 'repository.url' into a worktree");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitObjectCacheCommand).cacheDirectoryFor(REPOSITORY_URL); will(returnValue(MIRROR_DIRECTORY));
+            one(gitWorktreeCommand).isWorktree(SOURCE_CODE_DIRECTORY); will(returnValue(true));
+            one(gitObjectCacheCommand).lock(REPOSITORY_URL); will(returnValue(cacheLock));
+            one(gitObjectCacheCommand).update(buildLogger, REPOSITORY_URL); will(returnValue(MIRROR_DIRECTORY));
+            one(gitWorktreeCommand).prune(buildLogger);
+            one(cacheLock).close();
+            one(gitCheckoutCommand).checkoutDetached(buildLogger, BUILD_REVISION);
+            one(gitSubmoduleCommand).update(buildLogger);
+            one(workspaceState).record(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION);
+        }});
+
+        assertEquals(BUILD_REVISION, gitClient.checkoutWorktree(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testCheckoutWorktreeReleasesTheSharedRepositoryWhenTheFetchFails() throws IOException {
+        gitObjectCacheCommand = mock(GitObjectCacheCommand.class);
+        final IOException ioException = new IOException("EXPECTED EXCEPTION");
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + BUILD_REVISION + "' on 'plankey' from 'master' @ 'repository.url' into a worktree");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitObjectCacheCommand).cacheDirectoryFor(REPOSITORY_URL); will(returnValue(MIRROR_DIRECTORY));
+            one(gitWorktreeCommand).isWorktree(SOURCE_CODE_DIRECTORY); will(returnValue(true));
+            one(gitObjectCacheCommand).lock(REPOSITORY_URL); will(returnValue(cacheLock));
+            one(gitObjectCacheCommand).update(buildLogger, REPOSITORY_URL); will(throwException(ioException));
+            one(cacheLock).close();
+        }});
+
+        try {
+            gitClient.checkoutWorktree(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY);
+            fail("Should throw RepositoryException");
+        } catch (RepositoryException e) {
+            assertEquals("Could not check out revision '" + BUILD_REVISION + "' in worktree '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "' of remote repository 'repository.url'", e.getMessage());
+            assertSame(ioException, e.getCause());
+        }
+    }
+
+    public void testCheckoutWorktreeLeavesARepositoryOfItsOwnAlone() throws RepositoryException, IOException {
+        gitObjectCacheCommand = mock(GitObjectCacheCommand.class);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + BUILD_REVISION + "' on 'plankey' from 'master' @ 'repository.url' into a worktree");
+            one(workspaceState).isAt(REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION); will(returnValue(false));
+            one(gitObjectCacheCommand).cacheDirectoryFor(REPOSITORY_URL); will(returnValue(MIRROR_DIRECTORY));
+            one(gitWorktreeCommand).isWorktree(SOURCE_CODE_DIRECTORY); will(returnValue(false));
+            one(gitWorktreeCommand).isRepository(SOURCE_CODE_DIRECTORY); will(returnValue(true));
+            one(buildLogger).addBuildLogEntry("'" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "' is already a repository of its own; clean the working directory to make it a worktree.");
+        }});
+
+        assertNull(gitClient.checkoutWorktree(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testCheckoutWorktreeNeedsAnObjectCacheAndAGitThatSupportsWorktrees() throws RepositoryException, IOException {
+        toolchain = GitToolchain.parse("git", "git version 1.9.1");
+        gitObjectCacheCommand = mock(GitObjectCacheCommand.class);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Worktree workspaces need git 2.5 or later and an object cache (-DGIT_OBJECT_CACHE_DIR), so '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "' is a repository of its own.");
+        }});
+
+        assertNull(gitClient.checkoutWorktree(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, BUILD_REVISION, PLAN_KEY, SOURCE_CODE_DIRECTORY));
+    }
+
+    public void testNarrowsTheWorkingTreeWhenTheSparseCheckoutPathsChange() throws RepositoryException, IOException {
+        final List<String> sparsePaths = Arrays.asList("services/billing");
+        checking(new Expectations() {{
+            one(workspaceState).hasSparsePaths(sparsePaths); will(returnValue(false));
+            one(gitSparseCheckoutCommand).set(buildLogger, sparsePaths);
+            one(workspaceState).recordSparsePaths(sparsePaths);
+        }});
+
+        gitClient.updateSparseCheckout(buildLogger, sparsePaths, SOURCE_CODE_DIRECTORY);
+    }
+
+    public void testLeavesTheWorkingTreeAloneWhileTheSparseCheckoutPathsStayTheSame() throws RepositoryException, IOException {
+        final List<String> sparsePaths = Arrays.asList("services/billing");
+        checking(new Expectations() {{
+            one(workspaceState).hasSparsePaths(sparsePaths); will(returnValue(true));
+        }});
+
+        gitClient.updateSparseCheckout(buildLogger, sparsePaths, SOURCE_CODE_DIRECTORY);
+    }
+
+    public void testBringsBackTheWholeWorkingTreeWhenThePlanNoLongerHasSparseCheckoutPaths() throws RepositoryException, IOException {
+        final List<String> sparsePaths = Collections.emptyList();
+        checking(new Expectations() {{
+            one(workspaceState).hasSparsePaths(sparsePaths); will(returnValue(false));
+            one(gitSparseCheckoutCommand).disable(buildLogger);
+            one(workspaceState).recordSparsePaths(sparsePaths);
+        }});
+
+        gitClient.updateSparseCheckout(buildLogger, sparsePaths, SOURCE_CODE_DIRECTORY);
+    }
+
+    public void testChecksOutTheWholeWorkingTreeWithAGitTooOldForSparseCheckout() throws RepositoryException, IOException {
+        toolchain = GitToolchain.parse("git", "git version 2.20.1");
+        final List<String> sparsePaths = Arrays.asList("services/billing");
+        checking(new Expectations() {{
+            one(workspaceState).hasSparsePaths(sparsePaths); will(returnValue(false));
+            one(buildLogger).addBuildLogEntry("Sparse checkout needs git 2.25 or later, so '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "' has the whole working tree.");
+        }});
+
+        gitClient.updateSparseCheckout(buildLogger, sparsePaths, SOURCE_CODE_DIRECTORY);
+    }
+
     public void testGetLatestChangesMakesChangeSetIdAvailable() throws RepositoryException, IOException {
         final Commit commit = mock(Commit.class);
         checking(new Expectations() {{
             one(buildLogger).addBuildLogEntry("Getting changes on 'plankey' at 'master' @ 'repository.url' since commit 'last revision'");
-            one(gitRemoteLogCommand).extractCommits(); will(returnValue(Collections.singletonList(commit)));
+            one(gitMirrorCommand).update(buildLogger, REPOSITORY_URL); will(returnValue(MIRROR_DIRECTORY));
+            one(gitMirrorLogCommand).extractCommits(); will(returnValue(Collections.singletonList(commit)));
         }});
 
         final List<Commit> commits = gitClient.getChangesSince(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, PLAN_KEY, "last revision");
@@ -138,10 +647,25 @@ public class CmdLineGitClientTest extends MockObjectTestCase {
         assertSame(commit, commits.get(0));
     }
 
-    public void testGetLatestChangesExecutesRemoteLogForSshRepository() throws RepositoryException, IOException {
+    public void testGetLatestChangesReadsTheMirrorForSshRepository() throws RepositoryException, IOException {
         final Commit commit = mock(Commit.class);
         checking(new Expectations() {{
             one(buildLogger).addBuildLogEntry("Getting changes on 'plankey' at 'master' @ 'ssh://foo@bar.com/srv/git/myrepo.git' since commit 'deadcafe'");
+            one(gitMirrorCommand).update(buildLogger, "ssh://foo@bar.com/srv/git/myrepo.git"); will(returnValue(MIRROR_DIRECTORY));
+            one(gitMirrorLogCommand).extractCommits(); will(returnValue(Collections.singletonList(commit)));
+        }});
+
+        final List<Commit> commits = gitClient.getChangesSince(buildLogger, "ssh://foo@bar.com/srv/git/myrepo.git", REPOSITORY_BRANCH, PLAN_KEY, "deadcafe");
+        assertEquals(1, commits.size());
+        assertSame(commit, commits.get(0));
+    }
+
+    public void testGetLatestChangesExecutesRemoteLogIfTheMirrorCannotBeUpdated() throws RepositoryException, IOException {
+        final Commit commit = mock(Commit.class);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Getting changes on 'plankey' at 'master' @ 'ssh://foo@bar.com/srv/git/myrepo.git' since commit 'deadcafe'");
+            one(gitMirrorCommand).update(buildLogger, "ssh://foo@bar.com/srv/git/myrepo.git"); will(throwException(new IOException("EXPECTED EXCEPTION")));
+            one(buildLogger).addBuildLogEntry("Could not read the history from the mirror of 'ssh://foo@bar.com/srv/git/myrepo.git', asking the remote repository instead: EXPECTED EXCEPTION");
             one(gitRemoteLogCommand).extractCommits(); will(returnValue(Collections.singletonList(commit)));
         }});
 
@@ -150,6 +674,25 @@ public class CmdLineGitClientTest extends MockObjectTestCase {
         assertSame(commit, commits.get(0));
     }
 
+    public void testGetLatestChangesWrapsExceptionIfNeitherTheMirrorNorTheRemoteCanBeRead() throws IOException {
+        final IOException ioException = new IOException("EXPECTED EXCEPTION");
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Getting changes on 'plankey' at 'master' @ 'repository.url' since commit 'deadcafe'");
+            one(gitMirrorCommand).update(buildLogger, REPOSITORY_URL); will(returnValue(MIRROR_DIRECTORY));
+            one(gitMirrorLogCommand).extractCommits(); will(throwException(new IOException("MIRROR EXCEPTION")));
+            one(buildLogger).addBuildLogEntry("Could not read the history from the mirror of 'repository.url', asking the remote repository instead: MIRROR EXCEPTION");
+            one(gitRemoteLogCommand).extractCommits(); will(throwException(ioException));
+        }});
+
+        try {
+            gitClient.getChangesSince(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, PLAN_KEY, "deadcafe");
+            fail("Should throw RepositoryException");
+        } catch (RepositoryException e) {
+            assertEquals("Failed to get history from remote repo", e.getMessage());
+            assertSame(ioException, e.getCause());
+        }
+    }
+
     public void testInitialiseRepositoryCreatesANewLocalRepository() throws RepositoryException, IOException {
         checking(new Expectations() {{
             one(buildLogger).addBuildLogEntry(SOURCE_CODE_DIRECTORY.getAbsolutePath() + " is empty. Creating new git repository.");
@@ -160,6 +703,31 @@ public class CmdLineGitClientTest extends MockObjectTestCase {
         gitClient.initialiseRepository(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, SOURCE_CODE_DIRECTORY);
     }
 
+    public void testInitialiseRepositoryRestoresTheSnapshotOfTheRepository() throws RepositoryException, IOException {
+        gitSnapshotCommand = mock(GitSnapshotCommand.class);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry(SOURCE_CODE_DIRECTORY.getAbsolutePath() + " is empty. Creating new git repository.");
+            one(gitInitCommand).init(buildLogger);
+            one(gitRemoteCommand).add_origin(REPOSITORY_URL, REPOSITORY_BRANCH, buildLogger);
+            one(gitSnapshotCommand).restore(buildLogger, REPOSITORY_URL, SOURCE_CODE_DIRECTORY); will(returnValue(true));
+        }});
+
+        gitClient.initialiseRepository(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, SOURCE_CODE_DIRECTORY);
+    }
+
+    public void testInitialiseRepositoryCarriesOnWhenTheSnapshotCannotBeRestored() throws RepositoryException, IOException {
+        gitSnapshotCommand = mock(GitSnapshotCommand.class);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry(SOURCE_CODE_DIRECTORY.getAbsolutePath() + " is empty. Creating new git repository.");
+            one(gitInitCommand).init(buildLogger);
+            one(gitRemoteCommand).add_origin(REPOSITORY_URL, REPOSITORY_BRANCH, buildLogger);
+            one(gitSnapshotCommand).restore(buildLogger, REPOSITORY_URL, SOURCE_CODE_DIRECTORY); will(throwException(new IOException("not a bundle")));
+            one(buildLogger).addBuildLogEntry("Could not restore '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "' from the snapshot of 'repository.url', fetching everything from the remote repository instead: not a bundle");
+        }});
+
+        gitClient.initialiseRepository(buildLogger, REPOSITORY_URL, REPOSITORY_BRANCH, SOURCE_CODE_DIRECTORY);
+    }
+
     public void testInitialiseRepositoryWrapsInitException() throws RepositoryException, IOException {
         final IOException ioException = new IOException("EXPECTED EXCEPTION");
 
@@ -195,12 +763,37 @@ public class CmdLineGitClientTest extends MockObjectTestCase {
         }
     }
 
+    private Action countDown(final CountDownLatch latch) {
+        return new Action() {
+            public Object invoke(Invocation invocation) {
+                latch.countDown();
+                return null;
+            }
+
+            public void describeTo(Description description) {
+                description.appendText("counts down a latch");
+            }
+        };
+    }
+
     private CmdLineGitClient gitClient() {
-        return new CmdLineGitClient() {
+        return new CmdLineGitClient(processes, new RefAdvertisementCache(RefAdvertisementCache.configuredTimeToLiveMillis()), new RepositoryLocks(), toolchainRegistry, asyncCommandExecutor, new RefFileResolver(catFileBatchPool), new LocalObjectLookup()) {
             protected GitPullCommand pullCommand(File sourceCodeDirectory) {
                 return gitPullCommand;
             }
 
+            protected WorkspaceState workspaceState(File sourceCodeDirectory) {
+                return workspaceState;
+            }
+
+            protected GitCheckoutCommand checkoutCommand(File sourceCodeDirectory) {
+                return gitCheckoutCommand;
+            }
+
+            protected GitSubmoduleCommand submoduleCommand(File sourceCodeDirectory) {
+                return gitSubmoduleCommand;
+            }
+
             protected GitLogCommand logCommand(File sourceCodeDirectory, String lastRevisionChecked) {
                 return gitLogCommand;
             }
@@ -209,6 +802,14 @@ public class CmdLineGitClientTest extends MockObjectTestCase {
                 return gitRemoteLogCommand;
             }
 
+            protected GitMirrorCommand mirrorCommand() {
+                return gitMirrorCommand;
+            }
+
+            protected GitLogCommand mirrorLogCommand(File mirrorDirectory, String branch, String lastRevisionChecked) {
+                return gitMirrorLogCommand;
+            }
+
             protected GitInitCommand initCommand(File sourceCodeDirectory) {
                 return gitInitCommand;
             }
@@ -217,6 +818,26 @@ public class CmdLineGitClientTest extends MockObjectTestCase {
                 return gitRemoteCommand;
             }
 
+            protected GitObjectCacheCommand objectCacheCommand() {
+                return gitObjectCacheCommand;
+            }
+
+            protected GitSnapshotCommand snapshotCommand() {
+                return gitSnapshotCommand;
+            }
+
+            protected GitSparseCheckoutCommand sparseCheckoutCommand(File sourceCodeDirectory) {
+                return gitSparseCheckoutCommand;
+            }
+
+            protected GitWorktreeCommand worktreeCommand(File repositoryDirectory) {
+                return gitWorktreeCommand;
+            }
+
+            protected GitToolchain toolchain() {
+                return toolchain;
+            }
+
             protected GitListRemoteCommand listRemoteCommand() {
                 return gitListRemoteCommand;
             }
@@ -6,6 +6,10 @@ import com.atlassian.bamboo.utils.error.SimpleErrorCollection;
 import com.atlassian.bamboo.ww2.actions.build.admin.create.BuildConfiguration;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.jmock.integration.junit3.MockObjectTestCase;
+import uk.co.pols.bamboo.gitplugin.client.commands.FetchOptions;
+
+import java.util.Arrays;
+
 import static uk.co.pols.bamboo.gitplugin.SampleCommitFactory.commitFile;
 import static uk.co.pols.bamboo.gitplugin.SampleCommitFactory.commitWithFile;
 
@@ -69,12 +73,22 @@ public class GitRepositoryConfigTest extends MockObjectTestCase {
         repositoryConfig.setBranch("TheBranch");
         repositoryConfig.setKeyFile("the/key/file");
         repositoryConfig.setPassphrase("passphrase");
+        repositoryConfig.setDetachedCheckout(true);
+        repositoryConfig.setWorktree(true);
+        repositoryConfig.setFetchDepth(50);
+        repositoryConfig.setCloneFilter("blob:none");
+        repositoryConfig.setSparsePaths("services/billing\nlibs/common");
 
         HierarchicalConfiguration hierarchicalConfiguration = repositoryConfig.toConfiguration(new HierarchicalConfiguration());
 
         assertEquals("TheTopSecretBuildRepoUrl", hierarchicalConfiguration.getProperty(GitRepositoryConfig.GIT_REPO_URL));
         assertEquals("TheBranch", hierarchicalConfiguration.getProperty(GitRepositoryConfig.GIT_BRANCH));
         assertEquals("TheRepoWebUrl", hierarchicalConfiguration.getProperty(AbstractRepository.WEB_REPO_URL));
+        assertEquals(Boolean.TRUE, hierarchicalConfiguration.getProperty(GitRepositoryConfig.GIT_DETACHED_CHECKOUT));
+        assertEquals(Boolean.TRUE, hierarchicalConfiguration.getProperty(GitRepositoryConfig.GIT_WORKTREE));
+        assertEquals(50, hierarchicalConfiguration.getProperty(GitRepositoryConfig.GIT_FETCH_DEPTH));
+        assertEquals("blob:none", hierarchicalConfiguration.getProperty(GitRepositoryConfig.GIT_CLONE_FILTER));
+        assertEquals("services/billing\nlibs/common", hierarchicalConfiguration.getProperty(GitRepositoryConfig.GIT_SPARSE_PATHS));
     }
 
     public void testLoadsTheRepositorySettingsFromTheBuildConfiguration() {
@@ -88,6 +102,80 @@ public class GitRepositoryConfigTest extends MockObjectTestCase {
         assertEquals("TheSpecialBranch", repositoryConfig.getBranch());
         assertEquals("TheTopSecretBuildRepoUrl", repositoryConfig.getRepositoryUrl());
         assertEquals("WebRepositoryUrl", repositoryConfig.getWebRepositoryUrl());
+        assertFalse(repositoryConfig.isDetachedCheckout());
+        assertFalse(repositoryConfig.isWorktree());
+        assertEquals(FetchOptions.FULL, repositoryConfig.getFetchOptions());
+        assertTrue(repositoryConfig.getSparsePathList().isEmpty());
+    }
+
+    public void testLoadsTheCheckoutModeFromTheBuildConfiguration() {
+        HierarchicalConfiguration buildConfiguration = new HierarchicalConfiguration();
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_DETACHED_CHECKOUT, "true");
+
+        repositoryConfig.populateFromConfig(buildConfiguration);
+
+        assertTrue(repositoryConfig.isDetachedCheckout());
+    }
+
+    public void testLoadsTheFetchDepthAndFilterFromTheBuildConfiguration() {
+        HierarchicalConfiguration buildConfiguration = new HierarchicalConfiguration();
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_FETCH_DEPTH, "50");
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_CLONE_FILTER, "tree:0");
+
+        repositoryConfig.populateFromConfig(buildConfiguration);
+
+        assertEquals(new FetchOptions(50, FetchOptions.TREELESS), repositoryConfig.getFetchOptions());
+    }
+
+    public void testTreatsABlankFetchDepthAsTheWholeHistory() {
+        HierarchicalConfiguration buildConfiguration = new HierarchicalConfiguration();
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_FETCH_DEPTH, "");
+
+        repositoryConfig.populateFromConfig(buildConfiguration);
+
+        assertEquals(0, repositoryConfig.getFetchDepth());
+    }
+
+    public void testEnsuresThatTheFetchDepthIsANumberOfCommits() {
+        BuildConfiguration buildConfiguration = new BuildConfiguration();
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_REPO_URL, "The Rep Url");
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_BRANCH, "TheBranch");
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_FETCH_DEPTH, "-1");
+
+        ErrorCollection errorCollection = repositoryConfig.validate(new SimpleErrorCollection(), buildConfiguration);
+
+        assertHasError(errorCollection, GitRepositoryConfig.GIT_FETCH_DEPTH, "Please specify the number of commits to fetch, or leave it blank for the whole history");
+    }
+
+    public void testOnlyAcceptsTheFiltersGitSupports() {
+        BuildConfiguration buildConfiguration = new BuildConfiguration();
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_REPO_URL, "The Rep Url");
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_BRANCH, "TheBranch");
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_CLONE_FILTER, "sparse:oid=master:.sparse");
+
+        ErrorCollection errorCollection = repositoryConfig.validate(new SimpleErrorCollection(), buildConfiguration);
+
+        assertHasError(errorCollection, GitRepositoryConfig.GIT_CLONE_FILTER, "Please choose 'blob:none', 'tree:0' or no filter");
+    }
+
+    public void testReadsOneSparseCheckoutDirectoryPerLine() {
+        HierarchicalConfiguration buildConfiguration = new HierarchicalConfiguration();
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_SPARSE_PATHS, " services/billing/ \r\n\n/libs/common\nservices/billing");
+
+        repositoryConfig.populateFromConfig(buildConfiguration);
+
+        assertEquals(Arrays.asList("services/billing", "libs/common"), repositoryConfig.getSparsePathList());
+    }
+
+    public void testOnlyAcceptsDirectoriesAsSparseCheckoutPaths() {
+        BuildConfiguration buildConfiguration = new BuildConfiguration();
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_REPO_URL, "The Rep Url");
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_BRANCH, "TheBranch");
+        buildConfiguration.setProperty(GitRepositoryConfig.GIT_SPARSE_PATHS, "services/billing\nlibs/*.jar");
+
+        ErrorCollection errorCollection = repositoryConfig.validate(new SimpleErrorCollection(), buildConfiguration);
+
+        assertHasError(errorCollection, GitRepositoryConfig.GIT_SPARSE_PATHS, "Please list directories, one per line, without wildcards or other patterns");
     }
 
     public void testDefaultsToUsingTheMasterBranchOnNewPlans() {
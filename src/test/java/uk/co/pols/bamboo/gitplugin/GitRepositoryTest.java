@@ -13,12 +13,15 @@ import com.atlassian.bamboo.repository.cvsimpl.CVSRepository;
 import com.atlassian.bamboo.v2.build.BuildChanges;
 import com.atlassian.bamboo.ww2.actions.build.admin.create.BuildConfiguration;
 import org.jmock.Expectations;
+import org.jmock.Sequence;
 import org.jmock.integration.junit3.MockObjectTestCase;
+import uk.co.pols.bamboo.gitplugin.client.commands.FetchOptions;
 import uk.co.pols.bamboo.gitplugin.client.commands.GitCommandDiscoverer;
 import uk.co.pols.bamboo.gitplugin.client.GitClient;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -99,8 +102,9 @@ public class GitRepositoryTest extends MockObjectTestCase {
     public void testInitialisesTheRepositoryIfTheWorkspaceIsEmpty() throws RepositoryException {
         checking(new Expectations() {{
             one(buildLoggerManager).getBuildLogger(PLAN_KEY); will(returnValue(buildLogger));
+            one(gitClient).updateSparseCheckout(buildLogger, Collections.<String>emptyList(), SRC_CODE_DIR);
             one(gitClient).initialiseRepository(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, SRC_CODE_DIR);
-            one(gitClient).pullFromRemote(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, PLAN_KEY, SRC_CODE_DIR); will(returnValue("last commit"));
+            one(gitClient).pullFromRemote(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, "a commit", PLAN_KEY, SRC_CODE_DIR); will(returnValue("last commit"));
         }});
 
         assertEquals("last commit", gitRepository(true).retrieveSourceCode(PLAN_KEY, "a commit"));
@@ -109,12 +113,76 @@ public class GitRepositoryTest extends MockObjectTestCase {
     public void testChecksOutTheSourceCodeIfTheIfTheWorkspaceIsNotEmpty() throws RepositoryException {
         checking(new Expectations() {{
             one(buildLoggerManager).getBuildLogger(PLAN_KEY); will(returnValue(buildLogger));
-            one(gitClient).pullFromRemote(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, PLAN_KEY, SRC_CODE_DIR); will(returnValue("last commit"));
+            one(gitClient).updateSparseCheckout(buildLogger, Collections.<String>emptyList(), SRC_CODE_DIR);
+            one(gitClient).pullFromRemote(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, "a commit", PLAN_KEY, SRC_CODE_DIR); will(returnValue("last commit"));
         }});
 
         assertEquals("last commit", gitRepository(false).retrieveSourceCode(PLAN_KEY, "a commit"));
     }
 
+    public void testChecksOutTheExactRevisionIfThePlanAsksForIt() throws RepositoryException {
+        gitRepositoryConfig.setDetachedCheckout(true);
+        checking(new Expectations() {{
+            one(buildLoggerManager).getBuildLogger(PLAN_KEY); will(returnValue(buildLogger));
+            one(gitClient).updateSparseCheckout(buildLogger, Collections.<String>emptyList(), SRC_CODE_DIR);
+            one(gitClient).checkoutRevision(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, "a commit", FetchOptions.FULL, PLAN_KEY, SRC_CODE_DIR); will(returnValue("a commit"));
+        }});
+
+        assertEquals("a commit", gitRepository(false).retrieveSourceCode(PLAN_KEY, "a commit"));
+    }
+
+    public void testChecksOutTheExactRevisionIntoAShallowWorkspace() throws RepositoryException {
+        gitRepositoryConfig.setFetchDepth(50);
+        gitRepositoryConfig.setCloneFilter(FetchOptions.BLOBLESS);
+        checking(new Expectations() {{
+            one(buildLoggerManager).getBuildLogger(PLAN_KEY); will(returnValue(buildLogger));
+            one(gitClient).updateSparseCheckout(buildLogger, Collections.<String>emptyList(), SRC_CODE_DIR);
+            one(gitClient).initialiseRepository(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, SRC_CODE_DIR);
+            one(gitClient).checkoutRevision(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, "a commit", new FetchOptions(50, FetchOptions.BLOBLESS), PLAN_KEY, SRC_CODE_DIR); will(returnValue("a commit"));
+        }});
+
+        assertEquals("a commit", gitRepository(true).retrieveSourceCode(PLAN_KEY, "a commit"));
+    }
+
+    public void testNarrowsTheWorkingTreeToTheSparseCheckoutPathsBeforeUpdatingIt() throws RepositoryException {
+        gitRepositoryConfig.setSparsePaths("services/billing");
+        final Sequence checkout = sequence("checkout");
+        checking(new Expectations() {{
+            one(buildLoggerManager).getBuildLogger(PLAN_KEY); will(returnValue(buildLogger));
+            one(gitClient).initialiseRepository(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, SRC_CODE_DIR); inSequence(checkout);
+            one(gitClient).updateSparseCheckout(buildLogger, Arrays.asList("services/billing"), SRC_CODE_DIR); inSequence(checkout);
+            one(gitClient).pullFromRemote(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, "a commit", PLAN_KEY, SRC_CODE_DIR); will(returnValue("last commit")); inSequence(checkout);
+        }});
+
+        assertEquals("last commit", gitRepository(true).retrieveSourceCode(PLAN_KEY, "a commit"));
+    }
+
+    public void testMakesTheWorkspaceAWorktreeOfTheSharedRepositoryIfThePlanAsksForIt() throws RepositoryException {
+        gitRepositoryConfig.setWorktree(true);
+        checking(new Expectations() {{
+            one(buildLoggerManager).getBuildLogger(PLAN_KEY); will(returnValue(buildLogger));
+            one(gitClient).checkoutWorktree(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, "a commit", PLAN_KEY, SRC_CODE_DIR); will(returnValue("a commit"));
+        }});
+
+        assertEquals("a commit", gitRepository(true).retrieveSourceCode(PLAN_KEY, "a commit"));
+    }
+
+    public void testSetsUpAnEmptyWorkspaceWithThePlansFetchOptionsWhenItCannotBeAWorktree() throws RepositoryException {
+        gitRepositoryConfig.setWorktree(true);
+        gitRepositoryConfig.setFetchDepth(50);
+        gitRepositoryConfig.setSparsePaths("services/billing");
+        final Sequence checkout = sequence("checkout");
+        checking(new Expectations() {{
+            one(buildLoggerManager).getBuildLogger(PLAN_KEY); will(returnValue(buildLogger));
+            one(gitClient).checkoutWorktree(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, "a commit", PLAN_KEY, SRC_CODE_DIR); will(returnValue(null)); inSequence(checkout);
+            one(gitClient).initialiseRepository(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, SRC_CODE_DIR); inSequence(checkout);
+            one(gitClient).updateSparseCheckout(buildLogger, Arrays.asList("services/billing"), SRC_CODE_DIR); inSequence(checkout);
+            one(gitClient).checkoutRevision(buildLogger, RESPOSITORY_URL, REPOSITORY_BRANCH, "a commit", new FetchOptions(50, null), PLAN_KEY, SRC_CODE_DIR); will(returnValue("a commit")); inSequence(checkout);
+        }});
+
+        assertEquals("a commit", gitRepository(true).retrieveSourceCode(PLAN_KEY, "a commit"));
+    }
+
     public void testARepositoryThatIsNotAGitRepositoryIsClearlyDifferent() {
         assertTrue(gitRepository(false).isRepositoryDifferent(new CVSRepository()));
     }
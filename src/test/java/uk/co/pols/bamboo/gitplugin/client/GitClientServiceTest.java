@@ -0,0 +1,95 @@
+package uk.co.pols.bamboo.gitplugin.client;
+
+import static uk.co.pols.bamboo.gitplugin.client.commands.StreamOutputAction.streamOutput;
+
+import com.atlassian.bamboo.repository.RepositoryException;
+import org.jmock.Expectations;
+import org.jmock.integration.junit3.MockObjectTestCase;
+import uk.co.pols.bamboo.gitplugin.client.commands.BestGuessGitCommandDiscoverer;
+import uk.co.pols.bamboo.gitplugin.client.commands.CommandExecutor;
+import uk.co.pols.bamboo.gitplugin.client.commands.CommandTimeouts;
+import uk.co.pols.bamboo.gitplugin.client.commands.OutputHandler;
+import uk.co.pols.bamboo.gitplugin.client.commands.ProcessBuilderCommandExecutor;
+import uk.co.pols.bamboo.gitplugin.client.commands.RefAdvertisementCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+public class GitClientServiceTest extends MockObjectTestCase {
+    private static final String GIT_EXE = "/usr/bin/git";
+    private static final String REPOSITORY_URL = "git@github.com:andypols/git-bamboo-plugin.git";
+    private static final File TMP_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+    private final CommandExecutor commandExecutor = mock(CommandExecutor.class);
+    private final ProcessBuilderCommandExecutor processes = new ProcessBuilderCommandExecutor(new CommandTimeouts(new Properties()));
+    private final GitClientService service = new GitClientService(processes, commandExecutor, new RefAdvertisementCache(60000));
+
+    protected void setUp() throws Exception {
+        System.setProperty(BestGuessGitCommandDiscoverer.GIT_HOME, GIT_EXE);
+    }
+
+    protected void tearDown() throws Exception {
+        System.clearProperty(BestGuessGitCommandDiscoverer.GIT_HOME);
+        GitClientService.shutdownInstance();
+    }
+
+    public void testHandsOutTheSameClientEachTime() {
+        assertSame(service.getGitClient(), service.getGitClient());
+        assertSame(GitClientService.getInstance(), GitClientService.getInstance());
+    }
+
+    public void testSharesTheToolchainAndRefsBetweenCallsAndCountsTheCommands() throws RepositoryException, IOException {
+        checking(new Expectations() {{
+            one(commandExecutor).execute(new String[]{GIT_EXE, "--version"}, TMP_DIR); will(returnValue("git version 2.39.5\n"));
+            one(commandExecutor).execute(with(equal(new String[]{GIT_EXE, "ls-remote", REPOSITORY_URL})), with(equal(TMP_DIR)), with(any(OutputHandler.class)));
+                will(streamOutput("ca23c1bc865fbd60b4d0c5dcdb264afd65789026\trefs/heads/master\n"));
+        }});
+
+        assertEquals("ca23c1bc865fbd60b4d0c5dcdb264afd65789026", service.getGitClient().getLatestRevision(REPOSITORY_URL, "master", "PLAN-KEY"));
+        assertEquals("ca23c1bc865fbd60b4d0c5dcdb264afd65789026", service.getGitClient().getLatestRevision(REPOSITORY_URL, "master", "OTHER-PLAN-KEY"));
+        assertEquals(2, service.getMetrics().getCommands());
+        assertEquals(0, service.getMetrics().getFailures());
+    }
+
+    public void testRefusesToHandOutTheClientOnceShutDown() {
+        service.shutdown();
+
+        assertTrue(service.isShutdown());
+        try {
+            service.getGitClient();
+            fail("Should throw IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("The git client service has been shut down.", e.getMessage());
+        }
+    }
+
+    public void testStopsRunningGitProcessesWhenShutDown() {
+        service.shutdown();
+
+        try {
+            processes.run(new String[]{GIT_EXE, "--version"}, TMP_DIR);
+            fail("Should throw IOException");
+        } catch (IOException e) {
+            assertEquals("The git command executor has been shut down", e.getMessage());
+        }
+    }
+
+    public void testStartsAFreshServiceAfterTheSharedOneIsShutDown() {
+        GitClientService first = GitClientService.getInstance();
+        GitClientService.shutdownInstance();
+
+        assertTrue(first.isShutdown());
+        assertNotSame(first, GitClientService.getInstance());
+    }
+
+    public void testDisablingThePluginShutsDownTheSharedService() {
+        GitClientServiceModuleDescriptor descriptor = new GitClientServiceModuleDescriptor();
+        GitClientService shared = descriptor.getModule();
+
+        descriptor.disabled();
+
+        assertTrue(shared.isShutdown());
+        assertNotSame(shared, GitClientService.getInstance());
+    }
+}
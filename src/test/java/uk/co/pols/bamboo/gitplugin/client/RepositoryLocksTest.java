@@ -0,0 +1,15 @@
+package uk.co.pols.bamboo.gitplugin.client;
+
+import junit.framework.TestCase;
+
+public class RepositoryLocksTest extends TestCase {
+    private final RepositoryLocks repositoryLocks = new RepositoryLocks();
+
+    public void testHandsOutTheSameLockForTheSameRepository() {
+        assertSame(repositoryLocks.lockFor("git@github.com:andypols/git-bamboo-plugin.git"), repositoryLocks.lockFor("git@github.com:andypols/git-bamboo-plugin.git"));
+    }
+
+    public void testHandsOutDifferentLocksForDifferentRepositories() {
+        assertNotSame(repositoryLocks.lockFor("git@github.com:andypols/git-bamboo-plugin.git"), repositoryLocks.lockFor("git@github.com:mrowe/git-bamboo-plugin.git"));
+    }
+}
@@ -0,0 +1,108 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncCommandExecutorTest extends TestCase {
+    private static final File DIRECTORY = new File("directory");
+
+    private final CountDownLatch bothRunning = new CountDownLatch(2);
+    private final AsyncCommandExecutor executor = AsyncCommandExecutor.create(new OverlappingCommandExecutor(), 2);
+
+    protected void tearDown() throws Exception {
+        executor.shutdown();
+    }
+
+    public void testRunsCommandsSideBySide() throws IOException {
+        Future<String> first = executor.submit(new String[]{"git", "ls-remote", "first"}, DIRECTORY);
+        Future<String> second = executor.submit(new String[]{"git", "ls-remote", "second"}, DIRECTORY);
+
+        assertEquals("first", AsyncCommandExecutor.await(first));
+        assertEquals("second", AsyncCommandExecutor.await(second));
+    }
+
+    public void testHandsStreamedOutputToTheHandler() throws IOException {
+        final StringBuilder streamed = new StringBuilder();
+        bothRunning.countDown();
+
+        Future<CommandResult> result = executor.submit(new String[]{"git", "log", "branch"}, DIRECTORY, new OutputHandler() {
+            public void handle(InputStream output) throws IOException {
+                int b;
+                while ((b = output.read()) != -1) {
+                    streamed.append((char) b);
+                }
+            }
+        });
+
+        assertEquals("error output", AsyncCommandExecutor.await(result).getErrorOutput());
+        assertEquals("branch", streamed.toString());
+    }
+
+    public void testHandsBackTheIOExceptionTheCommandThrew() {
+        final IOException ioException = new IOException("EXPECTED EXCEPTION");
+        Future<String> failed = executor.submit(new Callable<String>() {
+            public String call() throws IOException {
+                throw ioException;
+            }
+        });
+
+        try {
+            AsyncCommandExecutor.await(failed);
+            fail("Should throw IOException");
+        } catch (IOException e) {
+            assertSame(ioException, e);
+        }
+    }
+
+    public void testRefusesWorkOnceShutDown() {
+        executor.shutdown();
+
+        try {
+            executor.submit(new String[]{"git", "ls-remote", "url"}, DIRECTORY);
+            fail("Should throw RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    /*
+     * Each command waits until another is running too, so the commands only finish if they overlap.
+     */
+    private class OverlappingCommandExecutor implements CommandExecutor {
+        public String execute(String[] commandLine, File sourceCodeDirectory) throws IOException {
+            bothRunning.countDown();
+            try {
+                if (!bothRunning.await(10, TimeUnit.SECONDS)) {
+                    throw new IOException("commands did not overlap");
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            }
+            return commandLine[2];
+        }
+
+        public CommandResult run(String[] commandLine, File sourceCodeDirectory) throws IOException {
+            return new CommandResult(0, execute(commandLine, sourceCodeDirectory), "");
+        }
+
+        public CommandResult execute(String[] commandLine, File sourceCodeDirectory, OutputHandler outputHandler) throws IOException {
+            outputHandler.handle(new ByteArrayInputStream(execute(commandLine, sourceCodeDirectory).getBytes("UTF-8")));
+            return new CommandResult(0, "", "error output");
+        }
+
+        public int run(String[] commandLine, File sourceCodeDirectory, OutputStream output, OutputStream errorOutput) throws IOException {
+            output.write(execute(commandLine, sourceCodeDirectory).getBytes("UTF-8"));
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BoundedCommandExecutorTest extends TestCase {
+    private static final File DIRECTORY = new File("source/directory");
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger mostRunningAtOnce = new AtomicInteger();
+
+    public void testPassesCommandsThroughToTheUnderlyingExecutor() throws IOException {
+        CommandExecutor executor = new BoundedCommandExecutor(new CountingCommandExecutor(), 1);
+
+        assertEquals("git version", executor.execute(new String[]{"git", "version"}, DIRECTORY));
+    }
+
+    public void testNeverRunsMoreCommandsAtOnceThanTheLimit() throws Exception {
+        final CommandExecutor executor = new BoundedCommandExecutor(new CountingCommandExecutor(), 2);
+
+        Thread[] threads = new Thread[6];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        executor.execute(new String[]{"git", "ls-remote"}, DIRECTORY);
+                    } catch (IOException e) {
+                        fail(e.getMessage());
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(mostRunningAtOnce.get() <= 2);
+    }
+
+    public void testReadsTheLimitFromASystemProperty() {
+        System.setProperty(BoundedCommandExecutor.GIT_MAX_PROCESSES, "3");
+        try {
+            assertEquals(3, BoundedCommandExecutor.configuredMaxProcesses());
+        } finally {
+            System.clearProperty(BoundedCommandExecutor.GIT_MAX_PROCESSES);
+        }
+        assertEquals(BoundedCommandExecutor.DEFAULT_MAX_PROCESSES, BoundedCommandExecutor.configuredMaxProcesses());
+    }
+
+    private class CountingCommandExecutor implements CommandExecutor {
+        public String execute(String[] commandLine, File sourceCodeDirectory) throws IOException {
+            int nowRunning = running.incrementAndGet();
+            synchronized (mostRunningAtOnce) {
+                mostRunningAtOnce.set(Math.max(mostRunningAtOnce.get(), nowRunning));
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted");
+            } finally {
+                running.decrementAndGet();
+            }
+            return commandLine[0] + " " + commandLine[1];
+        }
+
+        public CommandResult run(String[] commandLine, File sourceCodeDirectory) throws IOException {
+            return new CommandResult(0, execute(commandLine, sourceCodeDirectory), "");
+        }
+
+        public CommandResult execute(String[] commandLine, File sourceCodeDirectory, OutputHandler outputHandler) throws IOException {
+            return run(commandLine, sourceCodeDirectory);
+        }
+
+        public int run(String[] commandLine, File sourceCodeDirectory, OutputStream output, OutputStream errorOutput) throws IOException {
+            output.write(execute(commandLine, sourceCodeDirectory).getBytes("UTF-8"));
+            return 0;
+        }
+    }
+}
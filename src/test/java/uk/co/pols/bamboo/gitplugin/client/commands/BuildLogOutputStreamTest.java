@@ -0,0 +1,97 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.jmock.Expectations;
+import org.jmock.integration.junit3.MockObjectTestCase;
+
+import java.io.IOException;
+
+public class BuildLogOutputStreamTest extends MockObjectTestCase {
+    private final BuildLogger buildLogger = mock(BuildLogger.class);
+    private long now = 100000;
+    private final BuildLogOutputStream outputStream = new BuildLogOutputStream(buildLogger, 1000) {
+        protected long currentTimeMillis() {
+            return now;
+        }
+    };
+
+    public void testLogsEachLineAsItEnds() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("From github.com:mrowe/git-bamboo-plugin");
+        }});
+        write("From github.com:mrowe/git-bamboo-plugin\n * branch");
+
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry(" * branch            master     -> FETCH_HEAD");
+        }});
+        write("            master     -> FETCH_HEAD\n");
+    }
+
+    public void testCoalescesProgressUpdatesWithinTheInterval() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Receiving objects:   1% (1/100)");
+            one(buildLogger).addBuildLogEntry("Receiving objects:  60% (60/100)");
+            one(buildLogger).addBuildLogEntry("Receiving objects: 100% (100/100), done.");
+        }});
+
+        write("Receiving objects:   1% (1/100)\r");
+        now += 400;
+        write("Receiving objects:  30% (30/100)\r");
+        now += 700;
+        write("Receiving objects:  60% (60/100)\r");
+        now += 100;
+        write("Receiving objects:  90% (90/100)\r");
+        write("Receiving objects: 100% (100/100), done.\n");
+    }
+
+    public void testLogsTheLastProgressUpdateOnlyOnce() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Counting objects: 100% (3/3)");
+            one(buildLogger).addBuildLogEntry("Compressing objects: 100% (2/2)");
+        }});
+
+        write("Counting objects: 100% (3/3)\r\n");
+        now += 1000;
+        write("Compressing objects: 100% (2/2)\r\n");
+    }
+
+    public void testLogsWhatIsLeftOnClose() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Resolving deltas:   1% (1/100)");
+            one(buildLogger).addBuildLogEntry("Resolving deltas:  50% (50/100)");
+        }});
+
+        write("Resolving deltas:   1% (1/100)\rResolving deltas:  50% (50/100)\r");
+        outputStream.close();
+    }
+
+    public void testKeepsTheLastLinesForAFailureMessage() throws IOException {
+        checking(new Expectations() {{
+            allowing(buildLogger).addBuildLogEntry(with(any(String.class)));
+        }});
+
+        for (int i = 0; i < 30; i++) {
+            write("remote: line " + i + "\n");
+        }
+        write("fatal: the remote end hung up unexpectedly\n");
+
+        String tail = outputStream.getTail();
+        assertTrue(tail.endsWith("remote: line 29\nfatal: the remote end hung up unexpectedly"));
+        assertFalse(tail.contains("remote: line 10\n"));
+    }
+
+    public void testDecodesEachLineAsUtf8() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Merge made by the 'ort' strategy: caf\u00e9");
+        }});
+
+        write("Merge made by the 'ort' strategy: caf\u00e9\n");
+    }
+
+    private void write(String text) throws IOException {
+        byte[] bytes = text.getBytes("UTF-8");
+        // in two pieces, splitting a character if there is one to split
+        outputStream.write(bytes, 0, bytes.length / 2);
+        outputStream.write(bytes, bytes.length / 2, bytes.length - bytes.length / 2);
+    }
+}
@@ -0,0 +1,181 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.delete;
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.git;
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.gitAvailable;
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.write;
+
+import junit.framework.TestCase;
+import org.apache.tools.ant.taskdefs.condition.Os;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Runs the real git against a scratch repository, so it is skipped where there is no unix or no git.
+ */
+public class CatFileBatchPoolTest extends TestCase {
+    private final ProcessBuilderCommandExecutor commandExecutor = new ProcessBuilderCommandExecutor(new CommandTimeouts(new Properties()));
+    private final GitToolchainRegistry toolchainRegistry = new GitToolchainRegistry(new GitCommandDiscoverer() {
+        public String gitCommand() {
+            return "git";
+        }
+    }, commandExecutor);
+    private final CatFileBatchPool pool = new CatFileBatchPool(toolchainRegistry, commandExecutor, 60000, 4);
+    private File repository;
+
+    protected void setUp() throws Exception {
+        repository = File.createTempFile("cat-file-pool", "");
+        repository.delete();
+    }
+
+    protected void tearDown() throws Exception {
+        pool.shutdown();
+        delete(repository);
+    }
+
+    public void testResolvesBranchesAndSeesThemMove() throws IOException {
+        if (!gitAvailable()) {
+            return;
+        }
+        String first = commit("first");
+        assertEquals(first, pool.resolve(repository, "refs/heads/master"));
+
+        String second = commit("second");
+        assertEquals(second, pool.resolve(repository, "refs/heads/master"));
+        assertEquals(1, pool.idleCount());
+    }
+
+    public void testResolvesManyRevisionsAtOnceLeavingOutTheMissingOnes() throws IOException {
+        if (!gitAvailable()) {
+            return;
+        }
+        String head = commit("first");
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        expected.put("refs/heads/master", head);
+        expected.put("HEAD", head);
+
+        assertEquals(expected, pool.resolveAll(repository, Arrays.asList("refs/heads/master", "refs/heads/missing", "HEAD")));
+        assertNull(pool.resolve(repository, "refs/heads/missing"));
+    }
+
+    public void testAsksAFreshProcessWhenTheRepositoryIsMadeAgain() throws IOException {
+        if (!gitAvailable()) {
+            return;
+        }
+        commit("first");
+        pool.resolve(repository, "refs/heads/master");
+        delete(repository);
+
+        String remade = commit("remade");
+        git(repository, "branch", "other");
+        assertEquals(remade, pool.resolve(repository, "refs/heads/other"));
+    }
+
+    public void testStopsAnIdleProcessThatIsAskedForSomethingThatIsNotARevision() throws IOException {
+        if (!gitAvailable()) {
+            return;
+        }
+        commit("first");
+        pool.resolve(repository, "refs/heads/master");
+        assertEquals(1, commandExecutor.runningCount());
+
+        try {
+            pool.resolve(repository, "refs/heads/master\nHEAD");
+            fail("Should throw IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Not a revision: 'refs/heads/master\nHEAD'", e.getMessage());
+        }
+        assertEquals(0, pool.idleCount());
+        assertEquals(0, commandExecutor.runningCount());
+    }
+
+    public void testStopsProcessesThatHaveBeenIdleTooLong() throws Exception {
+        if (!gitAvailable()) {
+            return;
+        }
+        CatFileBatchPool shortLivedPool = new CatFileBatchPool(toolchainRegistry, commandExecutor, 1, 4);
+        try {
+            commit("first");
+            shortLivedPool.resolve(repository, "refs/heads/master");
+            assertEquals(1, shortLivedPool.idleCount());
+
+            Thread.sleep(10);
+            shortLivedPool.stopIdleProcesses();
+            assertEquals(0, shortLivedPool.idleCount());
+        } finally {
+            shortLivedPool.shutdown();
+        }
+    }
+
+    public void testKeepsNoMoreIdleProcessesThanTheLimitStoppingTheLeastRecentlyUsed() throws IOException {
+        if (!gitAvailable()) {
+            return;
+        }
+        CatFileBatchPool smallPool = new CatFileBatchPool(toolchainRegistry, commandExecutor, 60000, 1);
+        File otherRepository = new File(repository.getPath() + "-other");
+        try {
+            String head = commit("first");
+            smallPool.resolve(repository, "refs/heads/master");
+            git(repository, "clone", "-q", repository.getPath(), otherRepository.getPath());
+
+            assertEquals(head, smallPool.resolve(otherRepository, "refs/heads/master"));
+            assertEquals(1, smallPool.idleCount());
+            assertEquals(0, smallPool.idleCount(repository));
+            assertEquals(1, smallPool.idleCount(otherRepository));
+        } finally {
+            smallPool.shutdown();
+            delete(otherRepository);
+        }
+    }
+
+    public void testKillsAProcessThatStopsAnswering() throws IOException {
+        if (!Os.isFamily(Os.FAMILY_UNIX)) {
+            return;
+        }
+        Properties timeouts = new Properties();
+        timeouts.setProperty("GIT_TIMEOUT_CAT_FILE", "1");
+        ProcessBuilderCommandExecutor processes = new ProcessBuilderCommandExecutor(new CommandTimeouts(timeouts));
+        File git = File.createTempFile("git", "");
+        CatFileBatchCheck process = null;
+        try {
+            write(git, "#!/bin/sh\nsleep 20\n");
+            assertTrue(git.setExecutable(true));
+            process = new CatFileBatchCheck(processes, git.getAbsolutePath(), git.getParentFile());
+            long started = System.currentTimeMillis();
+
+            try {
+                process.check(Arrays.asList("HEAD"));
+                fail("Should throw GitCommandTimeoutException");
+            } catch (GitCommandTimeoutException e) {
+                assertEquals(1000, e.getTimeoutMillis());
+                assertTrue(System.currentTimeMillis() - started < 10000);
+                assertFalse(process.isUsable());
+            }
+        } finally {
+            if (process != null) {
+                process.close();
+            }
+            processes.shutdown();
+            git.delete();
+        }
+    }
+
+    public void testRefusesLookupsOnceShutDown() throws IOException {
+        pool.shutdown();
+        try {
+            pool.resolve(repository, "HEAD");
+            fail("Should throw IOException");
+        } catch (IOException e) {
+            assertEquals("The git cat-file pool has been shut down", e.getMessage());
+        }
+    }
+
+    private String commit(String message) throws IOException {
+        return new ScratchRepository(repository).emptyCommit(message);
+    }
+}
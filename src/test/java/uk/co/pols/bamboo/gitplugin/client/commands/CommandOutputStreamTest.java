@@ -0,0 +1,75 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class CommandOutputStreamTest extends TestCase {
+    private static final String AUTHOR = "J\u00f6rg M\u00fcller \u65e5\u672c";
+
+    public void testDecodesTheOutputAsUtf8() throws IOException {
+        CommandOutputStream outputStream = new CommandOutputStream(1024);
+        outputStream.write(AUTHOR.getBytes("UTF-8"));
+
+        assertEquals(AUTHOR, outputStream.getText());
+        assertFalse(outputStream.isSpilled());
+    }
+
+    public void testDecodesCharactersSplitAcrossWrites() throws IOException {
+        CommandOutputStream outputStream = new CommandOutputStream(1024);
+        byte[] bytes = AUTHOR.getBytes("UTF-8");
+        for (byte b : bytes) {
+            outputStream.write(b);
+        }
+
+        assertEquals(AUTHOR, outputStream.getText());
+    }
+
+    public void testWritesPartOfAnArray() throws IOException {
+        CommandOutputStream outputStream = new CommandOutputStream(1024);
+        outputStream.write("Test ...".getBytes("UTF-8"), 2, 3);
+
+        assertEquals("st ", outputStream.getText());
+    }
+
+    public void testSpillsToAFileOnceTheOutputOutgrowsTheSpillSize() throws IOException {
+        CommandOutputStream outputStream = new CommandOutputStream(16);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String line = i + ": " + AUTHOR + "\n";
+            expected.append(line);
+            outputStream.write(line.getBytes("UTF-8"));
+        }
+
+        assertTrue(outputStream.isSpilled());
+        assertEquals(expected.toString(), outputStream.getText());
+        outputStream.close();
+    }
+
+    public void testOnlyReadsTheBeginningAndEndOfLargeSpilledOutput() throws IOException {
+        CommandOutputStream outputStream = new CommandOutputStream(16);
+        byte[] filler = new byte[CommandOutputStream.EXCERPT_SIZE];
+        Arrays.fill(filler, (byte) '.');
+        outputStream.write("first line\n".getBytes("UTF-8"));
+        outputStream.write(filler);
+        outputStream.write(filler);
+        outputStream.write("last line\n".getBytes("UTF-8"));
+
+        String text = outputStream.getText();
+        assertTrue(text.startsWith("first line\n"));
+        assertTrue(text.endsWith("last line\n"));
+        assertTrue(text.indexOf("\n[21 bytes of output left out]\n") > 0);
+        assertEquals(2 * CommandOutputStream.EXCERPT_SIZE + "\n[21 bytes of output left out]\n".length(), text.length());
+        outputStream.close();
+    }
+
+    public void testRejectsOutOfBoundsWrites() throws IOException {
+        try {
+            new CommandOutputStream(1024).write(new byte[4], 2, 3);
+            fail("Should throw IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            assertEquals("CommandOutputStream.write: Parameters out of bounds.", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import junit.framework.TestCase;
+
+import java.util.Properties;
+
+public class CommandTimeoutsTest extends TestCase {
+    private final Properties settings = new Properties();
+    private final CommandTimeouts timeouts = new CommandTimeouts(settings);
+
+    public void testNamesCommandsByTheirGitSubCommand() {
+        assertEquals("ls-remote", CommandTimeouts.commandName(new String[]{"/usr/bin/git", "ls-remote", "url"}));
+        assertEquals("fetch", CommandTimeouts.commandName(new String[]{"git", "--git-dir=/srv/repo", "fetch", "--quiet", "url"}));
+        assertEquals("--version", CommandTimeouts.commandName(new String[]{"git", "--version"}));
+        assertEquals("log", CommandTimeouts.commandName(new String[]{"ssh", "git@foo.com", "git", "--git-dir=/srv/git/bar.git", "log", "a..b"}));
+        assertEquals("which", CommandTimeouts.commandName(new String[]{"which", "git"}));
+    }
+
+    public void testSkipsTheValuesOfOptionsThatComeBeforeTheSubCommand() {
+        assertEquals("fetch", CommandTimeouts.commandName(new String[]{"git", "-c", "protocol.version=2", "fetch", "origin"}));
+        assertEquals("log", CommandTimeouts.commandName(new String[]{"git", "-C", "/srv/repo", "log", "a..b"}));
+        assertEquals("pull", CommandTimeouts.commandName(new String[]{"git", "--git-dir", "/srv/repo/.git", "--work-tree", "/srv/repo", "pull"}));
+        assertEquals(30 * 60 * 1000L, timeouts.timeoutFor(new String[]{"git", "-c", "core.askPass=true", "fetch", "url"}));
+    }
+
+    public void testGivesEachKindOfCommandItsOwnDefault() {
+        assertEquals(60 * 1000L, timeouts.timeoutFor(new String[]{"git", "ls-remote", "url"}));
+        assertEquals(30 * 60 * 1000L, timeouts.timeoutFor(new String[]{"git", "pull", "origin", "master"}));
+        assertEquals(CommandTimeouts.DEFAULT_TIMEOUT_SECONDS * 1000L, timeouts.timeoutFor(new String[]{"git", "init"}));
+    }
+
+    public void testCanChangeTheTimeoutOfEveryCommand() {
+        settings.setProperty("GIT_TIMEOUT", "5");
+
+        assertEquals(5000L, timeouts.timeoutFor(new String[]{"git", "ls-remote", "url"}));
+        assertEquals(5000L, timeouts.timeoutFor(new String[]{"git", "init"}));
+    }
+
+    public void testCanChangeTheTimeoutOfOneKindOfCommand() {
+        settings.setProperty("GIT_TIMEOUT", "5");
+        settings.setProperty("GIT_TIMEOUT_LS_REMOTE", "7");
+        settings.setProperty("GIT_TIMEOUT_VERSION", "0");
+
+        assertEquals(7000L, timeouts.timeoutFor(new String[]{"git", "ls-remote", "url"}));
+        assertEquals(0L, timeouts.timeoutFor(new String[]{"git", "--version"}));
+        assertEquals(5000L, timeouts.timeoutFor(new String[]{"git", "fetch", "url"}));
+    }
+
+    public void testIgnoresSettingsThatAreNotNumbers() {
+        settings.setProperty("GIT_TIMEOUT_LS_REMOTE", "soon");
+
+        assertEquals(60 * 1000L, timeouts.timeoutFor(new String[]{"git", "ls-remote", "url"}));
+    }
+}
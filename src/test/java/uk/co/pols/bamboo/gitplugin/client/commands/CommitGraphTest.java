@@ -0,0 +1,157 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks the answers against the real git, so it is skipped where there is no unix or no git.
+ */
+public class CommitGraphTest extends TestCase {
+    private ScratchRepository repository;
+
+    protected void setUp() throws Exception {
+        if (ScratchRepository.gitAvailable()) {
+            File directory = File.createTempFile("commit-graph", "");
+            directory.delete();
+            repository = new ScratchRepository(directory);
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        if (repository != null) {
+            repository.delete();
+        }
+    }
+
+    public void testAgreesWithGitAboutAncestryAndRanges() throws IOException {
+        if (repository == null) {
+            return;
+        }
+        List<String> commits = buildHistory();
+        repository.git("commit-graph", "write", "--reachable");
+        CommitGraph commitGraph = open();
+
+        assertEquals(Integer.parseInt(repository.git("rev-list", "--count", "--all").trim()), commitGraph.getCommitCount());
+        for (String from : commits) {
+            for (String to : commits) {
+                assertEquals(from + ".." + to, revList(from, to), new HashSet<String>(commitGraph.range(from, to)));
+                assertEquals(from + " in " + to, isAncestor(from, to), commitGraph.isAncestor(from, to));
+            }
+        }
+    }
+
+    public void testReadsAChainOfSplitGraphs() throws IOException {
+        if (repository == null) {
+            return;
+        }
+        String first = repository.commit("a", "first");
+        repository.git("commit-graph", "write", "--reachable", "--split=no-merge");
+        String second = repository.commit("a", "second");
+        repository.git("commit-graph", "write", "--reachable", "--split=no-merge");
+        String third = repository.commit("a", "third");
+        repository.git("commit-graph", "write", "--reachable", "--split=no-merge");
+        CommitGraph commitGraph = open();
+
+        assertEquals(3, commitGraph.getCommitCount());
+        assertEquals(Arrays.asList(third, second), commitGraph.range(first, third));
+        assertEquals(Boolean.TRUE, commitGraph.isAncestor(first, third));
+        assertEquals(Boolean.FALSE, commitGraph.isAncestor(third, first));
+    }
+
+    public void testSeesThatABranchWasForcePushed() throws IOException {
+        if (repository == null) {
+            return;
+        }
+        String base = repository.commit("a", "base");
+        String built = repository.commit("a", "built");
+        repository.git("reset", "-q", "--hard", base);
+        String rewritten = repository.commit("a", "rewritten");
+        repository.git("commit-graph", "write", "--reachable");
+        repository.git("branch", "old", built);
+        repository.git("commit-graph", "write", "--reachable");
+        CommitGraph commitGraph = open();
+
+        assertEquals(Boolean.FALSE, commitGraph.isAncestor(built, rewritten));
+        assertEquals(Arrays.asList(rewritten), commitGraph.range(built, rewritten));
+    }
+
+    public void testHasNoAnswerForCommitsItDoesNotHold() throws IOException {
+        if (repository == null) {
+            return;
+        }
+        String first = repository.commit("a", "first");
+        repository.git("commit-graph", "write", "--reachable");
+        String second = repository.commit("a", "second");
+        CommitGraph commitGraph = open();
+
+        assertTrue(commitGraph.contains(first));
+        assertFalse(commitGraph.contains(second));
+        assertNull(commitGraph.isAncestor(first, second));
+        assertNull(commitGraph.range(first, second));
+    }
+
+    public void testIsNotThereUntilGitWritesIt() throws IOException {
+        if (repository == null) {
+            return;
+        }
+        repository.commit("a", "first");
+
+        assertNull(new CommitGraphCache().forRepository(repository.getDirectory()));
+    }
+
+    /*
+     * master: A - B - C ------- M ----------- O
+     *              \          /              /|\
+     * topic:        D ----- E      x, y, z: X Y Z (an octopus merge)
+     */
+    private List<String> buildHistory() throws IOException {
+        String a = repository.commit("master", "A");
+        String b = repository.commit("master", "B");
+        repository.git("checkout", "-q", "-b", "topic");
+        String d = repository.commit("topic", "D");
+        String e = repository.commit("topic", "E");
+        repository.git("checkout", "-q", "master");
+        String c = repository.commit("master", "C");
+        String m = repository.merge("topic");
+        String[] octopus = new String[3];
+        String[] names = {"x", "y", "z"};
+        for (int i = 0; i < names.length; i++) {
+            repository.git("checkout", "-q", "-b", names[i], m);
+            octopus[i] = repository.commit(names[i], names[i].toUpperCase());
+        }
+        repository.git("checkout", "-q", "master");
+        String o = repository.merge(names);
+        return Arrays.asList(a, b, c, d, e, m, octopus[0], octopus[1], octopus[2], o);
+    }
+
+    private CommitGraph open() {
+        CommitGraph commitGraph = new CommitGraphCache().forRepository(repository.getDirectory());
+        assertNotNull(commitGraph);
+        return commitGraph;
+    }
+
+    private Set<String> revList(String from, String to) throws IOException {
+        Set<String> commits = new HashSet<String>();
+        for (String line : repository.git("rev-list", to, "^" + from).split("\n")) {
+            if (line.trim().length() > 0) {
+                commits.add(line.trim());
+            }
+        }
+        return commits;
+    }
+
+    private Boolean isAncestor(String ancestor, String descendant) throws IOException {
+        try {
+            repository.git("merge-base", "--is-ancestor", ancestor, descendant);
+            return Boolean.TRUE;
+        } catch (IOException e) {
+            return Boolean.FALSE;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import static uk.co.pols.bamboo.gitplugin.client.commands.WriteOutputAction.writeOutput;
+
+import org.jmock.integration.junit3.MockObjectTestCase;
+import org.jmock.Expectations;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+
+public class ExecutorGitCheckoutCommandTest extends MockObjectTestCase {
+    private static final File SOURCE_CODE_DIRECTORY = new File("source/directory");
+    private static final String GIT_EXE = "git";
+    private static final String REVISION = "ca23c1bc865fbd60b4d0c5dcdb264afd65789026";
+
+    private final CommandExecutor commandExecutor = mock(CommandExecutor.class);
+    private final BuildLogger buildLogger = mock(BuildLogger.class);
+    private final GitCheckoutCommand gitCheckoutCommand = new ExecutorGitCheckoutCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, commandExecutor);
+
+    public void testFetchesOnlyTheBranchWithoutTags() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Fetching branch 'some-branch' @ 'gitRepositoryUrl' into '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "'.");
+            one(commandExecutor).run(with(equal(new String[]{GIT_EXE, "fetch", "--no-tags", "--progress", "gitRepositoryUrl", "+refs/heads/some-branch:refs/remotes/origin/some-branch"})), with(equal(SOURCE_CODE_DIRECTORY)), with(any(OutputStream.class)), with(any(OutputStream.class)));
+                will(writeOutput("", 0, "FETCH COMMAND OUTPUT\n"));
+            one(buildLogger).addBuildLogEntry("FETCH COMMAND OUTPUT");
+        }});
+
+        gitCheckoutCommand.fetchBranch(buildLogger, "gitRepositoryUrl", "some-branch", FetchOptions.FULL);
+    }
+
+    public void testThrowsAnIOExceptionIfGitFetchReturnsAnError() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Fetching branch 'some-branch' @ 'gitRepositoryUrl' into '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "'.");
+            one(commandExecutor).run(with(equal(new String[]{GIT_EXE, "fetch", "--no-tags", "--progress", "gitRepositoryUrl", "+refs/heads/some-branch:refs/remotes/origin/some-branch"})), with(equal(SOURCE_CODE_DIRECTORY)), with(any(OutputStream.class)), with(any(OutputStream.class)));
+                will(writeOutput("", 128, "fatal: couldn't find remote ref\n"));
+            one(buildLogger).addBuildLogEntry("fatal: couldn't find remote ref");
+        }});
+
+        try {
+            gitCheckoutCommand.fetchBranch(buildLogger, "gitRepositoryUrl", "some-branch", FetchOptions.FULL);
+            fail("Should throw an IOException");
+        } catch (IOException e) {
+            assertEquals("Could not fetch from 'gitRepositoryUrl'. git-fetch: fatal: couldn't find remote ref", e.getMessage());
+        }
+    }
+
+    public void testFetchesAShallowPartialClone() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Fetching branch 'some-branch' @ 'gitRepositoryUrl' into '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "' (depth 50, filter blob:none).");
+            one(commandExecutor).run(with(equal(new String[]{GIT_EXE, "fetch", "--no-tags", "--progress", "--depth=50", "--filter=blob:none", "gitRepositoryUrl", "+refs/heads/some-branch:refs/remotes/origin/some-branch"})), with(equal(SOURCE_CODE_DIRECTORY)), with(any(OutputStream.class)), with(any(OutputStream.class)));
+                will(writeOutput("", 0, "FETCH COMMAND OUTPUT\n"));
+            one(buildLogger).addBuildLogEntry("FETCH COMMAND OUTPUT");
+        }});
+
+        gitCheckoutCommand.fetchBranch(buildLogger, "gitRepositoryUrl", "some-branch", new FetchOptions(50, FetchOptions.BLOBLESS));
+    }
+
+    public void testDeepensAShallowClone() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Deepening branch 'some-branch' @ 'gitRepositoryUrl' to 100 commits.");
+            one(commandExecutor).run(with(equal(new String[]{GIT_EXE, "fetch", "--no-tags", "--progress", "--depth=100", "--filter=tree:0", "gitRepositoryUrl", "+refs/heads/some-branch:refs/remotes/origin/some-branch"})), with(equal(SOURCE_CODE_DIRECTORY)), with(any(OutputStream.class)), with(any(OutputStream.class)));
+                will(writeOutput("", 0, ""));
+        }});
+
+        gitCheckoutCommand.deepenBranch(buildLogger, "gitRepositoryUrl", "some-branch", new FetchOptions(50, FetchOptions.TREELESS), 100);
+    }
+
+    public void testFetchesTheWholeHistoryOfAShallowClone() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Fetching the whole history of branch 'some-branch' @ 'gitRepositoryUrl'.");
+            one(commandExecutor).run(with(equal(new String[]{GIT_EXE, "fetch", "--no-tags", "--progress", "--unshallow", "gitRepositoryUrl", "+refs/heads/some-branch:refs/remotes/origin/some-branch"})), with(equal(SOURCE_CODE_DIRECTORY)), with(any(OutputStream.class)), with(any(OutputStream.class)));
+                will(writeOutput("", 0, ""));
+        }});
+
+        gitCheckoutCommand.deepenBranch(buildLogger, "gitRepositoryUrl", "some-branch", new FetchOptions(50, null), 0);
+    }
+
+    public void testForcesACheckoutOfTheRevision() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + REVISION + "' in '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "checkout", "-f", REVISION}, SOURCE_CODE_DIRECTORY); will(returnValue(new CommandResult(0, "", "HEAD is now at ca23c1b")));
+            one(buildLogger).addBuildLogEntry("HEAD is now at ca23c1b");
+        }});
+
+        gitCheckoutCommand.checkoutDetached(buildLogger, REVISION);
+    }
+
+    public void testThrowsAnIOExceptionIfGitCheckoutReturnsAnError() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + REVISION + "' in '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "checkout", "-f", REVISION}, SOURCE_CODE_DIRECTORY); will(returnValue(new CommandResult(128, "", "fatal: reference is not a tree")));
+        }});
+
+        try {
+            gitCheckoutCommand.checkoutDetached(buildLogger, REVISION);
+            fail("Should throw an IOException");
+        } catch (IOException e) {
+            assertEquals("Could not check out '" + REVISION + "'. git-checkout: fatal: reference is not a tree", e.getMessage());
+        }
+    }
+}
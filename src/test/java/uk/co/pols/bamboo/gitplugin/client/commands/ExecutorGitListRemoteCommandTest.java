@@ -1,11 +1,15 @@
 package uk.co.pols.bamboo.gitplugin.client.commands;
 
+import static uk.co.pols.bamboo.gitplugin.client.commands.StreamOutputAction.streamOutput;
+
 import com.atlassian.bamboo.repository.RepositoryException;
 import org.jmock.integration.junit3.MockObjectTestCase;
 import org.jmock.Expectations;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
 
 public class ExecutorGitListRemoteCommandTest extends MockObjectTestCase {
     private static final String GIT_EXE = "git";
@@ -20,29 +24,32 @@ public class ExecutorGitListRemoteCommandTest extends MockObjectTestCase {
     }
 
     public void testCorrectlyExtractsCommitHashFromResultWithTab() throws Exception {
-        mockReturnValue("1cc17a8203f7c5c82e89ae5f687d12b7be65951e\trefs/heads/master");
+        mockReturnValue("1cc17a8203f7c5c82e89ae5f687d12b7be65951e\trefs/heads/branch");
         assertCommandReturns("1cc17a8203f7c5c82e89ae5f687d12b7be65951e");
     }
 
     public void testCorrectlyExtractsCommitHashFromResultWithADifferentSHA() throws Exception {
-        mockReturnValue("ca23c1bc865fbd60b4d0c5dcdb264afd65789026\trefs/heads/master");
+        mockReturnValue("ca23c1bc865fbd60b4d0c5dcdb264afd65789026\trefs/heads/branch");
         assertCommandReturns("ca23c1bc865fbd60b4d0c5dcdb264afd65789026");
     }
 
     public void testCorrectlyExtractsCommitHashFromResultWithATrailingNewline() throws Exception {
-        mockReturnValue("ca23c1bc865fbd60b4d0c5dcdb264afd65789026\trefs/heads/master\n");
+        mockReturnValue("ca23c1bc865fbd60b4d0c5dcdb264afd65789026\trefs/heads/branch\n");
         assertCommandReturns("ca23c1bc865fbd60b4d0c5dcdb264afd65789026");
     }
 
     public void testCorrectlyExtractsCommitHashFromResultWithSpaces() throws Exception {
-        mockReturnValue("1cc17a8203f7c5c82e89ae5f687d12b7be65951e     refs/heads/master");
+        mockReturnValue("1cc17a8203f7c5c82e89ae5f687d12b7be65951e     refs/heads/branch");
         assertCommandReturns("1cc17a8203f7c5c82e89ae5f687d12b7be65951e");
     }
 
     public void testThrowsAnIOExceptionWhenGitReturnsErrorMessage() throws Exception {
-        mockReturnValue("fatal: Unable to look up github.com");
+        checking(new Expectations() {{
+            one(commandExecutor).execute(with(equal(new String[]{GIT_EXE, "ls-remote", REPO})), with(equal(tmpDir)), with(any(OutputHandler.class)));
+                will(streamOutput("", 128, "fatal: Unable to look up github.com\n"));
+        }});
         try {
-            new ExecutorGitListRemoteCommand(GIT_EXE, commandExecutor).getLastCommit(REPO, BRANCH);
+            new ExecutorGitListRemoteCommand(GIT_EXE, commandExecutor, new RefAdvertisementCache(0)).getLastCommit(REPO, BRANCH);
             fail("Should throw IOException");
         } catch (IOException e) {
             assertEquals("Could not determine latest commit for branch 'branch' @ 'repo'. git-ls-remote: fatal: Unable to look up github.com", e.getMessage());
@@ -53,27 +60,68 @@ public class ExecutorGitListRemoteCommandTest extends MockObjectTestCase {
         final IOException ioException = new IOException();
 
         checking(new Expectations() {{
-            one(commandExecutor).execute(new String[]{GIT_EXE, "ls-remote", REPO, BRANCH}, tmpDir); will(throwException(ioException));
+            one(commandExecutor).execute(with(equal(new String[]{GIT_EXE, "ls-remote", REPO})), with(equal(tmpDir)), with(any(OutputHandler.class))); will(throwException(ioException));
         }});
 
         try {
-            new ExecutorGitListRemoteCommand(GIT_EXE, commandExecutor).getLastCommit(REPO, BRANCH);
+            new ExecutorGitListRemoteCommand(GIT_EXE, commandExecutor, new RefAdvertisementCache(0)).getLastCommit(REPO, BRANCH);
             fail("Should throw IOException");
         } catch (IOException e) {
             assertSame(ioException, e);
         }
     }
 
+    public void testPicksTheRequestedBranchOutOfTheFullRefList() throws Exception {
+        mockReturnValue(
+                "1cc17a8203f7c5c82e89ae5f687d12b7be65951e\tHEAD\n" +
+                "ca23c1bc865fbd60b4d0c5dcdb264afd65789026\trefs/heads/branch\n" +
+                "60f6a6cabe727b14897b4d98bca91ce646a07d3d\trefs/heads/other-branch\n");
+        assertCommandReturns("ca23c1bc865fbd60b4d0c5dcdb264afd65789026");
+    }
+
+    public void testAnswersEveryBranchOnARepositoryFromOneListing() throws Exception {
+        mockReturnValue(
+                "ca23c1bc865fbd60b4d0c5dcdb264afd65789026\trefs/heads/branch\n" +
+                "60f6a6cabe727b14897b4d98bca91ce646a07d3d\trefs/heads/other-branch\n");
+
+        GitListRemoteCommand command = new ExecutorGitListRemoteCommand(GIT_EXE, commandExecutor, new RefAdvertisementCache(60000));
+        assertEquals("ca23c1bc865fbd60b4d0c5dcdb264afd65789026", command.getLastCommit(REPO, BRANCH));
+        assertEquals("60f6a6cabe727b14897b4d98bca91ce646a07d3d", command.getLastCommit(REPO, "other-branch"));
+    }
+
+    public void testGetsTheLatestCommitOfManyBranchesFromOneListing() throws Exception {
+        mockReturnValue(
+                "ca23c1bc865fbd60b4d0c5dcdb264afd65789026\trefs/heads/branch\n" +
+                "60f6a6cabe727b14897b4d98bca91ce646a07d3d\trefs/heads/other-branch\n");
+
+        Map<String, String> commits = new ExecutorGitListRemoteCommand(GIT_EXE, commandExecutor, new RefAdvertisementCache(0))
+                .getLastCommits(REPO, Arrays.asList(BRANCH, "other-branch", "missing-branch"));
+
+        assertEquals(2, commits.size());
+        assertEquals("ca23c1bc865fbd60b4d0c5dcdb264afd65789026", commits.get(BRANCH));
+        assertEquals("60f6a6cabe727b14897b4d98bca91ce646a07d3d", commits.get("other-branch"));
+    }
+
+    public void testThrowsAnIOExceptionWhenTheBranchIsNotAdvertised() throws Exception {
+        mockReturnValue("60f6a6cabe727b14897b4d98bca91ce646a07d3d\trefs/heads/other-branch");
+        try {
+            new ExecutorGitListRemoteCommand(GIT_EXE, commandExecutor, new RefAdvertisementCache(0)).getLastCommit(REPO, BRANCH);
+            fail("Should throw IOException");
+        } catch (IOException e) {
+            assertEquals("Could not determine latest commit for branch 'branch' @ 'repo'. git-ls-remote: ", e.getMessage());
+        }
+    }
+
     private void assertCommandReturns(String expected) throws IOException {
-        GitListRemoteCommand command = new ExecutorGitListRemoteCommand(GIT_EXE, commandExecutor);
+        GitListRemoteCommand command = new ExecutorGitListRemoteCommand(GIT_EXE, commandExecutor, new RefAdvertisementCache(0));
         assertEquals(expected, command.getLastCommit(REPO, BRANCH));
     }
 
     private void mockReturnValue(final String value) throws IOException
     {
         checking(new Expectations() {{
-            one(commandExecutor).execute(new String[]{GIT_EXE, "ls-remote", REPO, BRANCH}, tmpDir);
-            will(returnValue(value));
+            one(commandExecutor).execute(with(equal(new String[]{GIT_EXE, "ls-remote", REPO})), with(equal(tmpDir)), with(any(OutputHandler.class)));
+                will(streamOutput(value));
         }});
     }
 }
\ No newline at end of file
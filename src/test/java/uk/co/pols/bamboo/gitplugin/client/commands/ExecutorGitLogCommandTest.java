@@ -1,5 +1,7 @@
 package uk.co.pols.bamboo.gitplugin.client.commands;
 
+import static uk.co.pols.bamboo.gitplugin.client.commands.StreamOutputAction.streamOutput;
+
 import org.jmock.integration.junit3.MockObjectTestCase;
 import org.jmock.Expectations;
 
@@ -15,12 +17,13 @@ public class ExecutorGitLogCommandTest extends MockObjectTestCase {
     private static final String GIT_EXE = "git";
 
     private final CommandExecutor commandExecutor = mock(CommandExecutor.class);
+    private final RevisionResolver revisionResolver = mock(RevisionResolver.class);
 
     public void testGetsTheMostRecentLogItemIfNotCheckedLogBefore() throws IOException {
-        GitLogCommand gitLogCommand = new ExecutorGitLogCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, null, commandExecutor);
+        GitLogCommand gitLogCommand = new ExecutorGitLogCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, null, commandExecutor, revisionResolver);
 
         checking(new Expectations() {{
-            one(commandExecutor).execute(new String[]{GIT_EXE, "log", "-1", "--numstat", "--date=iso8601"}, SOURCE_CODE_DIRECTORY); will(returnValue(mostRecentCommitLog));
+            one(commandExecutor).execute(with(equal(new String[]{GIT_EXE, "log", "-1", "-z", "--numstat", NulDelimitedGitLogParser.LOG_FORMAT})), with(equal(SOURCE_CODE_DIRECTORY)), with(any(OutputHandler.class))); will(streamOutput(mostRecentCommitLog));
         }});
 
         List<Commit> commits = gitLogCommand.extractCommits();
@@ -30,10 +33,10 @@ public class ExecutorGitLogCommandTest extends MockObjectTestCase {
     }
 
     public void testGetsTheLogsSinceTheLastBuild() throws IOException {
-        GitLogCommand gitLogCommand = new ExecutorGitLogCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, DATE_OF_LAST_BUILD, commandExecutor);
+        GitLogCommand gitLogCommand = new ExecutorGitLogCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, DATE_OF_LAST_BUILD, commandExecutor, revisionResolver);
 
         checking(new Expectations() {{
-            one(commandExecutor).execute(new String[]{GIT_EXE, "log", "--numstat", "--date=iso8601", "--since=\"" + DATE_OF_LAST_BUILD + "\""}, SOURCE_CODE_DIRECTORY); will(returnValue(sampleLog));
+            one(commandExecutor).execute(with(equal(new String[]{GIT_EXE, "log", "-z", "--numstat", NulDelimitedGitLogParser.LOG_FORMAT, "--since=\"" + DATE_OF_LAST_BUILD + "\""})), with(equal(SOURCE_CODE_DIRECTORY)), with(any(OutputHandler.class))); will(streamOutput(sampleLog));
         }});
 
         List<Commit> commits = gitLogCommand.extractCommits();
@@ -42,43 +45,55 @@ public class ExecutorGitLogCommandTest extends MockObjectTestCase {
         assertEquals("2009-03-13 01:27:52 +0000", gitLogCommand.getLastRevisionChecked());
     }
 
+    public void testThrowsAnIOExceptionIfGitLogFails() throws IOException {
+        GitLogCommand gitLogCommand = new ExecutorGitLogCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, DATE_OF_LAST_BUILD, commandExecutor, revisionResolver);
+
+        checking(new Expectations() {{
+            one(commandExecutor).execute(with(any(String[].class)), with(equal(SOURCE_CODE_DIRECTORY)), with(any(OutputHandler.class))); will(streamOutput("", 128, "fatal: your current branch 'master' does not have any commits yet\n"));
+        }});
+
+        try {
+            gitLogCommand.extractCommits();
+            fail("Should throw IOException");
+        } catch (IOException e) {
+            assertEquals("Could not read history of '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "'. git-log: fatal: your current branch 'master' does not have any commits yet", e.getMessage());
+        }
+    }
+
     public void testGetsTheHeadRevision() throws IOException {
-        GitLogCommand gitLogCommand = new ExecutorGitLogCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, DATE_OF_LAST_BUILD, commandExecutor);
+        GitLogCommand gitLogCommand = new ExecutorGitLogCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, DATE_OF_LAST_BUILD, commandExecutor, revisionResolver);
 
         checking(new Expectations() {{
-            one(commandExecutor).execute(new String[]{GIT_EXE, "show-ref", "-s", "branch"}, SOURCE_CODE_DIRECTORY); will(returnValue(mostRecentCommitHash));
+            one(revisionResolver).resolve(SOURCE_CODE_DIRECTORY, "refs/heads/branch"); will(returnValue(mostRecentCommitHash));
         }});
 
         assertEquals(mostRecentCommitHash, gitLogCommand.getHeadRevision("branch"));
     }
 
+    public void testHasNoHeadRevisionForABranchThatIsNotThere() throws IOException {
+        GitLogCommand gitLogCommand = new ExecutorGitLogCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, DATE_OF_LAST_BUILD, commandExecutor, revisionResolver);
+
+        checking(new Expectations() {{
+            one(revisionResolver).resolve(SOURCE_CODE_DIRECTORY, "refs/heads/branch"); will(returnValue(null));
+        }});
+
+        assertEquals("", gitLogCommand.getHeadRevision("branch"));
+    }
+
     private String mostRecentCommitHash = "60f6a6cabe727b14897b4d98bca91ce646a07d3d";
 
     private String mostRecentCommitLog =
-            "commit 60f6a6cabe727b14897b4d98bca91ce646a07d3d\n" +
-                    "Author: Andy Pols <andy@pols.co.uk>\n" +
-                    "Date:   2008-03-13 01:27:52 +0000\n" +
-                    "\n" +
-                    "    Initial plugin - just Adds Git to the repository dropdown... does not actually do anything just yet!\n" +
-                    "\n";
+            "\u000160f6a6cabe727b14897b4d98bca91ce646a07d3d\u0000Andy Pols\u00002008-03-13 01:27:52 +0000\u0000" +
+                    "Initial plugin - just Adds Git to the repository dropdown... does not actually do anything just yet!\n\u0000\u0000" +
+                    "\n1\t0\tsrc/main/resources/atlassian-plugin.xml\u0000";
 
     private String sampleLog =
-            "commit 60f6a6cabe727b14897b4d98bca91ce646a07d3d\n" +
-                    "Author: Andy Pols <andy@pols.co.uk>\n" +
-                    "Date:   2009-03-13 01:27:52 +0000\n" +
-                    "\n" +
-                    "    Initial plugin - just Adds Git to the repository dropdown... does not actually do anything just yet!\n" +
-                    "\n" +
-                    "commit 0ba53eb47ee4c79612fdf55f072952d8ef80b957\n" +
-                    "Author: Andy Pols <andy@pols.co.uk>\n" +
-                    "Date:   2009-03-13 01:26:14 +0000\n" +
-                    "\n" +
-                    "    ignore the java build files\n" +
-                    "\n" +
-                    "commit 1b014a81da79573aa960e7f0b22493da9fdb9310\n" +
-                    "Author: Andy Pols <andy@pols.co.uk>\n" +
-                    "Date:   2009-03-13 01:24:44 +0000\n" +
-                    "\n" +
-                    "    first commit\n";
+            "\u000160f6a6cabe727b14897b4d98bca91ce646a07d3d\u0000Andy Pols\u00002009-03-13 01:27:52 +0000\u0000" +
+                    "Initial plugin - just Adds Git to the repository dropdown... does not actually do anything just yet!\n\u0000\u0000" +
+                    "\u00010ba53eb47ee4c79612fdf55f072952d8ef80b957\u0000Andy Pols\u00002009-03-13 01:26:14 +0000\u0000" +
+                    "ignore the java build files\n\u0000\u0000" +
+                    "\n1\t0\t.gitignore\u0000" +
+                    "\u00011b014a81da79573aa960e7f0b22493da9fdb9310\u0000Andy Pols\u00002009-03-13 01:24:44 +0000\u0000" +
+                    "first commit\n\u0000\u0000";
 
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.jmock.Expectations;
+import org.jmock.integration.junit3.MockObjectTestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ExecutorGitMirrorCommandTest extends MockObjectTestCase {
+    private static final String GIT_EXE = "git";
+    private static final String REPO_URL = "git@github.com:andypols/git-bamboo-plugin.git";
+
+    private final CommandExecutor commandExecutor = mock(CommandExecutor.class);
+    private final BuildLogger buildLogger = mock(BuildLogger.class);
+    private File mirrorsDirectory;
+    private ExecutorGitMirrorCommand mirrorCommand;
+
+    public void setUp() throws IOException {
+        mirrorsDirectory = File.createTempFile("mirrors", "");
+        mirrorsDirectory.delete();
+        mirrorCommand = new ExecutorGitMirrorCommand(GitToolchain.parse(GIT_EXE, "git version 2.39.5"), mirrorsDirectory, commandExecutor);
+    }
+
+    public void tearDown() {
+        File mirror = mirrorCommand.mirrorDirectoryFor(REPO_URL);
+        new File(mirror, "HEAD").delete();
+        mirror.delete();
+        mirrorsDirectory.delete();
+    }
+
+    public void testNamesEachMirrorAfterTheRepositoryItCopies() {
+        assertTrue(mirrorCommand.mirrorDirectoryFor(REPO_URL).getName().startsWith("git-bamboo-plugin.git-"));
+        assertFalse(mirrorCommand.mirrorDirectoryFor(REPO_URL).equals(mirrorCommand.mirrorDirectoryFor("git@github.com:mrowe/git-bamboo-plugin.git")));
+    }
+
+    public void testCreatesABareRepositoryTheFirstTimeAndFetchesIntoIt() throws IOException {
+        final File mirror = mirrorCommand.mirrorDirectoryFor(REPO_URL);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Creating a mirror of '" + REPO_URL + "' in '" + mirror.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "init", "--bare"}, mirror); will(returnValue(new CommandResult(0, "Initialized empty Git repository", "")));
+            one(buildLogger).addBuildLogEntry("Updating the mirror of '" + REPO_URL + "' in '" + mirror.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "fetch", "--quiet", "--prune", REPO_URL, "+refs/heads/*:refs/heads/*"}, mirror); will(returnValue(new CommandResult(0, "", "")));
+            one(commandExecutor).run(new String[]{GIT_EXE, "commit-graph", "write", "--reachable"}, mirror); will(returnValue(new CommandResult(0, "", "")));
+        }});
+
+        assertEquals(mirror, mirrorCommand.update(buildLogger, REPO_URL));
+        assertTrue(mirror.isDirectory());
+    }
+
+    public void testOnlyFetchesIntoAnExistingMirror() throws IOException {
+        final File mirror = mirrorCommand.mirrorDirectoryFor(REPO_URL);
+        mirror.mkdirs();
+        new File(mirror, "HEAD").createNewFile();
+
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Updating the mirror of '" + REPO_URL + "' in '" + mirror.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "fetch", "--quiet", "--prune", REPO_URL, "+refs/heads/*:refs/heads/*"}, mirror); will(returnValue(new CommandResult(0, "", "")));
+            one(commandExecutor).run(new String[]{GIT_EXE, "commit-graph", "write", "--reachable"}, mirror); will(returnValue(new CommandResult(0, "", "")));
+        }});
+
+        assertEquals(mirror, mirrorCommand.update(buildLogger, REPO_URL));
+    }
+
+    public void testThrowsAnIOExceptionIfTheFetchFails() throws IOException {
+        final File mirror = mirrorCommand.mirrorDirectoryFor(REPO_URL);
+        mirror.mkdirs();
+        new File(mirror, "HEAD").createNewFile();
+
+        checking(new Expectations() {{
+            ignoring(buildLogger);
+            one(commandExecutor).run(new String[]{GIT_EXE, "fetch", "--quiet", "--prune", REPO_URL, "+refs/heads/*:refs/heads/*"}, mirror); will(returnValue(new CommandResult(128, "", "fatal: Could not read from remote repository.")));
+        }});
+
+        try {
+            mirrorCommand.update(buildLogger, REPO_URL);
+            fail("Should throw IOException");
+        } catch (IOException e) {
+            assertEquals("Could not update the mirror of '" + REPO_URL + "'. git-fetch: fatal: Could not read from remote repository.", e.getMessage());
+        }
+    }
+
+    public void testOnlyWritesACommitGraphWithAGitThatCan() throws IOException {
+        ExecutorGitMirrorCommand oldGitMirrorCommand = new ExecutorGitMirrorCommand(GitToolchain.parse(GIT_EXE, "git version 2.17.1"), mirrorsDirectory, commandExecutor);
+        final File mirror = oldGitMirrorCommand.mirrorDirectoryFor(REPO_URL);
+        mirror.mkdirs();
+        new File(mirror, "HEAD").createNewFile();
+
+        checking(new Expectations() {{
+            ignoring(buildLogger);
+            one(commandExecutor).run(new String[]{GIT_EXE, "fetch", "--quiet", "--prune", REPO_URL, "+refs/heads/*:refs/heads/*"}, mirror); will(returnValue(new CommandResult(0, "", "")));
+        }});
+
+        assertEquals(mirror, oldGitMirrorCommand.update(buildLogger, REPO_URL));
+    }
+
+    public void testCarriesOnIfTheCommitGraphCannotBeWritten() throws IOException {
+        final File mirror = mirrorCommand.mirrorDirectoryFor(REPO_URL);
+        mirror.mkdirs();
+        new File(mirror, "HEAD").createNewFile();
+
+        checking(new Expectations() {{
+            ignoring(buildLogger);
+            one(commandExecutor).run(new String[]{GIT_EXE, "fetch", "--quiet", "--prune", REPO_URL, "+refs/heads/*:refs/heads/*"}, mirror); will(returnValue(new CommandResult(0, "", "")));
+            one(commandExecutor).run(new String[]{GIT_EXE, "commit-graph", "write", "--reachable"}, mirror); will(returnValue(new CommandResult(128, "", "fatal: not enough space")));
+        }});
+
+        assertEquals(mirror, mirrorCommand.update(buildLogger, REPO_URL));
+    }
+}
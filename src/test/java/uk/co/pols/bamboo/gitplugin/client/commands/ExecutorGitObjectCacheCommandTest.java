@@ -0,0 +1,102 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.delete;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.jmock.Expectations;
+import org.jmock.integration.junit3.MockObjectTestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ExecutorGitObjectCacheCommandTest extends MockObjectTestCase {
+    private static final String GIT_EXE = "git";
+    private static final String REPO_URL = "git@github.com:andypols/git-bamboo-plugin.git";
+
+    private final CommandExecutor commandExecutor = mock(CommandExecutor.class);
+    private final BuildLogger buildLogger = mock(BuildLogger.class);
+    private File cachesDirectory;
+    private File workingCopy;
+    private ExecutorGitObjectCacheCommand objectCacheCommand;
+
+    public void setUp() throws IOException {
+        cachesDirectory = File.createTempFile("object-caches", "");
+        cachesDirectory.delete();
+        workingCopy = File.createTempFile("working-copy", "");
+        workingCopy.delete();
+        new File(workingCopy, ".git/objects").mkdirs();
+        new File(workingCopy, ".git/refs").mkdirs();
+        objectCacheCommand = new ExecutorGitObjectCacheCommand(GIT_EXE, cachesDirectory, commandExecutor);
+    }
+
+    public void tearDown() {
+        delete(cachesDirectory);
+        delete(workingCopy);
+    }
+
+    public void testCreatesACacheThatNeverPrunesTheFirstTimeAndFetchesIntoIt() throws IOException {
+        final File cache = objectCacheCommand.cacheDirectoryFor(REPO_URL);
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Creating the object cache of '" + REPO_URL + "' in '" + cache.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "init", "--bare"}, cache); will(returnValue(new CommandResult(0, "Initialized empty Git repository", "")));
+            one(commandExecutor).run(new String[]{GIT_EXE, "config", "gc.pruneExpire", "never"}, cache); will(returnValue(new CommandResult(0, "", "")));
+            one(buildLogger).addBuildLogEntry("Updating the object cache of '" + REPO_URL + "' in '" + cache.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "fetch", "--quiet", "--no-tags", REPO_URL, "+refs/heads/*:refs/heads/*"}, cache); will(returnValue(new CommandResult(0, "", "")));
+        }});
+
+        assertEquals(cache, objectCacheCommand.update(buildLogger, REPO_URL));
+        assertTrue(cache.isDirectory());
+    }
+
+    public void testOnlyFetchesIntoAnExistingCache() throws IOException {
+        final File cache = objectCacheCommand.cacheDirectoryFor(REPO_URL);
+        cache.mkdirs();
+        new File(cache, "HEAD").createNewFile();
+
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Updating the object cache of '" + REPO_URL + "' in '" + cache.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "fetch", "--quiet", "--no-tags", REPO_URL, "+refs/heads/*:refs/heads/*"}, cache); will(returnValue(new CommandResult(0, "", "")));
+        }});
+
+        assertEquals(cache, objectCacheCommand.update(buildLogger, REPO_URL));
+    }
+
+    public void testThrowsAnIOExceptionIfTheCacheCannotBeFetchedInto() throws IOException {
+        final File cache = objectCacheCommand.cacheDirectoryFor(REPO_URL);
+        cache.mkdirs();
+        new File(cache, "HEAD").createNewFile();
+
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Updating the object cache of '" + REPO_URL + "' in '" + cache.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "fetch", "--quiet", "--no-tags", REPO_URL, "+refs/heads/*:refs/heads/*"}, cache); will(returnValue(new CommandResult(128, "", "fatal: unable to lock ref")));
+        }});
+
+        try {
+            objectCacheCommand.update(buildLogger, REPO_URL);
+            fail("Should throw an IOException");
+        } catch (IOException e) {
+            assertEquals("Could not update the object cache of '" + REPO_URL + "'. git-fetch: fatal: unable to lock ref", e.getMessage());
+        }
+    }
+
+    public void testSharesTheCacheWithAWorkingCopyOnce() throws IOException {
+        File cache = objectCacheCommand.cacheDirectoryFor(REPO_URL);
+
+        objectCacheCommand.share(cache, workingCopy);
+        objectCacheCommand.share(cache, workingCopy);
+
+        assertEquals(new File(cache, "objects").getAbsolutePath(), RefFileResolver.firstLine(new File(workingCopy, ".git/objects/info/alternates")));
+        assertEquals(new File(cache, "objects").getAbsolutePath().length() + 1, new File(workingCopy, ".git/objects/info/alternates").length());
+    }
+
+    public void testWillNotShareTheCacheWithADirectoryThatIsNotARepository() {
+        delete(new File(workingCopy, ".git"));
+
+        try {
+            objectCacheCommand.share(objectCacheCommand.cacheDirectoryFor(REPO_URL), workingCopy);
+            fail("Should throw an IOException");
+        } catch (IOException e) {
+            assertEquals("'" + workingCopy.getAbsolutePath() + "' is not a git repository", e.getMessage());
+        }
+    }
+}
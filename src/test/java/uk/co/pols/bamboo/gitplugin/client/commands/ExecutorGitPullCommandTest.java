@@ -1,42 +1,60 @@
 package uk.co.pols.bamboo.gitplugin.client.commands;
 
+import static uk.co.pols.bamboo.gitplugin.client.commands.WriteOutputAction.writeOutput;
+
 import org.jmock.integration.junit3.MockObjectTestCase;
 import org.jmock.Expectations;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
 
 import com.atlassian.bamboo.build.logger.BuildLogger;
 
 public class ExecutorGitPullCommandTest extends MockObjectTestCase {
     private static final File SOURCE_CODE_DIRECTORY = new File("source/directory");
     private static final String GIT_EXE = "git";
+    private static final String REVISION = "ca23c1bc865fbd60b4d0c5dcdb264afd65789026";
 
     private final CommandExecutor commandExecutor = mock(CommandExecutor.class);
+    private final ObjectLookup objectLookup = mock(ObjectLookup.class);
+    private final RevisionResolver revisionResolver = mock(RevisionResolver.class);
     private final BuildLogger buildLogger = mock(BuildLogger.class);
+    private final ExecutorGitPullCommand gitPullCommand = new ExecutorGitPullCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, commandExecutor, objectLookup, revisionResolver);
+    private final ProcessBuilderCommandExecutor processes = new ProcessBuilderCommandExecutor(new CommandTimeouts(new Properties()));
+    private final CatFileBatchPool catFileBatchPool = new CatFileBatchPool(new GitToolchainRegistry(new GitCommandDiscoverer() {
+        public String gitCommand() {
+            return GIT_EXE;
+        }
+    }, processes), processes, 60000, 1);
+
+    protected void tearDown() throws Exception {
+        catFileBatchPool.shutdown();
+        processes.shutdown();
+    }
 
-    public void testExecuteAPullCommandAgainstTheRemoteBranch() throws IOException {
+    public void testStreamsAPullOfTheRemoteBranchIntoTheBuildLog() throws IOException {
         checking(new Expectations() {{
             one(buildLogger).addBuildLogEntry("Pulling source from branch 'some-branch' @ 'gitRepositoryUrl' into '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "'.");
-            one(commandExecutor).execute(new String[]{GIT_EXE, "pull", "gitRepositoryUrl", "some-branch:some-branch"}, SOURCE_CODE_DIRECTORY); will(returnValue("PULL COMMAND OUTPUT"));
-            one(buildLogger).addBuildLogEntry("PULL COMMAND OUTPUT");
-            one(commandExecutor).execute(new String[]{GIT_EXE, "submodule", "init"}, SOURCE_CODE_DIRECTORY); will(returnValue("SUBMODULE INIT COMMAND OUTPUT"));
-            one(buildLogger).addBuildLogEntry("SUBMODULE INIT COMMAND OUTPUT");
-            one(commandExecutor).execute(new String[]{GIT_EXE, "submodule", "update"}, SOURCE_CODE_DIRECTORY); will(returnValue("SUBMODULE UPDATE COMMAND OUTPUT"));
-            one(buildLogger).addBuildLogEntry("SUBMODULE UPDATE COMMAND OUTPUT");
+            one(commandExecutor).run(with(equal(new String[]{GIT_EXE, "pull", "--progress", "gitRepositoryUrl", "some-branch:some-branch"})), with(equal(SOURCE_CODE_DIRECTORY)), with(any(OutputStream.class)), with(any(OutputStream.class)));
+                will(writeOutput("Fast-forward\n", 0, "Receiving objects:  50% (1/2)\rReceiving objects: 100% (2/2), done.\n"));
+            one(buildLogger).addBuildLogEntry("Fast-forward");
+            one(buildLogger).addBuildLogEntry("Receiving objects:  50% (1/2)");
+            one(buildLogger).addBuildLogEntry("Receiving objects: 100% (2/2), done.");
         }});
 
-        ExecutorGitPullCommand gitPullCommand = new ExecutorGitPullCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, commandExecutor);
         gitPullCommand.pullUpdatesFromRemoteRepository(buildLogger, "gitRepositoryUrl", "some-branch");
     }
 
     public void testThrowsAnIOExceptionIfGitPullReturnsAnError() throws IOException {
         checking(new Expectations() {{
             one(buildLogger).addBuildLogEntry("Pulling source from branch 'some-branch' @ 'gitRepositoryUrl' into '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "'.");
-            one(commandExecutor).execute(new String[]{GIT_EXE, "pull", "gitRepositoryUrl", "some-branch:some-branch"}, SOURCE_CODE_DIRECTORY); will(returnValue("fatal: something bad happened"));
+            one(commandExecutor).run(with(equal(new String[]{GIT_EXE, "pull", "--progress", "gitRepositoryUrl", "some-branch:some-branch"})), with(equal(SOURCE_CODE_DIRECTORY)), with(any(OutputStream.class)), with(any(OutputStream.class)));
+                will(writeOutput("", 128, "fatal: something bad happened\n"));
+            one(buildLogger).addBuildLogEntry("fatal: something bad happened");
         }});
 
-        ExecutorGitPullCommand gitPullCommand = new ExecutorGitPullCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, commandExecutor);
         try {
             gitPullCommand.pullUpdatesFromRemoteRepository(buildLogger, "gitRepositoryUrl", "some-branch");
             fail("Should throw an IOException");
@@ -45,39 +63,115 @@ public class ExecutorGitPullCommandTest extends MockObjectTestCase {
         }
     }
 
-    public void testThrowsAnIOExceptionIfGitSubmoduleInitReturnsAnError() throws IOException {
+    public void testLooksForTheRevisionInTheWorkingCopy() throws IOException {
         checking(new Expectations() {{
-            one(buildLogger).addBuildLogEntry("Pulling source from branch 'some-branch' @ 'gitRepositoryUrl' into '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "'.");
-            one(commandExecutor).execute(new String[]{GIT_EXE, "pull", "gitRepositoryUrl", "some-branch:some-branch"}, SOURCE_CODE_DIRECTORY); will(returnValue("PULL COMMAND OUTPUT"));
-            one(buildLogger).addBuildLogEntry("PULL COMMAND OUTPUT");
-            one(commandExecutor).execute(new String[]{GIT_EXE, "submodule", "init"}, SOURCE_CODE_DIRECTORY); will(returnValue("fatal: could not submodule init"));
+            one(objectLookup).hasObject(SOURCE_CODE_DIRECTORY, REVISION); will(returnValue(true));
+            one(revisionResolver).resolve(SOURCE_CODE_DIRECTORY, REVISION + "^{commit}"); will(returnValue(REVISION));
+            one(revisionResolver).resolve(SOURCE_CODE_DIRECTORY, "HEAD"); will(returnValue("1cc17a8203f7c5c82e89ae5f687d12b7be65951e"));
         }});
 
-        ExecutorGitPullCommand gitPullCommand = new ExecutorGitPullCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, commandExecutor);
-        try {
-            gitPullCommand.pullUpdatesFromRemoteRepository(buildLogger, "gitRepositoryUrl", "some-branch");
-            fail("Should throw an IOException");
-        } catch (IOException e) {
-            assertEquals("Could not pull from 'gitRepositoryUrl'. git-pull: fatal: could not submodule init", e.getMessage());
-        }
+        assertTrue(gitPullCommand.hasRevision(REVISION));
+        assertFalse(gitPullCommand.isAtRevision(REVISION));
     }
 
-    public void testThrowsAnIOExceptionIfGitSubmoduleUpdateReturnsAnError() throws IOException {
+    public void testDoesNotCountAnObjectThatIsNotACommit() throws IOException {
         checking(new Expectations() {{
-            one(buildLogger).addBuildLogEntry("Pulling source from branch 'some-branch' @ 'gitRepositoryUrl' into '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "'.");
-            one(commandExecutor).execute(new String[]{GIT_EXE, "pull", "gitRepositoryUrl", "some-branch:some-branch"}, SOURCE_CODE_DIRECTORY); will(returnValue("PULL COMMAND OUTPUT"));
-            one(buildLogger).addBuildLogEntry("PULL COMMAND OUTPUT");
-            one(commandExecutor).execute(new String[]{GIT_EXE, "submodule", "init"}, SOURCE_CODE_DIRECTORY); will(returnValue("SUBMODULE INIT COMMAND OUTPUT"));
-            one(buildLogger).addBuildLogEntry("SUBMODULE INIT COMMAND OUTPUT");
-            one(commandExecutor).execute(new String[]{GIT_EXE, "submodule", "update"}, SOURCE_CODE_DIRECTORY); will(returnValue("fatal: could not submodule update"));
+            one(objectLookup).hasObject(SOURCE_CODE_DIRECTORY, REVISION); will(returnValue(true));
+            one(revisionResolver).resolve(SOURCE_CODE_DIRECTORY, REVISION + "^{commit}"); will(returnValue(null));
+        }});
+
+        assertFalse(gitPullCommand.hasRevision(REVISION));
+    }
+
+    public void testChecksOutARevisionAlreadyInTheWorkingCopy() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + REVISION + "', which is already in '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "checkout", "-q", REVISION}, SOURCE_CODE_DIRECTORY); will(returnValue(new CommandResult(0, "CHECKOUT COMMAND OUTPUT", "")));
+            one(buildLogger).addBuildLogEntry("CHECKOUT COMMAND OUTPUT");
+            one(revisionResolver).resolve(SOURCE_CODE_DIRECTORY, "HEAD"); will(returnValue(REVISION));
+        }});
+
+        assertEquals(REVISION, gitPullCommand.checkoutLocalRevision(buildLogger, REVISION));
+    }
+
+    public void testThrowsAnIOExceptionIfGitCheckoutReturnsAnError() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Checking out revision '" + REVISION + "', which is already in '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "checkout", "-q", REVISION}, SOURCE_CODE_DIRECTORY); will(returnValue(new CommandResult(1, "", "error: Your local changes would be overwritten")));
         }});
 
-        ExecutorGitPullCommand gitPullCommand = new ExecutorGitPullCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, commandExecutor);
         try {
-            gitPullCommand.pullUpdatesFromRemoteRepository(buildLogger, "gitRepositoryUrl", "some-branch");
+            gitPullCommand.checkoutLocalRevision(buildLogger, REVISION);
             fail("Should throw an IOException");
         } catch (IOException e) {
-            assertEquals("Could not pull from 'gitRepositoryUrl'. git-pull: fatal: could not submodule update", e.getMessage());
+            assertEquals("Could not check out '" + REVISION + "'. git-checkout: error: Your local changes would be overwritten", e.getMessage());
+        }
+    }
+
+    public void testChecksOutARevisionBehindTheOneCheckedOut() throws IOException {
+        if (!ScratchRepository.gitAvailable()) {
+            return;
+        }
+        ScratchRepository repository = scratchRepository();
+        try {
+            String older = repository.commit("file", "older");
+            repository.commit("file", "newer");
+
+            assertTrue(realPullCommand(repository).hasRevision(older));
+            assertEquals(older, realPullCommand(repository).checkoutLocalRevision(buildLogger, older));
+            assertEquals(older, repository.head());
+        } finally {
+            repository.delete();
+        }
+    }
+
+    public void testChecksOutARevisionOnHistoryThatHasDivergedFromTheOneCheckedOut() throws IOException {
+        if (!ScratchRepository.gitAvailable()) {
+            return;
+        }
+        ScratchRepository repository = scratchRepository();
+        try {
+            repository.commit("file", "base");
+            repository.git("checkout", "-q", "-b", "rewritten");
+            String rewritten = repository.commit("file", "rewritten");
+            repository.git("checkout", "-q", "master");
+            repository.commit("file", "original");
+
+            assertTrue(realPullCommand(repository).hasRevision(rewritten));
+            assertEquals(rewritten, realPullCommand(repository).checkoutLocalRevision(buildLogger, rewritten));
+            assertEquals(rewritten, repository.head());
+        } finally {
+            repository.delete();
         }
     }
-}
\ No newline at end of file
+
+    public void testDoesNotCountATreeAsARevisionItHas() throws IOException {
+        if (!ScratchRepository.gitAvailable()) {
+            return;
+        }
+        ScratchRepository repository = scratchRepository();
+        try {
+            repository.commit("file", "first");
+
+            assertFalse(realPullCommand(repository).hasRevision(repository.git("rev-parse", "HEAD^{tree}").trim()));
+        } finally {
+            repository.delete();
+        }
+    }
+
+    private ScratchRepository scratchRepository() throws IOException {
+        checking(new Expectations() {{
+            allowing(buildLogger).addBuildLogEntry(with(any(String.class)));
+        }});
+        File directory = File.createTempFile("pull-command", "");
+        directory.delete();
+        return new ScratchRepository(directory);
+    }
+
+    /*
+     * Real git all the way down: the files for objects, a git cat-file process for what they are.
+     */
+    private ExecutorGitPullCommand realPullCommand(ScratchRepository repository) {
+        return new ExecutorGitPullCommand(GIT_EXE, repository.getDirectory(), processes, new LocalObjectLookup(), catFileBatchPool);
+    }
+}
@@ -0,0 +1,173 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.delete;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.hamcrest.Description;
+import org.jmock.Expectations;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit3.MockObjectTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class ExecutorGitSnapshotCommandTest extends MockObjectTestCase {
+    private static final String GIT_EXE = "git";
+    private static final String REPO_URL = "git@github.com:andypols/git-bamboo-plugin.git";
+    private static final long MAX_AGE = 60 * 60 * 1000L;
+
+    private final CommandExecutor commandExecutor = mock(CommandExecutor.class);
+    private final BuildLogger buildLogger = mock(BuildLogger.class);
+    private File snapshotsDirectory;
+    private File workingCopy;
+    private ExecutorGitSnapshotCommand snapshotCommand;
+
+    public void setUp() throws IOException {
+        snapshotsDirectory = File.createTempFile("snapshots", "");
+        snapshotsDirectory.delete();
+        workingCopy = File.createTempFile("working-copy", "");
+        workingCopy.delete();
+        new File(workingCopy, ".git/objects").mkdirs();
+        new File(workingCopy, ".git/refs").mkdirs();
+        snapshotCommand = new ExecutorGitSnapshotCommand(GIT_EXE, snapshotsDirectory, MAX_AGE, commandExecutor);
+    }
+
+    public void tearDown() {
+        delete(snapshotsDirectory);
+        delete(workingCopy);
+    }
+
+    public void testRestoresNothingWithoutASnapshot() throws IOException {
+        assertFalse(snapshotCommand.restore(buildLogger, REPO_URL, workingCopy));
+    }
+
+    public void testFetchesTheSnapshotIntoANewWorkingCopy() throws IOException {
+        final File snapshot = write(snapshotCommand.snapshotFor(REPO_URL), "# v2 git bundle\n");
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Restoring '" + workingCopy.getAbsolutePath() + "' from the snapshot of '" + REPO_URL + "' in '" + snapshot.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "fetch", "--no-tags", snapshot.getAbsolutePath(), "+HEAD:refs/bamboo/snapshot"}, workingCopy); will(returnValue(new CommandResult(0, "", "")));
+        }});
+
+        assertTrue(snapshotCommand.restore(buildLogger, REPO_URL, workingCopy));
+    }
+
+    public void testThrowsAnIOExceptionIfTheSnapshotCannotBeRestored() throws IOException {
+        final File snapshot = write(snapshotCommand.snapshotFor(REPO_URL), "garbage");
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Restoring '" + workingCopy.getAbsolutePath() + "' from the snapshot of '" + REPO_URL + "' in '" + snapshot.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "fetch", "--no-tags", snapshot.getAbsolutePath(), "+HEAD:refs/bamboo/snapshot"}, workingCopy); will(returnValue(new CommandResult(128, "", "fatal: not a bundle")));
+        }});
+
+        try {
+            snapshotCommand.restore(buildLogger, REPO_URL, workingCopy);
+            fail("Should throw an IOException");
+        } catch (IOException e) {
+            assertEquals("Could not restore from the snapshot of '" + REPO_URL + "'. git-fetch: fatal: not a bundle", e.getMessage());
+        }
+    }
+
+    public void testIsStaleWithoutASnapshotOrOnceItIsTooOld() throws IOException {
+        assertTrue(snapshotCommand.isStale(REPO_URL));
+
+        File snapshot = write(snapshotCommand.snapshotFor(REPO_URL), "# v2 git bundle\n");
+        assertFalse(snapshotCommand.isStale(REPO_URL));
+
+        snapshot.setLastModified(System.currentTimeMillis() - 2 * MAX_AGE);
+        assertTrue(snapshotCommand.isStale(REPO_URL));
+    }
+
+    public void testReplacesTheSnapshotWithABundleOfTheWorkingCopy() throws IOException {
+        final File snapshot = write(snapshotCommand.snapshotFor(REPO_URL), "old bundle");
+        checking(new Expectations() {{
+            one(commandExecutor).run(with(any(String[].class)), with(equal(workingCopy))); will(bundle("new bundle", 0));
+        }});
+
+        snapshotCommand.refresh(REPO_URL, workingCopy);
+
+        assertEquals("new bundle", RefFileResolver.firstLine(snapshot));
+        assertEquals(1, snapshotsDirectory.list().length);
+    }
+
+    public void testKeepsTheOldSnapshotIfTheBundleCannotBeCreated() throws IOException {
+        final File snapshot = write(snapshotCommand.snapshotFor(REPO_URL), "old bundle");
+        checking(new Expectations() {{
+            one(commandExecutor).run(with(any(String[].class)), with(equal(workingCopy))); will(bundle("half a bundle", 128));
+        }});
+
+        try {
+            snapshotCommand.refresh(REPO_URL, workingCopy);
+            fail("Should throw an IOException");
+        } catch (IOException e) {
+            assertEquals("Could not take a snapshot of '" + REPO_URL + "'. git-bundle create: fatal: bad object", e.getMessage());
+        }
+        assertEquals("old bundle", RefFileResolver.firstLine(snapshot));
+        assertEquals(1, snapshotsDirectory.list().length);
+    }
+
+    public void testDoesNotTakeASnapshotOfAShallowWorkingCopy() throws IOException {
+        write(new File(workingCopy, ".git/shallow"), "ca23c1bc865fbd60b4d0c5dcdb264afd65789026\n");
+
+        snapshotCommand.refresh(REPO_URL, workingCopy);
+
+        assertFalse(snapshotsDirectory.exists());
+    }
+
+    public void testDoesNotTakeASnapshotOfAPartialClone() throws IOException {
+        write(new File(workingCopy, ".git/config"), "[core]\n\tbare = false\n[extensions]\n\tpartialClone = origin\n");
+
+        assertFalse(snapshotCommand.isComplete(workingCopy));
+        snapshotCommand.refresh(REPO_URL, workingCopy);
+
+        assertFalse(snapshotsDirectory.exists());
+    }
+
+    public void testDoesNotTakeASnapshotOfAWorkingCopyHoldingPromisorPacks() throws IOException {
+        write(new File(workingCopy, ".git/objects/pack/pack-ca23c1bc865fbd60b4d0c5dcdb264afd65789026.promisor"), "");
+
+        assertFalse(snapshotCommand.isComplete(workingCopy));
+        snapshotCommand.refresh(REPO_URL, workingCopy);
+
+        assertFalse(snapshotsDirectory.exists());
+    }
+
+    public void testIsCompleteWithTheWholeHistoryAndEveryObject() throws IOException {
+        write(new File(workingCopy, ".git/config"), "[core]\n\tbare = false\n[remote \"origin\"]\n\turl = " + REPO_URL + "\n");
+
+        assertTrue(snapshotCommand.isComplete(workingCopy));
+    }
+
+    /*
+     * Stands in for git bundle create, which writes to a temporary file beside the snapshot.
+     */
+    private Action bundle(final String content, final int exitCode) {
+        return new Action() {
+            public Object invoke(Invocation invocation) throws Throwable {
+                String[] commandLine = (String[]) invocation.getParameter(0);
+                assertEquals(GIT_EXE, commandLine[0]);
+                assertEquals("bundle", commandLine[1]);
+                assertEquals("create", commandLine[2]);
+                assertEquals(snapshotsDirectory.getAbsoluteFile(), new File(commandLine[3]).getParentFile());
+                assertEquals("HEAD", commandLine[4]);
+                write(new File(commandLine[3]), content);
+                return new CommandResult(exitCode, "", exitCode == 0 ? "" : "fatal: bad object");
+            }
+
+            public void describeTo(Description description) {
+                description.appendText("writes a bundle");
+            }
+        };
+    }
+
+    private File write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,52 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.jmock.Expectations;
+import org.jmock.integration.junit3.MockObjectTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class ExecutorGitSparseCheckoutCommandTest extends MockObjectTestCase {
+    private static final File SOURCE_CODE_DIRECTORY = new File("source/directory");
+    private static final String GIT_EXE = "git";
+
+    private final CommandExecutor commandExecutor = mock(CommandExecutor.class);
+    private final BuildLogger buildLogger = mock(BuildLogger.class);
+    private final GitSparseCheckoutCommand sparseCheckoutCommand = new ExecutorGitSparseCheckoutCommand(GIT_EXE, SOURCE_CODE_DIRECTORY, commandExecutor);
+
+    public void testNarrowsTheWorkingTreeToTheDirectoriesInConeMode() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Narrowing '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "' to sparse checkout paths [services/billing, libs/common].");
+            one(commandExecutor).run(new String[]{GIT_EXE, "sparse-checkout", "init", "--cone"}, SOURCE_CODE_DIRECTORY); will(returnValue(new CommandResult(0, "", "")));
+            one(commandExecutor).run(new String[]{GIT_EXE, "sparse-checkout", "set", "--", "services/billing", "libs/common"}, SOURCE_CODE_DIRECTORY); will(returnValue(new CommandResult(0, "", "")));
+        }});
+
+        sparseCheckoutCommand.set(buildLogger, Arrays.asList("services/billing", "libs/common"));
+    }
+
+    public void testThrowsAnIOExceptionIfTheDirectoriesCannotBeSet() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Narrowing '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "' to sparse checkout paths [services/billing].");
+            one(commandExecutor).run(new String[]{GIT_EXE, "sparse-checkout", "init", "--cone"}, SOURCE_CODE_DIRECTORY); will(returnValue(new CommandResult(0, "", "")));
+            one(commandExecutor).run(new String[]{GIT_EXE, "sparse-checkout", "set", "--", "services/billing"}, SOURCE_CODE_DIRECTORY); will(returnValue(new CommandResult(128, "", "fatal: unable to update index")));
+        }});
+
+        try {
+            sparseCheckoutCommand.set(buildLogger, Arrays.asList("services/billing"));
+            fail("Should throw an IOException");
+        } catch (IOException e) {
+            assertEquals("Could not change the sparse checkout of '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "'. git-sparse-checkout set: fatal: unable to update index", e.getMessage());
+        }
+    }
+
+    public void testBringsBackTheWholeWorkingTree() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Restoring the whole working tree of '" + SOURCE_CODE_DIRECTORY.getAbsolutePath() + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "sparse-checkout", "disable"}, SOURCE_CODE_DIRECTORY); will(returnValue(new CommandResult(0, "", "")));
+        }});
+
+        sparseCheckoutCommand.disable(buildLogger);
+    }
+}
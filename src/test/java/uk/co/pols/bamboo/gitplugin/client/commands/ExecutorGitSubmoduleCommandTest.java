@@ -0,0 +1,175 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import static org.hamcrest.Matchers.startsWith;
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.delete;
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.write;
+
+import org.jmock.integration.junit3.MockObjectTestCase;
+import org.jmock.Expectations;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+
+public class ExecutorGitSubmoduleCommandTest extends MockObjectTestCase {
+    private static final String GIT_EXE = "git";
+    private static final String LIB_REVISION = "ca23c1bc865fbd60b4d0c5dcdb264afd65789026";
+    private static final String DOCS_REVISION = "1cc17a8203f7c5c82e89ae5f687d12b7be65951e";
+    private static final String[] LIST_PATHS = {GIT_EXE, "config", "-z", "-f", ".gitmodules", "--get-regexp", "^submodule\\..*\\.path$"};
+    private static final String[] LIST_GITLINKS = {GIT_EXE, "ls-files", "--stage", "-z", "--", "lib", "docs"};
+
+    private final CommandExecutor commandExecutor = mock(CommandExecutor.class);
+    private final RevisionResolver revisionResolver = mock(RevisionResolver.class);
+    private final SharedObjectCache sharedObjectCache = mock(SharedObjectCache.class);
+    private final BuildLogger buildLogger = mock(BuildLogger.class);
+    private final AsyncCommandExecutor asyncCommandExecutor = new AsyncCommandExecutor(commandExecutor, new SameThreadExecutorService());
+    private File sourceCodeDirectory;
+
+    protected void setUp() throws Exception {
+        sourceCodeDirectory = File.createTempFile("submodules", "");
+        sourceCodeDirectory.delete();
+        write(new File(sourceCodeDirectory, ".gitmodules"), "[submodule \"lib\"]\n");
+    }
+
+    protected void tearDown() throws Exception {
+        delete(sourceCodeDirectory);
+    }
+
+    public void testDoesNothingWithoutAGitmodulesFile() throws IOException {
+        new File(sourceCodeDirectory, ".gitmodules").delete();
+
+        submoduleCommand(null).update(buildLogger);
+    }
+
+    public void testUpdatesOnlyTheSubmodulesWhoseGitlinkChanged() throws IOException {
+        checkOut("lib");
+        checking(new Expectations() {{
+            one(commandExecutor).run(LIST_PATHS, sourceCodeDirectory); will(returnValue(new CommandResult(0, "submodule.lib.path\nlib\0submodule.docs.path\ndocs\0", "")));
+            one(commandExecutor).run(LIST_GITLINKS, sourceCodeDirectory); will(returnValue(new CommandResult(0, gitlink(LIB_REVISION, "lib") + gitlink(DOCS_REVISION, "docs"), "")));
+            one(revisionResolver).resolve(new File(sourceCodeDirectory, "lib"), "HEAD"); will(returnValue(LIB_REVISION));
+            one(commandExecutor).run(new String[]{GIT_EXE, "submodule", "init"}, sourceCodeDirectory); will(returnValue(new CommandResult(0, "Submodule 'docs' registered for path 'docs'", "")));
+            one(buildLogger).addBuildLogEntry("Submodule 'docs' registered for path 'docs'");
+            one(commandExecutor).run(new String[]{GIT_EXE, "submodule", "update", "--", "docs"}, sourceCodeDirectory); will(returnValue(new CommandResult(0, "Submodule path 'docs': checked out '" + DOCS_REVISION + "'", "")));
+            one(buildLogger).addBuildLogEntry("Submodule path 'docs': checked out '" + DOCS_REVISION + "'");
+            one(buildLogger).addBuildLogEntry(with(startsWith("Updated submodule 'docs' to '" + DOCS_REVISION + "' in ")));
+        }});
+
+        submoduleCommand(null).update(buildLogger);
+    }
+
+    public void testLeavesSubmodulesThatAreUpToDateAlone() throws IOException {
+        checkOut("lib");
+        checkOut("docs");
+        checking(new Expectations() {{
+            one(commandExecutor).run(LIST_PATHS, sourceCodeDirectory); will(returnValue(new CommandResult(0, "submodule.lib.path\nlib\0submodule.docs.path\ndocs\0", "")));
+            one(commandExecutor).run(LIST_GITLINKS, sourceCodeDirectory); will(returnValue(new CommandResult(0, gitlink(LIB_REVISION, "lib") + gitlink(DOCS_REVISION, "docs"), "")));
+            one(revisionResolver).resolve(new File(sourceCodeDirectory, "lib"), "HEAD"); will(returnValue(LIB_REVISION));
+            one(revisionResolver).resolve(new File(sourceCodeDirectory, "docs"), "HEAD"); will(returnValue(DOCS_REVISION));
+            one(buildLogger).addBuildLogEntry("The submodules of '" + sourceCodeDirectory.getAbsolutePath() + "' are up to date.");
+        }});
+
+        submoduleCommand(null).update(buildLogger);
+    }
+
+    public void testBorrowsObjectsFromTheCacheOfEachSubmodulesUrl() throws IOException {
+        checkOut("lib");
+        checking(new Expectations() {{
+            one(commandExecutor).run(LIST_PATHS, sourceCodeDirectory); will(returnValue(new CommandResult(0, "submodule.lib.path\nlib\0submodule.docs.path\ndocs\0", "")));
+            one(commandExecutor).run(LIST_GITLINKS, sourceCodeDirectory); will(returnValue(new CommandResult(0, gitlink(LIB_REVISION, "lib") + gitlink(DOCS_REVISION, "docs"), "")));
+            one(revisionResolver).resolve(new File(sourceCodeDirectory, "lib"), "HEAD"); will(returnValue(DOCS_REVISION));
+            one(commandExecutor).run(new String[]{GIT_EXE, "submodule", "init"}, sourceCodeDirectory); will(returnValue(new CommandResult(0, "", "")));
+            one(buildLogger).addBuildLogEntry("");
+            one(commandExecutor).run(new String[]{GIT_EXE, "config", "-z", "--get-regexp", "^submodule\\..*\\.url$"}, sourceCodeDirectory); will(returnValue(new CommandResult(0, "submodule.lib.url\nlib.url\0submodule.docs.url\ndocs.url\0", "")));
+
+            one(sharedObjectCache).share(buildLogger, "lib.url", new File(sourceCodeDirectory, "lib")); will(returnValue(new File("caches/lib")));
+            one(commandExecutor).run(new String[]{GIT_EXE, "submodule", "update", "--", "lib"}, sourceCodeDirectory); will(returnValue(new CommandResult(0, "", "")));
+            one(sharedObjectCache).share(buildLogger, "docs.url", null); will(returnValue(new File("caches/docs")));
+            one(commandExecutor).run(new String[]{GIT_EXE, "submodule", "update", "--reference", new File("caches/docs").getAbsolutePath(), "--", "docs"}, sourceCodeDirectory); will(returnValue(new CommandResult(0, "", "")));
+            one(buildLogger).addBuildLogEntry(with(startsWith("Updated submodule 'lib' to '" + LIB_REVISION + "' in ")));
+            one(buildLogger).addBuildLogEntry(with(startsWith("Updated submodule 'docs' to '" + DOCS_REVISION + "' in ")));
+        }});
+
+        submoduleCommand(sharedObjectCache).update(buildLogger);
+    }
+
+    public void testThrowsAnIOExceptionIfGitSubmoduleInitReturnsAnError() throws IOException {
+        checking(new Expectations() {{
+            one(commandExecutor).run(LIST_PATHS, sourceCodeDirectory); will(returnValue(new CommandResult(0, "submodule.lib.path\nlib\0submodule.docs.path\ndocs\0", "")));
+            one(commandExecutor).run(LIST_GITLINKS, sourceCodeDirectory); will(returnValue(new CommandResult(0, gitlink(LIB_REVISION, "lib"), "")));
+            one(commandExecutor).run(new String[]{GIT_EXE, "submodule", "init"}, sourceCodeDirectory); will(returnValue(new CommandResult(128, "", "fatal: could not submodule init")));
+        }});
+
+        try {
+            submoduleCommand(null).update(buildLogger);
+            fail("Should throw an IOException");
+        } catch (IOException e) {
+            assertEquals("Could not update the submodules of '" + sourceCodeDirectory.getAbsolutePath() + "'. git-submodule init: fatal: could not submodule init", e.getMessage());
+        }
+    }
+
+    public void testFinishesTheOtherUpdatesBeforeThrowingAnIOExceptionForOneThatFailed() throws IOException {
+        checking(new Expectations() {{
+            one(commandExecutor).run(LIST_PATHS, sourceCodeDirectory); will(returnValue(new CommandResult(0, "submodule.lib.path\nlib\0submodule.docs.path\ndocs\0", "")));
+            one(commandExecutor).run(LIST_GITLINKS, sourceCodeDirectory); will(returnValue(new CommandResult(0, gitlink(LIB_REVISION, "lib") + gitlink(DOCS_REVISION, "docs"), "")));
+            one(commandExecutor).run(new String[]{GIT_EXE, "submodule", "init"}, sourceCodeDirectory); will(returnValue(new CommandResult(0, "", "")));
+            one(buildLogger).addBuildLogEntry("");
+            one(commandExecutor).run(new String[]{GIT_EXE, "submodule", "update", "--", "lib"}, sourceCodeDirectory); will(returnValue(new CommandResult(128, "", "fatal: could not submodule update")));
+            one(commandExecutor).run(new String[]{GIT_EXE, "submodule", "update", "--", "docs"}, sourceCodeDirectory); will(returnValue(new CommandResult(0, "", "")));
+            one(buildLogger).addBuildLogEntry(with(startsWith("Updated submodule 'docs' to '" + DOCS_REVISION + "' in ")));
+        }});
+
+        try {
+            submoduleCommand(null).update(buildLogger);
+            fail("Should throw an IOException");
+        } catch (IOException e) {
+            assertEquals("Could not update submodule 'lib' of '" + sourceCodeDirectory.getAbsolutePath() + "'. git-submodule update: fatal: could not submodule update", e.getMessage());
+        }
+    }
+
+    private GitSubmoduleCommand submoduleCommand(SharedObjectCache sharedObjectCache) {
+        return new ExecutorGitSubmoduleCommand(GIT_EXE, sourceCodeDirectory, commandExecutor, asyncCommandExecutor, revisionResolver, sharedObjectCache);
+    }
+
+    private static String gitlink(String revision, String path) {
+        return "160000 " + revision + " 0\t" + path + "\0";
+    }
+
+    private void checkOut(String path) throws IOException {
+        File gitDirectory = new File(sourceCodeDirectory, path + "/.git");
+        new File(gitDirectory, "refs").mkdirs();
+        write(new File(gitDirectory, "HEAD"), "ref: refs/heads/master\n");
+    }
+
+    /*
+     * Runs each submodule update as it is submitted, so the expectations see them in order.
+     */
+    private static class SameThreadExecutorService extends AbstractExecutorService {
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        public void shutdown() {
+        }
+
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        public boolean isShutdown() {
+            return false;
+        }
+
+        public boolean isTerminated() {
+            return false;
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.delete;
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.write;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import org.jmock.Expectations;
+import org.jmock.integration.junit3.MockObjectTestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+public class ExecutorGitWorktreeCommandTest extends MockObjectTestCase {
+    private static final String GIT_EXE = "git";
+    private static final String REVISION = "ca23c1bc865fbd60b4d0c5dcdb264afd65789026";
+
+    private final CommandExecutor commandExecutor = mock(CommandExecutor.class);
+    private final BuildLogger buildLogger = mock(BuildLogger.class);
+    private File directory;
+    private File repository;
+    private File sourceCodeDirectory;
+    private GitWorktreeCommand worktreeCommand;
+
+    protected void setUp() throws Exception {
+        directory = File.createTempFile("worktrees", "");
+        directory.delete();
+        repository = new File(directory, "repository.git");
+        new File(repository, "refs").mkdirs();
+        write(new File(repository, "HEAD"), "ref: refs/heads/master\n");
+        sourceCodeDirectory = new File(directory, "PLAN-JOB");
+        worktreeCommand = new ExecutorGitWorktreeCommand(GIT_EXE, repository, commandExecutor);
+    }
+
+    protected void tearDown() throws Exception {
+        delete(directory);
+    }
+
+    public void testAddsAWorktreeWithADetachedHead() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Creating worktree '" + sourceCodeDirectory.getAbsolutePath() + "' of '" + repository.getAbsolutePath() + "' at revision '" + REVISION + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "worktree", "add", "--detach", sourceCodeDirectory.getAbsolutePath(), REVISION}, repository); will(returnValue(new CommandResult(0, "", "HEAD is now at ca23c1b")));
+            one(buildLogger).addBuildLogEntry("HEAD is now at ca23c1b");
+        }});
+
+        worktreeCommand.add(buildLogger, sourceCodeDirectory, REVISION);
+    }
+
+    public void testThrowsAnIOExceptionIfTheWorktreeCannotBeAdded() throws IOException {
+        checking(new Expectations() {{
+            one(buildLogger).addBuildLogEntry("Creating worktree '" + sourceCodeDirectory.getAbsolutePath() + "' of '" + repository.getAbsolutePath() + "' at revision '" + REVISION + "'.");
+            one(commandExecutor).run(new String[]{GIT_EXE, "worktree", "add", "--detach", sourceCodeDirectory.getAbsolutePath(), REVISION}, repository); will(returnValue(new CommandResult(128, "", "fatal: '" + sourceCodeDirectory.getAbsolutePath() + "' already exists")));
+        }});
+
+        try {
+            worktreeCommand.add(buildLogger, sourceCodeDirectory, REVISION);
+            fail("Should throw an IOException");
+        } catch (IOException e) {
+            assertEquals("Could not create worktree '" + sourceCodeDirectory.getAbsolutePath() + "'. git-worktree add: fatal: '" + sourceCodeDirectory.getAbsolutePath() + "' already exists", e.getMessage());
+        }
+    }
+
+    public void testPrunesQuietly() throws IOException {
+        checking(new Expectations() {{
+            one(commandExecutor).run(new String[]{GIT_EXE, "worktree", "prune"}, repository); will(returnValue(new CommandResult(0, "", "")));
+        }});
+
+        worktreeCommand.prune(buildLogger);
+    }
+
+    public void testKnowsItsOwnWorktrees() throws IOException {
+        File worktreeGitDirectory = new File(repository, "worktrees/PLAN-JOB");
+        worktreeGitDirectory.mkdirs();
+        write(new File(worktreeGitDirectory, "commondir"), "../..\n");
+        write(new File(sourceCodeDirectory, ".git"), "gitdir: " + worktreeGitDirectory.getAbsolutePath() + "\n");
+
+        assertTrue(worktreeCommand.isWorktree(sourceCodeDirectory));
+        assertTrue(worktreeCommand.isRepository(sourceCodeDirectory));
+    }
+
+    public void testTellsARepositoryOfItsOwnFromAWorktree() throws IOException {
+        new File(sourceCodeDirectory, ".git/refs").mkdirs();
+        write(new File(sourceCodeDirectory, ".git/HEAD"), "ref: refs/heads/master\n");
+
+        assertFalse(worktreeCommand.isWorktree(sourceCodeDirectory));
+        assertTrue(worktreeCommand.isRepository(sourceCodeDirectory));
+    }
+
+    public void testTellsAnEmptyWorkingDirectoryFromARepository() throws IOException {
+        sourceCodeDirectory.mkdirs();
+
+        assertFalse(worktreeCommand.isWorktree(sourceCodeDirectory));
+        assertFalse(worktreeCommand.isRepository(sourceCodeDirectory));
+    }
+}
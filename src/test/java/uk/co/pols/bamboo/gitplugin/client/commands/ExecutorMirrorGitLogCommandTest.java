@@ -0,0 +1,100 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import static uk.co.pols.bamboo.gitplugin.client.commands.StreamOutputAction.streamOutput;
+
+import com.atlassian.bamboo.commit.Commit;
+import org.jmock.Expectations;
+import org.jmock.integration.junit3.MockObjectTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class ExecutorMirrorGitLogCommandTest extends MockObjectTestCase {
+    private static final String GIT_EXE = "git";
+    private static final File MIRROR_DIRECTORY = new File("mirror");
+    private static final String BRANCH = "my-branch";
+    private static final String LAST_REVISION = "deadcafe";
+
+    private final CommandExecutor commandExecutor = mock(CommandExecutor.class);
+    private final RevisionResolver revisionResolver = mock(RevisionResolver.class);
+    private final CommitGraphCache commitGraphs = new CommitGraphCache();
+
+    public void testReadsTheCommitsSinceTheLastBuildFromTheMirror() throws IOException {
+        checking(new Expectations() {{
+            one(commandExecutor).execute(with(equal(new String[]{GIT_EXE, "log", LAST_REVISION + ".." + BRANCH, "-z", "--numstat", NulDelimitedGitLogParser.LOG_FORMAT, "--"})), with(equal(MIRROR_DIRECTORY)), with(any(OutputHandler.class)));
+            will(streamOutput(mostRecentCommitLog));
+        }});
+
+        List<Commit> commits = new ExecutorMirrorGitLogCommand(GIT_EXE, MIRROR_DIRECTORY, BRANCH, LAST_REVISION, commandExecutor, revisionResolver, commitGraphs).extractCommits();
+        assertEquals(1, commits.size());
+    }
+
+    public void testReadsTheLatestCommitIfThereHasNotBeenABuild() throws IOException {
+        checking(new Expectations() {{
+            one(commandExecutor).execute(with(equal(new String[]{GIT_EXE, "log", BRANCH + "~.." + BRANCH, "-z", "--numstat", NulDelimitedGitLogParser.LOG_FORMAT, "--"})), with(equal(MIRROR_DIRECTORY)), with(any(OutputHandler.class)));
+            will(streamOutput(mostRecentCommitLog));
+        }});
+
+        assertEquals(1, new ExecutorMirrorGitLogCommand(GIT_EXE, MIRROR_DIRECTORY, BRANCH, null, commandExecutor, revisionResolver, commitGraphs).extractCommits().size());
+    }
+
+    public void testThrowsAnIOExceptionIfTheMirrorDoesNotKnowTheLastBuiltRevision() throws IOException {
+        checking(new Expectations() {{
+            one(commandExecutor).execute(with(equal(new String[]{GIT_EXE, "log", LAST_REVISION + ".." + BRANCH, "-z", "--numstat", NulDelimitedGitLogParser.LOG_FORMAT, "--"})), with(equal(MIRROR_DIRECTORY)), with(any(OutputHandler.class)));
+            will(streamOutput("", 128, "fatal: bad revision 'deadcafe..my-branch'\n"));
+        }});
+
+        try {
+            new ExecutorMirrorGitLogCommand(GIT_EXE, MIRROR_DIRECTORY, BRANCH, LAST_REVISION, commandExecutor, revisionResolver, commitGraphs).extractCommits();
+            fail("Should throw IOException");
+        } catch (IOException e) {
+            assertEquals("Could not read history of 'my-branch' from mirror '" + MIRROR_DIRECTORY.getAbsolutePath() + "'. git-log: fatal: bad revision 'deadcafe..my-branch'", e.getMessage());
+        }
+    }
+
+    public void testDoesNotRunGitLogWhenTheCommitGraphShowsNothingNew() throws IOException {
+        if (!ScratchRepository.gitAvailable()) {
+            return;
+        }
+        File directory = File.createTempFile("mirror", "");
+        directory.delete();
+        final ScratchRepository mirror = new ScratchRepository(directory);
+        try {
+            final String head = mirror.commit("a", "first");
+            mirror.git("commit-graph", "write", "--reachable");
+            checking(new Expectations() {{
+                one(revisionResolver).resolve(mirror.getDirectory(), "refs/heads/" + BRANCH); will(returnValue(head));
+            }});
+
+            assertTrue(new ExecutorMirrorGitLogCommand(GIT_EXE, mirror.getDirectory(), BRANCH, head, commandExecutor, revisionResolver, commitGraphs).extractCommits().isEmpty());
+        } finally {
+            mirror.delete();
+        }
+    }
+
+    public void testDoesNotRunGitLogWhenTheBranchHasMovedBackToAnOlderCommit() throws IOException {
+        if (!ScratchRepository.gitAvailable()) {
+            return;
+        }
+        File directory = File.createTempFile("mirror", "");
+        directory.delete();
+        final ScratchRepository mirror = new ScratchRepository(directory);
+        try {
+            final String head = mirror.commit("a", "first");
+            final String built = mirror.commit("b", "second");
+            mirror.git("commit-graph", "write", "--reachable");
+            checking(new Expectations() {{
+                one(revisionResolver).resolve(mirror.getDirectory(), "refs/heads/" + BRANCH); will(returnValue(head));
+            }});
+
+            assertTrue(new ExecutorMirrorGitLogCommand(GIT_EXE, mirror.getDirectory(), BRANCH, built, commandExecutor, revisionResolver, commitGraphs).extractCommits().isEmpty());
+        } finally {
+            mirror.delete();
+        }
+    }
+
+    private final String mostRecentCommitLog =
+        "\u000160f6a6cabe727b14897b4d98bca91ce646a07d3d\u0000Andy Pols\u00002008-03-13 01:27:52 +0000\u0000" +
+            "Initial plugin - just Adds Git to the repository dropdown... does not actually do anything just yet!\n\u0000\u0000";
+}
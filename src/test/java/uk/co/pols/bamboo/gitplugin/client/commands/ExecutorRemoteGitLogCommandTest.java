@@ -1,6 +1,9 @@
 package uk.co.pols.bamboo.gitplugin.client.commands;
 
+import static uk.co.pols.bamboo.gitplugin.client.commands.StreamOutputAction.streamOutput;
+
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
 
 import com.atlassian.bamboo.commit.Commit;
@@ -19,14 +22,30 @@ public class ExecutorRemoteGitLogCommandTest extends MockObjectTestCase {
         GitLogCommand gitLogCommand = new ExecutorRemoteGitLogCommand(REPO_URL, BRANCH, LAST_REVISION, commandExecutor);
 
         checking(new Expectations() {{
-            one(commandExecutor).execute(new String[] {"ssh", "git@foo.com", "git", "--git-dir=/srv/git/bar.git", "log", LAST_REVISION + ".." + BRANCH, "--numstat", "--date=iso8601"}, new File(System.getProperty("java.io.tmpdir")));
-            will(returnValue(mostRecentCommitLog));
+            one(commandExecutor).execute(with(equal(new String[] {"ssh", "git@foo.com", "git", "--git-dir=/srv/git/bar.git", "log", LAST_REVISION + ".." + BRANCH, "-z", "--numstat", NulDelimitedGitLogParser.LOG_FORMAT})), with(equal(new File(System.getProperty("java.io.tmpdir")))), with(any(OutputHandler.class)));
+            will(streamOutput(mostRecentCommitLog));
         }});
 
         List<Commit> commits = gitLogCommand.extractCommits();
         assertEquals(1, commits.size());
     }
 
+    public void testThrowsAnIOExceptionIfTheRemoteGitLogFails() throws Exception {
+        GitLogCommand gitLogCommand = new ExecutorRemoteGitLogCommand(REPO_URL, BRANCH, LAST_REVISION, commandExecutor);
+
+        checking(new Expectations() {{
+            one(commandExecutor).execute(with(any(String[].class)), with(any(File.class)), with(any(OutputHandler.class)));
+            will(streamOutput("", 255, "ssh: connect to host foo.com port 22: Connection refused\n"));
+        }});
+
+        try {
+            gitLogCommand.extractCommits();
+            fail("Should throw IOException");
+        } catch (IOException e) {
+            assertEquals("Could not read history of '/srv/git/bar.git' over ssh from 'git@foo.com'. git-log: ssh: connect to host foo.com port 22: Connection refused", e.getMessage());
+        }
+    }
+
     public void testExtractCommitsForNonSshRepo() throws Exception {
         GitLogCommand gitLogCommand = new ExecutorRemoteGitLogCommand("git://foo.com/home/user/myrepo", BRANCH, LAST_REVISION, commandExecutor);
         List<Commit> commits = gitLogCommand.extractCommits();
@@ -56,11 +75,7 @@ public class ExecutorRemoteGitLogCommandTest extends MockObjectTestCase {
     }
 
     private final String mostRecentCommitLog =
-        "commit 60f6a6cabe727b14897b4d98bca91ce646a07d3d\n" +
-            "Author: Andy Pols <andy@pols.co.uk>\n" +
-            "Date:   2008-03-13 01:27:52 +0000\n" +
-            "\n" +
-            "    Initial plugin - just Adds Git to the repository dropdown... does not actually do anything just yet!\n" +
-            "\n";
+        "\u000160f6a6cabe727b14897b4d98bca91ce646a07d3d\u0000Andy Pols\u00002008-03-13 01:27:52 +0000\u0000" +
+            "Initial plugin - just Adds Git to the repository dropdown... does not actually do anything just yet!\n\u0000\u0000";
 
 }
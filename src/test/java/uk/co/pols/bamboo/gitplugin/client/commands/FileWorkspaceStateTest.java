@@ -0,0 +1,108 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.delete;
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.write;
+
+import org.jmock.Expectations;
+import org.jmock.integration.junit3.MockObjectTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class FileWorkspaceStateTest extends MockObjectTestCase {
+    private static final String REPOSITORY_URL = "git@github.com:mrowe/git-bamboo-plugin.git";
+    private static final String BRANCH = "master";
+    private static final String REVISION = "ca23c1bc865fbd60b4d0c5dcdb264afd65789026";
+    private static final String OTHER_REVISION = "60f6a6cabe727b14897b4d98bca91ce646a07d3d";
+
+    private final RevisionResolver revisionResolver = mock(RevisionResolver.class);
+    private File workingCopy;
+    private File gitDirectory;
+    private FileWorkspaceState workspaceState;
+
+    protected void setUp() throws Exception {
+        workingCopy = File.createTempFile("workspace-state", "");
+        workingCopy.delete();
+        gitDirectory = new File(workingCopy, ".git");
+        new File(gitDirectory, "refs/heads").mkdirs();
+        write(gitDirectory, "HEAD", "ref: refs/heads/master\n");
+        workspaceState = new FileWorkspaceState(workingCopy, revisionResolver);
+    }
+
+    protected void tearDown() throws Exception {
+        delete(workingCopy);
+    }
+
+    public void testIsAtTheRevisionItRecordedWhileHeadStaysThere() throws IOException {
+        checking(new Expectations() {{
+            one(revisionResolver).resolve(workingCopy, "HEAD"); will(returnValue(REVISION));
+        }});
+
+        workspaceState.record(REPOSITORY_URL, BRANCH, REVISION);
+
+        assertTrue(new File(gitDirectory, FileWorkspaceState.FILE_NAME).isFile());
+        assertTrue(workspaceState.isAt(REPOSITORY_URL, BRANCH, REVISION));
+    }
+
+    public void testIsNotAtTheRevisionOnceHeadHasMoved() throws IOException {
+        checking(new Expectations() {{
+            one(revisionResolver).resolve(workingCopy, "HEAD"); will(returnValue(OTHER_REVISION));
+        }});
+
+        workspaceState.record(REPOSITORY_URL, BRANCH, REVISION);
+
+        assertFalse(workspaceState.isAt(REPOSITORY_URL, BRANCH, REVISION));
+    }
+
+    public void testIsNotAtARevisionOfAnotherBranchOrRepository() throws IOException {
+        workspaceState.record(REPOSITORY_URL, BRANCH, REVISION);
+
+        assertFalse(workspaceState.isAt(REPOSITORY_URL, BRANCH, OTHER_REVISION));
+        assertFalse(workspaceState.isAt(REPOSITORY_URL, "release", REVISION));
+        assertFalse(workspaceState.isAt("git://elsewhere/git-bamboo-plugin.git", BRANCH, REVISION));
+    }
+
+    public void testReplacesTheLastRecord() throws IOException {
+        checking(new Expectations() {{
+            one(revisionResolver).resolve(workingCopy, "HEAD"); will(returnValue(OTHER_REVISION));
+        }});
+
+        workspaceState.record(REPOSITORY_URL, BRANCH, REVISION);
+        workspaceState.record(REPOSITORY_URL, BRANCH, OTHER_REVISION);
+
+        assertFalse(workspaceState.isAt(REPOSITORY_URL, BRANCH, REVISION));
+        assertTrue(workspaceState.isAt(REPOSITORY_URL, BRANCH, OTHER_REVISION));
+    }
+
+    public void testIsNowhereBeforeAnythingIsRecorded() throws IOException {
+        assertFalse(workspaceState.isAt(REPOSITORY_URL, BRANCH, REVISION));
+    }
+
+    public void testKeepsNoRecordForADirectoryThatIsNotARepository() throws IOException {
+        delete(gitDirectory);
+
+        workspaceState.record(REPOSITORY_URL, BRANCH, REVISION);
+
+        assertFalse(workspaceState.isAt(REPOSITORY_URL, BRANCH, REVISION));
+        assertEquals(0, workingCopy.list().length);
+    }
+
+    public void testRemembersTheSparseCheckoutPathsAcrossUpdates() throws IOException {
+        List<String> paths = Arrays.asList("services/billing", "libs/common");
+
+        workspaceState.recordSparsePaths(paths);
+        workspaceState.record(REPOSITORY_URL, BRANCH, REVISION);
+
+        assertTrue(workspaceState.hasSparsePaths(paths));
+        assertFalse(workspaceState.hasSparsePaths(Arrays.asList("services/billing")));
+        assertFalse(workspaceState.hasSparsePaths(Collections.<String>emptyList()));
+    }
+
+    public void testHasTheWholeTreeUntilSparsePathsAreRecorded() throws IOException {
+        assertTrue(workspaceState.hasSparsePaths(Collections.<String>emptyList()));
+        assertFalse(workspaceState.hasSparsePaths(Arrays.asList("services/billing")));
+    }
+}
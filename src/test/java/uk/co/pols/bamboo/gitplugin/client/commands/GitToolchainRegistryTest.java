@@ -0,0 +1,52 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import org.jmock.Expectations;
+import org.jmock.integration.junit3.MockObjectTestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+public class GitToolchainRegistryTest extends MockObjectTestCase {
+    private static final String GIT_EXE = "/usr/bin/git";
+    private static final File TMP_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+    private final GitCommandDiscoverer gitCommandDiscoverer = mock(GitCommandDiscoverer.class);
+    private final CommandExecutor commandExecutor = mock(CommandExecutor.class);
+    private final GitToolchainRegistry registry = new GitToolchainRegistry(gitCommandDiscoverer, commandExecutor);
+
+    public void testDiscoversTheToolchainOnlyOnce() throws IOException {
+        checking(new Expectations() {{
+            one(gitCommandDiscoverer).gitCommand(); will(returnValue(GIT_EXE));
+            one(commandExecutor).execute(new String[]{GIT_EXE, "--version"}, TMP_DIR); will(returnValue("git version 2.39.5\n"));
+        }});
+
+        GitToolchain toolchain = registry.toolchain();
+
+        assertEquals(GIT_EXE, toolchain.getGitExe());
+        assertTrue(toolchain.supportsSparseCheckout());
+        assertSame(toolchain, registry.toolchain());
+    }
+
+    public void testDiscoversTheToolchainAgainAfterAReset() throws IOException {
+        checking(new Expectations() {{
+            exactly(2).of(gitCommandDiscoverer).gitCommand(); will(returnValue(GIT_EXE));
+            exactly(2).of(commandExecutor).execute(new String[]{GIT_EXE, "--version"}, TMP_DIR); will(returnValue("git version 2.39.5\n"));
+        }});
+
+        registry.toolchain();
+        registry.reset();
+        registry.toolchain();
+    }
+
+    public void testAssumesNoOptionalFeaturesIfTheVersionCannotBeRead() throws IOException {
+        checking(new Expectations() {{
+            one(gitCommandDiscoverer).gitCommand(); will(returnValue(GIT_EXE));
+            one(commandExecutor).execute(new String[]{GIT_EXE, "--version"}, TMP_DIR); will(throwException(new IOException("EXPECTED EXCEPTION")));
+        }});
+
+        GitToolchain toolchain = registry.toolchain();
+
+        assertEquals(GIT_EXE, toolchain.getGitExe());
+        assertFalse(toolchain.supportsWorktrees());
+    }
+}
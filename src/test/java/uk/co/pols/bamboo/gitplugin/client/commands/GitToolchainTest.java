@@ -0,0 +1,41 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import junit.framework.TestCase;
+
+public class GitToolchainTest extends TestCase {
+    public void testReadsTheVersionGitReports() {
+        GitToolchain toolchain = GitToolchain.parse("/usr/bin/git", "git version 2.39.5\n");
+
+        assertEquals("/usr/bin/git", toolchain.getGitExe());
+        assertEquals("'/usr/bin/git' (git version 2.39.5)", toolchain.toString());
+        assertTrue(toolchain.isAtLeast(2, 39, 5));
+        assertFalse(toolchain.isAtLeast(2, 39, 6));
+        assertFalse(toolchain.isAtLeast(3, 0, 0));
+    }
+
+    public void testReadsVendorVersions() {
+        assertTrue(GitToolchain.parse("git", "git version 2.41.0.windows.1").isAtLeast(2, 41, 0));
+        assertTrue(GitToolchain.parse("git", "git version 2.37.1 (Apple Git-137.1)").isAtLeast(2, 37, 1));
+        assertTrue(GitToolchain.parse("git", "git version 1.6.0.2").isAtLeast(1, 6, 0));
+    }
+
+    public void testAssumesNoOptionalFeaturesForAnUnknownVersion() {
+        GitToolchain toolchain = GitToolchain.parse("git", "fatal: not a git command");
+
+        assertFalse(toolchain.supportsWorktrees());
+        assertFalse(toolchain.supportsPartialClone());
+        assertFalse(toolchain.supportsSparseCheckout());
+        assertFalse(toolchain.supportsCommitGraph());
+    }
+
+    public void testKnowsWhichVersionsSupportEachFeature() {
+        GitToolchain old = GitToolchain.parse("git", "git version 2.17.1");
+        GitToolchain modern = GitToolchain.parse("git", "git version 2.25.0");
+
+        assertTrue(old.supportsWorktrees());
+        assertFalse(old.supportsPartialClone());
+        assertTrue(modern.supportsPartialClone());
+        assertTrue(modern.supportsSparseCheckout());
+        assertFalse(GitToolchain.parse("git", "git version 2.24.3").supportsSparseCheckout());
+    }
+}
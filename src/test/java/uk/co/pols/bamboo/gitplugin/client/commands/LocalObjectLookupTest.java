@@ -0,0 +1,128 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.delete;
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.git;
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.gitAvailable;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Runs the real git to build scratch repositories, so it is skipped where there is no unix or no git.
+ */
+public class LocalObjectLookupTest extends TestCase {
+    private static final String MISSING = "ca23c1bc865fbd60b4d0c5dcdb264afd65789026";
+
+    private final LocalObjectLookup lookup = new LocalObjectLookup();
+    private File scratch;
+    private File repositoryDirectory;
+
+    protected void setUp() throws Exception {
+        scratch = File.createTempFile("local-object-lookup", "");
+        scratch.delete();
+        repositoryDirectory = new File(scratch, "repository");
+        repositoryDirectory.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        delete(scratch);
+    }
+
+    public void testFindsLooseObjects() throws IOException {
+        if (!gitAvailable()) {
+            return;
+        }
+        ScratchRepository repository = new ScratchRepository(repositoryDirectory);
+        String commit = repository.emptyCommit("loose");
+
+        assertTrue(lookup.hasObject(repositoryDirectory, commit));
+        assertFalse(lookup.hasObject(repositoryDirectory, MISSING));
+    }
+
+    public void testFindsEveryObjectInAPack() throws IOException {
+        if (!gitAvailable()) {
+            return;
+        }
+        ScratchRepository repository = new ScratchRepository(repositoryDirectory);
+        String[] commits = new String[50];
+        for (int i = 0; i < commits.length; i++) {
+            commits[i] = repository.emptyCommit("commit " + i);
+        }
+        repository.git("repack", "-q", "-a", "-d");
+        repository.git("prune-packed");
+
+        for (String commit : commits) {
+            assertTrue(commit, lookup.hasObject(repositoryDirectory, commit));
+        }
+        assertFalse(lookup.hasObject(repositoryDirectory, MISSING));
+    }
+
+    public void testForgetsPacksThatHaveGone() throws IOException {
+        if (!gitAvailable()) {
+            return;
+        }
+        ScratchRepository repository = new ScratchRepository(repositoryDirectory);
+        String first = repository.emptyCommit("first");
+        repository.git("repack", "-q", "-a", "-d");
+        assertTrue(lookup.hasObject(repositoryDirectory, first));
+
+        String second = repository.emptyCommit("second");
+        repository.git("repack", "-q", "-a", "-d");
+        repository.git("prune-packed");
+        assertTrue(lookup.hasObject(repositoryDirectory, first));
+        assertTrue(lookup.hasObject(repositoryDirectory, second));
+        assertEquals(1, lookup.packIndexCount());
+    }
+
+    public void testKeepsNoMorePackIndexesThanTheLimit() throws IOException {
+        if (!gitAvailable()) {
+            return;
+        }
+        LocalObjectLookup smallLookup = new LocalObjectLookup(2);
+        for (int i = 0; i < 3; i++) {
+            ScratchRepository repository = new ScratchRepository(new File(scratch, "repository-" + i));
+            String commit = repository.emptyCommit("packed");
+            repository.git("repack", "-q", "-a", "-d");
+
+            assertTrue(smallLookup.hasObject(repository.getDirectory(), commit));
+        }
+        assertEquals(2, smallLookup.packIndexCount());
+    }
+
+    public void testForgetsThePackIndexesOfDeletedRepositories() throws IOException {
+        if (!gitAvailable()) {
+            return;
+        }
+        ScratchRepository deleted = new ScratchRepository(new File(scratch, "deleted"));
+        String commit = deleted.emptyCommit("packed");
+        deleted.git("repack", "-q", "-a", "-d");
+        assertTrue(lookup.hasObject(deleted.getDirectory(), commit));
+        deleted.delete();
+
+        ScratchRepository repository = new ScratchRepository(repositoryDirectory);
+        commit = repository.emptyCommit("packed");
+        repository.git("repack", "-q", "-a", "-d");
+        assertTrue(lookup.hasObject(repositoryDirectory, commit));
+        assertEquals(1, lookup.packIndexCount());
+    }
+
+    public void testFindsObjectsInAlternates() throws IOException {
+        if (!gitAvailable()) {
+            return;
+        }
+        ScratchRepository repository = new ScratchRepository(repositoryDirectory);
+        String commit = repository.emptyCommit("shared");
+        repository.git("repack", "-q", "-a", "-d");
+        File borrower = new File(scratch, "borrower");
+        git(scratch, "clone", "-q", "--shared", repositoryDirectory.getAbsolutePath(), borrower.getAbsolutePath());
+
+        assertTrue(lookup.hasObject(borrower, commit));
+    }
+
+    public void testKnowsNothingOutsideARepository() throws IOException {
+        assertFalse(lookup.hasObject(repositoryDirectory, MISSING));
+        assertFalse(lookup.hasObject(repositoryDirectory, "not an object name"));
+    }
+}
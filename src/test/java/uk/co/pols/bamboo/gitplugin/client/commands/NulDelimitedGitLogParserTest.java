@@ -0,0 +1,108 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import com.atlassian.bamboo.commit.Commit;
+import junit.framework.TestCase;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class NulDelimitedGitLogParserTest extends TestCase {
+    public void testHandlesAnEmptyLog() throws IOException {
+        NulDelimitedGitLogParser parser = new NulDelimitedGitLogParser();
+
+        assertTrue(parse(parser, "", null).isEmpty());
+        assertNull(parser.getMostRecentCommitDate());
+    }
+
+    public void testReadsEachCommitsDetails() throws IOException {
+        List<Commit> commits = parse(new NulDelimitedGitLogParser(), sampleLog, null);
+
+        assertEquals(3, commits.size());
+        Commit commit = commits.get(0);
+        assertEquals("Andy Pols", commit.getAuthor().getName());
+        assertEquals("Fix a bug\n\nThe message body\n  keeps its indentation\n", commit.getComment());
+        assertEquals(new DateTime(2009, 3, 13, 1, 27, 52, 0, DateTimeZone.UTC).toDate(), commit.getDate());
+    }
+
+    public void testReadsTheFilesChangedByEachCommit() throws IOException {
+        List<Commit> commits = parse(new NulDelimitedGitLogParser(), sampleLog, null);
+
+        Commit commit = commits.get(0);
+        assertEquals(2, commit.getFiles().size());
+        assertEquals("src/main/java/Foo.java", commit.getFiles().get(0).getName());
+        assertEquals("60f6a6cabe727b14897b4d98bca91ce646a07d3d", commit.getFiles().get(0).getRevision());
+        assertEquals("images/logo.png", commit.getFiles().get(1).getName());
+    }
+
+    public void testUsesTheNewPathOfARenamedFile() throws IOException {
+        Commit commit = parse(new NulDelimitedGitLogParser(), sampleLog, null).get(1);
+
+        assertEquals(2, commit.getFiles().size());
+        assertEquals("docs/README", commit.getFiles().get(0).getName());
+        assertEquals("path with\ttab and \u00e9", commit.getFiles().get(1).getName());
+    }
+
+    public void testHandlesACommitWithoutFiles() throws IOException {
+        Commit commit = parse(new NulDelimitedGitLogParser(), sampleLog, null).get(2);
+
+        assertEquals("first commit\n", commit.getComment());
+        assertTrue(commit.getFiles().isEmpty());
+    }
+
+    public void testRemembersTheDateOfTheMostRecentCommit() throws IOException {
+        NulDelimitedGitLogParser parser = new NulDelimitedGitLogParser();
+        parse(parser, sampleLog, null);
+
+        assertEquals("2009-03-13 01:27:52 +0000", parser.getMostRecentCommitDate());
+    }
+
+    public void testSkipsTheCommitMadeAtTheLastRevisionChecked() throws IOException {
+        List<Commit> commits = parse(new NulDelimitedGitLogParser(), sampleLog, "2009-03-13 01:24:44 +0000");
+
+        assertEquals(2, commits.size());
+    }
+
+    public void testReadsFieldsSplitAcrossReads() throws IOException {
+        final byte[] log = sampleLog.getBytes("UTF-8");
+        final List<Commit> commits = new ArrayList<Commit>();
+
+        new NulDelimitedGitLogParser().parse(new ByteArrayInputStream(log) {
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 3));
+            }
+        }, null, new CommitHandler() {
+            public void handle(Commit commit) {
+                commits.add(commit);
+            }
+        });
+
+        assertEquals(3, commits.size());
+        assertEquals("path with\ttab and \u00e9", commits.get(1).getFiles().get(1).getName());
+    }
+
+    private List<Commit> parse(NulDelimitedGitLogParser parser, String log, String lastRevisionChecked) throws IOException {
+        final List<Commit> commits = new ArrayList<Commit>();
+        parser.parse(new ByteArrayInputStream(log.getBytes("UTF-8")), lastRevisionChecked, new CommitHandler() {
+            public void handle(Commit commit) {
+                commits.add(commit);
+            }
+        });
+        return commits;
+    }
+
+    private final String sampleLog =
+            "\u000160f6a6cabe727b14897b4d98bca91ce646a07d3d\u0000Andy Pols\u00002009-03-13 01:27:52 +0000\u0000" +
+                    "Fix a bug\n\nThe message body\n  keeps its indentation\n\u0000\u0000" +
+                    "\n3\t1\tsrc/main/java/Foo.java\u0000" +
+                    "-\t-\timages/logo.png\u0000" +
+                    "\u00010ba53eb47ee4c79612fdf55f072952d8ef80b957\u0000Andy Pols\u00002009-03-13 01:26:14 +0000\u0000" +
+                    "Move things around\n\u0000\u0000" +
+                    "\n0\t0\t\u0000README\u0000docs/README\u0000" +
+                    "1\t0\t\u0000old name\u0000path with\ttab and \u00e9\u0000" +
+                    "\u00011b014a81da79573aa960e7f0b22493da9fdb9310\u0000Andy Pols\u00002009-03-13 01:24:44 +0000\u0000" +
+                    "first commit\n\u0000\u0000";
+}
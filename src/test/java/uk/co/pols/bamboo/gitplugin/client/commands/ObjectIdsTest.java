@@ -0,0 +1,28 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import junit.framework.TestCase;
+
+public class ObjectIdsTest extends TestCase {
+    private static final String SHA1 = "ca23c1bc865fbd60b4d0c5dcdb264afd65789026";
+    private static final String SHA256 = "0a1b2c3d4e5f60718293a4b5c6d7e8f90a1b2c3d4e5f60718293a4b5c6d7e8f9";
+
+    public void testParsesAndPrintsFullObjectNames() {
+        assertEquals(SHA1, ObjectIds.toHex(ObjectIds.parse(SHA1)));
+        assertEquals(SHA256, ObjectIds.toHex(ObjectIds.parse(SHA256)));
+        assertEquals(SHA1, ObjectIds.toHex(ObjectIds.parse(SHA1.toUpperCase())));
+    }
+
+    public void testParsesNothingButAFullObjectName() {
+        assertTrue(ObjectIds.isObjectName(SHA1));
+        assertFalse(ObjectIds.isObjectName("refs/heads/master"));
+
+        assertNull(ObjectIds.parse(null));
+        assertNull(ObjectIds.parse("ca23c1b"));
+        assertNull(ObjectIds.parse("refs/heads/master"));
+        assertNull(ObjectIds.parse("xa23c1bc865fbd60b4d0c5dcdb264afd65789026"));
+    }
+
+    public void testPrintsEachByteAsTwoDigits() {
+        assertEquals("00ff7f80", ObjectIds.toHex(new byte[]{0, (byte) 0xff, 0x7f, (byte) 0x80}));
+    }
+}
@@ -0,0 +1,210 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import junit.framework.TestCase;
+import org.apache.tools.ant.taskdefs.condition.Os;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs real (unix) processes, so it is skipped anywhere else.
+ */
+public class ProcessBuilderCommandExecutorTest extends TestCase {
+    private static final File TMP_DIR = new File(System.getProperty("java.io.tmpdir"));
+
+    private final Properties timeouts = new Properties();
+    private final ProcessBuilderCommandExecutor executor = new ProcessBuilderCommandExecutor(new CommandTimeouts(timeouts));
+    private final CountDownLatch startedCommands = new CountDownLatch(1);
+
+    protected void tearDown() throws Exception {
+        executor.shutdown();
+    }
+
+    public void testKeepsOutputAndErrorOutputApartAndReturnsTheExitCode() throws IOException {
+        if (!Os.isFamily(Os.FAMILY_UNIX)) {
+            return;
+        }
+        CommandResult result = executor.run(sh("echo out; echo err >&2; exit 3"), TMP_DIR);
+
+        assertEquals(3, result.getExitCode());
+        assertFalse(result.isSuccessful());
+        assertEquals("out\n", result.getOutput());
+        assertEquals("err\n", result.getErrorOutput());
+    }
+
+    public void testReturnsOutputAndErrorOutputTogether() throws IOException {
+        if (!Os.isFamily(Os.FAMILY_UNIX)) {
+            return;
+        }
+        assertEquals("out\nerr\n", executor.execute(sh("echo out; echo err >&2"), TMP_DIR));
+    }
+
+    public void testDoesNotBlockWhenACommandWritesLotsOfErrorOutput() throws IOException {
+        if (!Os.isFamily(Os.FAMILY_UNIX)) {
+            return;
+        }
+        CommandResult result = executor.run(sh("i=0; while [ $i -lt 20000 ]; do echo 'some progress on standard error' >&2; i=$((i+1)); done; echo done"), TMP_DIR);
+
+        assertEquals("done\n", result.getOutput());
+        assertEquals(20000 * "some progress on standard error\n".length(), result.getErrorOutput().length());
+    }
+
+    public void testWritesOutputAndErrorOutputToTheirStreams() throws IOException {
+        if (!Os.isFamily(Os.FAMILY_UNIX)) {
+            return;
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteArrayOutputStream errorOutput = new ByteArrayOutputStream();
+
+        assertEquals(2, executor.run(sh("echo out; echo err >&2; exit 2"), TMP_DIR, output, errorOutput));
+        assertEquals("out\n", output.toString("UTF-8"));
+        assertEquals("err\n", errorOutput.toString("UTF-8"));
+    }
+
+    public void testStreamsOutputToTheHandler() throws IOException {
+        if (!Os.isFamily(Os.FAMILY_UNIX)) {
+            return;
+        }
+        final StringBuilder streamed = new StringBuilder();
+        CommandResult result = executor.execute(sh("echo streamed; echo err >&2"), TMP_DIR, new OutputHandler() {
+            public void handle(InputStream output) throws IOException {
+                int b;
+                while ((b = output.read()) != -1) {
+                    streamed.append((char) b);
+                }
+            }
+        });
+
+        assertEquals("streamed\n", streamed.toString());
+        assertEquals("", result.getOutput());
+        assertEquals("err\n", result.getErrorOutput());
+        assertTrue(result.isSuccessful());
+    }
+
+    public void testKillsACommandThatRunsPastItsDeadline() throws IOException {
+        if (!Os.isFamily(Os.FAMILY_UNIX)) {
+            return;
+        }
+        timeouts.setProperty("GIT_TIMEOUT_SH", "1");
+        long started = System.currentTimeMillis();
+
+        try {
+            executor.run(sh("sleep 20 & sleep 20"), TMP_DIR);
+            fail("Should throw GitCommandTimeoutException");
+        } catch (GitCommandTimeoutException e) {
+            assertEquals(1000, e.getTimeoutMillis());
+            assertTrue(System.currentTimeMillis() - started < 10000);
+        }
+    }
+
+    public void testKillsAGitCommandThatRunsPastTheDeadlineForItsSubCommand() throws IOException {
+        if (!Os.isFamily(Os.FAMILY_UNIX)) {
+            return;
+        }
+        File git = File.createTempFile("git", "");
+        try {
+            OutputStream script = new FileOutputStream(git);
+            try {
+                script.write("#!/bin/sh\nsleep 20 &\nwait\n".getBytes("UTF-8"));
+            } finally {
+                script.close();
+            }
+            assertTrue(git.setExecutable(true));
+            timeouts.setProperty("GIT_TIMEOUT_FETCH", "1");
+            long started = System.currentTimeMillis();
+
+            try {
+                executor.run(new String[]{git.getAbsolutePath(), "-c", "protocol.version=2", "fetch", "origin"}, TMP_DIR);
+                fail("Should throw GitCommandTimeoutException");
+            } catch (GitCommandTimeoutException e) {
+                assertEquals(1000, e.getTimeoutMillis());
+                assertTrue(System.currentTimeMillis() - started < 10000);
+            }
+        } finally {
+            git.delete();
+        }
+    }
+
+    public void testKillsACommandWhenTheThreadWaitingForItIsInterrupted() throws Exception {
+        if (!Os.isFamily(Os.FAMILY_UNIX)) {
+            return;
+        }
+        final IOException[] failure = new IOException[1];
+        Thread waiting = new Thread() {
+            public void run() {
+                try {
+                    executor.run(sh("sleep 20 & echo started; wait"), TMP_DIR, startedOutput(), new ByteArrayOutputStream());
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        long started = System.currentTimeMillis();
+        waiting.start();
+        assertTrue(startedCommands.await(10, TimeUnit.SECONDS));
+
+        waiting.interrupt();
+        waiting.join(10000);
+
+        assertFalse(waiting.isAlive());
+        assertTrue(String.valueOf(failure[0]), failure[0] instanceof InterruptedIOException);
+        assertTrue(System.currentTimeMillis() - started < 10000);
+    }
+
+    public void testShuttingDownKillsRunningCommandsAndRefusesNewOnes() throws Exception {
+        if (!Os.isFamily(Os.FAMILY_UNIX)) {
+            return;
+        }
+        final IOException[] failure = new IOException[1];
+        Thread running = new Thread() {
+            public void run() {
+                try {
+                    executor.run(sh("sleep 20 & echo started; wait"), TMP_DIR, startedOutput(), new ByteArrayOutputStream());
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        long started = System.currentTimeMillis();
+        running.start();
+        assertTrue(startedCommands.await(10, TimeUnit.SECONDS));
+
+        executor.shutdown();
+        running.join(10000);
+
+        assertFalse(running.isAlive());
+        assertNull(String.valueOf(failure[0]), failure[0]);
+        assertTrue(System.currentTimeMillis() - started < 10000);
+        try {
+            executor.run(sh("echo too late"), TMP_DIR);
+            fail("Should throw IOException");
+        } catch (IOException e) {
+            assertEquals("The git command executor has been shut down", e.getMessage());
+        }
+    }
+
+    /*
+     * Counts down startedCommands once the command writes anything, which the scripts do once their children are
+     * running, so killing the command is known to kill those too.
+     */
+    private OutputStream startedOutput() {
+        return new ByteArrayOutputStream() {
+            public synchronized void write(byte[] bytes, int offset, int length) {
+                super.write(bytes, offset, length);
+                startedCommands.countDown();
+            }
+        };
+    }
+
+    private String[] sh(String script) {
+        return new String[]{"sh", "-c", script};
+    }
+}
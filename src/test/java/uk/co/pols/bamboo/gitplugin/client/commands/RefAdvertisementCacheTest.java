@@ -0,0 +1,118 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RefAdvertisementCacheTest extends TestCase {
+    private static final String REPO = "repo";
+    private static final RefAdvertisement REFS = new RefAdvertisement(Collections.singletonMap("refs/heads/master", "ca23c1bc865fbd60b4d0c5dcdb264afd65789026"), "");
+
+    private final AtomicInteger listings = new AtomicInteger();
+
+    public void testReusesAListingWithinItsTimeToLive() throws IOException {
+        RefAdvertisementCache cache = new RefAdvertisementCache(60000);
+
+        assertSame(REFS, cache.get(REPO, lsRemote(REFS)));
+        assertSame(REFS, cache.get(REPO, lsRemote(REFS)));
+        assertEquals(1, listings.get());
+    }
+
+    public void testListsAgainOnceTheTimeToLiveHasPassed() throws IOException {
+        RefAdvertisementCache cache = new RefAdvertisementCache(0);
+
+        cache.get(REPO, lsRemote(REFS));
+        cache.get(REPO, lsRemote(REFS));
+        assertEquals(2, listings.get());
+    }
+
+    public void testKeepsEachRepositoryUrlSeparate() throws IOException {
+        RefAdvertisementCache cache = new RefAdvertisementCache(60000);
+
+        cache.get(REPO, lsRemote(REFS));
+        cache.get("other repo", lsRemote(REFS));
+        assertEquals(2, listings.get());
+    }
+
+    public void testDoesNotKeepEmptyListings() throws IOException {
+        RefAdvertisementCache cache = new RefAdvertisementCache(60000);
+        RefAdvertisement failed = RefAdvertisement.parse("fatal: Unable to look up github.com");
+
+        assertSame(failed, cache.get(REPO, lsRemote(failed)));
+        assertSame(REFS, cache.get(REPO, lsRemote(REFS)));
+    }
+
+    public void testDoesNotKeepFailedListings() throws IOException {
+        RefAdvertisementCache cache = new RefAdvertisementCache(60000);
+        final IOException ioException = new IOException("EXPECTED EXCEPTION");
+
+        try {
+            cache.get(REPO, new Callable<RefAdvertisement>() {
+                public RefAdvertisement call() throws IOException {
+                    throw ioException;
+                }
+            });
+            fail("Should throw IOException");
+        } catch (IOException e) {
+            assertSame(ioException, e);
+        }
+        assertSame(REFS, cache.get(REPO, lsRemote(REFS)));
+    }
+
+    public void testConcurrentCallersShareOneListing() throws Exception {
+        final RefAdvertisementCache cache = new RefAdvertisementCache(60000);
+        final int callers = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch calling = new CountDownLatch(callers);
+        final CountDownLatch releaseListing = new CountDownLatch(1);
+        final RefAdvertisement[] answers = new RefAdvertisement[callers];
+        final Callable<RefAdvertisement> slowLsRemote = new Callable<RefAdvertisement>() {
+            public RefAdvertisement call() throws Exception {
+                listings.incrementAndGet();
+                releaseListing.await();
+                return REFS;
+            }
+        };
+
+        Thread[] threads = new Thread[callers];
+        for (int i = 0; i < callers; i++) {
+            final int caller = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        calling.countDown();
+                        answers[caller] = cache.get(REPO, slowLsRemote);
+                    } catch (Exception e) {
+                        // leaves the answer null, which fails the test
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        calling.await();
+        releaseListing.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, listings.get());
+        for (RefAdvertisement answer : answers) {
+            assertSame(REFS, answer);
+        }
+    }
+
+    private Callable<RefAdvertisement> lsRemote(final RefAdvertisement refs) {
+        return new Callable<RefAdvertisement>() {
+            public RefAdvertisement call() {
+                listings.incrementAndGet();
+                return refs;
+            }
+        };
+    }
+}
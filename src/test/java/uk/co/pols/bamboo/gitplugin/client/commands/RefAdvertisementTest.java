@@ -0,0 +1,40 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Map;
+
+public class RefAdvertisementTest extends TestCase {
+    private static final String MASTER_SHA = "1cc17a8203f7c5c82e89ae5f687d12b7be65951e";
+    private static final String FEATURE_SHA = "ca23c1bc865fbd60b4d0c5dcdb264afd65789026";
+    private static final String TAG_SHA = "60f6a6cabe727b14897b4d98bca91ce646a07d3d";
+
+    private final RefAdvertisement refs = RefAdvertisement.parse(
+            MASTER_SHA + "\tHEAD\n" +
+            MASTER_SHA + "\trefs/heads/master\n" +
+            FEATURE_SHA + "\trefs/heads/feature\n" +
+            TAG_SHA + "\trefs/tags/release-1.0\n");
+
+    public void testResolvesBranchesTagsAndFullRefNames() {
+        assertEquals(MASTER_SHA, refs.getRevision("master"));
+        assertEquals(FEATURE_SHA, refs.getRevision("refs/heads/feature"));
+        assertEquals(TAG_SHA, refs.getRevision("release-1.0"));
+        assertNull(refs.getRevision("missing"));
+    }
+
+    public void testKeepsAnyOutputThatIsNotARef() {
+        RefAdvertisement failed = RefAdvertisement.parse("fatal: Unable to look up github.com\n");
+
+        assertTrue(failed.isEmpty());
+        assertEquals("fatal: Unable to look up github.com", failed.getUnparsedOutput());
+    }
+
+    public void testResolvesManyBranchesAtOnceLeavingOutUnknownOnes() {
+        Map<String, String> revisions = refs.getRevisions(Arrays.asList("master", "feature", "missing"));
+
+        assertEquals(2, revisions.size());
+        assertEquals(MASTER_SHA, revisions.get("master"));
+        assertEquals(FEATURE_SHA, revisions.get("feature"));
+    }
+}
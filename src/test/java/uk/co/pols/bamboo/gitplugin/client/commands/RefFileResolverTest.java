@@ -0,0 +1,166 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.delete;
+import static uk.co.pols.bamboo.gitplugin.client.commands.ScratchRepository.write;
+
+import org.jmock.Expectations;
+import org.jmock.integration.junit3.MockObjectTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class RefFileResolverTest extends MockObjectTestCase {
+    private static final String MASTER = "ca23c1bc865fbd60b4d0c5dcdb264afd65789026";
+    private static final String RELEASE = "60f6a6cabe727b14897b4d98bca91ce646a07d3d";
+    private static final String TAG = "0ba53eb47ee4c79612fdf55f072952d8ef80b957";
+    private static final String TAGGED_COMMIT = "1b014a81da79573aa960e7f0b22493da9fdb9310";
+
+    private final RevisionResolver fallback = mock(RevisionResolver.class);
+    private final RefFileResolver resolver = new RefFileResolver(fallback);
+    private File workingCopy;
+    private File gitDirectory;
+
+    protected void setUp() throws Exception {
+        workingCopy = File.createTempFile("ref-file-resolver", "");
+        workingCopy.delete();
+        gitDirectory = new File(workingCopy, ".git");
+        write(gitDirectory, "HEAD", "ref: refs/heads/master\n");
+        new File(gitDirectory, "refs/heads").mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        delete(workingCopy);
+    }
+
+    public void testReadsALooseRef() throws IOException {
+        write(gitDirectory, "refs/heads/master", MASTER + "\n");
+
+        assertEquals(MASTER, resolver.resolve(workingCopy, "refs/heads/master"));
+    }
+
+    public void testFollowsHeadToTheBranchItIsOn() throws IOException {
+        write(gitDirectory, "refs/heads/master", MASTER + "\n");
+
+        assertEquals(MASTER, resolver.resolve(workingCopy, "HEAD"));
+    }
+
+    public void testReadsADetachedHead() throws IOException {
+        write(gitDirectory, "HEAD", RELEASE + "\n");
+
+        assertEquals(RELEASE, resolver.resolve(workingCopy, "HEAD"));
+    }
+
+    public void testReadsPackedRefsSkippingPeeledTags() throws IOException {
+        write(gitDirectory, "packed-refs", "# pack-refs with: peeled fully-peeled sorted \n" +
+                MASTER + " refs/heads/master\n" +
+                RELEASE + " refs/heads/release\n" +
+                TAG + " refs/tags/v1.0\n" +
+                "^" + TAGGED_COMMIT + "\n");
+
+        assertEquals(MASTER, resolver.resolve(workingCopy, "refs/heads/master"));
+        assertEquals(RELEASE, resolver.resolve(workingCopy, "refs/heads/release"));
+        assertEquals(TAG, resolver.resolve(workingCopy, "refs/tags/v1.0"));
+        assertNull(resolver.resolve(workingCopy, "refs/heads/rel"));
+        assertNull(resolver.resolve(workingCopy, "refs/heads/releases"));
+    }
+
+    public void testPrefersALooseRefToAPackedOne() throws IOException {
+        write(gitDirectory, "packed-refs", "# pack-refs with: peeled fully-peeled sorted \n" + MASTER + " refs/heads/master\n");
+        write(gitDirectory, "refs/heads/master", RELEASE + "\n");
+
+        assertEquals(RELEASE, resolver.resolve(workingCopy, "refs/heads/master"));
+    }
+
+    public void testFindsEveryRefInALargeMappedPackedRefsFile() throws IOException {
+        RefFileResolver mappingResolver = new RefFileResolver(fallback, 0);
+        StringBuilder packed = new StringBuilder("# pack-refs with: peeled fully-peeled sorted \n");
+        for (int i = 0; i < 2000; i++) {
+            packed.append(objectName(i)).append(" refs/heads/branch-").append(10000 + i).append("\n");
+            if (i % 7 == 0) {
+                packed.append("^").append(objectName(i + 1)).append("\n");
+            }
+        }
+        write(gitDirectory, "packed-refs", packed.toString());
+
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(objectName(i), mappingResolver.resolve(workingCopy, "refs/heads/branch-" + (10000 + i)));
+        }
+        assertNull(mappingResolver.resolve(workingCopy, "refs/heads/branch-09999"));
+        assertNull(mappingResolver.resolve(workingCopy, "refs/heads/branch-12000"));
+    }
+
+    public void testScansPackedRefsThatAreNotSorted() throws IOException {
+        write(gitDirectory, "packed-refs", RELEASE + " refs/heads/release\n" + MASTER + " refs/heads/master\n");
+
+        assertEquals(MASTER, resolver.resolve(workingCopy, "refs/heads/master"));
+    }
+
+    public void testRereadsPackedRefsWhenTheyChange() throws IOException {
+        write(gitDirectory, "packed-refs", "# pack-refs with: peeled fully-peeled sorted \n" + MASTER + " refs/heads/master\n");
+        File packedRefs = new File(gitDirectory, "packed-refs");
+        packedRefs.setLastModified(System.currentTimeMillis() - 60000);
+        assertEquals(MASTER, resolver.resolve(workingCopy, "refs/heads/master"));
+
+        write(gitDirectory, "packed-refs", "# pack-refs with: peeled fully-peeled sorted \n" + RELEASE + " refs/heads/master\n");
+        packedRefs.setLastModified(System.currentTimeMillis() - 30000);
+        assertEquals(RELEASE, resolver.resolve(workingCopy, "refs/heads/master"));
+    }
+
+    public void testReadsABareRepository() throws IOException {
+        write(gitDirectory, "refs/heads/master", MASTER + "\n");
+
+        assertEquals(MASTER, resolver.resolve(gitDirectory, "HEAD"));
+    }
+
+    public void testReadsALinkedWorktree() throws IOException {
+        write(gitDirectory, "refs/heads/master", MASTER + "\n");
+        write(gitDirectory, "refs/heads/release", RELEASE + "\n");
+        File worktreeGitDirectory = new File(gitDirectory, "worktrees/release");
+        write(worktreeGitDirectory, "HEAD", "ref: refs/heads/release\n");
+        write(worktreeGitDirectory, "commondir", "../..\n");
+        File worktree = new File(workingCopy, "worktree");
+        write(worktree, ".git", "gitdir: " + worktreeGitDirectory.getAbsolutePath() + "\n");
+
+        assertEquals(RELEASE, resolver.resolve(worktree, "HEAD"));
+        assertEquals(MASTER, resolver.resolve(worktree, "refs/heads/master"));
+    }
+
+    public void testHandsOtherRevisionsToTheFallback() throws IOException {
+        write(gitDirectory, "refs/heads/master", MASTER + "\n");
+
+        checking(new Expectations() {{
+            one(fallback).resolve(workingCopy, "HEAD~1"); will(returnValue(RELEASE));
+            one(fallback).resolveAll(workingCopy, Arrays.asList("master", "HEAD^")); will(returnValue(singleton("master", MASTER)));
+        }});
+
+        assertEquals(RELEASE, resolver.resolve(workingCopy, "HEAD~1"));
+
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        expected.put("master", MASTER);
+        expected.put("refs/heads/master", MASTER);
+        assertEquals(expected, resolver.resolveAll(workingCopy, Arrays.asList("master", "refs/heads/master", "HEAD^", "refs/heads/missing")));
+    }
+
+    public void testHandsEverythingToTheFallbackWhenThereIsNoRepository() throws IOException {
+        final File notARepository = new File(workingCopy, "elsewhere");
+
+        checking(new Expectations() {{
+            one(fallback).resolve(notARepository, "HEAD"); will(returnValue(null));
+        }});
+
+        assertNull(resolver.resolve(notARepository, "HEAD"));
+    }
+
+    private Map<String, String> singleton(String revision, String objectName) {
+        Map<String, String> map = new LinkedHashMap<String, String>();
+        map.put(revision, objectName);
+        return map;
+    }
+
+    private String objectName(int i) {
+        return String.format("%040x", i);
+    }
+}
@@ -0,0 +1,144 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import org.apache.tools.ant.taskdefs.condition.Os;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * A throwaway repository built with the real git, for tests of the code that reads repository files directly, along
+ * with the file helpers those tests share.
+ */
+public class ScratchRepository {
+    private static final CommandExecutor commandExecutor = new ProcessBuilderCommandExecutor(new CommandTimeouts(new Properties()));
+
+    private final File directory;
+
+    public ScratchRepository(File directory) throws IOException {
+        this.directory = directory;
+        directory.mkdirs();
+        git("init", "-q");
+        git("symbolic-ref", "HEAD", "refs/heads/master");
+    }
+
+    /**
+     * @return false where there is no unix or no git, in which case the test should be skipped
+     */
+    public static boolean gitAvailable() {
+        if (!Os.isFamily(Os.FAMILY_UNIX)) {
+            return false;
+        }
+        try {
+            return commandExecutor.run(new String[]{"git", "--version"}, new File(System.getProperty("java.io.tmpdir"))).isSuccessful();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Commits a change to the named file, so commits on different branches can be merged without conflicts.
+     *
+     * @return the new commit
+     */
+    public String commit(String fileName, String message) throws IOException {
+        OutputStream out = new FileOutputStream(new File(directory, fileName), true);
+        try {
+            out.write((message + "\n").getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        git("add", fileName);
+        git("-c", "user.name=Test", "-c", "user.email=test@example.com", "commit", "-q", "-m", message);
+        return head();
+    }
+
+    /**
+     * @return a new commit that changes nothing
+     */
+    public String emptyCommit(String message) throws IOException {
+        git("-c", "user.name=Test", "-c", "user.email=test@example.com", "commit", "-q", "--allow-empty", "-m", message);
+        return head();
+    }
+
+    public String merge(String... branches) throws IOException {
+        String[] arguments = new String[branches.length + 7];
+        arguments[0] = "-c";
+        arguments[1] = "user.name=Test";
+        arguments[2] = "-c";
+        arguments[3] = "user.email=test@example.com";
+        arguments[4] = "merge";
+        arguments[5] = "-q";
+        arguments[6] = "--no-ff";
+        System.arraycopy(branches, 0, arguments, 7, branches.length);
+        git(arguments);
+        return head();
+    }
+
+    public String head() throws IOException {
+        return git("rev-parse", "HEAD").trim();
+    }
+
+    public String git(String... arguments) throws IOException {
+        return git(directory, arguments);
+    }
+
+    /**
+     * Runs git in any directory, failing unless it succeeds.
+     *
+     * @return its output
+     */
+    public static String git(File directory, String... arguments) throws IOException {
+        String[] commandLine = new String[arguments.length + 1];
+        commandLine[0] = "git";
+        System.arraycopy(arguments, 0, commandLine, 1, arguments.length);
+        CommandResult result = commandExecutor.run(commandLine, directory);
+        if (!result.isSuccessful()) {
+            throw new IOException(result.toString());
+        }
+        return result.getOutput();
+    }
+
+    public void delete() {
+        delete(directory);
+    }
+
+    /**
+     * Writes the file, making its directory if need be.
+     */
+    public static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the file at the path under the directory, making its directories if need be.
+     */
+    public static void write(File directory, String path, String content) throws IOException {
+        write(new File(directory, path), content);
+    }
+
+    /**
+     * Deletes the file, or the directory and everything in it.
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,40 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import org.hamcrest.Description;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Plays canned output into the OutputHandler passed to a mocked CommandExecutor.
+ */
+public class StreamOutputAction implements Action {
+    private final String output;
+    private final int exitCode;
+    private final String errorOutput;
+
+    public StreamOutputAction(String output, int exitCode, String errorOutput) {
+        this.output = output;
+        this.exitCode = exitCode;
+        this.errorOutput = errorOutput;
+    }
+
+    public static Action streamOutput(String output) {
+        return new StreamOutputAction(output, 0, "");
+    }
+
+    public static Action streamOutput(String output, int exitCode, String errorOutput) {
+        return new StreamOutputAction(output, exitCode, errorOutput);
+    }
+
+    public Object invoke(Invocation invocation) throws Throwable {
+        OutputHandler outputHandler = (OutputHandler) invocation.getParameter(2);
+        outputHandler.handle(new ByteArrayInputStream(output.getBytes("UTF-8")));
+        return new CommandResult(exitCode, "", errorOutput);
+    }
+
+    public void describeTo(Description description) {
+        description.appendText("streams ").appendValue(output);
+    }
+}
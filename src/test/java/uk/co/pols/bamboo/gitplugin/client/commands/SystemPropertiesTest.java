@@ -0,0 +1,42 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Properties;
+
+public class SystemPropertiesTest extends TestCase {
+    private static final String DIRECTORY = "GIT_SYSTEM_PROPERTIES_TEST_DIR";
+
+    private final Properties settings = new Properties();
+
+    protected void tearDown() {
+        System.clearProperty(DIRECTORY);
+    }
+
+    public void testReadsANumberOrTakesTheDefault() {
+        assertEquals(42, SystemProperties.nonNegativeLong(settings, "GIT_SETTING", 42));
+
+        settings.setProperty("GIT_SETTING", " 7 ");
+        assertEquals(7, SystemProperties.nonNegativeLong(settings, "GIT_SETTING", 42));
+
+        settings.setProperty("GIT_SETTING", "seven");
+        assertEquals(42, SystemProperties.nonNegativeLong(settings, "GIT_SETTING", 42));
+    }
+
+    public void testCountsANegativeNumberAsZero() {
+        settings.setProperty("GIT_SETTING", "-5");
+
+        assertEquals(0, SystemProperties.nonNegativeLong(settings, "GIT_SETTING", 42));
+    }
+
+    public void testHasNoDirectoryUnlessOneIsNamed() {
+        assertNull(SystemProperties.directory(DIRECTORY));
+
+        System.setProperty(DIRECTORY, "  ");
+        assertNull(SystemProperties.directory(DIRECTORY));
+
+        System.setProperty(DIRECTORY, " /var/cache/git ");
+        assertEquals(new File("/var/cache/git"), SystemProperties.directory(DIRECTORY));
+    }
+}
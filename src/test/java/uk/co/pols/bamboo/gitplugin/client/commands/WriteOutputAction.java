@@ -0,0 +1,36 @@
+package uk.co.pols.bamboo.gitplugin.client.commands;
+
+import org.hamcrest.Description;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+
+import java.io.OutputStream;
+
+/**
+ * Writes canned output into the output and error output streams passed to a mocked CommandExecutor.
+ */
+public class WriteOutputAction implements Action {
+    private final String output;
+    private final int exitCode;
+    private final String errorOutput;
+
+    public WriteOutputAction(String output, int exitCode, String errorOutput) {
+        this.output = output;
+        this.exitCode = exitCode;
+        this.errorOutput = errorOutput;
+    }
+
+    public static Action writeOutput(String output, int exitCode, String errorOutput) {
+        return new WriteOutputAction(output, exitCode, errorOutput);
+    }
+
+    public Object invoke(Invocation invocation) throws Throwable {
+        ((OutputStream) invocation.getParameter(2)).write(output.getBytes("UTF-8"));
+        ((OutputStream) invocation.getParameter(3)).write(errorOutput.getBytes("UTF-8"));
+        return exitCode;
+    }
+
+    public void describeTo(Description description) {
+        description.appendText("writes ").appendValue(output).appendText(" and ").appendValue(errorOutput);
+    }
+}